@@ -15,6 +15,7 @@
  */
 package org.lilyproject.tools.import_.json;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -107,6 +108,23 @@ public class RecordScanReader implements EntityReader<RecordScan> {
 
         scan.setCacheBlocks(JsonUtil.getBoolean(node, "cacheBlocks", scan.getCacheBlocks()));
 
+        scan.setParallelism(JsonUtil.getInt(node, "parallelism", scan.getParallelism()));
+
+        scan.setOrdered(JsonUtil.getBoolean(node, "ordered", scan.getOrdered()));
+
+        ArrayNode splitKeysArray = JsonUtil.getArray(node, "splitKeys", null);
+        if (splitKeysArray != null) {
+            byte[][] splitKeys = new byte[splitKeysArray.size()][];
+            for (int i = 0; i < splitKeys.length; i++) {
+                try {
+                    splitKeys[i] = splitKeysArray.get(i).getBinaryValue();
+                } catch (IOException e) {
+                    throw new JsonFormatException("Error reading binary data in splitKeys", e);
+                }
+            }
+            scan.setSplitKeys(splitKeys);
+        }
+
         return scan;
     }
 
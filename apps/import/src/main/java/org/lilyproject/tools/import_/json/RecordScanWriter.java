@@ -84,6 +84,17 @@ public class RecordScanWriter implements EntityWriter<RecordScan> {
 
         node.put("cacheBlocks", scan.getCacheBlocks());
 
+        node.put("parallelism", scan.getParallelism());
+
+        node.put("ordered", scan.getOrdered());
+
+        if (scan.getSplitKeys() != null) {
+            ArrayNode splitKeysArray = node.putArray("splitKeys");
+            for (byte[] splitKey : scan.getSplitKeys()) {
+                splitKeysArray.add(splitKey);
+            }
+        }
+
         return node;
     }
 }
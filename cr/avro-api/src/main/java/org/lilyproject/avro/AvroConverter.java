@@ -43,9 +43,12 @@ import org.lilyproject.repository.api.MutationCondition;
 import org.lilyproject.repository.api.QName;
 import org.lilyproject.repository.api.Record;
 import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.RecordMutationResult;
+import org.lilyproject.repository.api.RecordScan;
 import org.lilyproject.repository.api.RecordType;
 import org.lilyproject.repository.api.RemoteException;
 import org.lilyproject.repository.api.RepositoryException;
+import org.lilyproject.repository.api.ReturnFields;
 import org.lilyproject.repository.api.SchemaId;
 import org.lilyproject.repository.api.Scope;
 import org.lilyproject.repository.api.TableCreateDescriptor;
@@ -95,22 +98,22 @@ public class AvroConverter {
 
     public ByteBuffer convert(Record record, LRepository repository) throws AvroRepositoryException,
             AvroInterruptedException, RepositoryException, InterruptedException {
-        return ByteBuffer.wrap(RecordAsBytesConverter.write(record, repository));
+        return RecordAsBytesConverter.writeToByteBuffer(record, repository);
     }
 
     public ByteBuffer convert(IdRecord idRecord, LRepository repository) throws AvroRepositoryException,
             AvroInterruptedException, RepositoryException, InterruptedException {
-        return ByteBuffer.wrap(RecordAsBytesConverter.writeIdRecord(idRecord, repository));
+        return RecordAsBytesConverter.writeIdRecordToByteBuffer(idRecord, repository);
     }
 
     public Record convertRecord(ByteBuffer recordData, LRepository repository)
             throws RepositoryException, InterruptedException {
-        return RecordAsBytesConverter.read(new DataInputImpl(asArray(recordData)), repository);
+        return RecordAsBytesConverter.read(new DataInputImpl(recordData), repository);
     }
 
     public IdRecord convertIdRecord(ByteBuffer avroIdRecord, LRepository repository)
             throws RepositoryException, InterruptedException {
-        return RecordAsBytesConverter.readIdRecord(new DataInputImpl(asArray(avroIdRecord)), repository);
+        return RecordAsBytesConverter.readIdRecord(new DataInputImpl(avroIdRecord), repository);
     }
 
     public List<AvroMutationCondition> convert(Record parentRecord, List<MutationCondition> conditions,
@@ -180,6 +183,37 @@ public class AvroConverter {
     }
 
 
+    public List<AvroRecordMutationResult> convertMutationResults(List<RecordMutationResult> results,
+            LRepository repository) throws AvroRepositoryException, AvroInterruptedException, RepositoryException,
+            InterruptedException {
+        List<AvroRecordMutationResult> avroResults = new ArrayList<AvroRecordMutationResult>(results.size());
+        for (RecordMutationResult result : results) {
+            if (result.isSuccess()) {
+                // deletes have no resulting record
+                ByteBuffer record = result.getRecord() == null ? null : convert(result.getRecord(), repository);
+                avroResults.add(new AvroRecordMutationResult(record, null));
+            } else {
+                avroResults.add(new AvroRecordMutationResult(null, convert(result.getException())));
+            }
+        }
+        return avroResults;
+    }
+
+    public List<RecordMutationResult> convertAvroMutationResults(List<AvroRecordMutationResult> avroResults,
+            LRepository repository) throws RepositoryException, InterruptedException {
+        List<RecordMutationResult> results = new ArrayList<RecordMutationResult>(avroResults.size());
+        for (AvroRecordMutationResult avroResult : avroResults) {
+            if (avroResult.getException() != null) {
+                results.add(RecordMutationResult.failure(convert(avroResult.getException())));
+            } else if (avroResult.getRecord() == null) {
+                results.add(RecordMutationResult.success(null));
+            } else {
+                results.add(RecordMutationResult.success(convertRecord(avroResult.getRecord(), repository)));
+            }
+        }
+        return results;
+    }
+
     public FieldType convert(AvroFieldType avroFieldType, TypeManager typeManager)
             throws RepositoryException, InterruptedException {
         ValueType valueType = convert(avroFieldType.getValueType(), typeManager);
@@ -728,6 +762,80 @@ public class AvroConverter {
         return repository.getIdGenerator().fromBytes(bytes);
     }
 
+    public List<ByteBuffer> convertRecordIds(List<RecordId> recordIds) {
+        List<ByteBuffer> avroRecordIds = new ArrayList<ByteBuffer>(recordIds.size());
+        for (RecordId recordId : recordIds) {
+            avroRecordIds.add(convert(recordId));
+        }
+        return avroRecordIds;
+    }
+
+    public List<RecordId> convertAvroRecordIdList(List<ByteBuffer> avroRecordIds, LRepository repository) {
+        List<RecordId> recordIds = new ArrayList<RecordId>(avroRecordIds.size());
+        for (ByteBuffer avroRecordId : avroRecordIds) {
+            recordIds.add(convertAvroRecordId(avroRecordId, repository));
+        }
+        return recordIds;
+    }
+
+    /**
+     * Converts a scan to be run by the Lily server. Record filters can not be transported over Avro, the
+     * parallelism and split keys of the scan are not transported: the server runs an ordered scan.
+     */
+    public AvroRecordScan convert(RecordScan scan) {
+        if (scan.getRecordFilter() != null) {
+            throw new IllegalArgumentException("Scans with a record filter can not be run on the Lily server.");
+        }
+        AvroRecordScan avroScan = new AvroRecordScan();
+        avroScan.setStartRecordId(convert(scan.getStartRecordId()));
+        avroScan.setStopRecordId(convert(scan.getStopRecordId()));
+        avroScan.setRawStartRecordId(scan.getRawStartRecordId() == null ? null
+                : ByteBuffer.wrap(scan.getRawStartRecordId()));
+        avroScan.setRawStopRecordId(scan.getRawStopRecordId() == null ? null
+                : ByteBuffer.wrap(scan.getRawStopRecordId()));
+
+        ReturnFields returnFields = scan.getReturnFields() != null ? scan.getReturnFields() : ReturnFields.ALL;
+        avroScan.setReturnFieldsType(AvroReturnFieldsType.values()[returnFields.getType().ordinal()]);
+        if (returnFields.getType() == ReturnFields.Type.ENUM) {
+            List<AvroQName> avroFields = new ArrayList<AvroQName>(returnFields.getFields().size());
+            for (QName field : returnFields.getFields()) {
+                avroFields.add(convert(field));
+            }
+            avroScan.setReturnFields(avroFields);
+        }
+
+        avroScan.setCaching(scan.getCaching());
+        avroScan.setCacheBlocks(scan.getCacheBlocks());
+        return avroScan;
+    }
+
+    public RecordScan convert(AvroRecordScan avroScan, LRepository repository) {
+        RecordScan scan = new RecordScan();
+        if (avroScan.getStartRecordId() != null) {
+            scan.setStartRecordId(convertAvroRecordId(avroScan.getStartRecordId(), repository));
+        }
+        if (avroScan.getStopRecordId() != null) {
+            scan.setStopRecordId(convertAvroRecordId(avroScan.getStopRecordId(), repository));
+        }
+        if (avroScan.getRawStartRecordId() != null) {
+            scan.setRawStartRecordId(asArray(avroScan.getRawStartRecordId()));
+        }
+        if (avroScan.getRawStopRecordId() != null) {
+            scan.setRawStopRecordId(asArray(avroScan.getRawStopRecordId()));
+        }
+
+        ReturnFields.Type returnFieldsType = ReturnFields.Type.values()[avroScan.getReturnFieldsType().ordinal()];
+        if (returnFieldsType == ReturnFields.Type.ENUM) {
+            scan.setReturnFields(new ReturnFields(convert(avroScan.getReturnFields())));
+        } else {
+            scan.setReturnFields(new ReturnFields(returnFieldsType));
+        }
+
+        scan.setCaching(avroScan.getCaching());
+        scan.setCacheBlocks(avroScan.getCacheBlocks());
+        return scan;
+    }
+
     public Set<RecordId> convertAvroRecordIds(List<String> avroRecordIds, LRepository repository) {
         Set<RecordId> recordIds = new HashSet<RecordId>();
         for (String avroRecordId : avroRecordIds) {
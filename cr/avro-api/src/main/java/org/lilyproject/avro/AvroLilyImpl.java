@@ -17,19 +17,29 @@ package org.lilyproject.avro;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.ngdata.lily.security.hbase.client.AuthorizationContext;
 import org.apache.avro.AvroRemoteException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.lilyproject.indexer.Indexer;
 import org.lilyproject.indexer.IndexerException;
 import org.lilyproject.repository.api.LRepository;
 import org.lilyproject.repository.api.LTable;
 import org.lilyproject.repository.api.Record;
 import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.RecordScanner;
 import org.lilyproject.repository.api.RepositoryException;
 import org.lilyproject.repository.api.RepositoryManager;
 import org.lilyproject.repository.api.RepositoryTable;
@@ -37,19 +47,54 @@ import org.lilyproject.repository.api.TableManager;
 import org.lilyproject.repository.api.TypeBucket;
 import org.lilyproject.repository.api.TypeManager;
 import org.lilyproject.repository.spi.AuthorizationContextHolder;
+import org.lilyproject.util.concurrent.CustomThreadFactory;
 
 public class AvroLilyImpl implements AvroLily {
+    private final Log log = LogFactory.getLog(getClass());
+
+    /** Scanners which are not used for this long (in ms) are closed. */
+    public static final long SCANNER_TIMEOUT = 60000;
+
+    /** The maximum number of records returned by one {@link #scannerNext} call. */
+    public static final int MAX_SCANNER_BATCH = 1000;
 
     private final RepositoryManager repositoryManager;
     private final TypeManager typeManager;
     private final Indexer indexer;
     private AvroConverter converter;
+    private final ConcurrentMap<Long, ScannerSession> scanners = new ConcurrentHashMap<Long, ScannerSession>();
+    private final SecureRandom random = new SecureRandom();
+    private final ScheduledExecutorService scannerReaper;
 
     public AvroLilyImpl(RepositoryManager repositoryManager, TypeManager typeManager, Indexer indexer) {
         this.repositoryManager = repositoryManager;
         this.indexer = indexer;
         this.typeManager = typeManager;
         this.converter = new AvroConverter();
+
+        scannerReaper = Executors.newSingleThreadScheduledExecutor(
+                new CustomThreadFactory("avro-scanner-reaper", null, true));
+        scannerReaper.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    closeExpiredScanners(System.currentTimeMillis());
+                } catch (Throwable t) {
+                    // a failing run would cancel the later ones
+                    log.error("Error closing expired scanners.", t);
+                }
+            }
+        }, SCANNER_TIMEOUT / 2, SCANNER_TIMEOUT / 2, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops closing expired scanners and closes the scanners which are still open.
+     */
+    public void stop() {
+        scannerReaper.shutdownNow();
+        for (Long scannerId : scanners.keySet()) {
+            closeScanner(scannerId);
+        }
     }
 
     @VisibleForTesting
@@ -143,6 +188,187 @@ public class AvroLilyImpl implements AvroLily {
         }
     }
 
+    @Override
+    public List<AvroRecordMutationResult> createBatch(AvroAuthzContext authzContext, List<ByteBuffer> records,
+            String repositoryName, String tableName) throws AvroRepositoryException, AvroInterruptedException {
+        try {
+            AuthorizationContextHolder.setCurrentContext(converter.convert(authzContext));
+            LRepository repository = repositoryManager.getRepository(repositoryName);
+            LTable table = repository.getTable(tableName);
+            return converter.convertMutationResults(table.create(converter.convertAvroRecords(records, repository)),
+                    repository);
+        } catch (RepositoryException e) {
+            throw converter.convert(e);
+        } catch (InterruptedException e) {
+            throw converter.convert(e);
+        } finally {
+            AuthorizationContextHolder.clearContext();
+        }
+    }
+
+    @Override
+    public List<AvroRecordMutationResult> updateBatch(AvroAuthzContext authzContext, List<ByteBuffer> records,
+            String repositoryName, String tableName, boolean updateVersion, boolean useLatestRecordType)
+            throws AvroRepositoryException, AvroInterruptedException {
+        try {
+            AuthorizationContextHolder.setCurrentContext(converter.convert(authzContext));
+            LRepository repository = repositoryManager.getRepository(repositoryName);
+            LTable table = repository.getTable(tableName);
+            return converter.convertMutationResults(table.update(converter.convertAvroRecords(records, repository),
+                    updateVersion, useLatestRecordType), repository);
+        } catch (RepositoryException e) {
+            throw converter.convert(e);
+        } catch (InterruptedException e) {
+            throw converter.convert(e);
+        } finally {
+            AuthorizationContextHolder.clearContext();
+        }
+    }
+
+    @Override
+    public List<AvroRecordMutationResult> deleteBatch(AvroAuthzContext authzContext, List<ByteBuffer> recordIds,
+            String repositoryName, String tableName) throws AvroRepositoryException, AvroInterruptedException {
+        try {
+            AuthorizationContextHolder.setCurrentContext(converter.convert(authzContext));
+            LRepository repository = repositoryManager.getRepository(repositoryName);
+            LTable table = repository.getTable(tableName);
+            return converter.convertMutationResults(
+                    table.delete(converter.convertAvroRecordIdList(recordIds, repository)), repository);
+        } catch (RepositoryException e) {
+            throw converter.convert(e);
+        } catch (InterruptedException e) {
+            throw converter.convert(e);
+        } finally {
+            AuthorizationContextHolder.clearContext();
+        }
+    }
+
+    @Override
+    public long openScanner(AvroAuthzContext authzContext, AvroRecordScan scan, String repositoryName,
+            String tableName) throws AvroRepositoryException, AvroInterruptedException {
+        try {
+            AuthorizationContext context = converter.convert(authzContext);
+            AuthorizationContextHolder.setCurrentContext(context);
+            LRepository repository = repositoryManager.getRepository(repositoryName);
+            LTable table = repository.getTable(tableName);
+            ScannerSession session = new ScannerSession(table.getScanner(converter.convert(scan, repository)),
+                    repository, context);
+            long scannerId;
+            do {
+                scannerId = random.nextLong();
+            } while (scanners.putIfAbsent(scannerId, session) != null);
+            return scannerId;
+        } catch (RepositoryException e) {
+            throw converter.convert(e);
+        } catch (InterruptedException e) {
+            throw converter.convert(e);
+        } finally {
+            AuthorizationContextHolder.clearContext();
+        }
+    }
+
+    /**
+     * Returns up to count records from the scanner, count being limited to {@link #MAX_SCANNER_BATCH}. When fewer
+     * records are returned, the scanner is exhausted and has been closed.
+     */
+    @Override
+    public List<ByteBuffer> scannerNext(long scannerId, int count)
+            throws AvroRepositoryException, AvroInterruptedException {
+        if (count < 1) {
+            throw converter.convert(new RepositoryException("The number of records to return from scanner "
+                    + scannerId + " should be at least 1, got: " + count));
+        }
+        count = Math.min(count, MAX_SCANNER_BATCH);
+
+        ScannerSession session = scanners.get(scannerId);
+        if (session == null) {
+            throw scannerDoesNotExist(scannerId);
+        }
+        synchronized (session) {
+            if (session.closed) {
+                throw scannerDoesNotExist(scannerId);
+            }
+            session.lastAccess = System.currentTimeMillis();
+            try {
+                AuthorizationContextHolder.setCurrentContext(session.context);
+                List<ByteBuffer> records = new ArrayList<ByteBuffer>(count);
+                while (records.size() < count) {
+                    Record record = session.scanner.next();
+                    if (record == null) {
+                        closeScanner(scannerId);
+                        break;
+                    }
+                    records.add(converter.convert(record, session.repository));
+                }
+                return records;
+            } catch (RepositoryException e) {
+                throw converter.convert(e);
+            } catch (InterruptedException e) {
+                throw converter.convert(e);
+            } finally {
+                AuthorizationContextHolder.clearContext();
+            }
+        }
+    }
+
+    private AvroRepositoryException scannerDoesNotExist(long scannerId) {
+        return converter.convert(new RepositoryException("Scanner " + scannerId + " does not exist, it was "
+                + "closed or it expired."));
+    }
+
+    @Override
+    public Object closeScanner(long scannerId) {
+        ScannerSession session = scanners.remove(scannerId);
+        if (session != null) {
+            session.close();
+        }
+        return null;
+    }
+
+    @VisibleForTesting
+    void closeExpiredScanners(long now) {
+        long expiry = now - SCANNER_TIMEOUT;
+        for (Map.Entry<Long, ScannerSession> entry : scanners.entrySet()) {
+            ScannerSession session = entry.getValue();
+            // waits for a scannerNext call in progress, after which the scanner is no longer expired
+            synchronized (session) {
+                if (session.lastAccess < expiry && scanners.remove(entry.getKey(), session)) {
+                    log.info("Closing scanner " + entry.getKey() + " since it was not used for " + SCANNER_TIMEOUT
+                            + " ms.");
+                    session.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * A scanner opened through {@link #openScanner}, along with what is needed to continue it in later calls.
+     */
+    private static class ScannerSession {
+        private final RecordScanner scanner;
+        private final LRepository repository;
+        private final AuthorizationContext context;
+        private volatile long lastAccess = System.currentTimeMillis();
+        private boolean closed;
+
+        ScannerSession(RecordScanner scanner, LRepository repository, AuthorizationContext context) {
+            this.scanner = scanner;
+            this.repository = repository;
+            this.context = context;
+        }
+
+        /**
+         * Closes the scanner, taking the same lock as {@link #scannerNext} so that it is not closed while it is
+         * being read.
+         */
+        synchronized void close() {
+            if (!closed) {
+                closed = true;
+                scanner.close();
+            }
+        }
+    }
+
     // TODO since this is a pure-read method, the client should do it directly rather than going
     //      over to lily-server.
     @Override
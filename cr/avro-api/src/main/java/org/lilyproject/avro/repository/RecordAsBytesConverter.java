@@ -15,6 +15,7 @@
  */
 package org.lilyproject.avro.repository;
 
+import java.nio.ByteBuffer;
 import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.Map;
@@ -63,6 +64,17 @@ public class RecordAsBytesConverter {
         return output.toByteArray();
     }
 
+    /**
+     * Same as {@link #write(Record, LRepository)}, but returns the bytes without the copy made by
+     * {@link DataOutput#toByteArray()}.
+     */
+    public static final ByteBuffer writeToByteBuffer(Record record, LRepository repository)
+            throws RepositoryException, InterruptedException {
+        DataOutputImpl output = new DataOutputImpl();
+        write(record, output, repository);
+        return output.toByteBuffer();
+    }
+
     public static final void write(Record record, DataOutput output, LRepository repository)
             throws RepositoryException, InterruptedException {
         // Write serialization format version
@@ -216,6 +228,17 @@ public class RecordAsBytesConverter {
         return output.toByteArray();
     }
 
+    /**
+     * Same as {@link #writeIdRecord(IdRecord, LRepository)}, but returns the bytes without the copy made by
+     * {@link DataOutput#toByteArray()}.
+     */
+    public static final ByteBuffer writeIdRecordToByteBuffer(IdRecord record, LRepository repository)
+            throws RepositoryException, InterruptedException {
+        DataOutputImpl output = new DataOutputImpl();
+        writeIdRecord(record, output, repository);
+        return output.toByteBuffer();
+    }
+
     public static final void writeIdRecord(IdRecord record, DataOutput output, LRepository repository)
             throws RepositoryException, InterruptedException {
         write(record, output, repository);
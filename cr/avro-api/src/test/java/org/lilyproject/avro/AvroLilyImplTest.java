@@ -22,6 +22,7 @@ import java.util.Map;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.lilyproject.indexer.Indexer;
@@ -30,13 +31,20 @@ import org.lilyproject.repository.api.LTable;
 import org.lilyproject.repository.api.MutationCondition;
 import org.lilyproject.repository.api.Record;
 import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.RecordMutationResult;
+import org.lilyproject.repository.api.RecordScan;
+import org.lilyproject.repository.api.RecordScanner;
 import org.lilyproject.repository.api.Repository;
 import org.lilyproject.repository.api.RepositoryException;
 import org.lilyproject.repository.api.RepositoryManager;
 import org.lilyproject.repository.api.TypeManager;
 import org.lilyproject.util.hbase.LilyHBaseSchema.Table;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -63,6 +71,11 @@ public class AvroLilyImplTest {
         avroLilyImpl.setAvroConverter(avroConverter);
     }
 
+    @After
+    public void tearDown() {
+        avroLilyImpl.stop();
+    }
+
     @Test
     public void testDelete_WithAttributes() throws Exception {
         ByteBuffer recordIdBytes = mock(ByteBuffer.class);
@@ -113,4 +126,105 @@ public class AvroLilyImplTest {
         avroLilyImpl.delete(null, recordIdBytes, repositoryName, Table.RECORD.name, avroMutationConditions, attributes);
     }
 
+    @Test
+    public void testDeleteBatch() throws Exception {
+        List<ByteBuffer> recordIdBytes = Lists.newArrayList(mock(ByteBuffer.class));
+        List<RecordId> recordIds = Lists.newArrayList(mock(RecordId.class));
+        List<RecordMutationResult> results = Lists.newArrayList(RecordMutationResult.success(null));
+
+        when(avroConverter.convertAvroRecordIdList(recordIdBytes, repository)).thenReturn(recordIds);
+        when(table.delete(recordIds)).thenReturn(results);
+
+        avroLilyImpl.deleteBatch(null, recordIdBytes, repositoryName, Table.RECORD.name);
+
+        verify(table).delete(recordIds);
+        verify(avroConverter).convertMutationResults(results, repository);
+    }
+
+    @Test
+    public void testScanner() throws Exception {
+        AvroRecordScan avroScan = new AvroRecordScan();
+        RecordScan scan = new RecordScan();
+        RecordScanner scanner = mock(RecordScanner.class);
+        Record record1 = mock(Record.class);
+        Record record2 = mock(Record.class);
+
+        when(avroConverter.convert(avroScan, repository)).thenReturn(scan);
+        when(table.getScanner(scan)).thenReturn(scanner);
+        when(scanner.next()).thenReturn(record1, record2, null);
+        when(avroConverter.convert(any(RepositoryException.class))).thenReturn(new AvroRepositoryException());
+
+        long scannerId = avroLilyImpl.openScanner(null, avroScan, repositoryName, Table.RECORD.name);
+
+        assertEquals(1, avroLilyImpl.scannerNext(scannerId, 1).size());
+        assertEquals(1, avroLilyImpl.scannerNext(scannerId, 2).size());
+        verify(avroConverter).convert(record1, repository);
+        verify(avroConverter).convert(record2, repository);
+
+        // the scanner is closed once it is exhausted
+        verify(scanner).close();
+        try {
+            avroLilyImpl.scannerNext(scannerId, 1);
+            fail("Expected an exception for a closed scanner");
+        } catch (AvroRepositoryException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testScannerNextCount() throws Exception {
+        AvroRecordScan avroScan = new AvroRecordScan();
+        RecordScan scan = new RecordScan();
+        RecordScanner scanner = mock(RecordScanner.class);
+        Record record = mock(Record.class);
+
+        when(avroConverter.convert(avroScan, repository)).thenReturn(scan);
+        when(table.getScanner(scan)).thenReturn(scanner);
+        when(scanner.next()).thenReturn(record);
+        when(avroConverter.convert(any(RepositoryException.class))).thenReturn(new AvroRepositoryException());
+
+        long scannerId = avroLilyImpl.openScanner(null, avroScan, repositoryName, Table.RECORD.name);
+
+        for (int count : new int[] {0, -1}) {
+            try {
+                avroLilyImpl.scannerNext(scannerId, count);
+                fail("Expected an exception for count " + count);
+            } catch (AvroRepositoryException e) {
+                // expected
+            }
+        }
+
+        assertEquals(AvroLilyImpl.MAX_SCANNER_BATCH, avroLilyImpl.scannerNext(scannerId, Integer.MAX_VALUE).size());
+        verify(scanner, never()).close();
+    }
+
+    @Test
+    public void testExpiredScannerClosed() throws Exception {
+        AvroRecordScan avroScan = new AvroRecordScan();
+        RecordScan scan = new RecordScan();
+        RecordScanner scanner = mock(RecordScanner.class);
+
+        when(avroConverter.convert(avroScan, repository)).thenReturn(scan);
+        when(table.getScanner(scan)).thenReturn(scanner);
+        when(avroConverter.convert(any(RepositoryException.class))).thenReturn(new AvroRepositoryException());
+
+        long scannerId = avroLilyImpl.openScanner(null, avroScan, repositoryName, Table.RECORD.name);
+
+        avroLilyImpl.closeExpiredScanners(System.currentTimeMillis());
+        verify(scanner, never()).close();
+
+        avroLilyImpl.closeExpiredScanners(System.currentTimeMillis() + AvroLilyImpl.SCANNER_TIMEOUT + 1);
+        verify(scanner).close();
+        try {
+            avroLilyImpl.scannerNext(scannerId, 1);
+            fail("Expected an exception for an expired scanner");
+        } catch (AvroRepositoryException e) {
+            // expected
+        }
+
+        // closing it again is harmless
+        avroLilyImpl.closeScanner(scannerId);
+        verify(scanner).close();
+    }
+
 }
@@ -25,6 +25,7 @@ import java.util.concurrent.ExecutionException;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Lists;
 import org.lilyproject.repository.api.Blob;
 import org.lilyproject.repository.api.BlobAccess;
 import org.lilyproject.repository.api.IdGenerator;
@@ -39,6 +40,7 @@ import org.lilyproject.repository.api.RecordBuilder;
 import org.lilyproject.repository.api.RecordException;
 import org.lilyproject.repository.api.RecordFactory;
 import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.RecordMutationResult;
 import org.lilyproject.repository.api.RecordScan;
 import org.lilyproject.repository.api.RecordScanner;
 import org.lilyproject.repository.api.Repository;
@@ -159,6 +161,38 @@ public class FakeLRepository implements LRepository, Repository {
         throw new UnsupportedOperationException();
     }
 
+    @Override
+    public List<RecordMutationResult> create(List<Record> records) throws RepositoryException, InterruptedException {
+        List<RecordMutationResult> results = Lists.newArrayListWithCapacity(records.size());
+        for (Record record : records) {
+            try {
+                results.add(RecordMutationResult.success(create(record)));
+            } catch (RepositoryException e) {
+                results.add(RecordMutationResult.failure(e));
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public List<RecordMutationResult> update(List<Record> records) throws RepositoryException, InterruptedException {
+        return update(records, false, true);
+    }
+
+    @Override
+    public List<RecordMutationResult> update(List<Record> records, boolean updateVersion, boolean useLatestRecordType)
+            throws RepositoryException, InterruptedException {
+        List<RecordMutationResult> results = Lists.newArrayListWithCapacity(records.size());
+        for (Record record : records) {
+            try {
+                results.add(RecordMutationResult.success(update(record, updateVersion, useLatestRecordType)));
+            } catch (RepositoryException e) {
+                results.add(RecordMutationResult.failure(e));
+            }
+        }
+        return results;
+    }
+
     @Override
     public Record read(RecordId recordId, List<QName> qNames) throws RepositoryException, InterruptedException {
         throw new UnsupportedOperationException();
@@ -209,11 +243,21 @@ public class FakeLRepository implements LRepository, Repository {
         throw new UnsupportedOperationException();
     }
 
+    @Override
+    public RecordScanner getVersionScanner(RecordId recordId, Long aLong, Long aLong2, QName... qNames) throws RepositoryException, InterruptedException {
+        throw new UnsupportedOperationException();
+    }
+
     @Override
     public IdRecord readWithIds(RecordId recordId, Long aLong, List<SchemaId> schemaIds) throws RepositoryException, InterruptedException {
         throw new UnsupportedOperationException();
     }
 
+    @Override
+    public List<IdRecord> readWithIds(List<RecordId> recordIds, List<SchemaId> schemaIds) throws RepositoryException, InterruptedException {
+        throw new UnsupportedOperationException();
+    }
+
     @Override
     public void delete(RecordId recordId) throws RepositoryException, InterruptedException {
         throw new UnsupportedOperationException();
@@ -229,6 +273,21 @@ public class FakeLRepository implements LRepository, Repository {
         throw new UnsupportedOperationException();
     }
 
+    @Override
+    public List<RecordMutationResult> delete(List<RecordId> recordIds)
+            throws RepositoryException, InterruptedException {
+        List<RecordMutationResult> results = Lists.newArrayListWithCapacity(recordIds.size());
+        for (RecordId recordId : recordIds) {
+            try {
+                delete(recordId);
+                results.add(RecordMutationResult.success(null));
+            } catch (RepositoryException e) {
+                results.add(RecordMutationResult.failure(e));
+            }
+        }
+        return results;
+    }
+
     @Override
     public OutputStream getOutputStream(Blob blob) throws RepositoryException, InterruptedException {
         throw new UnsupportedOperationException();
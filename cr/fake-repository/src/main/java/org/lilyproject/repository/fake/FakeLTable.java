@@ -158,6 +158,38 @@ public class FakeLTable implements Repository {
         return update(record);
     }
 
+    @Override
+    public List<RecordMutationResult> create(List<Record> records) throws RepositoryException, InterruptedException {
+        List<RecordMutationResult> results = Lists.newArrayListWithCapacity(records.size());
+        for (Record record : records) {
+            try {
+                results.add(RecordMutationResult.success(create(record)));
+            } catch (RepositoryException e) {
+                results.add(RecordMutationResult.failure(e));
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public List<RecordMutationResult> update(List<Record> records) throws RepositoryException, InterruptedException {
+        return update(records, false, true);
+    }
+
+    @Override
+    public List<RecordMutationResult> update(List<Record> records, boolean updateVersion, boolean useLatestRecordType)
+            throws RepositoryException, InterruptedException {
+        List<RecordMutationResult> results = Lists.newArrayListWithCapacity(records.size());
+        for (Record record : records) {
+            try {
+                results.add(RecordMutationResult.success(update(record, updateVersion, useLatestRecordType)));
+            } catch (RepositoryException e) {
+                results.add(RecordMutationResult.failure(e));
+            }
+        }
+        return results;
+    }
+
     private Record getRecord(RecordId recordId) throws RecordNotFoundException {
         Record record = records.get(recordId);
         if (record == null) {
@@ -217,6 +249,11 @@ public class FakeLTable implements Repository {
         return Lists.newArrayList(read(recordId));
     }
 
+    @Override
+    public RecordScanner getVersionScanner(RecordId recordId, Long aLong, Long aLong2, QName... qNames) throws RepositoryException, InterruptedException {
+        throw new UnsupportedOperationException();
+    }
+
     @Override
     public IdRecord readWithIds(RecordId recordId, Long aLong, List<SchemaId> schemaIds) throws RepositoryException, InterruptedException {
         Record record = getRecord(recordId);
@@ -238,6 +275,17 @@ public class FakeLTable implements Repository {
         return idRecord;
     }
 
+    @Override
+    public List<IdRecord> readWithIds(List<RecordId> recordIds, List<SchemaId> schemaIds) throws RepositoryException, InterruptedException {
+        List<IdRecord> list = Lists.newArrayList();
+        for (RecordId id : recordIds) {
+            if (records.containsKey(id)) {
+                list.add(readWithIds(id, null, schemaIds));
+            }
+        }
+        return list;
+    }
+
     @Override
     public void delete(RecordId recordId) throws RepositoryException, InterruptedException {
         records.remove(recordId);
@@ -253,6 +301,17 @@ public class FakeLTable implements Repository {
         records.remove(record.getId());
     }
 
+    @Override
+    public List<RecordMutationResult> delete(List<RecordId> recordIds)
+            throws RepositoryException, InterruptedException {
+        List<RecordMutationResult> results = Lists.newArrayListWithCapacity(recordIds.size());
+        for (RecordId recordId : recordIds) {
+            delete(recordId);
+            results.add(RecordMutationResult.success(null));
+        }
+        return results;
+    }
+
     @Override
     public OutputStream getOutputStream(Blob blob) throws RepositoryException, InterruptedException {
         throw new UnsupportedOperationException();
@@ -40,7 +40,8 @@ import org.lilyproject.indexer.derefmap.DerefMap;
 import org.lilyproject.indexer.derefmap.DerefMapHbaseImpl;
 import org.lilyproject.indexer.engine.ClassicSolrShardManager;
 import org.lilyproject.indexer.engine.CloudSolrShardManager;
-import org.lilyproject.indexer.engine.IndexLocker;
+import org.lilyproject.indexer.engine.IndexLockProvider;
+import org.lilyproject.indexer.engine.IndexLockProviderFactory;
 import org.lilyproject.indexer.engine.Indexer;
 import org.lilyproject.indexer.engine.IndexerMetrics;
 import org.lilyproject.indexer.engine.SolrClientConfig;
@@ -66,7 +67,7 @@ public class IndexingMapper extends IdRecordMapper<ImmutableBytesWritable, Resul
     private Indexer indexer;
     private String table;
     private ThreadSafeClientConnManager connectionManager;
-    private IndexLocker indexLocker;
+    private IndexLockProvider indexLocker;
     private ZooKeeperItf zk;
     private LilyClient lilyClient;
     private ThreadPoolExecutor executor;
@@ -104,13 +105,17 @@ public class IndexingMapper extends IdRecordMapper<ImmutableBytesWritable, Resul
             boolean enableLocking =
                     Boolean.parseBoolean(jobConf.get("org.lilyproject.indexer.batchbuild.enableLocking"));
 
-            indexLocker = new IndexLocker(zk, enableLocking);
+            String lockProvider = jobConf.get("org.lilyproject.indexer.batchbuild.lockProvider");
+            IndexerMetrics indexerMetrics = new IndexerMetrics(indexName);
+
+            indexLocker = IndexLockProviderFactory.create(lockProvider, indexName, zk, enableLocking,
+                    indexerMetrics);
 
             final DerefMap derefMap = indexerConf.containsDerefExpressions() ?
                     DerefMapHbaseImpl.create(repository.getRepositoryName(), indexName,
                             LilyClient.getHBaseConfiguration(zk), null, repository.getIdGenerator()) : null;
             indexer = new Indexer(indexName, indexerConf, repository, solrShardMgr, indexLocker,
-                    new IndexerMetrics(indexName), derefMap);
+                    indexerMetrics, derefMap);
 
             int workers = getIntProp("org.lilyproject.indexer.batchbuild.threads", 5, jobConf);
 
@@ -190,6 +195,7 @@ public class IndexingMapper extends IdRecordMapper<ImmutableBytesWritable, Resul
             log.error("Executor did not finish outstanding work within the foreseen timeout.");
         }
 
+        Closer.close(indexLocker);
         Closer.close(connectionManager);
         log.info("Shutdown lily client");
         Closer.close(lilyClient);
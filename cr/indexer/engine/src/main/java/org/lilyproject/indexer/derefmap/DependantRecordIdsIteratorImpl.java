@@ -16,6 +16,8 @@
 package org.lilyproject.indexer.derefmap;
 
 import java.io.IOException;
+import java.util.Iterator;
+import java.util.Set;
 
 import org.lilyproject.hbaseindex.QueryResult;
 import org.lilyproject.repository.api.AbsoluteRecordId;
@@ -23,13 +25,19 @@ import org.lilyproject.repository.api.AbsoluteRecordId;
 /**
  * Implementation of {@link org.lilyproject.indexer.derefmap.DependantRecordIdsIterator}.
  *
- *
+ * <p>The dependants found in the not yet flushed updates of a buffered deref map are returned first, followed by the
+ * ones of the query result which were not among them.</p>
  */
 final class DependantRecordIdsIteratorImpl implements DependantRecordIdsIterator {
+    private final Set<AbsoluteRecordId> bufferedDependants;
+    private final Iterator<AbsoluteRecordId> bufferedIterator;
     private final QueryResult queryResult;
     private final DerefMapSerializationUtil serializationUtil;
 
-    DependantRecordIdsIteratorImpl(QueryResult queryResult, DerefMapSerializationUtil serializationUtil) {
+    DependantRecordIdsIteratorImpl(Set<AbsoluteRecordId> bufferedDependants, QueryResult queryResult,
+                                   DerefMapSerializationUtil serializationUtil) {
+        this.bufferedDependants = bufferedDependants;
+        this.bufferedIterator = bufferedDependants.iterator();
         this.queryResult = queryResult;
         this.serializationUtil = serializationUtil;
     }
@@ -42,14 +50,19 @@ final class DependantRecordIdsIteratorImpl implements DependantRecordIdsIterator
     AbsoluteRecordId next = null;
 
     private AbsoluteRecordId getNextFromQueryResult() throws IOException {
-        // the identifier is the record id of the record that depends on the queried record
+        if (bufferedIterator.hasNext()) {
+            return bufferedIterator.next();
+        }
 
-        final byte[] nextIdentifier = queryResult.next();
-        if (nextIdentifier == null) {
-            return null;
-        } else {
-            return serializationUtil.deserializeDependantRecordId(nextIdentifier);
+        // the identifier is the record id of the record that depends on the queried record
+        byte[] nextIdentifier;
+        while ((nextIdentifier = queryResult.next()) != null) {
+            final AbsoluteRecordId dependant = serializationUtil.deserializeDependantRecordId(nextIdentifier);
+            if (!bufferedDependants.contains(dependant)) {
+                return dependant;
+            }
         }
+        return null;
     }
 
     @Override
@@ -41,6 +41,9 @@ public interface DerefMap {
      * vtag. The set of fields for a certain dependency is allowed to be empty, in which case the dependency is simply
      * towards the whole record rather than to a specific field.
      *
+     * <p>Implementations might buffer the update, it is then only guaranteed to be stored after {@link #flush()}.
+     * A buffered update is already taken into account by {@link #findDependantsOf} of the same instance.
+     *
      * @param parentRecordId record id of the record to update dependencies for
      * @param dependantVtagId   vtag of the record to update dependencies for
      * @param newDependantEntries   record ids and vtags on which the given record depends, mapped on all the fields of
@@ -49,6 +52,11 @@ public interface DerefMap {
     void updateDependants(AbsoluteRecordId parentRecordId, final SchemaId dependantVtagId,
                             Map<DependencyEntry, Set<SchemaId>> newDependantEntries) throws IOException;
 
+    /**
+     * Stores the updates which have been buffered by {@link #updateDependants}, if any.
+     */
+    void flush() throws IOException;
+
     /**
      * Find all record ids which depend on one of the given fields of a given record in a given vtag. Both the set of
      * fields and the vtag can be <code>null</code> if you want to ignore filtering on the fields and/or vtag.
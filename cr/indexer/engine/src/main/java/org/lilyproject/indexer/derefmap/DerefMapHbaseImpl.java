@@ -16,8 +16,12 @@
 package org.lilyproject.indexer.derefmap;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -39,7 +43,15 @@ import org.lilyproject.util.hbase.HBaseTableFactory;
 import org.lilyproject.util.io.Closer;
 
 /**
+ * DerefMap stored in two hbaseindex indexes: the forward index maps each dependant on its dependencies, the backward
+ * index maps each dependency on its dependants.
  *
+ * <p>When created in buffered mode (see {@link #create(String, String, Configuration, HBaseTableFactory, IdGenerator,
+ * boolean)}), the updates are kept in memory until {@link #flush()}, which writes them with one multi-delete and two
+ * multi-puts. The forward entries which were written recently are kept in a small cache, so that updating the
+ * dependencies of the same record again does not need to read its forward entry. The backward entries which are
+ * not yet written are also searched by {@link #findDependantsOf}, since the instance can be shared by several
+ * indexing threads.</p>
  */
 public class DerefMapHbaseImpl implements DerefMap {
 
@@ -49,21 +61,62 @@ public class DerefMapHbaseImpl implements DerefMap {
 
     private static final byte[] DUMMY_IDENTIFIER = new byte[]{0};
 
+    /** Number of forward entries kept in the cache of a buffered DerefMap. */
+    public static final int FORWARD_CACHE_SIZE = 1000;
+
+    /** Number of records of which the updates are buffered, when more records are updated the buffer is flushed. */
+    public static final int MAX_BUFFERED_RECORDS = 1000;
+
+    /** Scanner caching for the dependants of a record, which are all read and can be many. */
+    private static final int DEPENDANTS_CACHING = 500;
+
+    /** Marks the backward entries which are to be removed in the buffer. */
+    private static final Set<SchemaId> REMOVED = Collections.unmodifiableSet(new HashSet<SchemaId>());
+
     private Index forwardDerefIndex;
 
     private Index backwardDerefIndex;
 
     private DerefMapSerializationUtil serializationUtil;
 
+    private final boolean buffered;
+
+    /** The dependencies of the buffered forward entries, by record and vtag. */
+    private Map<ForwardKey, Set<DependencyEntry>> forwardBuffer = new LinkedHashMap<ForwardKey, Set<DependencyEntry>>();
+
+    /** The fields of the buffered backward entries, {@link #REMOVED} for the ones to be removed. */
+    private Map<BackwardKey, Set<SchemaId>> backwardBuffer = new LinkedHashMap<BackwardKey, Set<SchemaId>>();
+
+    /** The forward entries which are being written by {@link #flush()}. */
+    private Map<ForwardKey, Set<DependencyEntry>> flushingForwardEntries;
+
+    /** The backward entries which are being written by {@link #flush()}. */
+    private Map<BackwardKey, Set<SchemaId>> flushingBackwardEntries;
+
+    /** The dependencies of the forward entries which were written most recently. */
+    private final Map<ForwardKey, Set<DependencyEntry>> forwardCache =
+            new LinkedHashMap<ForwardKey, Set<DependencyEntry>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<ForwardKey, Set<DependencyEntry>> eldest) {
+                    return size() > FORWARD_CACHE_SIZE;
+                }
+            };
+
+    private final Object bufferLock = new Object();
+
+    private final Object flushLock = new Object();
+
     /**
      * Private constructor. Clients should use static factory methods {@link #delete(String,
      * org.apache.hadoop.conf.Configuration)} and {@link #create(String, Configuration, HBaseTableFactory,
      * IdGenerator)}
      */
     private DerefMapHbaseImpl(final String owningRepoName, final String indexName, final Configuration hbaseConfiguration,
-                              final HBaseTableFactory tableFactory, final IdGenerator idGenerator)
+                              final HBaseTableFactory tableFactory, final IdGenerator idGenerator,
+                              final boolean buffered)
             throws IndexNotFoundException, IOException, InterruptedException {
 
+        this.buffered = buffered;
         this.serializationUtil = new DerefMapSerializationUtil(idGenerator);
 
         final IndexManager indexManager = new IndexManager(hbaseConfiguration, tableFactory);
@@ -100,7 +153,23 @@ public class DerefMapHbaseImpl implements DerefMap {
     public static DerefMap create(final String owningRepoName, final String indexName, final Configuration hbaseConfiguration,
                                   final HBaseTableFactory tableFactory, final IdGenerator idGenerator)
             throws IndexNotFoundException, IOException, InterruptedException {
-        return new DerefMapHbaseImpl(owningRepoName, indexName, hbaseConfiguration, tableFactory, idGenerator);
+        return create(owningRepoName, indexName, hbaseConfiguration, tableFactory, idGenerator, false);
+    }
+
+    /**
+     * Same as {@link #create(String, String, Configuration, HBaseTableFactory, IdGenerator)}, but the updates of
+     * the DerefMap are only written on {@link #flush()} if buffered is true.
+     *
+     * <p>A buffered DerefMap also caches the forward entries it wrote. Since the forward entry of a record could be
+     * updated by another DerefMap in the meantime, the backward entries of all dependencies are written again when
+     * the existing dependencies are taken from the cache.</p>
+     */
+    public static DerefMap create(final String owningRepoName, final String indexName, final Configuration hbaseConfiguration,
+                                  final HBaseTableFactory tableFactory, final IdGenerator idGenerator,
+                                  final boolean buffered)
+            throws IndexNotFoundException, IOException, InterruptedException {
+        return new DerefMapHbaseImpl(owningRepoName, indexName, hbaseConfiguration, tableFactory, idGenerator,
+                buffered);
     }
 
     /**
@@ -131,6 +200,11 @@ public class DerefMapHbaseImpl implements DerefMap {
                                    Map<DependencyEntry, Set<SchemaId>> newDependantEntries)
             throws IOException {
 
+        if (buffered) {
+            bufferDependants(parentRecordId, parentVtagId, newDependantEntries);
+            return;
+        }
+
         final Set<DependencyEntry> existingEntries = findDependencies(parentRecordId, parentVtagId);
 
         // Figure out what changed
@@ -144,11 +218,13 @@ public class DerefMapHbaseImpl implements DerefMap {
         // be found via the forward index.
 
         // delete removed from bwd index
-        for (DependencyEntry removed : removedDependencies) {
-            final IndexEntry backwardEntry =
-                    createBackwardEntry(removed.getDependency(), parentRecordId, parentVtagId, null,
-                            removed.getMoreDimensionedVariants());
-            backwardDerefIndex.removeEntry(backwardEntry);
+        if (!removedDependencies.isEmpty()) {
+            final List<IndexEntry> backwardEntries = new ArrayList<IndexEntry>(removedDependencies.size());
+            for (DependencyEntry removed : removedDependencies) {
+                backwardEntries.add(createBackwardEntry(removed.getDependency(), parentRecordId, parentVtagId, null,
+                        removed.getMoreDimensionedVariants()));
+            }
+            backwardDerefIndex.removeEntries(backwardEntries);
         }
 
         // update fwd index (added and removed at the same time, it is a single row)
@@ -157,12 +233,134 @@ public class DerefMapHbaseImpl implements DerefMap {
         forwardDerefIndex.addEntry(fwdEntry);
 
         // add added to bwd idx
-        for (DependencyEntry added : addedDependencies) {
-            final Set<SchemaId> fields = newDependantEntries.get(added);
-            final IndexEntry backwardEntry =
-                    createBackwardEntry(added.getDependency(), parentRecordId, parentVtagId, fields,
-                            added.getMoreDimensionedVariants());
-            backwardDerefIndex.addEntry(backwardEntry);
+        if (!addedDependencies.isEmpty()) {
+            final List<IndexEntry> backwardEntries = new ArrayList<IndexEntry>(addedDependencies.size());
+            for (DependencyEntry added : addedDependencies) {
+                final Set<SchemaId> fields = newDependantEntries.get(added);
+                backwardEntries.add(createBackwardEntry(added.getDependency(), parentRecordId, parentVtagId, fields,
+                        added.getMoreDimensionedVariants()));
+            }
+            backwardDerefIndex.addEntries(backwardEntries);
+        }
+    }
+
+    private void bufferDependants(AbsoluteRecordId parentRecordId, SchemaId parentVtagId,
+                                  Map<DependencyEntry, Set<SchemaId>> newDependantEntries) throws IOException {
+        final ForwardKey forwardKey = new ForwardKey(parentRecordId, parentVtagId);
+
+        Set<DependencyEntry> existingEntries;
+        boolean cached = false;
+        synchronized (bufferLock) {
+            existingEntries = forwardBuffer.get(forwardKey);
+            if (existingEntries == null && flushingForwardEntries != null) {
+                existingEntries = flushingForwardEntries.get(forwardKey);
+            }
+            if (existingEntries == null) {
+                existingEntries = forwardCache.get(forwardKey);
+                cached = existingEntries != null;
+            }
+        }
+        if (existingEntries == null) {
+            existingEntries = findDependencies(parentRecordId, parentVtagId);
+        }
+
+        final Set<DependencyEntry> newEntries = new HashSet<DependencyEntry>(newDependantEntries.keySet());
+        final Set<DependencyEntry> removedDependencies = figureOutRemovedDependencies(newEntries, existingEntries);
+        // A cached forward entry might be outdated, in which case the backward entries of some of the dependencies
+        // might be missing: write them all, this costs no extra round trip.
+        final Collection<DependencyEntry> addedDependencies =
+                cached ? newEntries : figureOutAddedDependencies(newEntries, existingEntries);
+
+        // The later update of a backward entry replaces the earlier one, so the buffer never contains both the
+        // removal and the addition of the same entry. This way the order in which flush applies the changes is
+        // the same as in the unbuffered case.
+        final boolean flushNeeded;
+        synchronized (bufferLock) {
+            for (DependencyEntry removed : removedDependencies) {
+                backwardBuffer.put(new BackwardKey(removed, parentRecordId, parentVtagId), REMOVED);
+            }
+            forwardBuffer.put(forwardKey, newEntries);
+            for (DependencyEntry added : addedDependencies) {
+                backwardBuffer.put(new BackwardKey(added, parentRecordId, parentVtagId),
+                        newDependantEntries.get(added));
+            }
+            flushNeeded = forwardBuffer.size() >= MAX_BUFFERED_RECORDS;
+        }
+
+        if (flushNeeded) {
+            flush();
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (!buffered) {
+            return;
+        }
+
+        synchronized (flushLock) {
+            final Map<ForwardKey, Set<DependencyEntry>> forwardEntries;
+            final Map<BackwardKey, Set<SchemaId>> backwardEntries;
+            synchronized (bufferLock) {
+                if (forwardBuffer.isEmpty() && backwardBuffer.isEmpty()) {
+                    return;
+                }
+                forwardEntries = forwardBuffer;
+                backwardEntries = backwardBuffer;
+                flushingForwardEntries = forwardEntries;
+                flushingBackwardEntries = backwardEntries;
+                forwardBuffer = new LinkedHashMap<ForwardKey, Set<DependencyEntry>>();
+                backwardBuffer = new LinkedHashMap<BackwardKey, Set<SchemaId>>();
+            }
+
+            boolean success = false;
+            try {
+                final List<IndexEntry> backwardRemovals = new ArrayList<IndexEntry>();
+                final List<IndexEntry> backwardAdditions = new ArrayList<IndexEntry>();
+                for (Map.Entry<BackwardKey, Set<SchemaId>> entry : backwardEntries.entrySet()) {
+                    final BackwardKey key = entry.getKey();
+                    if (entry.getValue() == REMOVED) {
+                        backwardRemovals.add(createBackwardEntry(key.dependency.getDependency(), key.dependant,
+                                key.dependantVtag, null, key.dependency.getMoreDimensionedVariants()));
+                    } else {
+                        backwardAdditions.add(createBackwardEntry(key.dependency.getDependency(), key.dependant,
+                                key.dependantVtag, entry.getValue(), key.dependency.getMoreDimensionedVariants()));
+                    }
+                }
+
+                final List<IndexEntry> forwardAdditions = new ArrayList<IndexEntry>(forwardEntries.size());
+                for (Map.Entry<ForwardKey, Set<DependencyEntry>> entry : forwardEntries.entrySet()) {
+                    forwardAdditions.add(createForwardEntry(entry.getKey().dependant, entry.getKey().dependantVtag,
+                            entry.getValue()));
+                }
+
+                // Same order as in the unbuffered case, see the implementation note in updateDependants
+                if (!backwardRemovals.isEmpty()) {
+                    backwardDerefIndex.removeEntries(backwardRemovals);
+                }
+                if (!forwardAdditions.isEmpty()) {
+                    forwardDerefIndex.addEntries(forwardAdditions);
+                }
+                if (!backwardAdditions.isEmpty()) {
+                    backwardDerefIndex.addEntries(backwardAdditions);
+                }
+                success = true;
+            } finally {
+                synchronized (bufferLock) {
+                    flushingForwardEntries = null;
+                    flushingBackwardEntries = null;
+                    if (success) {
+                        forwardCache.putAll(forwardEntries);
+                    } else {
+                        // Put the updates back in the buffer (the ones which have been written since are
+                        // harmless to write again), unless they have been replaced by a later update.
+                        forwardEntries.putAll(forwardBuffer);
+                        forwardBuffer = forwardEntries;
+                        backwardEntries.putAll(backwardBuffer);
+                        backwardBuffer = backwardEntries;
+                    }
+                }
+            }
         }
     }
 
@@ -244,6 +442,8 @@ public class DerefMapHbaseImpl implements DerefMap {
         final Query query = new Query();
         query.addEqualsCondition("dependant_recordid", parentRecordId.toBytes());
         query.addEqualsCondition("dependant_vtag", vtag.getBytes());
+        // there should be only one entry, reading a second one is enough to detect inconsistencies
+        query.setLimit(2);
 
         final Set<DependencyEntry> result;
 
@@ -274,6 +474,7 @@ public class DerefMapHbaseImpl implements DerefMap {
         final RecordId master = parentRecordId.getRecordId().getMaster();
 
         final Query query = new Query();
+        query.setCaching(DEPENDANTS_CACHING);
         query.addEqualsCondition("dependency_masterrecordid", master.toBytes());
         if (vtag != null) {
             query.addEqualsCondition("dependant_vtag", vtag.getBytes());
@@ -281,7 +482,52 @@ public class DerefMapHbaseImpl implements DerefMap {
 
         query.setIndexFilter(new DerefMapIndexFilter(parentRecordId.getRecordId().getVariantProperties(), fields));
 
-        return new DependantRecordIdsIteratorImpl(backwardDerefIndex.performQuery(query), this.serializationUtil);
+        final Set<AbsoluteRecordId> bufferedDependants = findBufferedDependantsOf(parentRecordId, fields, vtag);
+
+        return new DependantRecordIdsIteratorImpl(bufferedDependants, backwardDerefIndex.performQuery(query),
+                this.serializationUtil);
+    }
+
+    /**
+     * Finds the dependants of a record in the backward entries which are buffered or being flushed, using the same
+     * matching as {@link DerefMapIndexFilter}. The dependants of which the backward entry is to be removed are
+     * still returned by the stored entries until the flush, which only causes a superfluous reindex.
+     */
+    private Set<AbsoluteRecordId> findBufferedDependantsOf(AbsoluteRecordId parentRecordId, Set<SchemaId> fields,
+                                                           SchemaId vtag) {
+        if (!buffered) {
+            return Collections.emptySet();
+        }
+
+        final Map<BackwardKey, Set<SchemaId>> pendingEntries = new LinkedHashMap<BackwardKey, Set<SchemaId>>();
+        synchronized (bufferLock) {
+            if (flushingBackwardEntries != null) {
+                pendingEntries.putAll(flushingBackwardEntries);
+            }
+            // the later updates in the buffer replace the ones being flushed
+            pendingEntries.putAll(backwardBuffer);
+        }
+
+        final RecordId master = parentRecordId.getRecordId().getMaster();
+        final Map<String, String> variantProperties = parentRecordId.getRecordId().getVariantProperties();
+        final Set<AbsoluteRecordId> result = new HashSet<AbsoluteRecordId>();
+        for (Map.Entry<BackwardKey, Set<SchemaId>> entry : pendingEntries.entrySet()) {
+            final BackwardKey key = entry.getKey();
+            final AbsoluteRecordId dependency = key.dependency.getDependency();
+            if (entry.getValue() == REMOVED
+                    || !dependency.getRecordId().getMaster().equals(master)
+                    || (vtag != null && !vtag.equals(key.dependantVtag))
+                    || (fields != null && Collections.disjoint(entry.getValue(), fields))) {
+                continue;
+            }
+            final DerefMapVariantPropertiesPattern pattern = this.serializationUtil.createVariantPropertiesPattern(
+                    dependency.getRecordId().getVariantProperties(), key.dependency.getMoreDimensionedVariants());
+            if (pattern.matches(variantProperties)) {
+                result.add(key.dependant);
+            }
+        }
+
+        return result;
     }
 
     @Override
@@ -295,4 +541,69 @@ public class DerefMapHbaseImpl implements DerefMap {
         return findDependantsOf(parentRecordId, (Set<SchemaId>) null, null);
     }
 
+    /**
+     * Identifies a forward entry: a dependant record in a vtag.
+     */
+    private static final class ForwardKey {
+        private final AbsoluteRecordId dependant;
+        private final SchemaId dependantVtag;
+
+        ForwardKey(AbsoluteRecordId dependant, SchemaId dependantVtag) {
+            this.dependant = dependant;
+            this.dependantVtag = dependantVtag;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            ForwardKey other = (ForwardKey) o;
+            return dependant.equals(other.dependant) && dependantVtag.equals(other.dependantVtag);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * dependant.hashCode() + dependantVtag.hashCode();
+        }
+    }
+
+    /**
+     * Identifies a backward entry: a dependency of a dependant record in a vtag.
+     */
+    private static final class BackwardKey {
+        private final DependencyEntry dependency;
+        private final AbsoluteRecordId dependant;
+        private final SchemaId dependantVtag;
+
+        BackwardKey(DependencyEntry dependency, AbsoluteRecordId dependant, SchemaId dependantVtag) {
+            this.dependency = dependency;
+            this.dependant = dependant;
+            this.dependantVtag = dependantVtag;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            BackwardKey other = (BackwardKey) o;
+            return dependency.equals(other.dependency) && dependant.equals(other.dependant)
+                    && dependantVtag.equals(other.dependantVtag);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = dependency.hashCode();
+            result = 31 * result + dependant.hashCode();
+            return 31 * result + dependantVtag.hashCode();
+        }
+    }
+
 }
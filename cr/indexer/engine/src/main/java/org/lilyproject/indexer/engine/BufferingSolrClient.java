@@ -0,0 +1,337 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.engine;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.client.solrj.response.UpdateResponse;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.SolrInputField;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.lilyproject.util.concurrent.CustomThreadFactory;
+
+/**
+ * A SolrClient which buffers adds and deletes-by-id and sends them to the wrapped SolrClient in batches.
+ *
+ * <p>The buffer is flushed when it reaches a number of documents, an (estimated) size in bytes, or when
+ * the oldest buffered operation is older than a maximum delay. Users should call {@link #flush()} at points
+ * where they need the operations to be persisted in Solr, e.g. before acknowledging a batch of events.</p>
+ *
+ * <p>Only the last operation for each document key is kept: an add replaces the document, a delete
+ * removes it, so the outcome is the same as when the operations would have been sent one by one. Since
+ * each key occurs only once in the buffer, the adds and deletes can be sent as two separate requests.
+ * Operations which can not be buffered, such as delete-by-query and commit, first flush the buffer.</p>
+ *
+ * <p>When the wrapped client is an {@link ErrorSwallowingSolrClient} and it swallows the error of a batch,
+ * the operations of the batch are sent again one by one, so that only the operations which are in error
+ * are dropped.</p>
+ */
+public class BufferingSolrClient implements SolrClient {
+    /**
+     * The unique key field of Lily's Solr schema, see {@link SolrDocumentBuilder}.
+     */
+    private static final String KEY_FIELD = "lily.key";
+
+    /**
+     * Response returned for operations which have been buffered rather than sent to Solr.
+     */
+    static final UpdateResponse BUFFERED_UPDATE_RESPONSE = new UpdateResponse();
+
+    static {
+        BUFFERED_UPDATE_RESPONSE.setResponse(new NamedList<Object>());
+    }
+
+    /**
+     * Marker value for a buffered delete.
+     */
+    private static final Object DELETE = new Object();
+
+    private final SolrClient solrClient;
+    private final SolrClientMetrics metrics;
+    private final int maxDocs;
+    private final long maxBytes;
+    private final long maxDelay;
+
+    /**
+     * Key = document key, value = document to add or {@link #DELETE}. Access synchronized on bufferLock.
+     */
+    private Map<String, Object> buffer = new LinkedHashMap<String, Object>();
+    private long bufferedBytes;
+    private long oldestBufferedTime;
+    private final Object bufferLock = new Object();
+
+    /**
+     * Serializes flushes, so that a flush only returns once earlier started flushes are done, and a failed
+     * flush has put back its operations in the buffer.
+     */
+    private final Object flushLock = new Object();
+
+    private final ScheduledExecutorService flushTimer;
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    /**
+     * @param maxDocs flush when this number of documents is buffered
+     * @param maxBytes flush when the estimated size of the buffered documents reaches this number of bytes
+     * @param maxDelay maximum time in millis operations stay in the buffer, 0 to only flush on size
+     */
+    public BufferingSolrClient(SolrClient solrClient, SolrClientMetrics metrics, int maxDocs, long maxBytes,
+            long maxDelay) {
+        this.solrClient = solrClient;
+        this.metrics = metrics;
+        this.maxDocs = maxDocs;
+        this.maxBytes = maxBytes;
+        this.maxDelay = maxDelay;
+
+        if (maxDelay > 0) {
+            flushTimer = Executors.newSingleThreadScheduledExecutor(
+                    new CustomThreadFactory("SolrClientFlusher", null, true));
+            flushTimer.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    flushExpired();
+                }
+            }, maxDelay, maxDelay, TimeUnit.MILLISECONDS);
+        } else {
+            flushTimer = null;
+        }
+    }
+
+    /**
+     * Stops the flush timer and flushes the buffered operations.
+     */
+    public void shutdown() {
+        if (flushTimer != null) {
+            flushTimer.shutdownNow();
+        }
+        try {
+            flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable t) {
+            log.error("Error flushing buffered Solr operations to " + getDescription() + " at shutdown", t);
+        }
+    }
+
+    @Override
+    public String getDescription() {
+        return solrClient.getDescription();
+    }
+
+    @Override
+    public UpdateResponse add(SolrInputDocument doc) throws SolrClientException, InterruptedException {
+        Object key = doc.getFieldValue(KEY_FIELD);
+        if (key == null) {
+            flush();
+            return solrClient.add(doc);
+        }
+
+        boolean full;
+        synchronized (bufferLock) {
+            full = buffer(key.toString(), doc, estimateSize(doc));
+        }
+        if (full) {
+            flush();
+        }
+        return BUFFERED_UPDATE_RESPONSE;
+    }
+
+    @Override
+    public UpdateResponse add(Collection<SolrInputDocument> docs) throws SolrClientException, InterruptedException {
+        for (SolrInputDocument doc : docs) {
+            add(doc);
+        }
+        return BUFFERED_UPDATE_RESPONSE;
+    }
+
+    @Override
+    public UpdateResponse deleteById(String id) throws SolrClientException, InterruptedException {
+        boolean full;
+        synchronized (bufferLock) {
+            full = buffer(id, DELETE, id.length());
+        }
+        if (full) {
+            flush();
+        }
+        return BUFFERED_UPDATE_RESPONSE;
+    }
+
+    @Override
+    public UpdateResponse deleteById(List<String> ids) throws SolrClientException, InterruptedException {
+        for (String id : ids) {
+            deleteById(id);
+        }
+        return BUFFERED_UPDATE_RESPONSE;
+    }
+
+    @Override
+    public UpdateResponse deleteByQuery(String query) throws SolrClientException, InterruptedException {
+        flush();
+        return solrClient.deleteByQuery(query);
+    }
+
+    @Override
+    public UpdateResponse commit(boolean waitFlush, boolean waitSearcher) throws SolrClientException,
+            InterruptedException {
+        flush();
+        return solrClient.commit(waitFlush, waitSearcher);
+    }
+
+    @Override
+    public UpdateResponse commit() throws SolrClientException, InterruptedException {
+        flush();
+        return solrClient.commit();
+    }
+
+    @Override
+    public QueryResponse query(SolrParams params) throws SolrClientException, InterruptedException {
+        flush();
+        return solrClient.query(params);
+    }
+
+    /**
+     * Adds an operation to the buffer, returns true if the buffer should be flushed. Should be called
+     * while synchronized on bufferLock.
+     */
+    private boolean buffer(String key, Object operation, long size) {
+        if (buffer.isEmpty()) {
+            oldestBufferedTime = System.currentTimeMillis();
+        }
+        // Remove first, so that the key moves to the end of the buffer
+        buffer.remove(key);
+        buffer.put(key, operation);
+        bufferedBytes += size;
+        return buffer.size() >= maxDocs || bufferedBytes >= maxBytes;
+    }
+
+    /**
+     * Sends all buffered operations to Solr. When this fails, the operations are put back in the buffer
+     * (unless they have been superseded by newer operations meanwhile) and the exception is thrown.
+     */
+    public void flush() throws SolrClientException, InterruptedException {
+        synchronized (flushLock) {
+            Map<String, Object> operations;
+            long operationsBytes;
+            synchronized (bufferLock) {
+                if (buffer.isEmpty()) {
+                    return;
+                }
+                operations = buffer;
+                operationsBytes = bufferedBytes;
+                buffer = new LinkedHashMap<String, Object>();
+                bufferedBytes = 0;
+            }
+
+            List<SolrInputDocument> adds = new ArrayList<SolrInputDocument>();
+            List<String> deletes = new ArrayList<String>();
+            for (Map.Entry<String, Object> entry : operations.entrySet()) {
+                if (entry.getValue() == DELETE) {
+                    deletes.add(entry.getKey());
+                } else {
+                    adds.add((SolrInputDocument)entry.getValue());
+                }
+            }
+
+            long before = System.currentTimeMillis();
+            boolean success = false;
+            try {
+                if (!adds.isEmpty() && isSwallowedError(solrClient.add(adds)) && adds.size() > 1) {
+                    // Some document of the batch was rejected: send them one by one, so that only the
+                    // rejected documents are dropped
+                    for (SolrInputDocument doc : adds) {
+                        solrClient.add(doc);
+                    }
+                }
+                if (!deletes.isEmpty() && isSwallowedError(solrClient.deleteById(deletes)) && deletes.size() > 1) {
+                    for (String id : deletes) {
+                        solrClient.deleteById(id);
+                    }
+                }
+                success = true;
+            } finally {
+                if (success) {
+                    metrics.flushes.inc(System.currentTimeMillis() - before);
+                    metrics.flushSize.inc(operations.size());
+                } else {
+                    restore(operations, operationsBytes);
+                }
+            }
+        }
+    }
+
+    /**
+     * True if the wrapped client is an {@link ErrorSwallowingSolrClient} which swallowed an error for the request.
+     */
+    private static boolean isSwallowedError(UpdateResponse response) {
+        return response == ErrorSwallowingSolrClient.ERROR_UPDATE_RESPONSE;
+    }
+
+    private void restore(Map<String, Object> operations, long operationsBytes) {
+        synchronized (bufferLock) {
+            Map<String, Object> newBuffer = operations;
+            for (Map.Entry<String, Object> entry : buffer.entrySet()) {
+                newBuffer.remove(entry.getKey());
+                newBuffer.put(entry.getKey(), entry.getValue());
+            }
+            if (buffer.isEmpty()) {
+                oldestBufferedTime = System.currentTimeMillis();
+            }
+            buffer = newBuffer;
+            bufferedBytes += operationsBytes;
+        }
+    }
+
+    private void flushExpired() {
+        synchronized (bufferLock) {
+            if (buffer.isEmpty() || System.currentTimeMillis() - oldestBufferedTime < maxDelay) {
+                return;
+            }
+        }
+        try {
+            flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable t) {
+            // The operations stay in the buffer, they will be retried by the next flush
+            log.warn("Error flushing buffered Solr operations to " + getDescription(), t);
+        }
+    }
+
+    /**
+     * Rough estimate of the size of a document, based on the string length of its values.
+     */
+    private static long estimateSize(SolrInputDocument doc) {
+        long size = 0;
+        for (SolrInputField field : doc) {
+            size += field.getName().length();
+            for (Object value : field.getValues()) {
+                size += value != null ? value.toString().length() : 0;
+            }
+        }
+        return size;
+    }
+}
@@ -52,6 +52,7 @@ public class ClassicSolrShardManager implements SolrShardManager {
     private final HttpClient httpClient;
     private RequestWriter requestWriter;
     private ResponseParser responseParser;
+    private final SolrClientConfig solrClientConfig;
 
     public ClassicSolrShardManager(String indexName, Map<String, String> shards, ShardSelector selector,
                                    HttpClient httpClient,
@@ -69,6 +70,7 @@ public class ClassicSolrShardManager implements SolrShardManager {
         this.shards = shards;
         this.selector = selector;
         this.httpClient = httpClient;
+        this.solrClientConfig = solrClientConfig;
 
         if (solrClientConfig.getRequestWriter() != null) {
             try {
@@ -136,6 +138,10 @@ public class ClassicSolrShardManager implements SolrShardManager {
             if (swallowUnrecoverableExceptions) {
                 solrClient = ErrorSwallowingSolrClient.wrap(solrClient, metrics);
             }
+            if (solrClientConfig.isUpdateBufferEnabled()) {
+                solrClient = new BufferingSolrClient(solrClient, metrics, solrClientConfig.getUpdateBufferMaxDocs(),
+                        solrClientConfig.getUpdateBufferMaxBytes(), solrClientConfig.getUpdateBufferMaxDelay());
+            }
             shardConnections.put(shard.getKey(), new SolrClientHandle(solrClient, metrics));
         }
     }
@@ -146,6 +152,15 @@ public class ClassicSolrShardManager implements SolrShardManager {
         return shardConnections.get(shardName).solrClient;
     }
 
+    @Override
+    public void flush() throws SolrClientException, InterruptedException {
+        for (SolrClientHandle client : shardConnections.values()) {
+            if (client.solrClient instanceof BufferingSolrClient) {
+                ((BufferingSolrClient)client.solrClient).flush();
+            }
+        }
+    }
+
     private static final class SolrClientHandle {
         SolrClient solrClient;
         SolrClientMetrics solrClientMetrics;
@@ -160,6 +175,9 @@ public class ClassicSolrShardManager implements SolrShardManager {
     public void close() throws IOException {
         if (shardConnections != null) {
             for (SolrClientHandle client : shardConnections.values()) {
+                if (client.solrClient instanceof BufferingSolrClient) {
+                    ((BufferingSolrClient)client.solrClient).shutdown();
+                }
                 client.solrClientMetrics.shutdown();
             }
         }
@@ -37,21 +37,38 @@ public class CloudSolrShardManager implements SolrShardManager {
      */
     public CloudSolrShardManager(String indexName, String zkHost, String collection, boolean swallowUnrecoverableExceptions)
             throws MalformedURLException {
+        this(indexName, zkHost, collection, swallowUnrecoverableExceptions, new SolrClientConfig());
+    }
+
+    /**
+     * @param swallowUnrecoverableExceptions If true, SolrClients will swallow and report all exceptions that cannot be corrected by a change in configuration
+     * @param solrClientConfig only the update buffer settings are used
+     */
+    public CloudSolrShardManager(String indexName, String zkHost, String collection, boolean swallowUnrecoverableExceptions,
+                                 SolrClientConfig solrClientConfig) throws MalformedURLException {
         solrServer = new CloudSolrServer(zkHost);
 
-        solrClient = createSolrClient(solrServer, collection, swallowUnrecoverableExceptions, indexName);
+        solrClient = createSolrClient(solrServer, collection, swallowUnrecoverableExceptions, indexName, solrClientConfig);
     }
 
     private SolrClient createSolrClient(CloudSolrServer solrServer, String collection, boolean swallowUnrecoverableExceptions,
-                                        String indexName) {
-        final SolrClientImpl solrClient = new SolrClientImpl(solrServer, collection, "Solr Cloud Client");
+                                        String indexName, SolrClientConfig solrClientConfig) {
+        SolrClient solrClient = new SolrClientImpl(solrServer, collection, "Solr Cloud Client");
 
-        if (swallowUnrecoverableExceptions) {
+        if (swallowUnrecoverableExceptions || solrClientConfig.isUpdateBufferEnabled()) {
             solrClientMetrics = new SolrClientMetrics(indexName, "cloud");
-            return ErrorSwallowingSolrClient.wrap(solrClient, solrClientMetrics);
-        } else {
-            return solrClient;
         }
+
+        if (swallowUnrecoverableExceptions) {
+            solrClient = ErrorSwallowingSolrClient.wrap(solrClient, solrClientMetrics);
+        }
+
+        if (solrClientConfig.isUpdateBufferEnabled()) {
+            solrClient = new BufferingSolrClient(solrClient, solrClientMetrics, solrClientConfig.getUpdateBufferMaxDocs(),
+                    solrClientConfig.getUpdateBufferMaxBytes(), solrClientConfig.getUpdateBufferMaxDelay());
+        }
+
+        return solrClient;
     }
 
     @Override
@@ -59,8 +76,18 @@ public class CloudSolrShardManager implements SolrShardManager {
         return solrClient;
     }
 
+    @Override
+    public void flush() throws SolrClientException, InterruptedException {
+        if (solrClient instanceof BufferingSolrClient) {
+            ((BufferingSolrClient)solrClient).flush();
+        }
+    }
+
     @Override
     public void close() throws IOException {
+        if (solrClient instanceof BufferingSolrClient) {
+            ((BufferingSolrClient)solrClient).shutdown();
+        }
         solrServer.shutdown();
         if (solrClientMetrics != null) {
             solrClientMetrics.shutdown();
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.engine;
+
+import org.lilyproject.repository.api.RecordId;
+
+/**
+ * Provides 'index locks' on records, used to avoid that the same record is indexed concurrently by different
+ * processes or threads.
+ *
+ * <p>Locks are thread-based: a lock is owned by the thread that took it, and is re-entrant.</p>
+ *
+ * <p>Available implementations are the ZooKeeper-based {@link IndexLocker}, the in-process
+ * {@link LocalIndexLocker} and the {@link LeaseIndexLocker}. Use {@link IndexLockProviderFactory} to create
+ * one based on its configured name.</p>
+ */
+public interface IndexLockProvider {
+    /**
+     * Obtain a lock for the given record. If this method returns without failure, you obtained the lock.
+     *
+     * @throws IndexLockTimeoutException if the lock could not be obtained within the timeout.
+     */
+    void lock(RecordId recordId) throws IndexLockException;
+
+    void unlock(RecordId recordId) throws IndexLockException, InterruptedException;
+
+    /**
+     * Unlocks the record, logging rather than throwing any failure.
+     */
+    void unlockLogFailure(RecordId recordId);
+
+    /**
+     * Checks if the current thread owns the lock on the record.
+     */
+    boolean hasLock(RecordId recordId) throws IndexLockException, InterruptedException;
+
+    /**
+     * Releases the resources held by this lock provider. Locks should not be used anymore afterwards.
+     */
+    void close();
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.engine;
+
+import org.apache.zookeeper.KeeperException;
+import org.lilyproject.util.zookeeper.ZooKeeperItf;
+
+/**
+ * Creates an {@link IndexLockProvider} based on its configured name: "zookeeper" for {@link IndexLocker},
+ * "local" for {@link LocalIndexLocker} or "lease" for {@link LeaseIndexLocker}.
+ */
+public class IndexLockProviderFactory {
+    public static final String ZOOKEEPER = "zookeeper";
+    public static final String LOCAL = "local";
+    public static final String LEASE = "lease";
+
+    private static final int STRIPES = 1024;
+    private static final long MAX_WAIT_TIME = 20000;
+    private static final long LEASE_TIME = 5000;
+
+    private IndexLockProviderFactory() {
+    }
+
+    /**
+     * @param type the name of the lock provider, null for the default ("zookeeper")
+     * @param indexName the index of which the records are locked
+     * @param enabled if false, no locking is performed at all, regardless of the type
+     * @param metrics optional, the time spent waiting for locks is reported to it
+     */
+    public static IndexLockProvider create(String type, String indexName, ZooKeeperItf zk, boolean enabled,
+                                           IndexerMetrics metrics) throws InterruptedException, KeeperException {
+        if (!enabled || type == null || type.equals(ZOOKEEPER)) {
+            return new IndexLocker(zk, enabled, metrics);
+        } else if (type.equals(LOCAL)) {
+            return new LocalIndexLocker(STRIPES, MAX_WAIT_TIME, metrics);
+        } else if (type.equals(LEASE)) {
+            return new LeaseIndexLocker(zk, indexName, STRIPES, LEASE_TIME, MAX_WAIT_TIME, metrics);
+        } else {
+            throw new IllegalArgumentException("Unknown index lock provider: " + type);
+        }
+    }
+}
@@ -59,8 +59,11 @@ import org.lilyproject.util.zookeeper.ZooKeeperOperation;
 // index lock for each record, which would lower chances of contention when having multiple
 // indexes defined. Will leave it like this though since I'd rather see the need for this locking
 // removed altogether.
+//
+// Update 2013: since this puts a ZooKeeper write on the indexing path of every record, alternative
+// implementations of IndexLockProvider are available: LocalIndexLocker and LeaseIndexLocker.
 
-public class IndexLocker {
+public class IndexLocker implements IndexLockProvider {
     private ZooKeeperItf zk;
     private int waitBetweenTries = 20;
     private int maxWaitTime = 20000;
@@ -68,14 +71,24 @@ public class IndexLocker {
      * Flag to allow globally disabling the index locking.
      */
     private boolean enabled = true;
+    private IndexerMetrics metrics;
 
     private Log log = LogFactory.getLog(getClass());
 
     private static final String LOCK_PATH = "/lily/indexer/recordlock";
 
     public IndexLocker(ZooKeeperItf zk, boolean enabled) throws InterruptedException, KeeperException {
+        this(zk, enabled, null);
+    }
+
+    /**
+     * @param metrics optional, the time spent waiting for locks is reported to it
+     */
+    public IndexLocker(ZooKeeperItf zk, boolean enabled, IndexerMetrics metrics)
+            throws InterruptedException, KeeperException {
         this.zk = zk;
         this.enabled = enabled;
+        this.metrics = metrics;
         ZkUtil.createPath(zk, LOCK_PATH);
     }
 
@@ -94,6 +107,7 @@ public class IndexLocker {
      *
      * @throws IndexLockTimeoutException if the lock could not be obtained within the given timeout.
      */
+    @Override
     public void lock(RecordId recordId) throws IndexLockException {
         if (!enabled) {
             return;
@@ -125,6 +139,7 @@ public class IndexLocker {
                         }
                     });
                     // We successfully created the node, hence we have the lock.
+                    reportWaitTime(startTime);
                     return;
                 } catch (KeeperException.NodeExistsException e) {
                     // ignore, see next
@@ -147,6 +162,7 @@ public class IndexLocker {
                 });
 
                 if (hasLock) {
+                    reportWaitTime(startTime);
                     return;
                 }
 
@@ -160,8 +176,14 @@ public class IndexLocker {
         }
     }
 
-    public void unlock(final RecordId recordId) throws IndexLockException, InterruptedException,
-            KeeperException {
+    private void reportWaitTime(long startTime) {
+        if (metrics != null) {
+            metrics.lockWaits.inc(System.currentTimeMillis() - startTime);
+        }
+    }
+
+    @Override
+    public void unlock(final RecordId recordId) throws IndexLockException, InterruptedException {
 
         if (!enabled) {
             return;
@@ -197,6 +219,8 @@ public class IndexLocker {
                 break;
             } catch (InterruptedException e) {
                 interrupted = true;
+            } catch (KeeperException e) {
+                throw new IndexLockException("Error removing index lock on record " + recordId, e);
             }
         }
 
@@ -210,6 +234,7 @@ public class IndexLocker {
         }
     }
 
+    @Override
     public void unlockLogFailure(final RecordId recordId) {
         if (!enabled) {
             return;
@@ -222,8 +247,8 @@ public class IndexLocker {
         }
     }
 
-    public boolean hasLock(final RecordId recordId) throws IndexLockException, InterruptedException,
-            KeeperException {
+    @Override
+    public boolean hasLock(final RecordId recordId) throws IndexLockException, InterruptedException {
 
         if (!enabled) {
             return true;
@@ -235,20 +260,29 @@ public class IndexLocker {
 
         final String lockPath = getPath(recordId);
 
-        return zk.retryOperation(new ZooKeeperOperation<Boolean>() {
-            @Override
-            public Boolean execute() throws KeeperException, InterruptedException {
-                try {
-                    Stat stat = new Stat();
-                    byte[] data = zk.getData(lockPath, false, stat);
-                    return stat.getEphemeralOwner() == zk.getSessionId() &&
-                            Bytes.toLong(data) == Thread.currentThread().getId();
-                } catch (KeeperException.NoNodeException e) {
-                    return false;
+        try {
+            return zk.retryOperation(new ZooKeeperOperation<Boolean>() {
+                @Override
+                public Boolean execute() throws KeeperException, InterruptedException {
+                    try {
+                        Stat stat = new Stat();
+                        byte[] data = zk.getData(lockPath, false, stat);
+                        return stat.getEphemeralOwner() == zk.getSessionId() &&
+                                Bytes.toLong(data) == Thread.currentThread().getId();
+                    } catch (KeeperException.NoNodeException e) {
+                        return false;
+                    }
+
                 }
+            });
+        } catch (KeeperException e) {
+            throw new IndexLockException("Error checking index lock on record " + recordId, e);
+        }
+    }
 
-            }
-        });
+    @Override
+    public void close() {
+        // the lock nodes are ephemeral and the ZooKeeper connection is not ours
     }
 
     private String getPath(RecordId recordId) {
@@ -20,15 +20,25 @@ import static org.lilyproject.util.repo.RecordEvent.Type.DELETE;
 import static org.lilyproject.util.repo.RecordEvent.Type.INDEX;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.google.common.base.Function;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Collections2;
-import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
 import org.apache.commons.logging.Log;
@@ -54,8 +64,8 @@ import org.lilyproject.sep.LilyEventListener;
 import org.lilyproject.sep.LilyEventPublisherManager;
 import org.lilyproject.sep.LilySepEvent;
 import org.lilyproject.util.Pair;
+import org.lilyproject.util.concurrent.CustomThreadFactory;
 import org.lilyproject.util.repo.RecordEvent;
-import org.lilyproject.util.repo.RecordEvent.IndexRecordFilterData;
 import org.lilyproject.util.repo.RecordEventHelper;
 import org.lilyproject.util.repo.VTaggedRecord;
 
@@ -99,9 +109,20 @@ public class IndexUpdater extends LilyEventListener {
     private IndexUpdaterMetrics metrics;
     private ClassLoader myContextClassLoader;
     private final String repositoryName;
-    private IndexLocker indexLocker;
-    private LilyEventPublisherManager eventPublisherMgr;
-    private String subscriptionId;
+    private IndexLockProvider indexLocker;
+    private ReindexRequestCoalescer reindexCoalescer;
+
+    /**
+     * Single-threaded executors on which the events of a batch are processed, partitioned by record, so that
+     * events of the same record are processed in order while different records are processed concurrently.
+     * This is <code>null</code> in case the events are processed serially on the calling thread.
+     */
+    private final ExecutorService[] partitionExecutors;
+
+    /**
+     * Number of events submitted to each partition which have not yet been processed.
+     */
+    private final AtomicInteger[] partitionQueueDepths;
 
     /**
      * Deref map used to update denormalized data. It is <code>null</code> in case the indexer configuration doesn't
@@ -117,31 +138,249 @@ public class IndexUpdater extends LilyEventListener {
      *                       this subscription.
      */
     public IndexUpdater(Indexer indexer, RepositoryManager repositoryManager, String repositoryName,
-                        IndexLocker indexLocker, IndexUpdaterMetrics metrics, DerefMap derefMap,
+                        IndexLockProvider indexLocker, IndexUpdaterMetrics metrics, DerefMap derefMap,
                         LilyEventPublisherManager eventPublisherMgr,
             String subscriptionId) {
+        this(indexer, repositoryManager, repositoryName, indexLocker, metrics, derefMap, eventPublisherMgr,
+                subscriptionId, 1, 0);
+    }
+
+    /**
+     * @param subscriptionId id of the SEP subscription to which this listener is listening. This is needed
+     *                       because the IndexUpdater generates events itself, which should only be sent to
+     *                       this subscription.
+     * @param threads number of threads over which the events of a batch are distributed. Events of the same
+     *                record always go to the same thread, so they are processed in order. When 1, the events
+     *                are processed serially on the thread that delivers them.
+     * @param reindexCoalesceWindow time in millis during which the requests to reindex records because of
+     *                              changes to denormalized data are held and merged, see
+     *                              {@link ReindexRequestCoalescer}. When 0, the requests are published at the
+     *                              end of each batch of events.
+     */
+    public IndexUpdater(Indexer indexer, RepositoryManager repositoryManager, String repositoryName,
+                        IndexLockProvider indexLocker, IndexUpdaterMetrics metrics, DerefMap derefMap,
+                        LilyEventPublisherManager eventPublisherMgr,
+            String subscriptionId, int threads, long reindexCoalesceWindow) {
         super(repositoryManager);
         this.indexer = indexer;
         this.repositoryManager = repositoryManager;
         this.repositoryName = repositoryName;
         this.indexLocker = indexLocker;
         this.derefMap = derefMap;
-        this.eventPublisherMgr = eventPublisherMgr;
-        this.subscriptionId = subscriptionId;
+        this.reindexCoalescer = new ReindexRequestCoalescer(repositoryName, subscriptionId, eventPublisherMgr,
+                metrics, reindexCoalesceWindow);
 
         this.myContextClassLoader = Thread.currentThread().getContextClassLoader();
 
         this.metrics = metrics;
+
+        if (threads > 1) {
+            partitionExecutors = new ExecutorService[threads];
+            partitionQueueDepths = new AtomicInteger[threads];
+            for (int i = 0; i < threads; i++) {
+                partitionExecutors[i] = Executors.newSingleThreadExecutor(
+                        new CustomThreadFactory("IndexUpdater-" + indexer.getIndexName() + "-" + i, null, true));
+                partitionQueueDepths[i] = new AtomicInteger();
+            }
+        } else {
+            partitionExecutors = null;
+            partitionQueueDepths = null;
+        }
+    }
+
+    /**
+     * Stops the threads used for processing events, if any, and publishes pending reindex requests.
+     */
+    public void shutdown() {
+        if (partitionExecutors != null) {
+            for (ExecutorService executor : partitionExecutors) {
+                executor.shutdownNow();
+            }
+        }
+        reindexCoalescer.shutdown();
     }
 
     @Override
     public void processLilyEvents(List<LilySepEvent> events) {
+        BatchContext batchContext = new BatchContext();
+        processEvents(events, batchContext);
+        reindexCoalescer.requestReindex(batchContext.getReindexRequests());
+
+        // The SEP considers the events processed once we return, so make sure that index updates that
+        // might have been buffered are sent to Solr, and deref map updates to HBase.
+        try {
+            if (derefMap != null) {
+                derefMap.flush();
+            }
+            indexer.flush();
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            log.error("Failure in IndexUpdater flushing index updates: " + e);
+            metrics.errors.inc();
+            // We throw the exception through so that the batch will be retried by the SEP
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void processEvents(List<LilySepEvent> events, BatchContext batchContext) {
+        if (partitionExecutors == null || events.size() < 2) {
+            for (LilySepEvent event : events) {
+                processEvent(event, batchContext);
+            }
+            return;
+        }
+
+        // Distribute the events over the partitions based on the row key (= the record id), keeping the
+        // order of the events of the same record.
+        List<List<LilySepEvent>> partitions = new ArrayList<List<LilySepEvent>>(partitionExecutors.length);
+        for (int i = 0; i < partitionExecutors.length; i++) {
+            partitions.add(new ArrayList<LilySepEvent>());
+        }
         for (LilySepEvent event : events) {
-            processEvent(event);
+            int partition = (Arrays.hashCode(event.getRow()) & Integer.MAX_VALUE) % partitionExecutors.length;
+            partitions.get(partition).add(event);
+        }
+
+        List<Future<?>> futures = new ArrayList<Future<?>>(partitionExecutors.length);
+        for (int i = 0; i < partitionExecutors.length; i++) {
+            List<LilySepEvent> partitionEvents = partitions.get(i);
+            if (!partitionEvents.isEmpty()) {
+                metrics.setPartitionQueueDepth(i, partitionQueueDepths[i].addAndGet(partitionEvents.size()));
+                futures.add(partitionExecutors[i].submit(new PartitionTask(i, partitionEvents, batchContext)));
+            }
+        }
+
+        // The batch is only done when all partitions are done: wait for all of them, also when one of them
+        // failed, so that no events of this batch are still being processed when the SEP retries the batch.
+        Throwable failure = null;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException)failure;
+        } else if (failure != null) {
+            throw new RuntimeException(failure);
+        }
+    }
+
+    /**
+     * Processes the events of one partition in order. Stops at the first failing event, the remaining
+     * events will be processed again when the SEP retries the batch.
+     */
+    private class PartitionTask implements Callable<Void> {
+        private final int partition;
+        private final List<LilySepEvent> events;
+        private final BatchContext batchContext;
+
+        PartitionTask(int partition, List<LilySepEvent> events, BatchContext batchContext) {
+            this.partition = partition;
+            this.events = events;
+            this.batchContext = batchContext;
+        }
+
+        @Override
+        public Void call() {
+            int remaining = events.size();
+            try {
+                for (LilySepEvent event : events) {
+                    processEvent(event, batchContext);
+                    remaining--;
+                    metrics.setPartitionQueueDepth(partition, partitionQueueDepths[partition].decrementAndGet());
+                }
+            } finally {
+                if (remaining > 0) {
+                    metrics.setPartitionQueueDepth(partition,
+                            partitionQueueDepths[partition].addAndGet(-remaining));
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * State shared by the processing of the events of one batch.
+     */
+    static class BatchContext {
+        /**
+         * The vtags for which records have been indexed while processing this batch.
+         */
+        private final Map<AbsoluteRecordId, Set<SchemaId>> indexedVTags = new HashMap<AbsoluteRecordId, Set<SchemaId>>();
+
+        /**
+         * The vtags for which records should be reindexed because they contain denormalized data of records
+         * changed in this batch.
+         */
+        private final Map<AbsoluteRecordId, Set<SchemaId>> reindexRequests =
+                new LinkedHashMap<AbsoluteRecordId, Set<SchemaId>>();
+
+        synchronized void indexed(AbsoluteRecordId recordId, Set<SchemaId> vtags) {
+            add(indexedVTags, recordId, vtags);
+        }
+
+        synchronized void requestReindex(AbsoluteRecordId recordId, Collection<SchemaId> vtags) {
+            add(reindexRequests, recordId, vtags);
+        }
+
+        /**
+         * Returns the reindex requests, leaving out the vtags for which the record has been indexed in this
+         * batch anyway. Since the events of a batch are only delivered after the corresponding changes have
+         * been stored, such indexing already saw the changed denormalized data.
+         */
+        synchronized Map<AbsoluteRecordId, Set<SchemaId>> getReindexRequests() {
+            Map<AbsoluteRecordId, Set<SchemaId>> result = new LinkedHashMap<AbsoluteRecordId, Set<SchemaId>>();
+            for (Map.Entry<AbsoluteRecordId, Set<SchemaId>> request : reindexRequests.entrySet()) {
+                Set<SchemaId> vtags = request.getValue();
+                Set<SchemaId> indexed = indexedVTags.get(request.getKey());
+                if (indexed != null) {
+                    vtags.removeAll(indexed);
+                }
+                if (!vtags.isEmpty()) {
+                    result.put(request.getKey(), vtags);
+                }
+            }
+            return result;
+        }
+
+        private static void add(Map<AbsoluteRecordId, Set<SchemaId>> map, AbsoluteRecordId recordId,
+                Collection<SchemaId> vtags) {
+            Set<SchemaId> current = map.get(recordId);
+            if (current == null) {
+                current = new HashSet<SchemaId>();
+                map.put(recordId, current);
+            }
+            current.addAll(vtags);
         }
     }
-    
+
     public void processEvent(LilySepEvent event) {
+        BatchContext batchContext = new BatchContext();
+        processEvent(event, batchContext);
+        reindexCoalescer.requestReindex(batchContext.getReindexRequests());
+
+        if (derefMap != null) {
+            try {
+                derefMap.flush();
+            } catch (IOException e) {
+                log.error("Failure in IndexUpdater flushing deref map updates: " + e);
+                metrics.errors.inc();
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private void processEvent(LilySepEvent event, BatchContext batchContext) {
         if (!repositoryName.equals(event.getLilyRepositoryName())) {
             log.warn("got sep event for record that should have been filtered by IndexEditFilter and IndexRecordFilterHook");
             return;
@@ -174,7 +413,7 @@ public class IndexUpdater extends LilyEventListener {
                             indexer.vtagSetToNameString(recordEvent.getVtagsToIndex())));
                 }
                 String tableName = recordEvent.getTableName();
-                index(repository, tableName, recordId, recordEvent.getVtagsToIndex());
+                index(repository, tableName, recordId, recordEvent.getVtagsToIndex(), batchContext);
             } else if (recordEvent.getType().equals(DELETE)) {
                 // Record is deleted: delete its index entry. We do not check for a matching index case, since
                 // we can't (record is not available anymore), and besides IndexAwareMQFeeder takes care of sending us
@@ -193,7 +432,7 @@ public class IndexUpdater extends LilyEventListener {
 
                 // After this we can go to update denormalized data
                 if (derefMap != null) {
-                    updateDenormalizedData(repository.getRepositoryName(), recordEvent.getTableName(), recordId, null, null);
+                    updateDenormalizedData(recordEvent.getTableName(), recordId, null, null, batchContext);
                 }
             } else { // CREATE or UPDATE
                 VTaggedRecord vtRecord;
@@ -257,15 +496,15 @@ public class IndexUpdater extends LilyEventListener {
                             return;
                         }
 
-                        handleRecordCreateUpdate(vtRecord);
+                        handleRecordCreateUpdate(vtRecord, batchContext);
                     } finally {
                         indexLocker.unlockLogFailure(recordId);
                     }
                 }
 
                 if (derefMap != null) {
-                    updateDenormalizedData(repository.getRepositoryName(), recordEvent.getTableName(), recordId, eventHelper.getUpdatedFieldsByScope(),
-                            eventHelper.getModifiedVTags());
+                    updateDenormalizedData(recordEvent.getTableName(), recordId, eventHelper.getUpdatedFieldsByScope(),
+                            eventHelper.getModifiedVTags(), batchContext);
                 }
             }
 
@@ -290,7 +529,7 @@ public class IndexUpdater extends LilyEventListener {
         }
     }
 
-    private void handleRecordCreateUpdate(VTaggedRecord vtRecord) throws Exception {
+    private void handleRecordCreateUpdate(VTaggedRecord vtRecord, BatchContext batchContext) throws Exception {
         RecordEvent event = vtRecord.getRecordEvent();
         Map<Long, Set<SchemaId>> vtagsByVersion = vtRecord.getVTagsByVersion();
 
@@ -417,11 +656,12 @@ public class IndexUpdater extends LilyEventListener {
             // Index
             //
             indexer.index(event.getTableName(), vtRecord, vtagsToIndex);
+            batchContext.indexed(new AbsoluteRecordIdImpl(event.getTableName(), vtRecord.getId()), vtagsToIndex);
         }
     }
 
-    private void updateDenormalizedData(String repo, String table, RecordId recordId, Map<Scope, Set<FieldType>> updatedFieldsByScope,
-                                        Set<SchemaId> changedVTagFields)
+    private void updateDenormalizedData(String table, RecordId recordId, Map<Scope, Set<FieldType>> updatedFieldsByScope,
+                                        Set<SchemaId> changedVTagFields, BatchContext batchContext)
             throws RepositoryException, InterruptedException, LinkIndexException, IOException {
 
         Multimap<AbsoluteRecordId, SchemaId> referrersAndVTags = ArrayListMultimap.create();
@@ -469,31 +709,11 @@ public class IndexUpdater extends LilyEventListener {
         }
 
         //
-        // Now add an index message to each of the found referrers, their actual indexing
-        // will be triggered by the message queue.
+        // Now request an index message for each of the found referrers, their actual indexing
+        // will be triggered by the message queue. The messages are published once the batch is processed.
         //
         for (AbsoluteRecordId referrer : referrersAndVTags.keySet()) {
-
-            RecordEvent payload = new RecordEvent();
-            payload.setTableName(referrer.getTable());
-            payload.setType(INDEX);
-            for (SchemaId vtag : referrersAndVTags.get(referrer)) {
-                payload.addVTagToIndex(vtag);
-            }
-            IndexRecordFilterData filterData = new IndexRecordFilterData();
-            filterData.setSubscriptionInclusions(ImmutableSet.of(this.subscriptionId));
-            payload.setIndexRecordFilterData(filterData);
-
-            try {
-                eventPublisherMgr.getEventPublisher(repo, referrer.getTable()
-                        ).publishEvent(referrer.getRecordId().toBytes(), payload.toJsonBytes());
-            } catch (Exception e) {
-                // We failed to put the message: this is pretty important since it means the record's index
-                // won't get updated, therefore log as error, but after this we continue with the next one.
-                log.error("Error putting index message on queue of record " + referrer, e);
-                metrics.errors.inc();
-            }
-            metrics.lastReindexRequestedTimestamp.set(System.currentTimeMillis());
+            batchContext.requestReindex(referrer, referrersAndVTags.get(referrer));
         }
     }
 
@@ -519,7 +739,8 @@ public class IndexUpdater extends LilyEventListener {
      *
      * @throws IOException
      */
-    private void index(LRepository repository, String table, RecordId recordId, Set<SchemaId> vtagsToIndex) throws RepositoryException, InterruptedException,
+    private void index(LRepository repository, String table, RecordId recordId, Set<SchemaId> vtagsToIndex,
+                       BatchContext batchContext) throws RepositoryException, InterruptedException,
             SolrClientException, ShardSelectorException, IndexLockException, IOException {
         boolean lockObtained = false;
         try {
@@ -546,6 +767,7 @@ public class IndexUpdater extends LilyEventListener {
             vtagsToIndex.retainAll(vtRecord.getVTags().keySet());
 
             indexer.index(table, vtRecord, vtagsToIndex);
+            batchContext.indexed(new AbsoluteRecordIdImpl(table, recordId), vtagsToIndex);
         } finally {
             if (lockObtained) {
                 indexLocker.unlockLogFailure(recordId);
@@ -22,6 +22,7 @@ import org.apache.hadoop.metrics.MetricsRecord;
 import org.apache.hadoop.metrics.MetricsUtil;
 import org.apache.hadoop.metrics.Updater;
 import org.apache.hadoop.metrics.util.MetricsBase;
+import org.apache.hadoop.metrics.util.MetricsIntValue;
 import org.apache.hadoop.metrics.util.MetricsLongValue;
 import org.apache.hadoop.metrics.util.MetricsRegistry;
 import org.apache.hadoop.metrics.util.MetricsTimeVaryingLong;
@@ -46,14 +47,48 @@ public class IndexUpdaterMetrics implements Updater {
      * */
     public MetricsTimeVaryingLong errors = new MetricsTimeVaryingLong("errors", registry);
 
+    /**
+     * Number of requests to reindex a record that were merged into an already pending request for the
+     * same record.
+     */
+    public MetricsTimeVaryingLong reindexRequestsCoalesced =
+            new MetricsTimeVaryingLong("reindexRequestsCoalesced", registry);
+
+    /**
+     * Number of events waiting to be processed, per partition of the index updater. Only present when the
+     * index updater processes events on multiple threads.
+     */
+    private final MetricsIntValue[] partitionQueueDepths;
+
     public IndexUpdaterMetrics(String indexName) {
+        this(indexName, 1);
+    }
+
+    /**
+     * @param partitions the number of threads the index updater uses to process events
+     */
+    public IndexUpdaterMetrics(String indexName, int partitions) {
         this.indexName = indexName;
+        if (partitions > 1) {
+            partitionQueueDepths = new MetricsIntValue[partitions];
+            for (int i = 0; i < partitions; i++) {
+                partitionQueueDepths[i] = new MetricsIntValue("partition" + i + "QueueDepth", registry);
+            }
+        } else {
+            partitionQueueDepths = new MetricsIntValue[0];
+        }
         context = MetricsUtil.getContext("indexUpdater");
         metricsRecord = MetricsUtil.createRecord(context, indexName);
         context.registerUpdater(this);
         mbean = new IndexerMetricsMBean(this.registry);
     }
 
+    public void setPartitionQueueDepth(int partition, int depth) {
+        if (partition < partitionQueueDepths.length) {
+            partitionQueueDepths[partition].set(depth);
+        }
+    }
+
     public void shutdown() {
         mbean.shutdown();
         context.unregisterUpdater(this);
@@ -62,7 +62,7 @@ public class Indexer {
     private final TypeManager typeManager;
     private final SystemFields systemFields;
     private final SolrShardManager solrShardMgr;
-    private final IndexLocker indexLocker;
+    private final IndexLockProvider indexLocker;
     private final ValueEvaluator valueEvaluator;
     private final IndexerMetrics metrics;
 
@@ -76,7 +76,7 @@ public class Indexer {
     private final Log log = LogFactory.getLog(getClass());
 
     public Indexer(String indexName, IndexerConf conf, LRepository repository, SolrShardManager solrShardMgr,
-                   IndexLocker indexLocker, IndexerMetrics metrics, DerefMap derefMap)
+                   IndexLockProvider indexLocker, IndexerMetrics metrics, DerefMap derefMap)
             throws RepositoryException, InterruptedException {
         this.indexName = indexName;
         this.conf = conf;
@@ -102,7 +102,7 @@ public class Indexer {
      * Performs a complete indexing of the given record, supposing the record is not yet indexed
      * (existing entries are not explicitly removed).
      *
-     * <p>This method requires you obtained the {@link IndexLocker} for the record.
+     * <p>This method requires you obtained the {@link IndexLockProvider index lock} for the record.
      *
      * @param recordId
      * @throws IOException
@@ -145,7 +145,7 @@ public class Indexer {
     /**
      * Indexes a record for a set of vtags.
      *
-     * <p>This method requires you obtained the {@link IndexLocker} for the record.
+     * <p>This method requires you obtained the {@link IndexLockProvider index lock} for the record.
      *
      * @param vtagsToIndex all vtags for which to index the record, not all vtags need to exist on the record,
      *                     but this should only contain appropriate vtags as defined by the IndexCase for this record.
@@ -351,10 +351,18 @@ public class Indexer {
         return builder.toString();
     }
 
+    /**
+     * Sends any updates buffered by the Solr clients to Solr. After this method returns, all index
+     * updates done before the call have been sent to Solr.
+     */
+    public void flush() throws SolrClientException, InterruptedException {
+        solrShardMgr.flush();
+    }
+
     /**
      * Deletes all index entries (for all vtags) for the given record.
      *
-     * <p>This method requires you obtained the {@link IndexLocker} for the record.
+     * <p>This method requires you obtained the {@link IndexLockProvider index lock} for the record.
      */
     public void delete(RecordId recordId) throws SolrClientException, ShardSelectorException,
             InterruptedException {
@@ -366,7 +374,7 @@ public class Indexer {
     }
 
     /**
-     * <p>This method requires you obtained the {@link IndexLocker} for the record.
+     * <p>This method requires you obtained the {@link IndexLockProvider index lock} for the record.
      */
     public void delete(String table, RecordId recordId, SchemaId vtag) throws SolrClientException, ShardSelectorException,
             InterruptedException {
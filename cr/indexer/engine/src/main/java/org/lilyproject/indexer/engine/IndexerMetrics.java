@@ -24,6 +24,7 @@ import org.apache.hadoop.metrics.Updater;
 import org.apache.hadoop.metrics.util.MetricsBase;
 import org.apache.hadoop.metrics.util.MetricsRegistry;
 import org.apache.hadoop.metrics.util.MetricsTimeVaryingLong;
+import org.apache.hadoop.metrics.util.MetricsTimeVaryingRate;
 import org.lilyproject.util.hbase.metrics.MBeanUtil;
 import org.lilyproject.util.hbase.metrics.MetricsDynamicMBeanBase;
 
@@ -44,6 +45,9 @@ public class IndexerMetrics implements Updater {
 
     public MetricsTimeVaryingLong deletesByQuery = new MetricsTimeVaryingLong("deletesByQuery", registry);
 
+    /** Index locks taken, and the time spent waiting for them. */
+    public MetricsTimeVaryingRate lockWaits = new MetricsTimeVaryingRate("lockWaits", registry);
+
     public IndexerMetrics(String indexName) {
         this.indexName = indexName;
         context = MetricsUtil.getContext("indexer");
@@ -0,0 +1,307 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.engine;
+
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.data.Stat;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.util.concurrent.CustomThreadFactory;
+import org.lilyproject.util.zookeeper.ZkUtil;
+import org.lilyproject.util.zookeeper.ZooKeeperItf;
+import org.lilyproject.util.zookeeper.ZooKeeperOperation;
+
+/**
+ * An {@link IndexLockProvider} which amortizes the ZooKeeper writes of {@link IndexLocker} over many records.
+ *
+ * <p>The records are distributed over a fixed number of buckets. Before locking a record, the process takes a
+ * lease on its bucket by creating an ephemeral node in ZooKeeper, below a path specific to the index. The node
+ * holds a token of this locker instance, since several lockers can share the same ZooKeeper session. The lease
+ * is kept as long as the process is
+ * locking records of that bucket, and released when it was not used for the lease time (or at the first
+ * occasion after it has been held for ten times the lease time, to give other processes a chance). Within the
+ * process, records are locked with a {@link LocalIndexLocker}.</p>
+ *
+ * <p>In contrast with {@link IndexLocker}, the lease is not verified in ZooKeeper on each lock. When the
+ * connection to ZooKeeper is lost or the session expires, all leases are considered lost: they are taken again
+ * (and verified) on the next lock, and released if they are not used anymore.</p>
+ */
+public class LeaseIndexLocker implements IndexLockProvider {
+    private static final String LEASE_PATH = "/lily/indexer/recordlease";
+
+    private final ZooKeeperItf zk;
+    private final byte[] token = Bytes.toBytes(UUID.randomUUID().toString());
+    private final LocalIndexLocker localLocker;
+    private final Lease[] leases;
+    private final long leaseTime;
+    private final long maxWaitTime;
+    private final int waitBetweenTries = 20;
+    private final IndexerMetrics metrics;
+    private final ScheduledExecutorService leaseReleaser;
+    /** Incremented on each loss of the ZooKeeper connection, a lease is only valid in the epoch it was taken. */
+    private final AtomicInteger connectionEpoch = new AtomicInteger();
+    private final Watcher connectionWatcher = new ConnectionWatcher();
+
+    private Log log = LogFactory.getLog(getClass());
+
+    private static class Lease {
+        final String path;
+        /** True if the lease node was created by this locker, it is only valid if {@link #epoch} is current. */
+        boolean held;
+        int epoch;
+        int holders;
+        long acquiredAt;
+        long lastUsed;
+
+        Lease(String path) {
+            this.path = path;
+        }
+    }
+
+    /**
+     * @param indexName the index of which the records are locked, lockers of other indexes do not conflict
+     * @param buckets number of buckets over which the records are distributed, each bucket being a lease
+     * @param leaseTime time in millis after which an unused lease is released
+     * @param maxWaitTime maximum time in millis to wait for a lock
+     * @param metrics optional, the time spent waiting for locks is reported to it
+     */
+    public LeaseIndexLocker(ZooKeeperItf zk, String indexName, int buckets, long leaseTime, long maxWaitTime,
+                            IndexerMetrics metrics) throws InterruptedException, KeeperException {
+        this.zk = zk;
+        this.leaseTime = leaseTime;
+        this.maxWaitTime = maxWaitTime;
+        this.metrics = metrics;
+        this.localLocker = new LocalIndexLocker(buckets, maxWaitTime, null);
+        this.leases = new Lease[buckets];
+        String indexLeasePath = LEASE_PATH + "/" + indexName;
+        for (int i = 0; i < buckets; i++) {
+            leases[i] = new Lease(indexLeasePath + "/" + i);
+        }
+
+        ZkUtil.createPath(zk, indexLeasePath);
+        zk.addDefaultWatcher(connectionWatcher);
+
+        leaseReleaser = Executors.newSingleThreadScheduledExecutor(
+                new CustomThreadFactory("IndexLeaseReleaser", null, true));
+        leaseReleaser.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                releaseUnusedLeases();
+            }
+        }, leaseTime, leaseTime, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the background releasing of leases and releases all leases which are not in use.
+     */
+    @Override
+    public void close() {
+        zk.removeDefaultWatcher(connectionWatcher);
+        leaseReleaser.shutdownNow();
+        for (Lease lease : leases) {
+            synchronized (lease) {
+                if (lease.held && lease.holders == 0) {
+                    release(lease);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void lock(RecordId recordId) throws IndexLockException {
+        if (zk.isCurrentThreadEventThread()) {
+            throw new RuntimeException("IndexLocker should not be used from within the ZooKeeper event thread.");
+        }
+
+        long startTime = System.currentTimeMillis();
+        Lease lease = leases[localLocker.getStripe(recordId)];
+        acquire(lease, recordId, startTime);
+        try {
+            localLocker.lock(recordId);
+        } catch (IndexLockException e) {
+            releaseHolder(lease);
+            throw e;
+        }
+
+        if (metrics != null) {
+            metrics.lockWaits.inc(System.currentTimeMillis() - startTime);
+        }
+    }
+
+    private void acquire(final Lease lease, RecordId recordId, long startTime) throws IndexLockException {
+        try {
+            synchronized (lease) {
+                while (!isValid(lease)) {
+                    if (System.currentTimeMillis() - startTime > maxWaitTime) {
+                        throw new IndexLockTimeoutException("Failed to obtain an index lease for record " + recordId +
+                                " within " + maxWaitTime + " ms.");
+                    }
+
+                    // read before contacting ZooKeeper, so that a connection loss in between invalidates the lease
+                    int epoch = connectionEpoch.get();
+                    lease.held = zk.retryOperation(new ZooKeeperOperation<Boolean>() {
+                        @Override
+                        public Boolean execute() throws KeeperException, InterruptedException {
+                            try {
+                                zk.create(lease.path, token, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL);
+                                return true;
+                            } catch (KeeperException.NodeExistsException e) {
+                                // In case of connection loss, or of a lease taken before a connection loss, the
+                                // node might be ours
+                                return getOwnedStat(lease) != null;
+                            }
+                        }
+                    });
+
+                    if (lease.held) {
+                        lease.epoch = epoch;
+                        lease.acquiredAt = System.currentTimeMillis();
+                    } else {
+                        lease.wait(waitBetweenTries);
+                    }
+                }
+                lease.holders++;
+            }
+        } catch (IndexLockException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IndexLockException("Interrupted while taking index lease for record " + recordId, e);
+        } catch (Throwable t) {
+            throw new IndexLockException("Error taking index lease for record " + recordId, t);
+        }
+    }
+
+    @Override
+    public void unlock(RecordId recordId) throws IndexLockException {
+        localLocker.unlock(recordId);
+        releaseHolder(leases[localLocker.getStripe(recordId)]);
+    }
+
+    private void releaseHolder(Lease lease) {
+        synchronized (lease) {
+            lease.holders--;
+            lease.lastUsed = System.currentTimeMillis();
+            if (lease.held && lease.holders == 0 && lease.lastUsed - lease.acquiredAt > 10 * leaseTime) {
+                release(lease);
+            }
+        }
+    }
+
+    @Override
+    public void unlockLogFailure(RecordId recordId) {
+        try {
+            unlock(recordId);
+        } catch (Throwable t) {
+            log.error("Error releasing lock on record " + recordId, t);
+        }
+    }
+
+    @Override
+    public boolean hasLock(RecordId recordId) {
+        Lease lease = leases[localLocker.getStripe(recordId)];
+        synchronized (lease) {
+            if (!isValid(lease)) {
+                return false;
+            }
+        }
+        return localLocker.hasLock(recordId);
+    }
+
+    /**
+     * Should be called while synchronized on the lease.
+     */
+    private boolean isValid(Lease lease) {
+        return lease.held && lease.epoch == connectionEpoch.get();
+    }
+
+    private void releaseUnusedLeases() {
+        long now = System.currentTimeMillis();
+        for (Lease lease : leases) {
+            synchronized (lease) {
+                // leases which are no longer valid are released as well, in case the node survived
+                if (lease.held && lease.holders == 0 && (now - lease.lastUsed >= leaseTime || !isValid(lease))) {
+                    release(lease);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the stat of the lease node if it was created by this locker in the current session, null otherwise.
+     */
+    private Stat getOwnedStat(Lease lease) throws KeeperException, InterruptedException {
+        Stat stat = new Stat();
+        byte[] data;
+        try {
+            data = zk.getData(lease.path, false, stat);
+        } catch (KeeperException.NoNodeException e) {
+            return null;
+        }
+        return stat.getEphemeralOwner() == zk.getSessionId() && Arrays.equals(data, token) ? stat : null;
+    }
+
+    /**
+     * Removes the lease node, should be called while synchronized on the lease.
+     */
+    private void release(final Lease lease) {
+        lease.held = false;
+        try {
+            zk.retryOperation(new ZooKeeperOperation<Object>() {
+                @Override
+                public Object execute() throws KeeperException, InterruptedException {
+                    Stat stat = getOwnedStat(lease);
+                    if (stat != null) {
+                        zk.delete(lease.path, stat.getVersion());
+                    }
+                    return null;
+                }
+            });
+        } catch (KeeperException.NoNodeException e) {
+            // ok, already gone
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable t) {
+            // The node is ephemeral, so at the latest it will disappear together with our session
+            log.error("Error releasing index lease " + lease.path, t);
+        }
+    }
+
+    private class ConnectionWatcher implements Watcher {
+        @Override
+        public void process(WatchedEvent event) {
+            if (event.getType() == Event.EventType.None && (event.getState() == Event.KeeperState.Disconnected
+                    || event.getState() == Event.KeeperState.Expired)) {
+                // The leases might be taken by another process by the time we are connected again. Only the
+                // epoch is changed here, this is the ZooKeeper event thread which should not wait for the leases.
+                connectionEpoch.incrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.engine;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.lilyproject.repository.api.RecordId;
+
+/**
+ * An {@link IndexLockProvider} which only locks within the current process, using a fixed number of locks
+ * (stripes) over which the records are distributed.
+ *
+ * <p>This is suited for when it is already guaranteed that a record is only indexed by one process at a time,
+ * e.g. because the SEP delivers all events of a record to the same node and no batch index build runs
+ * concurrently with the incremental indexing. It avoids the ZooKeeper round trips of {@link IndexLocker}.</p>
+ *
+ * <p>Records which map to the same stripe share a lock, so {@link #hasLock} can also return true for another
+ * record of the same stripe.</p>
+ */
+public class LocalIndexLocker implements IndexLockProvider {
+    private final ReentrantLock[] locks;
+    private final long maxWaitTime;
+    private final IndexerMetrics metrics;
+
+    private Log log = LogFactory.getLog(getClass());
+
+    /**
+     * @param stripes number of locks over which the records are distributed
+     * @param maxWaitTime maximum time in millis to wait for a lock
+     * @param metrics optional, the time spent waiting for locks is reported to it
+     */
+    public LocalIndexLocker(int stripes, long maxWaitTime, IndexerMetrics metrics) {
+        this.locks = new ReentrantLock[stripes];
+        for (int i = 0; i < stripes; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        this.maxWaitTime = maxWaitTime;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the number of the stripe (lock) used for the given record. This is based on the encoded record id,
+     * so that it is the same in every process, as required by {@link LeaseIndexLocker}.
+     */
+    int getStripe(RecordId recordId) {
+        return (Arrays.hashCode(recordId.toBytes()) & Integer.MAX_VALUE) % locks.length;
+    }
+
+    @Override
+    public void lock(RecordId recordId) throws IndexLockException {
+        long startTime = System.currentTimeMillis();
+        boolean locked;
+        try {
+            locked = locks[getStripe(recordId)].tryLock(maxWaitTime, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IndexLockException("Interrupted while taking index lock on record " + recordId, e);
+        }
+
+        if (!locked) {
+            throw new IndexLockTimeoutException("Failed to obtain an index lock for record " + recordId +
+                    " within " + maxWaitTime + " ms.");
+        }
+
+        if (metrics != null) {
+            metrics.lockWaits.inc(System.currentTimeMillis() - startTime);
+        }
+    }
+
+    @Override
+    public void unlock(RecordId recordId) throws IndexLockException {
+        ReentrantLock lock = locks[getStripe(recordId)];
+        if (!lock.isHeldByCurrentThread()) {
+            throw new IndexLockException("You cannot remove the index lock for record " + recordId +
+                    " because it is not owned by the current thread.");
+        }
+        lock.unlock();
+    }
+
+    @Override
+    public void unlockLogFailure(RecordId recordId) {
+        try {
+            unlock(recordId);
+        } catch (Throwable t) {
+            log.error("Error releasing lock on record " + recordId, t);
+        }
+    }
+
+    @Override
+    public boolean hasLock(RecordId recordId) {
+        return locks[getStripe(recordId)].isHeldByCurrentThread();
+    }
+
+    @Override
+    public void close() {
+        // nothing to release
+    }
+}
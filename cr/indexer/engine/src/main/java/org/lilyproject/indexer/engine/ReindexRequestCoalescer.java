@@ -0,0 +1,163 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.engine;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableSet;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.lilyproject.repository.api.AbsoluteRecordId;
+import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.sep.LilyEventPublisherManager;
+import org.lilyproject.util.concurrent.CustomThreadFactory;
+import org.lilyproject.util.repo.RecordEvent;
+import org.lilyproject.util.repo.RecordEvent.IndexRecordFilterData;
+
+import static org.lilyproject.util.repo.RecordEvent.Type.INDEX;
+
+/**
+ * Publishes the INDEX events by which the {@link IndexUpdater} asks to reindex records that contain
+ * denormalized data of an updated record.
+ *
+ * <p>When a coalescing window is configured, the requests are held for the duration of the window, and
+ * all requests for the same record within that window are merged into one event for the union of their
+ * vtags. This avoids that the records pointing to a frequently updated record get reindexed over and over.
+ * The downside is that pending requests are lost when the process is stopped abruptly, after the events
+ * which caused them have already been acknowledged.</p>
+ */
+public class ReindexRequestCoalescer {
+    private final String repositoryName;
+    private final String subscriptionId;
+    private final LilyEventPublisherManager eventPublisherMgr;
+    private final IndexUpdaterMetrics metrics;
+    private final long window;
+
+    /**
+     * Requests waiting for the window to pass. Access synchronized on this object.
+     */
+    private Map<AbsoluteRecordId, Set<SchemaId>> pending = new LinkedHashMap<AbsoluteRecordId, Set<SchemaId>>();
+
+    private final ScheduledExecutorService publishTimer;
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    /**
+     * @param subscriptionId id of the SEP subscription to which the INDEX events should be sent
+     * @param window time in millis during which requests are held to be merged, 0 to publish right away
+     */
+    public ReindexRequestCoalescer(String repositoryName, String subscriptionId,
+            LilyEventPublisherManager eventPublisherMgr, IndexUpdaterMetrics metrics, long window) {
+        this.repositoryName = repositoryName;
+        this.subscriptionId = subscriptionId;
+        this.eventPublisherMgr = eventPublisherMgr;
+        this.metrics = metrics;
+        this.window = window;
+
+        if (window > 0) {
+            publishTimer = Executors.newSingleThreadScheduledExecutor(
+                    new CustomThreadFactory("ReindexRequestCoalescer", null, true));
+            publishTimer.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    publishPending();
+                }
+            }, window, window, TimeUnit.MILLISECONDS);
+        } else {
+            publishTimer = null;
+        }
+    }
+
+    /**
+     * Stops the timer and publishes the pending requests.
+     */
+    public void shutdown() {
+        if (publishTimer != null) {
+            publishTimer.shutdownNow();
+            publishPending();
+        }
+    }
+
+    /**
+     * @param requests key = the record to reindex, value = the vtags for which to reindex it
+     */
+    public void requestReindex(Map<AbsoluteRecordId, Set<SchemaId>> requests) {
+        if (publishTimer == null) {
+            publish(requests);
+            return;
+        }
+
+        synchronized (this) {
+            for (Map.Entry<AbsoluteRecordId, Set<SchemaId>> request : requests.entrySet()) {
+                Set<SchemaId> vtags = pending.get(request.getKey());
+                if (vtags == null) {
+                    pending.put(request.getKey(), new HashSet<SchemaId>(request.getValue()));
+                } else {
+                    vtags.addAll(request.getValue());
+                    metrics.reindexRequestsCoalesced.inc();
+                }
+            }
+        }
+    }
+
+    private void publishPending() {
+        Map<AbsoluteRecordId, Set<SchemaId>> requests;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            requests = pending;
+            pending = new LinkedHashMap<AbsoluteRecordId, Set<SchemaId>>();
+        }
+        publish(requests);
+    }
+
+    private void publish(Map<AbsoluteRecordId, Set<SchemaId>> requests) {
+        for (Map.Entry<AbsoluteRecordId, Set<SchemaId>> request : requests.entrySet()) {
+            AbsoluteRecordId referrer = request.getKey();
+
+            RecordEvent payload = new RecordEvent();
+            payload.setTableName(referrer.getTable());
+            payload.setType(INDEX);
+            for (SchemaId vtag : request.getValue()) {
+                payload.addVTagToIndex(vtag);
+            }
+            IndexRecordFilterData filterData = new IndexRecordFilterData();
+            filterData.setSubscriptionInclusions(ImmutableSet.of(this.subscriptionId));
+            payload.setIndexRecordFilterData(filterData);
+
+            try {
+                eventPublisherMgr.getEventPublisher(repositoryName, referrer.getTable()
+                        ).publishEvent(referrer.getRecordId().toBytes(), payload.toBytes());
+            } catch (Exception e) {
+                if (e instanceof InterruptedException) {
+                    Thread.currentThread().interrupt();
+                }
+                // We failed to put the message: this is pretty important since it means the record's index
+                // won't get updated, therefore log as error, but after this we continue with the next one.
+                log.error("Error putting index message on queue of record " + referrer, e);
+                metrics.errors.inc();
+            }
+            metrics.lastReindexRequestedTimestamp.set(System.currentTimeMillis());
+        }
+    }
+}
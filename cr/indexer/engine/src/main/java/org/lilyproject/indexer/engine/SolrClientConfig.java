@@ -18,6 +18,9 @@ package org.lilyproject.indexer.engine;
 public class SolrClientConfig {
     private String requestWriter;
     private String responseParser;
+    private int updateBufferMaxDocs;
+    private long updateBufferMaxBytes = 10 * 1024 * 1024;
+    private long updateBufferMaxDelay = 1000;
 
     public String getRequestWriter() {
         return requestWriter;
@@ -34,4 +37,45 @@ public class SolrClientConfig {
     public void setResponseParser(String responseParser) {
         this.responseParser = responseParser;
     }
+
+    /**
+     * The number of adds and deletes which are buffered per Solr shard before they are sent to Solr. When
+     * 0 (the default), updates are not buffered but sent to Solr immediately.
+     *
+     * <p>Buffered updates are only guaranteed to be sent to Solr after {@link SolrShardManager#flush()}.
+     */
+    public int getUpdateBufferMaxDocs() {
+        return updateBufferMaxDocs;
+    }
+
+    public void setUpdateBufferMaxDocs(int updateBufferMaxDocs) {
+        this.updateBufferMaxDocs = updateBufferMaxDocs;
+    }
+
+    /**
+     * The estimated size in bytes of the buffered documents at which the buffer is flushed.
+     */
+    public long getUpdateBufferMaxBytes() {
+        return updateBufferMaxBytes;
+    }
+
+    public void setUpdateBufferMaxBytes(long updateBufferMaxBytes) {
+        this.updateBufferMaxBytes = updateBufferMaxBytes;
+    }
+
+    /**
+     * The maximum time, in milliseconds, an update is buffered. When 0, the buffer is only flushed when
+     * it is full or when it is flushed explicitly.
+     */
+    public long getUpdateBufferMaxDelay() {
+        return updateBufferMaxDelay;
+    }
+
+    public void setUpdateBufferMaxDelay(long updateBufferMaxDelay) {
+        this.updateBufferMaxDelay = updateBufferMaxDelay;
+    }
+
+    public boolean isUpdateBufferEnabled() {
+        return updateBufferMaxDocs > 0;
+    }
 }
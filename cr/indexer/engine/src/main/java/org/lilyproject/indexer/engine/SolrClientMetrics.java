@@ -24,6 +24,7 @@ import org.apache.hadoop.metrics.Updater;
 import org.apache.hadoop.metrics.util.MetricsBase;
 import org.apache.hadoop.metrics.util.MetricsRegistry;
 import org.apache.hadoop.metrics.util.MetricsTimeVaryingLong;
+import org.apache.hadoop.metrics.util.MetricsTimeVaryingRate;
 import org.lilyproject.util.hbase.metrics.MBeanUtil;
 import org.lilyproject.util.hbase.metrics.MetricsDynamicMBeanBase;
 
@@ -37,6 +38,15 @@ public class SolrClientMetrics implements Updater {
     /** Counts number of times indexing exceptions have been swallowed because they are determined as not retry-able. */
     public MetricsTimeVaryingLong swallowedExceptions = new MetricsTimeVaryingLong("swallowedExceptions", registry);
 
+    /** Flushes of buffered operations, and their duration. Only used when update buffering is enabled. */
+    public MetricsTimeVaryingRate flushes = new MetricsTimeVaryingRate("flushes", registry);
+
+    /**
+     * Number of operations sent per flush of buffered operations, the min/avg/max of this metric give the
+     * distribution of the flush sizes.
+     */
+    public MetricsTimeVaryingRate flushSize = new MetricsTimeVaryingRate("flushSize", registry);
+
     public SolrClientMetrics(String indexName, String shardName) {
         this.recordName = indexName + "_" + shardName;
         context = MetricsUtil.getContext("solrClient");
@@ -22,4 +22,10 @@ import org.lilyproject.repository.api.RecordId;
 
 public interface SolrShardManager extends Closeable {
     SolrClient getSolrClient(RecordId recordId) throws ShardSelectorException;
+
+    /**
+     * Sends any buffered updates to Solr, see {@link SolrClientConfig#getUpdateBufferMaxDocs()}. Does
+     * nothing when updates are not buffered.
+     */
+    void flush() throws SolrClientException, InterruptedException;
 }
@@ -33,6 +33,7 @@ import org.lilyproject.repository.api.Repository;
 import org.lilyproject.repository.api.RepositoryException;
 import org.lilyproject.repository.api.SchemaId;
 import org.lilyproject.repository.api.TypeManager;
+import org.lilyproject.repository.spi.PartialRecordUpdateHook;
 import org.lilyproject.repository.spi.RecordUpdateHook;
 import org.lilyproject.util.hbase.RepoAndTableUtil;
 import org.lilyproject.util.repo.RecordEvent;
@@ -43,8 +44,11 @@ import org.lilyproject.util.repo.RecordEvent.IndexRecordFilterData;
  * IndexRecordFilter, especially needed to be able to know what IndexRecordFilter's matched
  * on the previous (or deleted) record state. Also allows to make this decision without
  * needing to read the complete record.
+ *
+ * <p>On update, only the fields used in the record filters are needed from the original record, so that
+ * blind updates don't need to read the complete record.</p>
  */
-public class IndexRecordFilterHook implements RecordUpdateHook {
+public class IndexRecordFilterHook implements PartialRecordUpdateHook {
 
     private PluginRegistry pluginRegistry;
     private final IndexesInfo indexesInfo;
@@ -73,6 +77,11 @@ public class IndexRecordFilterHook implements RecordUpdateHook {
         pluginRegistry.removePlugin(RecordUpdateHook.class, NAME, this);
     }
 
+    @Override
+    public Set<QName> getFieldDependencies() {
+        return indexesInfo.getRecordFilterFieldDependencies();
+    }
+
     @Override
     public void beforeUpdate(Record record, Record originalRecord, Repository repository, FieldTypes fieldTypes,
             RecordEvent recordEvent) throws RepositoryException, InterruptedException {
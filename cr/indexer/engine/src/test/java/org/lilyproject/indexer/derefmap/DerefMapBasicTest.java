@@ -545,6 +545,61 @@ public class DerefMapBasicTest {
                                                 absId(b), field, tag2)));
     }
 
+    @Test
+    public void bufferedUpdates() throws Exception {
+        String idPrefix = newIdPrefix();
+
+        final DerefMap bufferedDerefMap = DerefMapHbaseImpl.create(REPO_NAME, "test", repoSetup.getHadoopConf(),
+                null, ids, true);
+
+        final SchemaId dummyVtag = ids.getSchemaId(UUID.randomUUID());
+        final SchemaId field = ids.getSchemaId(UUID.randomUUID());
+        final SchemaId otherField = ids.getSchemaId(UUID.randomUUID());
+        final Set<SchemaId> fields = Sets.newHashSet(field);
+        final RecordId dependant1 = ids.newRecordId(idPrefix + "dependant1");
+        final RecordId dependant2 = ids.newRecordId(idPrefix + "dependant2");
+        final RecordId dependency1 = ids.newRecordId(idPrefix + "dependency1");
+        final RecordId dependency2 = ids.newRecordId(idPrefix + "dependency2");
+
+        bufferedDerefMap.updateDependants(absId(dependant1), dummyVtag,
+                Collections.singletonMap(new DependencyEntry(absId(dependency1)), fields));
+        bufferedDerefMap.updateDependants(absId(dependant2), dummyVtag,
+                Collections.singletonMap(new DependencyEntry(absId(dependency1)), fields));
+
+        // nothing is stored before the flush, but the buffered deref map finds its own updates
+        assertTrue(derefMap.findDependencies(absId(dependant1), dummyVtag).isEmpty());
+        assertFalse(derefMap.findDependantsOf(absId(dependency1), field, dummyVtag).hasNext());
+        assertEquals(Sets.newHashSet(absId(dependant1), absId(dependant2)),
+                asRecordIds(bufferedDerefMap.findDependantsOf(absId(dependency1), field, dummyVtag)));
+        assertFalse(bufferedDerefMap.findDependantsOf(absId(dependency1), otherField, dummyVtag).hasNext());
+
+        // a later update of the same record in the same batch replaces the earlier one
+        bufferedDerefMap.updateDependants(absId(dependant2), dummyVtag,
+                Collections.singletonMap(new DependencyEntry(absId(dependency2)), fields));
+        assertEquals(Sets.newHashSet(absId(dependant1)),
+                asRecordIds(bufferedDerefMap.findDependantsOf(absId(dependency1), field, dummyVtag)));
+        assertEquals(Sets.newHashSet(absId(dependant2)),
+                asRecordIds(bufferedDerefMap.findDependantsOf(absId(dependency2), field, dummyVtag)));
+
+        bufferedDerefMap.flush();
+
+        assertEquals(Sets.newHashSet(absId(dependant1)),
+                asRecordIds(derefMap.findDependantsOf(absId(dependency1), field, dummyVtag)));
+        assertEquals(Sets.newHashSet(absId(dependant2)),
+                asRecordIds(derefMap.findDependantsOf(absId(dependency2), field, dummyVtag)));
+
+        // the existing dependencies of dependant1 are now taken from the cache
+        bufferedDerefMap.updateDependants(absId(dependant1), dummyVtag,
+                Collections.singletonMap(new DependencyEntry(absId(dependency2)), fields));
+        bufferedDerefMap.flush();
+
+        assertFalse(derefMap.findDependantsOf(absId(dependency1), field, dummyVtag).hasNext());
+        assertEquals(Sets.newHashSet(absId(dependant1), absId(dependant2)),
+                asRecordIds(derefMap.findDependantsOf(absId(dependency2), field, dummyVtag)));
+        assertEquals(Sets.newHashSet(new DependencyEntry(absId(dependency2))),
+                derefMap.findDependencies(absId(dependant1), dummyVtag));
+    }
+
     private Set<AbsoluteRecordId> asRecordIds(DependantRecordIdsIterator iter) throws IOException {
         Set<AbsoluteRecordId> result = Sets.newHashSet();
         while (iter.hasNext()) {
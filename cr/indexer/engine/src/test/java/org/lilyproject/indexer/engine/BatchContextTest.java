@@ -0,0 +1,91 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.engine;
+
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+import org.lilyproject.indexer.engine.IndexUpdater.BatchContext;
+import org.lilyproject.repository.api.AbsoluteRecordId;
+import org.lilyproject.repository.api.IdGenerator;
+import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.repository.impl.id.AbsoluteRecordIdImpl;
+import org.lilyproject.repository.impl.id.IdGeneratorImpl;
+import org.lilyproject.repository.impl.id.SchemaIdImpl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BatchContextTest {
+
+    private IdGenerator idGenerator = new IdGeneratorImpl();
+
+    private SchemaId vtag1 = new SchemaIdImpl("vtag1");
+    private SchemaId vtag2 = new SchemaIdImpl("vtag2");
+
+    @Test
+    public void testRequestsForSameRecordAreMerged() {
+        BatchContext batchContext = new BatchContext();
+        AbsoluteRecordId recordId = newRecordId();
+
+        batchContext.requestReindex(recordId, ImmutableSet.of(vtag1));
+        batchContext.requestReindex(recordId, ImmutableSet.of(vtag2));
+
+        Map<AbsoluteRecordId, Set<SchemaId>> requests = batchContext.getReindexRequests();
+        assertEquals(1, requests.size());
+        assertEquals(ImmutableSet.of(vtag1, vtag2), requests.get(recordId));
+    }
+
+    @Test
+    public void testIndexedVTagsAreLeftOut() {
+        BatchContext batchContext = new BatchContext();
+        AbsoluteRecordId recordId = newRecordId();
+
+        batchContext.requestReindex(recordId, ImmutableSet.of(vtag1, vtag2));
+        batchContext.indexed(recordId, ImmutableSet.of(vtag1));
+
+        assertEquals(ImmutableSet.of(vtag2), batchContext.getReindexRequests().get(recordId));
+    }
+
+    @Test
+    public void testFullyIndexedRecordIsLeftOut() {
+        BatchContext batchContext = new BatchContext();
+        AbsoluteRecordId recordId1 = newRecordId();
+        AbsoluteRecordId recordId2 = newRecordId();
+
+        // Indexing before the request also counts: the order within the batch does not matter
+        batchContext.indexed(recordId1, ImmutableSet.of(vtag1, vtag2));
+        batchContext.requestReindex(recordId1, ImmutableSet.of(vtag1));
+        batchContext.requestReindex(recordId2, ImmutableSet.of(vtag1));
+
+        Map<AbsoluteRecordId, Set<SchemaId>> requests = batchContext.getReindexRequests();
+        assertEquals(ImmutableSet.of(recordId2), requests.keySet());
+    }
+
+    @Test
+    public void testIndexedOnlyGivesNoRequests() {
+        BatchContext batchContext = new BatchContext();
+        batchContext.indexed(newRecordId(), ImmutableSet.of(vtag1));
+
+        assertTrue(batchContext.getReindexRequests().isEmpty());
+    }
+
+    private AbsoluteRecordId newRecordId() {
+        return new AbsoluteRecordIdImpl("record", idGenerator.newRecordId());
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.engine;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.hadoop.metrics.util.MetricsTimeVaryingRate;
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+public class BufferingSolrClientTest {
+
+    private SolrClientMetrics solrClientMetrics;
+    private SolrClient baseSolrClient;
+    private BufferingSolrClient bufferingSolrClient;
+
+    @Before
+    public void setUp() {
+        solrClientMetrics = mock(SolrClientMetrics.class);
+        solrClientMetrics.flushes = mock(MetricsTimeVaryingRate.class);
+        solrClientMetrics.flushSize = mock(MetricsTimeVaryingRate.class);
+        baseSolrClient = mock(SolrClient.class);
+        bufferingSolrClient = new BufferingSolrClient(baseSolrClient, solrClientMetrics, 3, Long.MAX_VALUE, 0);
+    }
+
+    @After
+    public void tearDown() {
+        bufferingSolrClient.shutdown();
+    }
+
+    @Test
+    public void testBufferUntilFlush() throws Exception {
+        SolrInputDocument doc1 = createDocument("key1");
+        SolrInputDocument doc2 = createDocument("key2");
+        bufferingSolrClient.add(doc1);
+        bufferingSolrClient.add(doc2);
+
+        verifyZeroInteractions(baseSolrClient);
+
+        bufferingSolrClient.flush();
+
+        verify(baseSolrClient).add(Arrays.asList(doc1, doc2));
+        verify(baseSolrClient, never()).deleteById(anyListOf(String.class));
+        verify(solrClientMetrics.flushSize).inc(2);
+    }
+
+    @Test
+    public void testFlushWhenFull() throws Exception {
+        bufferingSolrClient.add(createDocument("key1"));
+        bufferingSolrClient.deleteById("key2");
+        verifyZeroInteractions(baseSolrClient);
+
+        bufferingSolrClient.add(createDocument("key3"));
+        verify(baseSolrClient).add(anyCollectionOf(SolrInputDocument.class));
+        verify(baseSolrClient).deleteById(Collections.singletonList("key2"));
+    }
+
+    @Test
+    public void testLastOperationPerKeyWins() throws Exception {
+        SolrInputDocument doc1 = createDocument("key1");
+        SolrInputDocument doc2 = createDocument("key2");
+        bufferingSolrClient.add(doc1);
+        bufferingSolrClient.deleteById("key1");
+        bufferingSolrClient.deleteById("key2");
+        bufferingSolrClient.add(doc2);
+        bufferingSolrClient.flush();
+
+        verify(baseSolrClient).add(Collections.singletonList(doc2));
+        verify(baseSolrClient).deleteById(Collections.singletonList("key1"));
+    }
+
+    @Test
+    public void testDeleteByQueryFlushesFirst() throws Exception {
+        SolrInputDocument doc1 = createDocument("key1");
+        bufferingSolrClient.add(doc1);
+        bufferingSolrClient.deleteByQuery("lily.id:foo");
+
+        verify(baseSolrClient).add(Collections.singletonList(doc1));
+        verify(baseSolrClient).deleteByQuery("lily.id:foo");
+    }
+
+    @Test
+    public void testFailedFlushIsRetried() throws Exception {
+        SolrInputDocument doc1 = createDocument("key1");
+        SolrInputDocument doc1b = createDocument("key1");
+        SolrInputDocument doc2 = createDocument("key2");
+        when(baseSolrClient.add(anyCollectionOf(SolrInputDocument.class)))
+                .thenThrow(new SolrClientException("test", new Exception()))
+                .thenReturn(null);
+
+        bufferingSolrClient.add(doc1);
+        bufferingSolrClient.add(doc2);
+        try {
+            bufferingSolrClient.flush();
+            fail("Expected a SolrClientException");
+        } catch (SolrClientException e) {
+            // expected
+        }
+
+        // A newer operation for the same key should replace the one that failed to be sent
+        bufferingSolrClient.add(doc1b);
+        bufferingSolrClient.flush();
+
+        verify(baseSolrClient).add(Arrays.asList(doc2, doc1b));
+        verify(solrClientMetrics.flushSize, times(1)).inc(2);
+    }
+
+    @Test
+    public void testSwallowedBatchErrorIsRetriedPerDocument() throws Exception {
+        SolrInputDocument doc1 = createDocument("key1");
+        SolrInputDocument doc2 = createDocument("key2");
+        when(baseSolrClient.add(anyCollectionOf(SolrInputDocument.class)))
+                .thenReturn(ErrorSwallowingSolrClient.ERROR_UPDATE_RESPONSE);
+
+        bufferingSolrClient.add(doc1);
+        bufferingSolrClient.add(doc2);
+        bufferingSolrClient.flush();
+
+        verify(baseSolrClient).add(Arrays.asList(doc1, doc2));
+        verify(baseSolrClient).add(doc1);
+        verify(baseSolrClient).add(doc2);
+    }
+
+    @Test
+    public void testShutdownFlushes() throws Exception {
+        SolrInputDocument doc1 = createDocument("key1");
+        bufferingSolrClient.add(doc1);
+        bufferingSolrClient.shutdown();
+
+        verify(baseSolrClient).add(Collections.singletonList(doc1));
+    }
+
+    private SolrInputDocument createDocument(String key) {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.setField("lily.key", key);
+        return doc;
+    }
+}
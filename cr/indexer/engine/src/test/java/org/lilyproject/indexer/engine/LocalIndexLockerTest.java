@@ -0,0 +1,78 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.engine;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.impl.id.IdGeneratorImpl;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LocalIndexLockerTest {
+
+    @Test
+    public void testLockUnlock() throws Exception {
+        LocalIndexLocker locker = new LocalIndexLocker(16, 1000, null);
+        RecordId recordId = new IdGeneratorImpl().newRecordId();
+
+        assertFalse(locker.hasLock(recordId));
+        locker.lock(recordId);
+        assertTrue(locker.hasLock(recordId));
+        locker.unlock(recordId);
+        assertFalse(locker.hasLock(recordId));
+    }
+
+    @Test
+    public void testUnlockNotOwned() throws Exception {
+        LocalIndexLocker locker = new LocalIndexLocker(16, 1000, null);
+        RecordId recordId = new IdGeneratorImpl().newRecordId();
+
+        try {
+            locker.unlock(recordId);
+            fail("Expected an IndexLockException");
+        } catch (IndexLockException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testLockTimeout() throws Exception {
+        final LocalIndexLocker locker = new LocalIndexLocker(16, 100, null);
+        final RecordId recordId = new IdGeneratorImpl().newRecordId();
+        locker.lock(recordId);
+
+        final AtomicReference<Throwable> result = new AtomicReference<Throwable>();
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    locker.lock(recordId);
+                } catch (Throwable t) {
+                    result.set(t);
+                }
+            }
+        };
+        thread.start();
+        thread.join();
+
+        assertTrue(result.get() instanceof IndexLockTimeoutException);
+        locker.unlock(recordId);
+    }
+}
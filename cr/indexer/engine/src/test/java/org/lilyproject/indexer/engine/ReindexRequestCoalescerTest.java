@@ -0,0 +1,157 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.engine;
+
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.ngdata.sep.EventPublisher;
+import org.apache.hadoop.metrics.util.MetricsLongValue;
+import org.apache.hadoop.metrics.util.MetricsTimeVaryingLong;
+import org.junit.Before;
+import org.junit.Test;
+import org.lilyproject.repository.api.AbsoluteRecordId;
+import org.lilyproject.repository.api.IdGenerator;
+import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.repository.impl.id.AbsoluteRecordIdImpl;
+import org.lilyproject.repository.impl.id.IdGeneratorImpl;
+import org.lilyproject.repository.impl.id.SchemaIdImpl;
+import org.lilyproject.sep.LilyEventPublisherManager;
+import org.lilyproject.util.repo.RecordEvent;
+import org.mockito.ArgumentCaptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ReindexRequestCoalescerTest {
+
+    private IdGenerator idGenerator = new IdGeneratorImpl();
+    private IndexUpdaterMetrics metrics;
+    private EventPublisher eventPublisher;
+    private LilyEventPublisherManager eventPublisherMgr;
+
+    private SchemaId vtag1 = new SchemaIdImpl("vtag1");
+    private SchemaId vtag2 = new SchemaIdImpl("vtag2");
+
+    @Before
+    public void setUp() throws Exception {
+        metrics = mock(IndexUpdaterMetrics.class);
+        metrics.errors = mock(MetricsTimeVaryingLong.class);
+        metrics.reindexRequestsCoalesced = mock(MetricsTimeVaryingLong.class);
+        metrics.lastReindexRequestedTimestamp = mock(MetricsLongValue.class);
+        eventPublisher = mock(EventPublisher.class);
+        eventPublisherMgr = mock(LilyEventPublisherManager.class);
+        when(eventPublisherMgr.getEventPublisher(eq("repo"), any(String.class))).thenReturn(eventPublisher);
+    }
+
+    @Test
+    public void testPublishRightAwayWithoutWindow() throws Exception {
+        ReindexRequestCoalescer coalescer = new ReindexRequestCoalescer("repo", "sub", eventPublisherMgr, metrics, 0);
+        AbsoluteRecordId recordId = newRecordId();
+
+        coalescer.requestReindex(requests(recordId, vtag1, vtag2));
+
+        ArgumentCaptor<byte[]> payload = ArgumentCaptor.forClass(byte[].class);
+        verify(eventPublisher).publishEvent(eq(recordId.getRecordId().toBytes()), payload.capture());
+        RecordEvent event = new RecordEvent(payload.getValue(), idGenerator);
+        assertEquals(RecordEvent.Type.INDEX, event.getType());
+        assertEquals(ImmutableSet.of(vtag1, vtag2), event.getVtagsToIndex());
+        assertTrue(event.getIndexRecordFilterData().appliesToSubscription("sub"));
+        assertFalse(event.getIndexRecordFilterData().appliesToSubscription("other"));
+
+        coalescer.shutdown();
+    }
+
+    @Test
+    public void testMergeWithinWindow() throws Exception {
+        ReindexRequestCoalescer coalescer = new ReindexRequestCoalescer("repo", "sub", eventPublisherMgr, metrics,
+                Long.MAX_VALUE / 2);
+        AbsoluteRecordId recordId1 = newRecordId();
+        AbsoluteRecordId recordId2 = newRecordId();
+
+        coalescer.requestReindex(requests(recordId1, vtag1));
+        coalescer.requestReindex(requests(recordId1, vtag2));
+        coalescer.requestReindex(requests(recordId2, vtag1));
+
+        verify(eventPublisher, never()).publishEvent(any(byte[].class), any(byte[].class));
+        verify(metrics.reindexRequestsCoalesced, times(1)).inc();
+
+        // Shutting down publishes what is pending
+        coalescer.shutdown();
+
+        ArgumentCaptor<byte[]> payload = ArgumentCaptor.forClass(byte[].class);
+        verify(eventPublisher).publishEvent(eq(recordId1.getRecordId().toBytes()), payload.capture());
+        assertEquals(ImmutableSet.of(vtag1, vtag2), new RecordEvent(payload.getValue(), idGenerator).getVtagsToIndex());
+        verify(eventPublisher).publishEvent(eq(recordId2.getRecordId().toBytes()), any(byte[].class));
+    }
+
+    @Test
+    public void testPublishAfterWindow() throws Exception {
+        ReindexRequestCoalescer coalescer = new ReindexRequestCoalescer("repo", "sub", eventPublisherMgr, metrics, 50);
+        AbsoluteRecordId recordId = newRecordId();
+
+        coalescer.requestReindex(requests(recordId, vtag1));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!isPublished(recordId) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        coalescer.shutdown();
+
+        verify(eventPublisher, times(1)).publishEvent(eq(recordId.getRecordId().toBytes()), any(byte[].class));
+    }
+
+    @Test
+    public void testPublishFailureCountsAsError() throws Exception {
+        when(eventPublisherMgr.getEventPublisher(eq("repo"), any(String.class)))
+                .thenThrow(new RuntimeException("publishing failed"));
+        ReindexRequestCoalescer coalescer = new ReindexRequestCoalescer("repo", "sub", eventPublisherMgr, metrics, 0);
+
+        coalescer.requestReindex(requests(newRecordId(), vtag1));
+
+        verify(metrics.errors).inc();
+        coalescer.shutdown();
+    }
+
+    private boolean isPublished(AbsoluteRecordId recordId) {
+        try {
+            verify(eventPublisher).publishEvent(eq(recordId.getRecordId().toBytes()), any(byte[].class));
+            return true;
+        } catch (AssertionError e) {
+            return false;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private AbsoluteRecordId newRecordId() {
+        return new AbsoluteRecordIdImpl("record", idGenerator.newRecordId());
+    }
+
+    private static Map<AbsoluteRecordId, Set<SchemaId>> requests(AbsoluteRecordId recordId, SchemaId... vtags) {
+        return ImmutableMap.<AbsoluteRecordId, Set<SchemaId>>of(recordId, ImmutableSet.copyOf(vtags));
+    }
+}
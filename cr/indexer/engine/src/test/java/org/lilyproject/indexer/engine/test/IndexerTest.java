@@ -2906,6 +2906,47 @@ public class IndexerTest {
         verifyResultCount("+v_field2:guggenheim +lily.vtag:latest", 1);
     }
 
+    /**
+     * A blind update only reads the updated fields from the original record, plus the fields the
+     * IndexRecordFilterHook needs to evaluate the record filter on it.
+     */
+    @Test
+    public void testBlindUpdateWithRecordFilter() throws Exception {
+        changeIndexUpdater("indexerconf_blind_update.xml");
+
+        messageVerifier.disable();
+
+        Record record = defaultTable.newRecord();
+        record.setRecordType(nvRecordType1.getName());
+        record.setField(nvfield1.getName(), "caseA");
+        record.setField(nvfield2.getName(), "zoo");
+        record.setField(nvTag.getName(), 0L);
+        record = defaultTable.create(record);
+
+        commitIndex();
+        verifyResultCount("nv_field2_string:zoo", 1);
+
+        // The filter only matches on nv_field1, which is not part of the update: the record is only found
+        // to be included in the index if nv_field1 was read from the original record.
+        Record update = defaultTable.newRecord(record.getId());
+        update.setField(nvfield2.getName(), "aquarium");
+        update.getAttributes().put(LTable.BLIND_UPDATE_ATTRIBUTE, "true");
+        defaultTable.update(update);
+
+        commitIndex();
+        verifyResultCount("nv_field2_string:zoo", 0);
+        verifyResultCount("nv_field2_string:aquarium", 1);
+
+        // Now the record no longer matches the filter
+        update = defaultTable.newRecord(record.getId());
+        update.setField(nvfield1.getName(), "caseB");
+        update.getAttributes().put(LTable.BLIND_UPDATE_ATTRIBUTE, "true");
+        defaultTable.update(update);
+
+        commitIndex();
+        verifyResultCount("nv_field2_string:aquarium", 0);
+    }
+
     /**
      * When a record is only included in an index to trigger updates of denormalized data
      * (that is, when vtags=""), then the IndexUpdater shouldn't do any read operations
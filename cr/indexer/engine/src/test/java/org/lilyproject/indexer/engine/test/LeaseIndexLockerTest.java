@@ -0,0 +1,231 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.engine.test;
+
+import java.io.File;
+
+import org.apache.hadoop.hbase.zookeeper.MiniZooKeeperCluster;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooKeeper;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.lilyproject.hadooptestfw.TestHelper;
+import org.lilyproject.indexer.engine.IndexLockTimeoutException;
+import org.lilyproject.indexer.engine.LeaseIndexLocker;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.impl.id.IdGeneratorImpl;
+import org.lilyproject.util.io.Closer;
+import org.lilyproject.util.net.NetUtils;
+import org.lilyproject.util.zookeeper.ZkUtil;
+import org.lilyproject.util.zookeeper.ZooKeeperItf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LeaseIndexLockerTest {
+    private static final String INDEX_NAME = "index1";
+    private static final String LEASE_PATH = "/lily/indexer/recordlease/" + INDEX_NAME;
+
+    private static MiniZooKeeperCluster ZK_CLUSTER;
+    private static File ZK_DIR;
+    private static int ZK_CLIENT_PORT;
+    private static ZooKeeperItf ZK1;
+    private static ZooKeeperItf ZK2;
+
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        TestHelper.setupLogging(LeaseIndexLockerTest.class.getName());
+
+        ZK_DIR = new File(System.getProperty("java.io.tmpdir") + File.separator + "lily.leaseindexlockertest");
+        ZK_CLIENT_PORT = NetUtils.getFreePort();
+
+        ZK_CLUSTER = new MiniZooKeeperCluster();
+        ZK_CLUSTER.setDefaultClientPort(ZK_CLIENT_PORT);
+        ZK_CLUSTER.startup(ZK_DIR);
+
+        // Two sessions, to simulate two processes
+        ZK1 = ZkUtil.connect("localhost:" + ZK_CLIENT_PORT, 3000);
+        ZK2 = ZkUtil.connect("localhost:" + ZK_CLIENT_PORT, 3000);
+    }
+
+    @AfterClass
+    public static void tearDownAfterClass() throws Exception {
+        Closer.close(ZK1);
+        Closer.close(ZK2);
+        if (ZK_CLUSTER != null) {
+            ZK_CLUSTER.shutdown();
+        }
+    }
+
+    @Test
+    public void testLockUnlock() throws Exception {
+        LeaseIndexLocker locker = new LeaseIndexLocker(ZK1, INDEX_NAME, 16, 60000, 1000, null);
+        try {
+            RecordId recordId = new IdGeneratorImpl().newRecordId();
+
+            assertFalse(locker.hasLock(recordId));
+            locker.lock(recordId);
+            assertTrue(locker.hasLock(recordId));
+            assertEquals(1, ZK1.getChildren(LEASE_PATH, false).size());
+
+            locker.unlock(recordId);
+            assertFalse(locker.hasLock(recordId));
+        } finally {
+            locker.close();
+        }
+
+        // Closing releases the unused leases
+        assertTrue(ZK1.getChildren(LEASE_PATH, false).isEmpty());
+    }
+
+    @Test
+    public void testContentionBetweenProcesses() throws Exception {
+        LeaseIndexLocker locker1 = new LeaseIndexLocker(ZK1, INDEX_NAME, 16, 60000, 1000, null);
+        LeaseIndexLocker locker2 = new LeaseIndexLocker(ZK2, INDEX_NAME, 16, 60000, 300, null);
+        try {
+            RecordId recordId = new IdGeneratorImpl().newRecordId();
+            locker1.lock(recordId);
+
+            // The other process can not take the lease while the first one holds it
+            long before = System.currentTimeMillis();
+            try {
+                locker2.lock(recordId);
+                fail("Expected an IndexLockTimeoutException");
+            } catch (IndexLockTimeoutException e) {
+                // expected
+            }
+            assertTrue(System.currentTimeMillis() - before >= 300);
+            assertFalse(locker2.hasLock(recordId));
+
+            // Unlocking keeps the lease, closing releases it
+            locker1.unlock(recordId);
+            locker1.close();
+
+            locker2.lock(recordId);
+            assertTrue(locker2.hasLock(recordId));
+            locker2.unlock(recordId);
+        } finally {
+            locker1.close();
+            locker2.close();
+        }
+    }
+
+    @Test
+    public void testUnusedLeaseIsReleased() throws Exception {
+        LeaseIndexLocker locker = new LeaseIndexLocker(ZK1, INDEX_NAME, 16, 100, 1000, null);
+        try {
+            RecordId recordId = new IdGeneratorImpl().newRecordId();
+            locker.lock(recordId);
+            locker.unlock(recordId);
+
+            long deadline = System.currentTimeMillis() + 10000;
+            while (!ZK1.getChildren(LEASE_PATH, false).isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertTrue(ZK1.getChildren(LEASE_PATH, false).isEmpty());
+
+            // The lease is taken again when needed
+            locker.lock(recordId);
+            assertTrue(locker.hasLock(recordId));
+            locker.unlock(recordId);
+        } finally {
+            locker.close();
+        }
+    }
+
+    @Test
+    public void testLockersSharingSession() throws Exception {
+        // Lockers of different indexes in the same process share the ZooKeeper session
+        LeaseIndexLocker locker1 = new LeaseIndexLocker(ZK1, INDEX_NAME, 16, 60000, 1000, null);
+        LeaseIndexLocker locker2 = new LeaseIndexLocker(ZK1, INDEX_NAME, 16, 60000, 300, null);
+        LeaseIndexLocker otherIndexLocker = new LeaseIndexLocker(ZK1, "index2", 16, 60000, 300, null);
+        try {
+            RecordId recordId = new IdGeneratorImpl().newRecordId();
+            locker1.lock(recordId);
+
+            // The lease node is owned by the session, but was not taken by this locker
+            try {
+                locker2.lock(recordId);
+                fail("Expected an IndexLockTimeoutException");
+            } catch (IndexLockTimeoutException e) {
+                // expected
+            }
+            assertFalse(locker2.hasLock(recordId));
+
+            // The leases of another index are independent
+            otherIndexLocker.lock(recordId);
+            assertTrue(otherIndexLocker.hasLock(recordId));
+            otherIndexLocker.unlock(recordId);
+
+            // Releasing the lease of the other index does not release the one of the first index
+            otherIndexLocker.close();
+            assertTrue(locker1.hasLock(recordId));
+            assertEquals(1, ZK1.getChildren(LEASE_PATH, false).size());
+
+            locker1.unlock(recordId);
+            locker1.close();
+
+            locker2.lock(recordId);
+            assertTrue(locker2.hasLock(recordId));
+            locker2.unlock(recordId);
+        } finally {
+            locker1.close();
+            locker2.close();
+            otherIndexLocker.close();
+        }
+    }
+
+    @Test
+    public void testLeasesLostOnSessionExpiry() throws Exception {
+        ZooKeeperItf zk3 = ZkUtil.connect("localhost:" + ZK_CLIENT_PORT, 3000);
+        LeaseIndexLocker locker1 = new LeaseIndexLocker(zk3, INDEX_NAME, 16, 60000, 1000, null);
+        LeaseIndexLocker locker2 = new LeaseIndexLocker(ZK2, INDEX_NAME, 16, 60000, 5000, null);
+        try {
+            RecordId recordId = new IdGeneratorImpl().newRecordId();
+            locker1.lock(recordId);
+            assertTrue(locker1.hasLock(recordId));
+
+            // Expire the session by closing another connection which uses the same session
+            ZooKeeper zk = new ZooKeeper("localhost:" + ZK_CLIENT_PORT, 3000, new Watcher() {
+                @Override
+                public void process(WatchedEvent event) {
+                }
+            }, zk3.getSessionId(), zk3.getSessionPasswd());
+            zk.close();
+
+            long deadline = System.currentTimeMillis() + 10000;
+            while (locker1.hasLock(recordId) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertFalse(locker1.hasLock(recordId));
+
+            // The lease node disappeared together with the session, so another process can take it
+            locker2.lock(recordId);
+            assertTrue(locker2.hasLock(recordId));
+            locker2.unlock(recordId);
+
+            locker1.unlockLogFailure(recordId);
+        } finally {
+            locker1.close();
+            locker2.close();
+            Closer.close(zk3);
+        }
+    }
+}
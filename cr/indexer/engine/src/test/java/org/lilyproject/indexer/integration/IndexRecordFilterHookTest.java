@@ -24,6 +24,7 @@ import org.lilyproject.indexer.model.indexerconf.IndexRecordFilter;
 import org.lilyproject.indexer.model.util.IndexInfo;
 import org.lilyproject.indexer.model.util.IndexesInfo;
 import org.lilyproject.repository.api.FieldTypes;
+import org.lilyproject.repository.api.QName;
 import org.lilyproject.repository.api.Record;
 import org.lilyproject.repository.api.Repository;
 import org.lilyproject.repository.api.RepositoryException;
@@ -34,6 +35,7 @@ import org.lilyproject.util.repo.RecordEvent.IndexRecordFilterData;
 import org.lilyproject.util.repo.RecordEvent.Type;
 import org.mockito.Mockito;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.doReturn;
@@ -86,6 +88,16 @@ public class IndexRecordFilterHookTest {
                 Table.RECORD.name, oldRecord, newRecord, idxFilterData);
     }
 
+    @Test
+    public void testGetFieldDependencies() {
+        when(indexesInfo.getRecordFilterFieldDependencies()).thenReturn(
+                ImmutableSet.of(new QName("ns", "field1"), new QName("ns", "field2")));
+
+        // Blind updates read these fields of the original record
+        assertEquals(ImmutableSet.of(new QName("ns", "field1"), new QName("ns", "field2")),
+                indexFilterHook.getFieldDependencies());
+    }
+
     @Test
     public void testBeforeCreate() throws RepositoryException, InterruptedException {
         IndexInfo inclusion = createMockIndexInfo("include", true);
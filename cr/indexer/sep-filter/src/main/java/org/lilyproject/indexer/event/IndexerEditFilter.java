@@ -28,7 +28,6 @@ import org.lilyproject.repository.impl.id.IdGeneratorImpl;
 import org.lilyproject.util.hbase.LilyHBaseSchema.RecordCf;
 import org.lilyproject.util.hbase.LilyHBaseSchema.RecordColumn;
 import org.lilyproject.util.repo.RecordEvent;
-import org.lilyproject.util.repo.RecordEvent.IndexRecordFilterData;
 
 /**
  * Filter for SEP events that removes all KeyValues from WALEdits that are not applicable to the configured index
@@ -78,9 +77,9 @@ class IndexerEditFilter implements WALEditFilter {
             if (recordEvent.hasAttributes() && "false".equals(recordEvent.getAttributes().get(NO_INDEX_FLAG))) {
                 return false;
             }
-            IndexRecordFilterData indexRecordFilterData = recordEvent.getIndexRecordFilterData();
-            if (indexRecordFilterData != null) {
-                return indexRecordFilterData.appliesToSubscription(subscriptionName);
+            // Avoid getIndexRecordFilterData(), so that the event does not need to be decoded completely
+            if (recordEvent.hasIndexRecordFilterData()) {
+                return recordEvent.appliesToSubscription(subscriptionName);
             } else {
                 log.warn("No IndexRecordFilterData on " + recordEvent.toJson());
             }
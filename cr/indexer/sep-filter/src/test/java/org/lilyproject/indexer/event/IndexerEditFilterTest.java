@@ -82,6 +82,25 @@ public class IndexerEditFilterTest {
         assertEquals(1, walEdit.size());
     }
 
+    @Test
+    public void testApply_BinaryPayload_ApplicableIndex() {
+        RecordEvent recordEvent = new RecordEvent();
+        IndexRecordFilterData filterData = new IndexRecordFilterData();
+        filterData.setSubscriptionInclusions(ImmutableSet.of(INDEX_NAME));
+        recordEvent.setIndexRecordFilterData(filterData);
+
+        WALEdit walEdit = new WALEdit();
+        walEdit.add(new KeyValue(Bytes.toBytes("row"), RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes,
+                recordEvent.toBytes()));
+        walEdit.add(new KeyValue(Bytes.toBytes("row"), RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes,
+                new byte[] {0, 1}));
+
+        editFilter.apply(walEdit);
+
+        // The truncated binary payload is removed
+        assertEquals(1, walEdit.size());
+    }
+
     @Test
     public void testApply_Payload_ApplicableIndexButNoIndexFlagIsSet() {
         RecordEvent recordEvent = new RecordEvent();
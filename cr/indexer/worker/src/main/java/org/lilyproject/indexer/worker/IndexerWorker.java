@@ -39,7 +39,8 @@ import org.lilyproject.indexer.derefmap.DerefMap;
 import org.lilyproject.indexer.derefmap.DerefMapHbaseImpl;
 import org.lilyproject.indexer.engine.ClassicSolrShardManager;
 import org.lilyproject.indexer.engine.CloudSolrShardManager;
-import org.lilyproject.indexer.engine.IndexLocker;
+import org.lilyproject.indexer.engine.IndexLockProvider;
+import org.lilyproject.indexer.engine.IndexLockProviderFactory;
 import org.lilyproject.indexer.engine.IndexUpdater;
 import org.lilyproject.indexer.engine.IndexUpdaterMetrics;
 import org.lilyproject.indexer.engine.Indexer;
@@ -192,29 +193,34 @@ public class IndexerWorker {
 
             final SolrShardManager solrShardMgr = getSolrShardManager(index);
 
-            IndexLocker indexLocker = new IndexLocker(zk, settings.getEnableLocking());
             IndexerMetrics indexerMetrics = new IndexerMetrics(index.getName());
+            IndexLockProvider indexLocker = IndexLockProviderFactory.create(settings.getLockProvider(),
+                    index.getName(), zk, settings.getEnableLocking(), indexerMetrics);
 
             // Create a deref map in case the indexer configuration contains deref fields and the index definition says
-            // we should maintain a deref map.
+            // we should maintain a deref map. Its updates are buffered, the index updater flushes them after each
+            // batch of events.
             DerefMap derefMap = index.isEnableDerefMap() && indexerConf.containsDerefExpressions() ?
                     DerefMapHbaseImpl.create(repository.getRepositoryName(), index.getName(), hbaseConf, tableFactory,
-                            repository.getIdGenerator()) : null;
+                            repository.getIdGenerator(), true) : null;
 
             // create and register the indexer
             Indexer indexer = new Indexer(index.getName(), indexerConf, repository, solrShardMgr, indexLocker,
                     indexerMetrics, derefMap);
             indexerRegistry.register(indexer);
 
-            IndexUpdaterMetrics updaterMetrics = new IndexUpdaterMetrics(index.getName());
+            IndexUpdaterMetrics updaterMetrics = new IndexUpdaterMetrics(index.getName(),
+                    settings.getIndexUpdaterThreads());
             LilyEventPublisherManager eventPublisherManager = new LilyEventPublisherManager(tableFactory);
             IndexUpdater indexUpdater = new IndexUpdater(indexer, repositoryManager, repository.getRepositoryName(),
-                    indexLocker, updaterMetrics, derefMap, eventPublisherManager, index.getQueueSubscriptionId());
+                    indexLocker, updaterMetrics, derefMap, eventPublisherManager, index.getQueueSubscriptionId(),
+                    settings.getIndexUpdaterThreads(), settings.getReindexCoalesceWindow());
 
             SepConsumer sepConsumer = new SepConsumer(index.getQueueSubscriptionId(),
                     index.getSubscriptionTimestamp(), indexUpdater, settings.getListenersPerIndex(), hostName,
                     new ZooKeeperItfAdapter(zk), hbaseConf, new LilyPayloadExtractor());
-            handle = new IndexUpdaterHandle(index, sepConsumer, solrShardMgr, indexerMetrics, updaterMetrics);
+            handle = new IndexUpdaterHandle(index, sepConsumer, indexUpdater, indexLocker, solrShardMgr,
+                    indexerMetrics, updaterMetrics);
             handle.start();
 
             indexUpdaters.put(index.getName(), handle);
@@ -245,7 +251,7 @@ public class IndexerWorker {
     private SolrShardManager getSolrShardManager(IndexDefinition index) throws Exception {
         if (index.getSolrShards().isEmpty()) {
             return new CloudSolrShardManager(index.getName(), index.getZkConnectionString(), index.getSolrCollection(),
-                    true);
+                    true, solrClientConfig);
         } else {
             ShardSelector shardSelector;
             if (index.getShardingConfiguration() == null) {
@@ -333,15 +339,19 @@ public class IndexerWorker {
     private class IndexUpdaterHandle {
         private final IndexDefinition indexDef;
         private final SepConsumer sepConsumer;
+        private final IndexUpdater indexUpdater;
+        private final IndexLockProvider indexLocker;
         private final SolrShardManager solrShardMgr;
         private final IndexerMetrics indexerMetrics;
         private final IndexUpdaterMetrics updaterMetrics;
 
-        IndexUpdaterHandle(IndexDefinition indexDef, SepConsumer sepEventSlave,
-                                  SolrShardManager solrShardMgr, IndexerMetrics indexerMetrics,
+        IndexUpdaterHandle(IndexDefinition indexDef, SepConsumer sepEventSlave, IndexUpdater indexUpdater,
+                                  IndexLockProvider indexLocker, SolrShardManager solrShardMgr, IndexerMetrics indexerMetrics,
                                   IndexUpdaterMetrics updaterMetrics) {
             this.indexDef = indexDef;
             this.sepConsumer = sepEventSlave;
+            this.indexUpdater = indexUpdater;
+            this.indexLocker = indexLocker;
             this.solrShardMgr = solrShardMgr;
             this.indexerMetrics = indexerMetrics;
             this.updaterMetrics = updaterMetrics;
@@ -353,6 +363,8 @@ public class IndexerWorker {
 
         public void stop() throws InterruptedException {
             Closer.close(sepConsumer);
+            Closer.close(indexUpdater);
+            Closer.close(indexLocker);
             Closer.close(solrShardMgr);
             Closer.close(indexerMetrics);
             Closer.close(updaterMetrics);
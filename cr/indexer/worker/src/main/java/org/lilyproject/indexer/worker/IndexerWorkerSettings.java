@@ -17,7 +17,10 @@ package org.lilyproject.indexer.worker;
 
 public class IndexerWorkerSettings {
     private int listenersPerIndex = 10;
+    private int indexUpdaterThreads = 1;
+    private long reindexCoalesceWindow = 0;
     private boolean enableLocking = false;
+    private String lockProvider = "zookeeper";
     private int solrMaxTotalConnections = 200;
     private int solrMaxConnectionsPerHost = 50;
 
@@ -29,6 +32,22 @@ public class IndexerWorkerSettings {
         this.listenersPerIndex = listenersPerIndex;
     }
 
+    public int getIndexUpdaterThreads() {
+        return indexUpdaterThreads;
+    }
+
+    public void setIndexUpdaterThreads(int indexUpdaterThreads) {
+        this.indexUpdaterThreads = indexUpdaterThreads;
+    }
+
+    public long getReindexCoalesceWindow() {
+        return reindexCoalesceWindow;
+    }
+
+    public void setReindexCoalesceWindow(long reindexCoalesceWindow) {
+        this.reindexCoalesceWindow = reindexCoalesceWindow;
+    }
+
     public boolean getEnableLocking() {
         return enableLocking;
     }
@@ -37,6 +56,14 @@ public class IndexerWorkerSettings {
         this.enableLocking = enableLocking;
     }
 
+    public String getLockProvider() {
+        return lockProvider;
+    }
+
+    public void setLockProvider(String lockProvider) {
+        this.lockProvider = lockProvider;
+    }
+
     public int getSolrMaxTotalConnections() {
         return solrMaxTotalConnections;
     }
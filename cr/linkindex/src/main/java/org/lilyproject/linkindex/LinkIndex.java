@@ -18,8 +18,10 @@ package org.lilyproject.linkindex;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import com.google.common.collect.Sets;
@@ -65,6 +67,16 @@ public class LinkIndex {
     private static final byte[] SOURCE_FIELD_KEY = Bytes.toBytes("sf");
     private static final byte[] VTAG_KEY = Bytes.toBytes("vt");
 
+    /**
+     * Scanner caching for the referrers of a record: all of them are read, and popular records can have many.
+     */
+    private static final int REFERRERS_CACHING = 500;
+
+    /**
+     * Scanner caching for the links of a record, which are read completely and typically are few.
+     */
+    private static final int FORWARD_LINKS_CACHING = 100;
+
     public LinkIndex(final IndexManager indexManager, RepositoryManager repositoryManager) throws IndexNotFoundException, IOException,
             InterruptedException {
         metrics = new LinkIndexMetrics("linkIndex");
@@ -206,11 +218,6 @@ public class LinkIndex {
             throws LinkIndexException, InterruptedException {
         long before = System.currentTimeMillis();
         try {
-            // We could simply delete all the old entries using deleteLinks() and then add
-            // all new entries, but instead we find out what actually needs adding or removing and only
-            // perform that. This is to avoid running into problems due to http://search-hadoop.com/m/rNnhN15Xecu
-            // (= delete and put within the same millisecond).
-
             Set<FieldedLink> oldLinks = isNewRecord ?
                     Collections.<FieldedLink>emptySet() : getFieldedForwardLinks(sourceRecord, vtag);
 
@@ -219,59 +226,120 @@ public class LinkIndex {
                 return;
             }
 
-            // Find out what changed
+            Mutations mutations = new Mutations();
+            mutations.addChanges(sourceRecord, vtag, oldLinks, links);
+            mutations.apply();
+        } catch (IOException e) {
+            throw new LinkIndexException("Error updating links for record '" + sourceRecord + "', vtag '" +
+                    vtag + "'", e);
+        } finally {
+            metrics.report(Action.UPDATE_LINKS, System.currentTimeMillis() - before);
+        }
+    }
+
+    /**
+     * Applies the updates of a batch, see {@link LinkIndexBatch}. This has the same effect as doing the updates one
+     * by one, but the existing links of each record are read with one query for all its vtags, and all index
+     * entries are added and removed with a few multi-puts and multi-deletes.
+     */
+    public void apply(LinkIndexBatch batch) throws LinkIndexException, InterruptedException {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        long before = System.currentTimeMillis();
+        try {
+            Mutations mutations = new Mutations();
+            for (AbsoluteRecordId sourceRecord : batch.getSourceRecords()) {
+                Map<SchemaId, Set<FieldedLink>> newLinks = batch.getLinksByVTag(sourceRecord);
+
+                Map<SchemaId, Set<FieldedLink>> oldLinks = new HashMap<SchemaId, Set<FieldedLink>>();
+                if (batch.mightHaveLinks(sourceRecord)) {
+                    for (Pair<FieldedLink, SchemaId> link : getAllForwardLinks(sourceRecord)) {
+                        Set<FieldedLink> vtagLinks = oldLinks.get(link.getV2());
+                        if (vtagLinks == null) {
+                            vtagLinks = new HashSet<FieldedLink>();
+                            oldLinks.put(link.getV2(), vtagLinks);
+                        }
+                        vtagLinks.add(link.getV1());
+                    }
+                }
+
+                Set<SchemaId> vtags = new HashSet<SchemaId>(newLinks.keySet());
+                if (batch.isDeleted(sourceRecord)) {
+                    vtags.addAll(oldLinks.keySet());
+                }
+
+                for (SchemaId vtag : vtags) {
+                    Set<FieldedLink> links = newLinks.get(vtag);
+                    Set<FieldedLink> vtagOldLinks = oldLinks.get(vtag);
+                    mutations.addChanges(sourceRecord, vtag,
+                            vtagOldLinks != null ? vtagOldLinks : Collections.<FieldedLink>emptySet(),
+                            links != null ? links : Collections.<FieldedLink>emptySet());
+                }
+            }
+            mutations.apply();
+        } catch (IOException e) {
+            throw new LinkIndexException("Error updating links for a batch of " + batch.size() + " records", e);
+        } finally {
+            metrics.report(Action.APPLY_BATCH, System.currentTimeMillis() - before);
+        }
+    }
+
+    /**
+     * The index entries to add and remove to change the links of records.
+     */
+    private class Mutations {
+        private final List<IndexEntry> fwdAdds = new ArrayList<IndexEntry>();
+        private final List<IndexEntry> bkwdAdds = new ArrayList<IndexEntry>();
+        private final List<IndexEntry> fwdRemoves = new ArrayList<IndexEntry>();
+        private final List<IndexEntry> bkwdRemoves = new ArrayList<IndexEntry>();
+
+        void addChanges(AbsoluteRecordId sourceRecord, SchemaId vtag, Set<FieldedLink> oldLinks,
+                        Set<FieldedLink> links) {
+            // We could simply delete all the old entries and then add all new entries, but instead we find out
+            // what actually needs adding or removing and only perform that. This is to avoid running into problems
+            // due to http://search-hadoop.com/m/rNnhN15Xecu (= delete and put within the same millisecond).
             Set<FieldedLink> removedLinks = new HashSet<FieldedLink>(oldLinks);
             removedLinks.removeAll(links);
             Set<FieldedLink> addedLinks = new HashSet<FieldedLink>(links);
             addedLinks.removeAll(oldLinks);
 
-            // Apply added links
             byte[] sourceAsBytes = sourceRecord.toBytes();
-            List<IndexEntry> fwdEntries = null;
-            List<IndexEntry> bkwdEntries = null;
-            if (addedLinks.size() > 0) {
-                fwdEntries = new ArrayList<IndexEntry>(Math.max(addedLinks.size(), removedLinks.size()));
-                bkwdEntries = new ArrayList<IndexEntry>(fwdEntries.size());
-                for (FieldedLink link : addedLinks) {
-                    IndexEntry fwdEntry = createForwardIndexEntry(vtag, sourceRecord, link.getFieldTypeId());
-                    fwdEntry.setIdentifier(link.getAbsoluteRecordId().toBytes());
-                    fwdEntries.add(fwdEntry);
-
-                    IndexEntry bkwdEntry = createBackwardIndexEntry(vtag, link.getAbsoluteRecordId(), link.getFieldTypeId());
-                    bkwdEntry.setIdentifier(sourceAsBytes);
-                    bkwdEntries.add(bkwdEntry);
-                }
-                forwardIndex.addEntries(fwdEntries);
-                backwardIndex.addEntries(bkwdEntries);
+            for (FieldedLink link : addedLinks) {
+                IndexEntry fwdEntry = createForwardIndexEntry(vtag, sourceRecord, link.getFieldTypeId());
+                fwdEntry.setIdentifier(link.getAbsoluteRecordId().toBytes());
+                fwdAdds.add(fwdEntry);
+
+                IndexEntry bkwdEntry = createBackwardIndexEntry(vtag, link.getAbsoluteRecordId(), link.getFieldTypeId());
+                bkwdEntry.setIdentifier(sourceAsBytes);
+                bkwdAdds.add(bkwdEntry);
             }
 
-            // Apply removed links
-            if (removedLinks.size() > 0) {
-                if (fwdEntries != null) {
-                    fwdEntries.clear();
-                    bkwdEntries.clear();
-                } else {
-                    fwdEntries = new ArrayList<IndexEntry>(removedLinks.size());
-                    bkwdEntries = new ArrayList<IndexEntry>(fwdEntries.size());
-                }
+            for (FieldedLink link : removedLinks) {
+                IndexEntry bkwdEntry = createBackwardIndexEntry(vtag, link.getAbsoluteRecordId(), link.getFieldTypeId());
+                bkwdEntry.setIdentifier(sourceAsBytes);
+                bkwdRemoves.add(bkwdEntry);
 
-                for (FieldedLink link : removedLinks) {
-                    IndexEntry bkwdEntry = createBackwardIndexEntry(vtag, link.getAbsoluteRecordId(), link.getFieldTypeId());
-                    bkwdEntry.setIdentifier(sourceAsBytes);
-                    bkwdEntries.add(bkwdEntry);
+                IndexEntry fwdEntry = createForwardIndexEntry(vtag, sourceRecord, link.getFieldTypeId());
+                fwdEntry.setIdentifier(link.getAbsoluteRecordId().toBytes());
+                fwdRemoves.add(fwdEntry);
+            }
+        }
 
-                    IndexEntry fwdEntry = createForwardIndexEntry(vtag, sourceRecord, link.getFieldTypeId());
-                    fwdEntry.setIdentifier(link.getAbsoluteRecordId().toBytes());
-                    fwdEntries.add(fwdEntry);
-                }
-                backwardIndex.removeEntries(bkwdEntries);
-                forwardIndex.removeEntries(fwdEntries);
+        /**
+         * Applies the changes, in an order that never leaves entries in the backward index which can not be found
+         * via the forward index: the forward index first for added links, last for removed links.
+         */
+        void apply() throws IOException {
+            if (!fwdAdds.isEmpty()) {
+                forwardIndex.addEntries(fwdAdds);
+                backwardIndex.addEntries(bkwdAdds);
+            }
+            if (!bkwdRemoves.isEmpty()) {
+                backwardIndex.removeEntries(bkwdRemoves);
+                forwardIndex.removeEntries(fwdRemoves);
             }
-        } catch (IOException e) {
-            throw new LinkIndexException("Error updating links for record '" + sourceRecord + "', vtag '" +
-                    vtag + "'", e);
-        } finally {
-            metrics.report(Action.UPDATE_LINKS, System.currentTimeMillis() - before);
         }
     }
 
@@ -328,6 +396,7 @@ public class LinkIndex {
         long before = System.currentTimeMillis();
         try {
             Query query = new Query();
+            query.setCaching(REFERRERS_CACHING);
             query.addEqualsCondition("target", record.toBytes());
             if (vtag != null) {
                 query.addEqualsCondition("vtag", vtag.getBytes());
@@ -360,6 +429,7 @@ public class LinkIndex {
         long before = System.currentTimeMillis();
         try {
             Query query = new Query();
+            query.setCaching(REFERRERS_CACHING);
             query.addEqualsCondition("target", record.toBytes());
             if (vtag != null) {
                 query.addEqualsCondition("vtag", vtag.getBytes());
@@ -394,6 +464,7 @@ public class LinkIndex {
         long before = System.currentTimeMillis();
         try {
             Query query = new Query();
+            query.setCaching(FORWARD_LINKS_CACHING);
             query.addEqualsCondition("source", record.toBytes());
 
             Set<Pair<FieldedLink, SchemaId>> result = new HashSet<Pair<FieldedLink, SchemaId>>();
@@ -438,6 +509,7 @@ public class LinkIndex {
         long before = System.currentTimeMillis();
         try {
             Query query = new Query();
+            query.setCaching(FORWARD_LINKS_CACHING);
             query.addEqualsCondition("source", record.toBytes());
             if (vtag != null) {
                 query.addEqualsCondition("vtag", vtag.getBytes());
@@ -475,6 +547,7 @@ public class LinkIndex {
         long before = System.currentTimeMillis();
         try {
             Query query = new Query();
+            query.setCaching(FORWARD_LINKS_CACHING);
             query.addEqualsCondition("source", record.toBytes());
             if (vtag != null) {
                 query.addEqualsCondition("vtag", vtag.getBytes());
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.linkindex;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.lilyproject.repository.api.AbsoluteRecordId;
+import org.lilyproject.repository.api.SchemaId;
+
+/**
+ * A set of link index updates, which are applied together by {@link LinkIndex#apply(LinkIndexBatch)}.
+ *
+ * <p>The methods have the same meaning as the corresponding methods of {@link LinkIndex}. When the links of the
+ * same record and vtag are updated more than once, the last update wins.</p>
+ */
+public class LinkIndexBatch {
+    private final Map<AbsoluteRecordId, Map<SchemaId, Set<FieldedLink>>> links =
+            new LinkedHashMap<AbsoluteRecordId, Map<SchemaId, Set<FieldedLink>>>();
+    private final Set<AbsoluteRecordId> deletedRecords = new HashSet<AbsoluteRecordId>();
+    private final Set<AbsoluteRecordId> existingRecords = new HashSet<AbsoluteRecordId>();
+
+    /**
+     * @param links       if this set is empty, the links of the record in the vtag are deleted
+     * @param isNewRecord if this is a new record, the existing links don't need to be read
+     */
+    public void updateLinks(AbsoluteRecordId sourceRecord, SchemaId vtag, Set<FieldedLink> links,
+                            boolean isNewRecord) {
+        getLinks(sourceRecord).put(vtag, links);
+        if (!isNewRecord) {
+            existingRecords.add(sourceRecord);
+        }
+    }
+
+    public void deleteLinks(AbsoluteRecordId sourceRecord, SchemaId vtag) {
+        updateLinks(sourceRecord, vtag, Collections.<FieldedLink>emptySet(), false);
+    }
+
+    /**
+     * Deletes all links of a record, irrespective of the vtag.
+     */
+    public void deleteLinks(AbsoluteRecordId sourceRecord) {
+        getLinks(sourceRecord).clear();
+        deletedRecords.add(sourceRecord);
+        existingRecords.add(sourceRecord);
+    }
+
+    private Map<SchemaId, Set<FieldedLink>> getLinks(AbsoluteRecordId sourceRecord) {
+        Map<SchemaId, Set<FieldedLink>> recordLinks = links.get(sourceRecord);
+        if (recordLinks == null) {
+            recordLinks = new HashMap<SchemaId, Set<FieldedLink>>();
+            links.put(sourceRecord, recordLinks);
+        }
+        return recordLinks;
+    }
+
+    public boolean isEmpty() {
+        return links.isEmpty();
+    }
+
+    public int size() {
+        return links.size();
+    }
+
+    Set<AbsoluteRecordId> getSourceRecords() {
+        return links.keySet();
+    }
+
+    /**
+     * The new links of the source record by vtag, the links in other vtags stay unchanged unless
+     * {@link #isDeleted(AbsoluteRecordId)}.
+     */
+    Map<SchemaId, Set<FieldedLink>> getLinksByVTag(AbsoluteRecordId sourceRecord) {
+        return links.get(sourceRecord);
+    }
+
+    /**
+     * True if all links of the source record were deleted, before the vtags in
+     * {@link #getLinksByVTag(AbsoluteRecordId)} were updated.
+     */
+    boolean isDeleted(AbsoluteRecordId sourceRecord) {
+        return deletedRecords.contains(sourceRecord);
+    }
+
+    /**
+     * False if the source record is new, so that it has no links in the index yet.
+     */
+    boolean mightHaveLinks(AbsoluteRecordId sourceRecord) {
+        return existingRecords.contains(sourceRecord);
+    }
+}
@@ -20,6 +20,7 @@ import static org.lilyproject.util.repo.RecordEvent.Type.DELETE;
 import static org.lilyproject.util.repo.RecordEvent.Type.UPDATE;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -35,6 +36,7 @@ import org.lilyproject.repository.api.FieldType;
 import org.lilyproject.repository.api.IdRecord;
 import org.lilyproject.repository.api.LRepository;
 import org.lilyproject.repository.api.LTable;
+import org.lilyproject.repository.api.RecordId;
 import org.lilyproject.repository.api.RecordNotFoundException;
 import org.lilyproject.repository.api.RepositoryException;
 import org.lilyproject.repository.api.RepositoryManager;
@@ -73,10 +75,117 @@ public class LinkIndexUpdater extends LilyEventListener {
 
     @Override
     public void processLilyEvents(List<LilySepEvent> events) {
+        if (events.size() == 1) {
+            processEvent(events.get(0));
+            return;
+        }
+
+        long before = System.currentTimeMillis();
+        try {
+            updateBatch(events);
+        } finally {
+            metrics.report(Action.UPDATE_BATCH, System.currentTimeMillis() - before);
+        }
+    }
+
+    /**
+     * Updates the link index for a batch of events. The records are read with one multi-get per table, and the link
+     * index is updated with one {@link LinkIndex#apply(LinkIndexBatch)}. Records which have more than one event in
+     * the batch are processed one event at a time afterwards, so that their events are handled in order.
+     */
+    private void updateBatch(List<LilySepEvent> events) {
+        Map<AbsoluteRecordId, Integer> eventCounts = new HashMap<AbsoluteRecordId, Integer>();
+        for (LilySepEvent event : events) {
+            Integer count = eventCounts.get(event.getAbsoluteRecordId());
+            eventCounts.put(event.getAbsoluteRecordId(), count == null ? 1 : count + 1);
+        }
+
+        List<AbsoluteRecordId> recordIds = new ArrayList<AbsoluteRecordId>(events.size());
+        List<RecordEvent> recordEvents = new ArrayList<RecordEvent>(events.size());
+        List<LilySepEvent> repeatedEvents = new ArrayList<LilySepEvent>();
         for (LilySepEvent event : events) {
+            if (eventCounts.get(event.getAbsoluteRecordId()) > 1) {
+                repeatedEvents.add(event);
+                continue;
+            }
+            try {
+                recordEvents.add(event.getRecordEvent());
+                recordIds.add(event.getAbsoluteRecordId());
+            } catch (IOException e) {
+                log.error("Error reading record event, processing of message cancelled", e);
+            }
+        }
+
+        try {
+            LRepository repository = repositoryManager.getDefaultRepository();
+            Map<String, Map<RecordId, IdRecord>> records = readRecords(recordIds, recordEvents, repository);
+
+            LinkIndexBatch batch = new LinkIndexBatch();
+            for (int i = 0; i < recordIds.size(); i++) {
+                AbsoluteRecordId absRecordId = recordIds.get(i);
+                RecordEvent recordEvent = recordEvents.get(i);
+                if (recordEvent.getType().equals(DELETE)) {
+                    deleteLinks(absRecordId, batch, "delete event");
+                } else if (recordEvent.getType().equals(CREATE) || recordEvent.getType().equals(UPDATE)) {
+                    IdRecord record = records.get(recordEvent.getTableName()).get(absRecordId.getRecordId());
+                    if (record == null) {
+                        deleteLinks(absRecordId, batch, "does not exist");
+                        continue;
+                    }
+                    RecordEventHelper eventHelper = new RecordEventHelper(recordEvent, LINK_FIELD_FILTER,
+                            repository.getTypeManager());
+                    VTaggedRecord vtRecord = new VTaggedRecord(record, eventHelper,
+                            repository.getTable(recordEvent.getTableName()), repository);
+                    updateLinks(absRecordId, recordEvent.getType().equals(CREATE), eventHelper, vtRecord, batch);
+                }
+            }
+            linkIndex.apply(batch);
+        } catch (Exception e) {
+            // Throw the exception through so that the batch is retried later by the SEP
+            ExceptionUtil.handleInterrupt(e);
+            throw new RuntimeException(e);
+        }
+
+        for (LilySepEvent event : repeatedEvents) {
             processEvent(event);
         }
     }
+
+    /**
+     * Reads the created and updated records, with one multi-get per table.
+     *
+     * @return the records by table and record id, records which do not exist are missing
+     */
+    private Map<String, Map<RecordId, IdRecord>> readRecords(List<AbsoluteRecordId> recordIds,
+            List<RecordEvent> recordEvents, LRepository repository) throws RepositoryException, InterruptedException {
+        long before = System.currentTimeMillis();
+        try {
+            Map<String, List<RecordId>> recordIdsByTable = new HashMap<String, List<RecordId>>();
+            for (int i = 0; i < recordIds.size(); i++) {
+                RecordEvent recordEvent = recordEvents.get(i);
+                if (recordEvent.getType().equals(CREATE) || recordEvent.getType().equals(UPDATE)) {
+                    List<RecordId> tableRecordIds = recordIdsByTable.get(recordEvent.getTableName());
+                    if (tableRecordIds == null) {
+                        tableRecordIds = new ArrayList<RecordId>();
+                        recordIdsByTable.put(recordEvent.getTableName(), tableRecordIds);
+                    }
+                    tableRecordIds.add(recordIds.get(i).getRecordId());
+                }
+            }
+
+            Map<String, Map<RecordId, IdRecord>> records = new HashMap<String, Map<RecordId, IdRecord>>();
+            for (Map.Entry<String, List<RecordId>> entry : recordIdsByTable.entrySet()) {
+                Map<RecordId, IdRecord> tableRecords = new HashMap<RecordId, IdRecord>();
+                for (IdRecord record : repository.getTable(entry.getKey()).readWithIds(entry.getValue(), null)) {
+                    tableRecords.put(record.getId(), record);
+                }
+                records.put(entry.getKey(), tableRecords);
+            }
+            return records;
+        } finally {
+            metrics.report(Action.READ_BATCH, System.currentTimeMillis() - before);
+        }
+    }
     
     public void processEvent(LilySepEvent event) {
 
@@ -116,12 +225,10 @@ public class LinkIndexUpdater extends LilyEventListener {
 
         long before = System.currentTimeMillis();
         try {
+            LinkIndexBatch batch = new LinkIndexBatch();
             if (recordEvent.getType().equals(DELETE)) {
                 // Delete everything from the link index for this record, thus for all vtags
-                linkIndex.deleteLinks(absRecordId);
-                if (log.isDebugEnabled()) {
-                    log.debug("Record " + absRecordId + " : delete event : deleted extracted links.");
-                }
+                deleteLinks(absRecordId, batch, "delete event");
             } else if (recordEvent.getType().equals(CREATE) || recordEvent.getType().equals(UPDATE)) {
                 boolean isNewRecord = recordEvent.getType().equals(CREATE);
 
@@ -134,60 +241,17 @@ public class LinkIndexUpdater extends LilyEventListener {
                     LTable table = repository.getTable(recordEvent.getTableName());
                     vtRecord = new VTaggedRecord(absRecordId.getRecordId(), eventHelper, table, repository);
                 } catch (RecordNotFoundException e) {
-                    // record not found: delete all links for all vtags
-                    linkIndex.deleteLinks(absRecordId);
-                    if (log.isDebugEnabled()) {
-                        log.debug("Record " + absRecordId + " : does not exist : deleted extracted links.");
-                    }
-                    return;
+                    vtRecord = null;
                 }
 
-                //
-                // First find out for what vtags we need to re-perform the link extraction
-                //
-                Set<SchemaId> vtagsToProcess = new HashSet<SchemaId>();
-
-                // Modified vtag fields
-                vtagsToProcess.addAll(eventHelper.getModifiedVTags());
-
-                // The vtags of the created/modified version, if any, and if any link fields changed
-                vtagsToProcess.addAll(vtRecord.getVTagsOfModifiedData());
-
-                Map<SchemaId, Long> vtags = vtRecord.getVTags();
-
-                //
-                // For each of the vtags, perform the link extraction
-                //
-                Map<Long, Set<FieldedLink>> cache = new HashMap<Long, Set<FieldedLink>>();
-                for (SchemaId vtag : vtagsToProcess) {
-                    if (!vtags.containsKey(vtag)) {
-                        // The vtag is not defined on the document: it is a deleted vtag, delete the
-                        // links corresponding to it
-                        linkIndex.deleteLinks(absRecordId, vtag);
-                        if (log.isDebugEnabled()) {
-                            log.debug(String.format("Record %1$s, vtag %2$s : deleted extracted links " +
-                                    "because vtag does not exist on document anymore",
-                                    absRecordId, safeLoadTagName(vtag)));
-                        }
-                    } else {
-                        // Since one version might have multiple vtags, we keep a little cache to avoid
-                        // extracting the links from the same version twice.
-                        long version = vtags.get(vtag);
-                        Set<FieldedLink> links;
-                        if (cache.containsKey(version)) {
-                            links = cache.get(version);
-                        } else {
-                            links = extractLinks(vtRecord, version);
-                            cache.put(version, links);
-                        }
-                        linkIndex.updateLinks(absRecordId, vtag, links, isNewRecord);
-                        if (log.isDebugEnabled()) {
-                            log.debug(String.format("Record %1$s, vtag %2$s : extracted links count : %3$s",
-                                    absRecordId, safeLoadTagName(vtag), links.size()));
-                        }
-                    }
+                if (vtRecord == null) {
+                    // record not found: delete all links for all vtags
+                    deleteLinks(absRecordId, batch, "does not exist");
+                } else {
+                    updateLinks(absRecordId, isNewRecord, eventHelper, vtRecord, batch);
                 }
             }
+            linkIndex.apply(batch);
         } catch (Exception e) {
             // Throw the exception through so that it is retried later by the SEP
             ExceptionUtil.handleInterrupt(e);
@@ -197,6 +261,66 @@ public class LinkIndexUpdater extends LilyEventListener {
         }
     }
 
+    private void deleteLinks(AbsoluteRecordId absRecordId, LinkIndexBatch batch, String reason) {
+        batch.deleteLinks(absRecordId);
+        if (log.isDebugEnabled()) {
+            log.debug("Record " + absRecordId + " : " + reason + " : deleted extracted links.");
+        }
+    }
+
+    /**
+     * Adds the link updates for the vtags affected by the record event to the batch.
+     */
+    private void updateLinks(AbsoluteRecordId absRecordId, boolean isNewRecord, RecordEventHelper eventHelper,
+                             VTaggedRecord vtRecord, LinkIndexBatch batch)
+            throws RepositoryException, InterruptedException {
+        //
+        // First find out for what vtags we need to re-perform the link extraction
+        //
+        Set<SchemaId> vtagsToProcess = new HashSet<SchemaId>();
+
+        // Modified vtag fields
+        vtagsToProcess.addAll(eventHelper.getModifiedVTags());
+
+        // The vtags of the created/modified version, if any, and if any link fields changed
+        vtagsToProcess.addAll(vtRecord.getVTagsOfModifiedData());
+
+        Map<SchemaId, Long> vtags = vtRecord.getVTags();
+
+        //
+        // For each of the vtags, perform the link extraction
+        //
+        Map<Long, Set<FieldedLink>> cache = new HashMap<Long, Set<FieldedLink>>();
+        for (SchemaId vtag : vtagsToProcess) {
+            if (!vtags.containsKey(vtag)) {
+                // The vtag is not defined on the document: it is a deleted vtag, delete the
+                // links corresponding to it
+                batch.deleteLinks(absRecordId, vtag);
+                if (log.isDebugEnabled()) {
+                    log.debug(String.format("Record %1$s, vtag %2$s : deleted extracted links " +
+                            "because vtag does not exist on document anymore",
+                            absRecordId, safeLoadTagName(vtag)));
+                }
+            } else {
+                // Since one version might have multiple vtags, we keep a little cache to avoid
+                // extracting the links from the same version twice.
+                long version = vtags.get(vtag);
+                Set<FieldedLink> links;
+                if (cache.containsKey(version)) {
+                    links = cache.get(version);
+                } else {
+                    links = extractLinks(vtRecord, version);
+                    cache.put(version, links);
+                }
+                batch.updateLinks(absRecordId, vtag, links, isNewRecord);
+                if (log.isDebugEnabled()) {
+                    log.debug(String.format("Record %1$s, vtag %2$s : extracted links count : %3$s",
+                            absRecordId, safeLoadTagName(vtag), links.size()));
+                }
+            }
+        }
+    }
+
     private Set<FieldedLink> extractLinks(VTaggedRecord vtRecord, Long version) {
         long before = System.currentTimeMillis();
         try {
@@ -30,7 +30,7 @@ import org.lilyproject.util.hbase.metrics.MetricsDynamicMBeanBase;
 
 public class LinkIndexUpdaterMetrics implements Updater {
     public enum Action{
-        UPDATE, EXTRACT}
+        UPDATE, EXTRACT, READ_BATCH, UPDATE_BATCH}
 
     private final MetricsRegistry registry = new MetricsRegistry();
     private final MetricsRecord metricsRecord;
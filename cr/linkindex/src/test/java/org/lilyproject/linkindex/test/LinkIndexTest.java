@@ -31,6 +31,7 @@ import org.lilyproject.hadooptestfw.TestHelper;
 import org.lilyproject.hbaseindex.IndexManager;
 import org.lilyproject.linkindex.FieldedLink;
 import org.lilyproject.linkindex.LinkIndex;
+import org.lilyproject.linkindex.LinkIndexBatch;
 import org.lilyproject.linkindex.LinkIndexUpdater;
 import org.lilyproject.repository.api.AbsoluteRecordId;
 import org.lilyproject.repository.api.FieldType;
@@ -183,6 +184,36 @@ public class LinkIndexTest {
         assertEquals(2, absoluteReferrers.size());
     }
 
+    @Test
+    public void testLinkIndexBatch() throws Exception {
+        SchemaId liveTag = repository.getIdGenerator().getSchemaId(UUID.randomUUID());
+        SchemaId lastTag = repository.getIdGenerator().getSchemaId(UUID.randomUUID());
+
+        Set<FieldedLink> links1 = Sets.newHashSet(new FieldedLink(createAbsoluteId("bid1"), field1));
+        Set<FieldedLink> links2 = Sets.newHashSet(new FieldedLink(createAbsoluteId("bid2"), field1));
+
+        linkIndex.updateLinks(createAbsoluteId("bidA"), liveTag, links1, false);
+        linkIndex.updateLinks(createAbsoluteId("bidB"), liveTag, links1, false);
+        linkIndex.updateLinks(createAbsoluteId("bidB"), lastTag, links1, false);
+
+        LinkIndexBatch batch = new LinkIndexBatch();
+        batch.updateLinks(createAbsoluteId("bidA"), liveTag, links2, false);
+        batch.deleteLinks(createAbsoluteId("bidB"));
+        batch.updateLinks(createAbsoluteId("bidC"), liveTag, links1, true);
+        linkIndex.apply(batch);
+
+        assertEquals(links2, linkIndex.getFieldedForwardLinks(createAbsoluteId("bidA"), liveTag));
+        assertEquals(0, linkIndex.getFieldedForwardLinks(createAbsoluteId("bidB"), liveTag).size());
+        assertEquals(0, linkIndex.getFieldedForwardLinks(createAbsoluteId("bidB"), lastTag).size());
+        assertEquals(links1, linkIndex.getFieldedForwardLinks(createAbsoluteId("bidC"), liveTag));
+
+        assertEquals(Sets.newHashSet(createAbsoluteId("bidC")),
+                linkIndex.getAbsoluteReferrers(createAbsoluteId("bid1"), liveTag));
+        assertEquals(0, linkIndex.getAbsoluteReferrers(createAbsoluteId("bid1"), lastTag).size());
+        assertEquals(Sets.newHashSet(createAbsoluteId("bidA")),
+                linkIndex.getAbsoluteReferrers(createAbsoluteId("bid2"), liveTag));
+    }
+
     @Test
     public void testLinkIndexWithShortRecordIds() throws Exception {
         final RecordId id1 = ids.newRecordId("id1");
@@ -67,6 +67,7 @@ import org.lilyproject.repository.api.TypeManager;
 import org.lilyproject.repository.impl.BlobManagerImpl;
 import org.lilyproject.repository.impl.BlobStoreAccessConfig;
 import org.lilyproject.repository.impl.DFSBlobStoreAccess;
+import org.lilyproject.repository.impl.DedupBlobStoreAccess;
 import org.lilyproject.repository.impl.HBaseBlobStoreAccess;
 import org.lilyproject.repository.impl.InlineBlobStoreAccess;
 import org.lilyproject.repository.impl.RecordFactoryImpl;
@@ -377,8 +378,12 @@ public class LilyClient implements Closeable, RepositoryManager {
         BlobStoreAccess dfsBlobStoreAccess = new DFSBlobStoreAccess(fs, blobRootPath);
         BlobStoreAccess hbaseBlobStoreAccess = new HBaseBlobStoreAccess(configuration, true);
         BlobStoreAccess inlineBlobStoreAccess = new InlineBlobStoreAccess();
-        List<BlobStoreAccess> blobStoreAccesses =
-                Arrays.asList(dfsBlobStoreAccess, hbaseBlobStoreAccess, inlineBlobStoreAccess);
+        BlobStoreAccess dedupDfsBlobStoreAccess =
+                new DedupBlobStoreAccess(dfsBlobStoreAccess, hbaseTableFactory, true);
+        BlobStoreAccess dedupHbaseBlobStoreAccess =
+                new DedupBlobStoreAccess(hbaseBlobStoreAccess, hbaseTableFactory, true);
+        List<BlobStoreAccess> blobStoreAccesses = Arrays.asList(dfsBlobStoreAccess, hbaseBlobStoreAccess,
+                inlineBlobStoreAccess, dedupDfsBlobStoreAccess, dedupHbaseBlobStoreAccess);
 
         SizeBasedBlobStoreAccessFactory blobStoreAccessFactory =
                 new SizeBasedBlobStoreAccessFactory(blobStoreAccesses, getBlobStoreAccessConfig(zk));
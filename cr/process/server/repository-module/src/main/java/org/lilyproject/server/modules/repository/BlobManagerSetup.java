@@ -30,6 +30,7 @@ import org.lilyproject.repository.api.BlobStoreAccess;
 import org.lilyproject.repository.impl.BlobManagerImpl;
 import org.lilyproject.repository.impl.BlobStoreAccessConfig;
 import org.lilyproject.repository.impl.DFSBlobStoreAccess;
+import org.lilyproject.repository.impl.DedupBlobStoreAccess;
 import org.lilyproject.repository.impl.HBaseBlobStoreAccess;
 import org.lilyproject.repository.impl.InlineBlobStoreAccess;
 import org.lilyproject.repository.impl.SizeBasedBlobStoreAccessFactory;
@@ -56,8 +57,10 @@ public class BlobManagerSetup {
         BlobStoreAccess dfsBlobStoreAccess = new DFSBlobStoreAccess(fs, blobRootPath);
         BlobStoreAccess hbaseBlobStoreAccess = new HBaseBlobStoreAccess(tableFactory);
         BlobStoreAccess inlineBlobStoreAccess = new InlineBlobStoreAccess();
+        BlobStoreAccess dedupDfsBlobStoreAccess = new DedupBlobStoreAccess(dfsBlobStoreAccess, tableFactory);
+        BlobStoreAccess dedupHbaseBlobStoreAccess = new DedupBlobStoreAccess(hbaseBlobStoreAccess, tableFactory);
         List<BlobStoreAccess> blobStoreAccesses = Arrays.asList(dfsBlobStoreAccess, hbaseBlobStoreAccess,
-                inlineBlobStoreAccess);
+                inlineBlobStoreAccess, dedupDfsBlobStoreAccess, dedupHbaseBlobStoreAccess);
 
         String defaultStoreName = blobManagerConf.getChild("blobStore").getAttribute("default");
         BlobStoreAccessConfig blobStoreAccessConfig = new BlobStoreAccessConfig(defaultStoreName);
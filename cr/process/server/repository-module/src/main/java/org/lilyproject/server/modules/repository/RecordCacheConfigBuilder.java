@@ -0,0 +1,40 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.server.modules.repository;
+
+import org.lilyproject.repository.impl.RecordCacheConfig;
+import org.lilyproject.runtime.conf.Conf;
+
+public class RecordCacheConfigBuilder {
+    private RecordCacheConfigBuilder() {
+    }
+
+    /**
+     * Builds the record cache configuration from the recordCache element of the repository configuration.
+     */
+    public static RecordCacheConfig build(Conf repositoryConf) {
+        Conf conf = repositoryConf.getChild("recordCache");
+        RecordCacheConfig config = new RecordCacheConfig(conf.getChild("maxRecords").getValueAsInteger(0),
+                conf.getChild("maxAge").getValueAsLong(60000L));
+
+        for (Conf table : conf.getChild("tables").getChildren("table")) {
+            config.setMaxRecords(table.getAttribute("repository"), table.getAttribute("name"),
+                    table.getAttributeAsInteger("maxRecords"));
+        }
+
+        return config;
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.server.modules.repository;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.ngdata.sep.SepModel;
+import com.ngdata.sep.impl.SepConsumer;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.replication.ReplicationAdmin;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooDefs;
+import org.lilyproject.repository.impl.HBaseRepositoryManager;
+import org.lilyproject.repository.impl.RecordCacheConfig;
+import org.lilyproject.sep.LilyEventListener;
+import org.lilyproject.sep.LilyPayloadExtractor;
+import org.lilyproject.sep.LilySepEvent;
+import org.lilyproject.sep.ZooKeeperItfAdapter;
+import org.lilyproject.util.concurrent.CustomThreadFactory;
+import org.lilyproject.util.io.Closer;
+import org.lilyproject.util.repo.RecordEvent;
+import org.lilyproject.util.zookeeper.ZkUtil;
+import org.lilyproject.util.zookeeper.ZooKeeperItf;
+import org.lilyproject.util.zookeeper.ZooKeeperOperation;
+
+/**
+ * Invalidates the records in the record caches of this server when they are updated by other servers, by
+ * listening to the record events.
+ *
+ * <p>Each server needs to see all the events, hence each server has its own SEP subscription. Since a
+ * subscription keeps the HBase logs from being cleaned up as long as its events are not processed, the
+ * subscription is removed again when the server is stopped.</p>
+ *
+ * <p>A server which dies can not remove its subscription. Therefore each server registers an ephemeral node
+ * in ZooKeeper before adding its subscription, and the servers remove the subscriptions of which the node
+ * is gone: when they start and whenever a node disappears.</p>
+ */
+public class RecordCacheInvalidatorSetup {
+    private static final String SUBSCRIPTION_PREFIX = "RecordCache_";
+    private static final String HOSTS_PATH = "/lily/recordCache/hosts";
+
+    private final SepModel sepModel;
+    private final RecordCacheConfig recordCacheConfig;
+    private final int threads;
+    private final HBaseRepositoryManager repositoryManager;
+    private final Configuration hbaseConf;
+    private final ZooKeeperItf zk;
+    private final String hostName;
+    private final String subscriptionId;
+    private final String hostPath;
+    private final Log log = LogFactory.getLog(getClass());
+    private SepConsumer sepConsumer;
+    private ExecutorService reaperExecutor;
+
+    public RecordCacheInvalidatorSetup(SepModel sepModel, RecordCacheConfig recordCacheConfig, int threads,
+            HBaseRepositoryManager repositoryManager, Configuration hbaseConf, ZooKeeperItf zk, String hostName) {
+        this.sepModel = sepModel;
+        this.recordCacheConfig = recordCacheConfig;
+        this.threads = threads;
+        this.repositoryManager = repositoryManager;
+        this.hbaseConf = hbaseConf;
+        this.zk = zk;
+        this.hostName = hostName;
+        this.subscriptionId = SUBSCRIPTION_PREFIX + hostName.replaceAll("[^a-zA-Z0-9]", "_");
+        this.hostPath = HOSTS_PATH + "/" + subscriptionId;
+    }
+
+    @PostConstruct
+    public void start() throws InterruptedException, KeeperException, IOException {
+        if (!recordCacheConfig.isEnabled()) {
+            // assure the subscription doesn't exist
+            sepModel.removeSubscriptionSilent(subscriptionId);
+            return;
+        }
+
+        // The node needs to exist before the subscription, otherwise another server could reap the subscription
+        registerHost();
+
+        // Events from before the start are of no interest, since the caches start empty
+        long startTime = System.currentTimeMillis();
+        sepModel.addSubscriptionSilent(subscriptionId);
+
+        sepConsumer = new SepConsumer(subscriptionId, startTime, new RecordCacheInvalidator(repositoryManager),
+                threads, hostName, new ZooKeeperItfAdapter(zk), hbaseConf, new LilyPayloadExtractor());
+        sepConsumer.start();
+
+        reaperExecutor = Executors.newSingleThreadExecutor(
+                new CustomThreadFactory("RecordCacheSubscriptionReaper", null, true));
+        reaperExecutor.submit(new SubscriptionReaper());
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException, KeeperException, IOException {
+        if (reaperExecutor != null) {
+            reaperExecutor.shutdownNow();
+        }
+        if (sepConsumer != null) {
+            Closer.close(sepConsumer);
+            sepModel.removeSubscriptionSilent(subscriptionId);
+            ZkUtil.deleteNode(zk, hostPath);
+        }
+    }
+
+    private void registerHost() throws InterruptedException, KeeperException {
+        ZkUtil.createPath(zk, HOSTS_PATH);
+        zk.retryOperation(new ZooKeeperOperation<Object>() {
+            @Override
+            public Object execute() throws KeeperException, InterruptedException {
+                try {
+                    zk.create(hostPath, null, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL);
+                } catch (KeeperException.NodeExistsException e) {
+                    // Left by the session of a previous run of this server which did not expire yet. It would
+                    // disappear while this server runs, so replace it by one of our own session.
+                    try {
+                        zk.delete(hostPath, -1);
+                    } catch (KeeperException.NoNodeException nne) {
+                        // the session expired in the meantime
+                    }
+                    zk.create(hostPath, null, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL);
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Removes the subscriptions of the servers which are no longer registered, and watches the registered
+     * servers to run again when that changes.
+     */
+    private class SubscriptionReaper implements Runnable, Watcher {
+        @Override
+        public void run() {
+            try {
+                // The subscriptions are listed before the hosts: the node of a server is created before its
+                // subscription, so the node of any live server of which the subscription is listed is seen.
+                Set<String> subscriptions = new HashSet<String>();
+                ReplicationAdmin replicationAdmin = new ReplicationAdmin(hbaseConf);
+                try {
+                    for (String peerId : replicationAdmin.listPeers().keySet()) {
+                        if (peerId.startsWith(SUBSCRIPTION_PREFIX)) {
+                            subscriptions.add(peerId);
+                        }
+                    }
+                } finally {
+                    Closer.close(replicationAdmin);
+                }
+
+                final Watcher watcher = this;
+                subscriptions.removeAll(zk.retryOperation(new ZooKeeperOperation<List<String>>() {
+                    @Override
+                    public List<String> execute() throws KeeperException, InterruptedException {
+                        return zk.getChildren(HOSTS_PATH, watcher);
+                    }
+                }));
+                for (String subscription : subscriptions) {
+                    log.info("Removing record cache invalidation subscription of stopped server: " + subscription);
+                    sepModel.removeSubscriptionSilent(subscription);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Throwable t) {
+                log.error("Error removing record cache invalidation subscriptions of stopped servers", t);
+            }
+        }
+
+        @Override
+        public void process(WatchedEvent event) {
+            if (event.getType() == Event.EventType.NodeChildrenChanged && !reaperExecutor.isShutdown()) {
+                reaperExecutor.submit(this);
+            }
+        }
+    }
+
+    private static class RecordCacheInvalidator extends LilyEventListener {
+        private final HBaseRepositoryManager repositoryManager;
+        private final Log log = LogFactory.getLog(getClass());
+
+        RecordCacheInvalidator(HBaseRepositoryManager repositoryManager) {
+            super(repositoryManager);
+            this.repositoryManager = repositoryManager;
+        }
+
+        @Override
+        public void processLilyEvents(List<LilySepEvent> events) {
+            for (LilySepEvent event : events) {
+                try {
+                    if (event.getRecordEvent().getType() == RecordEvent.Type.INDEX) {
+                        // not a change to the record
+                        continue;
+                    }
+                    repositoryManager.invalidateCachedRecord(event.getLilyRepositoryName(),
+                            event.getLilyTableName(), event.getRecordId());
+                } catch (Throwable t) {
+                    log.error("Error invalidating cached record for event on table " + event.getLilyTableName(), t);
+                }
+            }
+        }
+    }
+}
@@ -24,6 +24,7 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
 
@@ -35,8 +36,9 @@ public class BlobByFieldResource extends BaseRepositoryResource {
 
     @GET
     @Produces("*/*")
-    public Response get(@PathParam("id") String id, @PathParam("fieldName") String fieldName, @Context UriInfo uriInfo) {
-        return BlobByVersionAndFieldResource.getBlob(id, null, fieldName, uriInfo, getTable(uriInfo),
+    public Response get(@PathParam("id") String id, @PathParam("fieldName") String fieldName,
+            @Context HttpHeaders headers, @Context UriInfo uriInfo) {
+        return BlobByVersionAndFieldResource.getBlob(id, null, fieldName, headers, uriInfo, getTable(uriInfo),
                 getRepository(uriInfo));
     }
 
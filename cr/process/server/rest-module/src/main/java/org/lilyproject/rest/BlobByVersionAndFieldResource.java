@@ -20,10 +20,13 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
 
+import com.google.common.hash.Hashing;
+import org.lilyproject.repository.api.Blob;
 import org.lilyproject.repository.api.BlobAccess;
 import org.lilyproject.repository.api.BlobNotFoundException;
 import org.lilyproject.repository.api.FieldNotFoundException;
@@ -38,6 +41,8 @@ import org.lilyproject.tools.restresourcegenerator.GenerateRepositoryResource;
 
 import static javax.ws.rs.core.Response.Status.INTERNAL_SERVER_ERROR;
 import static javax.ws.rs.core.Response.Status.NOT_FOUND;
+import static javax.ws.rs.core.Response.Status.PARTIAL_CONTENT;
+import static javax.ws.rs.core.Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE;
 
 @Path("record/{id}/version/{version:\\d+}/field/{fieldName}/data")
 @GenerateTableResource
@@ -48,13 +53,17 @@ public class BlobByVersionAndFieldResource extends BaseRepositoryResource {
     @GET
     @Produces("*/*")
     public Response get(@PathParam("id") String id, @PathParam("version") String version,
-            @PathParam("fieldName") String fieldName, @Context UriInfo uriInfo) {
-        return getBlob(id, version, fieldName, uriInfo, getTable(uriInfo), getRepository(uriInfo));
+            @PathParam("fieldName") String fieldName, @Context HttpHeaders headers, @Context UriInfo uriInfo) {
+        return getBlob(id, version, fieldName, headers, uriInfo, getTable(uriInfo), getRepository(uriInfo));
     }
 
-
-    protected static Response getBlob(String id, String version, String fieldName, UriInfo uriInfo,
-            LTable table, LRepository repository) {
+    /**
+     * Returns the blob, or the byte range of it requested in the Range header. Only a single range is supported:
+     * requests for multiple ranges get the complete blob. The ETag of the blob is derived from its key, the blob
+     * key changes when the blob is replaced.
+     */
+    protected static Response getBlob(String id, String version, String fieldName, HttpHeaders headers,
+            UriInfo uriInfo, LTable table, LRepository repository) {
         final RecordId recordId = repository.getIdGenerator().fromString(id);
 
         final QName fieldQName = ResourceClassUtil.parseQName(fieldName, uriInfo.getQueryParameters());
@@ -68,7 +77,36 @@ public class BlobByVersionAndFieldResource extends BaseRepositoryResource {
 
         try {
             final BlobAccess blobAccess = table.getBlob(recordId, versionNr, fieldQName, indexes);
-            return Response.ok(blobAccess, MediaType.valueOf(blobAccess.getBlob().getMediaType())).build();
+            Blob blob = blobAccess.getBlob();
+            MediaType mediaType = MediaType.valueOf(blob.getMediaType());
+            String etag = "\"" + Hashing.md5().hashBytes(blob.getValue()).toString() + "\"";
+            long size = blob.getSize();
+
+            String range = headers.getRequestHeaders().getFirst("Range");
+            String ifRange = headers.getRequestHeaders().getFirst("If-Range");
+            if (range != null && (ifRange == null || ifRange.equals(etag))) {
+                long[] byteRange = parseRange(range, size);
+                if (byteRange == UNSATISFIABLE_RANGE) {
+                    return Response.status(REQUESTED_RANGE_NOT_SATISFIABLE)
+                            .header("Content-Range", "bytes */" + size)
+                            .header("ETag", etag)
+                            .build();
+                } else if (byteRange != null) {
+                    long length = byteRange[1] - byteRange[0] + 1;
+                    return Response.status(PARTIAL_CONTENT)
+                            .entity(new PartialBlobAccess(blobAccess, byteRange[0], length))
+                            .type(mediaType)
+                            .header("Content-Range", "bytes " + byteRange[0] + "-" + byteRange[1] + "/" + size)
+                            .header("Accept-Ranges", "bytes")
+                            .header("ETag", etag)
+                            .build();
+                }
+            }
+
+            return Response.ok(blobAccess, mediaType)
+                    .header("Accept-Ranges", "bytes")
+                    .header("ETag", etag)
+                    .build();
         } catch (RecordNotFoundException e) {
             throw new ResourceException(e, NOT_FOUND.getStatusCode());
         } catch (FieldNotFoundException e) {
@@ -80,4 +118,50 @@ public class BlobByVersionAndFieldResource extends BaseRepositoryResource {
         }
     }
 
+    private static final long[] UNSATISFIABLE_RANGE = new long[0];
+
+    /**
+     * Parses a Range header of the form "bytes=first-last", "bytes=first-" or "bytes=-suffixLength".
+     *
+     * @return the first and last (inclusive) position of the range, {@link #UNSATISFIABLE_RANGE} if the range
+     *         does not overlap the blob, or null if the header is not supported and should be ignored
+     */
+    static long[] parseRange(String range, long size) {
+        range = range.trim();
+        if (!range.startsWith("bytes=") || range.indexOf(',') != -1) {
+            return null;
+        }
+        String spec = range.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash == -1) {
+            return null;
+        }
+        long first;
+        long last;
+        try {
+            if (dash == 0) {
+                long suffixLength = Long.parseLong(spec.substring(1));
+                if (suffixLength < 0) {
+                    return null;
+                } else if (suffixLength == 0 || size == 0) {
+                    return UNSATISFIABLE_RANGE;
+                }
+                first = Math.max(0, size - suffixLength);
+                last = size - 1;
+            } else {
+                first = Long.parseLong(spec.substring(0, dash));
+                last = dash == spec.length() - 1 ? Long.MAX_VALUE : Long.parseLong(spec.substring(dash + 1));
+                if (first < 0 || last < first) {
+                    return null;
+                }
+                if (first >= size) {
+                    return UNSATISFIABLE_RANGE;
+                }
+                last = Math.min(last, size - 1);
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return new long[] {first, last};
+    }
 }
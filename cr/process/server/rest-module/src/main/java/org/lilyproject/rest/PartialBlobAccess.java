@@ -0,0 +1,64 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.rest;
+
+import java.io.InputStream;
+
+import org.lilyproject.repository.api.Blob;
+import org.lilyproject.repository.api.BlobAccess;
+import org.lilyproject.repository.api.BlobException;
+
+/**
+ * A BlobAccess on a byte range of a blob, used as entity of partial content responses.
+ */
+public class PartialBlobAccess implements BlobAccess {
+    private final BlobAccess blobAccess;
+    private final long offset;
+    private final long length;
+
+    public PartialBlobAccess(BlobAccess blobAccess, long offset, long length) {
+        this.blobAccess = blobAccess;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @Override
+    public Blob getBlob() {
+        return blobAccess.getBlob();
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * The number of bytes in the range.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    @Override
+    public InputStream getInputStream() throws BlobException {
+        return blobAccess.getInputStream(offset, length);
+    }
+
+    @Override
+    public InputStream getInputStream(long offset, long length) throws BlobException {
+        long start = Math.min(offset, this.length);
+        return blobAccess.getInputStream(this.offset + start, Math.min(length, this.length - start));
+    }
+}
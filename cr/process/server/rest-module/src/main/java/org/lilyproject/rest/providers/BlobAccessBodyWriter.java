@@ -29,8 +29,12 @@ import java.lang.reflect.Type;
 import org.apache.commons.io.IOUtils;
 import org.lilyproject.repository.api.BlobAccess;
 import org.lilyproject.repository.api.BlobException;
+import org.lilyproject.rest.PartialBlobAccess;
 import org.lilyproject.util.io.Closer;
 
+/**
+ * Writes the bytes of a blob, or of the range of a blob in case of a {@link PartialBlobAccess}.
+ */
 @Provider
 public class BlobAccessBodyWriter implements MessageBodyWriter<BlobAccess> {
     @Override
@@ -41,6 +45,9 @@ public class BlobAccessBodyWriter implements MessageBodyWriter<BlobAccess> {
     @Override
     public long getSize(BlobAccess blobAccess, Class<?> type, Type genericType, Annotation[] annotations,
             MediaType mediaType) {
+        if (blobAccess instanceof PartialBlobAccess) {
+            return ((PartialBlobAccess)blobAccess).getLength();
+        }
         return blobAccess.getBlob().getSize();
     }
 
@@ -51,7 +58,7 @@ public class BlobAccessBodyWriter implements MessageBodyWriter<BlobAccess> {
         InputStream is = null;
         try {
             is = blobAccess.getInputStream();
-            IOUtils.copyLarge(blobAccess.getInputStream(), entityStream);
+            IOUtils.copyLarge(is, entityStream);
         } catch (BlobException e) {
             throw new IOException("Error reading blob.", e);
         } finally {
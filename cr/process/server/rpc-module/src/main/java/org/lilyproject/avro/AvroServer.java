@@ -44,6 +44,7 @@ public class AvroServer {
     private int maxServerThreads;
     private ExecutionHandler executionHandler;
     private ExecutorService executorService;
+    private AvroLilyImpl avroLily;
 
     private Server server;
 
@@ -57,7 +58,7 @@ public class AvroServer {
 
     @PostConstruct
     public void start() throws IOException, RepositoryException, InterruptedException {
-        AvroLilyImpl avroLily = new AvroLilyImpl(repositoryManager,
+        avroLily = new AvroLilyImpl(repositoryManager,
                 repositoryManager.getDefaultRepository().getTypeManager(), indexer);
         Responder responder = new LilySpecificResponder(AvroLily.class, avroLily);
 
@@ -98,6 +99,8 @@ public class AvroServer {
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         }
+
+        avroLily.stop();
     }
 
     public int getPort() {
@@ -55,6 +55,7 @@ import org.lilyproject.repository.impl.AbstractSchemaCache;
 import org.lilyproject.repository.impl.BlobManagerImpl;
 import org.lilyproject.repository.impl.BlobStoreAccessConfig;
 import org.lilyproject.repository.impl.DFSBlobStoreAccess;
+import org.lilyproject.repository.impl.DedupBlobStoreAccess;
 import org.lilyproject.repository.impl.HBaseBlobStoreAccess;
 import org.lilyproject.repository.impl.HBaseRepository;
 import org.lilyproject.repository.impl.HBaseRepositoryManager;
@@ -106,6 +107,7 @@ public class RepositorySetup {
     private TableManager tableManager;
 
     private Server lilyServer;
+    private AvroLilyImpl avroLily;
 
     private BlobStoreAccessFactory blobStoreAccessFactory;
     private BlobStoreAccessFactory remoteBlobStoreAccessFactory;
@@ -208,6 +210,8 @@ public class RepositorySetup {
         DFSBlobStoreAccess dfsBlobStoreAccess = new DFSBlobStoreAccess(hbaseProxy.getBlobFS(), new Path("/lily/blobs"));
         BlobStoreAccess hbaseBlobStoreAccess = new HBaseBlobStoreAccess(hadoopConf);
         BlobStoreAccess inlineBlobStoreAccess = new InlineBlobStoreAccess();
+        BlobStoreAccess dedupDfsBlobStoreAccess = new DedupBlobStoreAccess(dfsBlobStoreAccess, hbaseTableFactory);
+        BlobStoreAccess dedupHbaseBlobStoreAccess = new DedupBlobStoreAccess(hbaseBlobStoreAccess, hbaseTableFactory);
 
         BlobStoreAccessConfig blobStoreAccessConfig = new BlobStoreAccessConfig(dfsBlobStoreAccess.getId());
 
@@ -219,8 +223,8 @@ public class RepositorySetup {
             blobStoreAccessConfig.setLimit(inlineBlobStoreAccess.getId(), inlineBlobLimit);
         }
 
-        List<BlobStoreAccess> blobStoreAccesses =
-                Arrays.asList(dfsBlobStoreAccess, hbaseBlobStoreAccess, inlineBlobStoreAccess);
+        List<BlobStoreAccess> blobStoreAccesses = Arrays.asList(dfsBlobStoreAccess, hbaseBlobStoreAccess,
+                inlineBlobStoreAccess, dedupDfsBlobStoreAccess, dedupHbaseBlobStoreAccess);
         return new SizeBasedBlobStoreAccessFactory(blobStoreAccesses, blobStoreAccessConfig);
     }
 
@@ -234,9 +238,8 @@ public class RepositorySetup {
     }
 
     public void setupRemoteAccess() throws Exception {
-        lilyServer = new NettyServer(
-                new LilySpecificResponder(AvroLily.class, new AvroLilyImpl(repositoryManager, typeManager, null)
-                        ), new InetSocketAddress(0));
+        avroLily = new AvroLilyImpl(repositoryManager, typeManager, null);
+        lilyServer = new NettyServer(new LilySpecificResponder(AvroLily.class, avroLily), new InetSocketAddress(0));
         lilyServer.start();
 
         final AvroConverter avroConverter = new AvroConverter();
@@ -282,6 +285,7 @@ public class RepositorySetup {
         if (lilyServer != null) {
             lilyServer.close();
             lilyServer.join();
+            avroLily.stop();
         }
 
         Closer.close(repositoryMaster);
@@ -34,6 +34,10 @@ import org.codehaus.jackson.JsonGenerator;
 import org.codehaus.jackson.JsonParser;
 import org.codehaus.jackson.JsonToken;
 import org.codehaus.jackson.util.ByteArrayBuilder;
+import org.lilyproject.bytes.api.DataInput;
+import org.lilyproject.bytes.api.DataOutput;
+import org.lilyproject.bytes.impl.DataInputImpl;
+import org.lilyproject.bytes.impl.DataOutputImpl;
 import org.lilyproject.repository.api.IdGenerator;
 import org.lilyproject.repository.api.Record;
 import org.lilyproject.repository.api.SchemaId;
@@ -43,9 +47,26 @@ import org.lilyproject.util.json.JsonFormat;
 /**
  * Represents the payload of an event about a create-update-delete operation on the repository.
  *
- * <p>The actual payload is json, this class helps in parsing or constructing that json.
+ * <p>The payload is either json or a compact binary format, this class helps in parsing or constructing it.
+ * The binary format ({@link #toBytes()}) is what the repository writes, the json format is still supported
+ * for reading events written by older versions.</p>
+ *
+ * <p>When read from the binary format, only the type, table name, versions, attributes and the subscriptions
+ * of the {@link IndexRecordFilterData} are decoded right away. The updated fields, vtags to index and the rest
+ * of the IndexRecordFilterData are decoded on first access, so that filters such as the IndexerEditFilter
+ * can decide on the event cheaply.</p>
  */
 public class RecordEvent {
+    /**
+     * First byte of the binary format. Json payloads always start with '{', so both formats can be told apart.
+     */
+    private static final byte BINARY_MARKER = 0;
+    private static final byte BINARY_VERSION = 1;
+
+    private static final byte HAS_FILTER_DATA = 0x01;
+    private static final byte INCLUDE_SUBSCRIPTIONS = 0x02;
+    private static final byte HAS_SUBSCRIPTION_IDS = 0x04;
+
     private long versionCreated = -1;
     private long versionUpdated = -1;
     private Type type;
@@ -58,30 +79,60 @@ public class RecordEvent {
     /** A copy of the attributes supplied via {@link Record#setAttributes(Map)}. */
     private Map<String, String> attributes;
 
+    /**
+     * For events read from the binary format: the input positioned at the part which has not been decoded yet,
+     * null once it has been decoded.
+     */
+    private DataInput undecodedInput;
+    private IdGenerator idGenerator;
+
     public enum Type {
-        CREATE("repo:record-created"),
-        UPDATE("repo:record-updated"),
-        DELETE("repo:record-deleted"),
-        INDEX("repo:index");
+        CREATE("repo:record-created", (byte)1),
+        UPDATE("repo:record-updated", (byte)2),
+        DELETE("repo:record-deleted", (byte)3),
+        INDEX("repo:index", (byte)4);
 
         private String name;
+        private byte code;
 
-        private Type(String name) {
+        private Type(String name, byte code) {
             this.name = name;
+            this.code = code;
         }
 
         public String getName() {
             return name;
         }
+
+        private static Type fromCode(byte code) {
+            for (Type type : values()) {
+                if (type.code == code) {
+                    return type;
+                }
+            }
+            throw new RuntimeException("Unexpected kind of message type code: " + code);
+        }
     }
 
     public RecordEvent() {
     }
 
     /**
-     * Creates a record event from the json data supplied as bytes.
+     * Creates a record event from the json or binary data supplied as bytes.
      */
     public RecordEvent(byte[] data, IdGenerator idGenerator) throws IOException {
+        if (data.length > 0 && data[0] == BINARY_MARKER) {
+            try {
+                readBinary(data, idGenerator);
+            } catch (IndexOutOfBoundsException e) {
+                throw new IOException("Truncated RecordEvent data", e);
+            }
+        } else {
+            readJson(data, idGenerator);
+        }
+    }
+
+    private void readJson(byte[] data, IdGenerator idGenerator) throws IOException {
         // Using streaming JSON parsing for performance. We expect the JSON to be correct, validation
         // is absent/minimal.
 
@@ -148,6 +199,85 @@ public class RecordEvent {
         }
     }
 
+    /**
+     * Decodes the part of the binary format which is needed to filter events, the rest is kept
+     * for {@link #decodeBody()}.
+     */
+    private void readBinary(byte[] data, IdGenerator idGenerator) throws IOException {
+        DataInput input = new DataInputImpl(data);
+        input.readByte(); // marker
+        byte version = input.readByte();
+        if (version != BINARY_VERSION) {
+            throw new IOException("Unsupported RecordEvent format version: " + version);
+        }
+
+        byte typeCode = input.readByte();
+        type = typeCode != 0 ? Type.fromCode(typeCode) : null;
+        tableName = input.readVUTF();
+        versionCreated = input.readVLong() - 1;
+        versionUpdated = input.readVLong() - 1;
+        recordTypeChanged = input.readBoolean();
+
+        int attributeCount = input.readVInt();
+        if (attributeCount > 0) {
+            attributes = new HashMap<String, String>();
+            for (int i = 0; i < attributeCount; i++) {
+                String key = input.readVUTF();
+                attributes.put(key, input.readVUTF());
+            }
+        }
+
+        byte filterDataFlags = input.readByte();
+        if ((filterDataFlags & HAS_FILTER_DATA) != 0) {
+            indexRecordFilterData = new IndexRecordFilterData();
+            indexRecordFilterData.includeSubscriptions = (filterDataFlags & INCLUDE_SUBSCRIPTIONS) != 0;
+            if ((filterDataFlags & HAS_SUBSCRIPTION_IDS) != 0) {
+                int count = input.readVInt();
+                indexRecordFilterData.indexSubscriptionIds = Sets.newHashSetWithExpectedSize(count);
+                for (int i = 0; i < count; i++) {
+                    indexRecordFilterData.indexSubscriptionIds.add(input.readVUTF());
+                }
+            }
+        }
+
+        this.undecodedInput = input;
+        this.idGenerator = idGenerator;
+    }
+
+    /**
+     * Decodes the updated fields, vtags to index and the remainder of the IndexRecordFilterData, in case
+     * this event was read from the binary format and this did not happen yet.
+     */
+    private void decodeBody() {
+        if (undecodedInput == null) {
+            return;
+        }
+        DataInput input = undecodedInput;
+        undecodedInput = null;
+
+        int count = input.readVInt();
+        if (count > 0) {
+            updatedFields = Sets.newHashSetWithExpectedSize(count);
+            for (int i = 0; i < count; i++) {
+                updatedFields.add(readSchemaId(input, idGenerator));
+            }
+        }
+
+        count = input.readVInt();
+        if (count > 0) {
+            vtagsToIndex = Sets.newHashSetWithExpectedSize(count);
+            for (int i = 0; i < count; i++) {
+                vtagsToIndex.add(readSchemaId(input, idGenerator));
+            }
+        }
+
+        if (indexRecordFilterData != null) {
+            indexRecordFilterData.readBinaryBody(input, idGenerator);
+        }
+
+        idGenerator = null;
+    }
+
     public long getVersionCreated() {
         return versionCreated;
     }
@@ -198,10 +328,12 @@ public class RecordEvent {
      * <p>In case of a delete event, this list is empty.
      */
     public Set<SchemaId> getUpdatedFields() {
+        decodeBody();
         return updatedFields != null ? updatedFields : Collections.<SchemaId>emptySet();
     }
 
     public void addUpdatedField(SchemaId fieldTypeId) {
+        decodeBody();
         if (updatedFields == null) {
             updatedFields = new HashSet<SchemaId>();
         }
@@ -209,10 +341,12 @@ public class RecordEvent {
     }
 
     public Set<SchemaId> getVtagsToIndex() {
+        decodeBody();
         return vtagsToIndex;
     }
 
     public void addVTagToIndex(SchemaId vtag) {
+        decodeBody();
         if (vtagsToIndex == null) {
             vtagsToIndex = new HashSet<SchemaId>();
         }
@@ -247,15 +381,32 @@ public class RecordEvent {
     }
 
     public IndexRecordFilterData getIndexRecordFilterData() {
+        decodeBody();
         return indexRecordFilterData;
     }
 
     public void setIndexRecordFilterData(IndexRecordFilterData indexRecordFilterData) {
+        decodeBody();
         this.indexRecordFilterData = indexRecordFilterData;
     }
 
-    public void toJson(JsonGenerator gen) throws IOException {
+    public boolean hasIndexRecordFilterData() {
+        return indexRecordFilterData != null;
+    }
 
+    /**
+     * Checks if this event applies to the given index subscription, see
+     * {@link IndexRecordFilterData#appliesToSubscription(String)}. In contrast with calling that method
+     * via {@link #getIndexRecordFilterData()}, this does not need to decode the complete event.
+     *
+     * @return false if this event has no IndexRecordFilterData
+     */
+    public boolean appliesToSubscription(String indexSubscriptionId) {
+        return indexRecordFilterData != null && indexRecordFilterData.appliesToSubscription(indexSubscriptionId);
+    }
+
+    public void toJson(JsonGenerator gen) throws IOException {
+        decodeBody();
         gen.writeStartObject();
 
         if (type != null) {
@@ -335,6 +486,100 @@ public class RecordEvent {
         }
     }
 
+    /**
+     * Serializes this event in the binary format, which is smaller and cheaper to parse than json.
+     */
+    public byte[] toBytes() {
+        decodeBody();
+        DataOutput output = new DataOutputImpl(128);
+        output.writeByte(BINARY_MARKER);
+        output.writeByte(BINARY_VERSION);
+
+        output.writeByte(type != null ? type.code : 0);
+        output.writeVUTF(tableName);
+        output.writeVLong(versionCreated + 1);
+        output.writeVLong(versionUpdated + 1);
+        output.writeBoolean(recordTypeChanged);
+
+        if (attributes != null) {
+            output.writeVInt(attributes.size());
+            for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+                output.writeVUTF(attribute.getKey());
+                output.writeVUTF(attribute.getValue());
+            }
+        } else {
+            output.writeVInt(0);
+        }
+
+        // The subscriptions are written before the updated fields, so that they can be read without
+        // decoding the rest of the event.
+        if (indexRecordFilterData != null) {
+            byte flags = HAS_FILTER_DATA;
+            if (indexRecordFilterData.includeSubscriptions) {
+                flags |= INCLUDE_SUBSCRIPTIONS;
+            }
+            Set<String> subscriptionIds = indexRecordFilterData.indexSubscriptionIds;
+            if (subscriptionIds != null) {
+                flags |= HAS_SUBSCRIPTION_IDS;
+            }
+            output.writeByte(flags);
+            if (subscriptionIds != null) {
+                output.writeVInt(subscriptionIds.size());
+                for (String subscriptionId : subscriptionIds) {
+                    output.writeVUTF(subscriptionId);
+                }
+            }
+        } else {
+            output.writeByte((byte)0);
+        }
+
+        writeSchemaIds(updatedFields, output);
+        writeSchemaIds(vtagsToIndex, output);
+
+        if (indexRecordFilterData != null) {
+            indexRecordFilterData.writeBinaryBody(output);
+        }
+
+        return output.toByteArray();
+    }
+
+    private static void writeSchemaIds(Set<SchemaId> schemaIds, DataOutput output) {
+        if (schemaIds == null) {
+            output.writeVInt(0);
+            return;
+        }
+        output.writeVInt(schemaIds.size());
+        for (SchemaId schemaId : schemaIds) {
+            writeSchemaId(schemaId, output);
+        }
+    }
+
+    private static void writeSchemaId(SchemaId schemaId, DataOutput output) {
+        writeNullableBytes(schemaId != null ? schemaId.getBytes() : null, output);
+    }
+
+    private static SchemaId readSchemaId(DataInput input, IdGenerator idGenerator) {
+        byte[] bytes = readNullableBytes(input);
+        return bytes != null ? idGenerator.getSchemaId(bytes) : null;
+    }
+
+    /**
+     * Writes the length + 1 followed by the bytes, a length of 0 means null.
+     */
+    private static void writeNullableBytes(byte[] bytes, DataOutput output) {
+        if (bytes == null) {
+            output.writeVInt(0);
+        } else {
+            output.writeVInt(bytes.length + 1);
+            output.writeBytes(bytes);
+        }
+    }
+
+    private static byte[] readNullableBytes(DataInput input) {
+        int length = input.readVInt();
+        return length == 0 ? null : input.readBytes(length - 1);
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (this == obj) {
@@ -347,6 +592,8 @@ public class RecordEvent {
             return false;
         }
         RecordEvent other = (RecordEvent)obj;
+        decodeBody();
+        other.decodeBody();
 
         if (other.type != this.type) {
             return false;
@@ -387,6 +634,7 @@ public class RecordEvent {
 
     @Override
     public int hashCode() {
+        decodeBody();
         int result = (int) (versionCreated ^ (versionCreated >>> 32));
         result = 31 * result + (int) (versionUpdated ^ (versionUpdated >>> 32));
         result = 31 * result + (type != null ? type.hashCode() : 0);
@@ -519,6 +767,45 @@ public class RecordEvent {
             return fieldChanges;
         }
 
+        /**
+         * Writes everything but the subscriptions, which {@link RecordEvent#toBytes()} writes up front.
+         */
+        private void writeBinaryBody(DataOutput output) {
+            output.writeBoolean(oldRecordExists);
+            output.writeBoolean(newRecordExists);
+            writeSchemaId(newRecordType, output);
+            writeSchemaId(oldRecordType, output);
+
+            if (fieldChanges != null) {
+                output.writeVInt(fieldChanges.size() + 1);
+                for (FieldChange fieldChange : fieldChanges) {
+                    writeSchemaId(fieldChange.id, output);
+                    writeNullableBytes(fieldChange.oldValue, output);
+                    writeNullableBytes(fieldChange.newValue, output);
+                }
+            } else {
+                output.writeVInt(0);
+            }
+        }
+
+        private void readBinaryBody(DataInput input, IdGenerator idGenerator) {
+            oldRecordExists = input.readBoolean();
+            newRecordExists = input.readBoolean();
+            newRecordType = readSchemaId(input, idGenerator);
+            oldRecordType = readSchemaId(input, idGenerator);
+
+            int count = input.readVInt() - 1;
+            if (count >= 0) {
+                fieldChanges = new ArrayList<FieldChange>(count);
+                for (int i = 0; i < count; i++) {
+                    SchemaId id = readSchemaId(input, idGenerator);
+                    byte[] oldValue = readNullableBytes(input);
+                    byte[] newValue = readNullableBytes(input);
+                    fieldChanges.add(new FieldChange(id, oldValue, newValue));
+                }
+            }
+        }
+
         public void toJson(JsonGenerator gen) throws IOException {
             gen.writeStartObject();
 
@@ -122,6 +122,71 @@ public class RecordEventTest {
         assertEquals(tableName, deserialized.getTableName());
     }
 
+    @Test
+    public void testRecordEvent_BinaryRoundTrip() throws Exception {
+        SchemaId field1Id = idGenerator.getSchemaId(UUID.randomUUID());
+        SchemaId field2Id = idGenerator.getSchemaId(UUID.randomUUID());
+        SchemaId vtagId = idGenerator.getSchemaId(UUID.randomUUID());
+        SchemaId newRtId = idGenerator.getSchemaId(UUID.randomUUID());
+
+        RecordEvent event = new RecordEvent();
+        event.setType(RecordEvent.Type.UPDATE);
+        event.setTableName("_table_name_");
+        event.setVersionCreated(3);
+        event.setRecordTypeChanged(true);
+        event.addUpdatedField(field1Id);
+        event.addUpdatedField(field2Id);
+        event.addVTagToIndex(vtagId);
+        event.getAttributes().put("key", "value");
+
+        IndexRecordFilterData filterData = new IndexRecordFilterData();
+        filterData.setNewRecordExists(true);
+        filterData.setNewRecordType(newRtId);
+        filterData.addChangedField(field1Id, null, Bytes.toBytes("foo1"));
+        filterData.setSubscriptionExclusions(Sets.newHashSet("indexA"));
+        event.setIndexRecordFilterData(filterData);
+
+        RecordEvent deserialized = new RecordEvent(event.toBytes(), idGenerator);
+
+        assertEquals(RecordEvent.Type.UPDATE, deserialized.getType());
+        assertEquals("_table_name_", deserialized.getTableName());
+        assertEquals(3, deserialized.getVersionCreated());
+        assertEquals(-1, deserialized.getVersionUpdated());
+        assertTrue(deserialized.getRecordTypeChanged());
+        assertEquals("value", deserialized.getAttributes().get("key"));
+        assertFalse(deserialized.appliesToSubscription("indexA"));
+        assertTrue(deserialized.appliesToSubscription("indexB"));
+
+        assertEquals(Sets.newHashSet(field1Id, field2Id), deserialized.getUpdatedFields());
+        assertEquals(Sets.newHashSet(vtagId), deserialized.getVtagsToIndex());
+        assertEquals(filterData, deserialized.getIndexRecordFilterData());
+        assertEquals(event, deserialized);
+    }
+
+    @Test
+    public void testRecordEvent_BinaryRoundTrip_Empty() throws Exception {
+        RecordEvent event = new RecordEvent();
+        RecordEvent deserialized = new RecordEvent(event.toBytes(), idGenerator);
+
+        assertNull(deserialized.getType());
+        assertNull(deserialized.getIndexRecordFilterData());
+        assertFalse(deserialized.appliesToSubscription("indexA"));
+        assertTrue(deserialized.getUpdatedFields().isEmpty());
+        assertNull(deserialized.getVtagsToIndex());
+        assertFalse(deserialized.hasAttributes());
+        assertEquals(event, deserialized);
+    }
+
+    @Test
+    public void testRecordEvent_JsonStillReadable() throws Exception {
+        RecordEvent event = new RecordEvent();
+        event.setType(RecordEvent.Type.CREATE);
+        event.addUpdatedField(idGenerator.getSchemaId(UUID.randomUUID()));
+
+        assertEquals(event, new RecordEvent(event.toJsonBytes(), idGenerator));
+        assertEquals(event, new RecordEvent(event.toBytes(), idGenerator));
+    }
+
     @Test
     public void testIndexRecordFilterData_JsonRoundtrip() {
         IndexRecordFilterData recordFilterData = new IndexRecordFilterData();
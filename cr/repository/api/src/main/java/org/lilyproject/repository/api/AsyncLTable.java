@@ -0,0 +1,96 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.api;
+
+import java.util.List;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Non-blocking variant of the most commonly used operations of {@link LTable}.
+ *
+ * <p>Each method starts the operation and returns immediately with a future for its result. The semantics of the
+ * operations are those of the corresponding {@link LTable} methods; when these would throw an exception, the
+ * future fails with that same exception.</p>
+ *
+ * <p>The number of operations in progress is limited. When this limit is reached, the methods block until
+ * an earlier operation has finished, so that a fast producer cannot queue up an unbounded amount of work.</p>
+ *
+ * <p>Callbacks registered on the returned futures without an executor run on the thread which completes the
+ * operation, which might be an I/O thread, so they should not block.</p>
+ */
+public interface AsyncLTable {
+    /**
+     * See {@link LTable#create(Record)}.
+     */
+    ListenableFuture<Record> create(Record record) throws InterruptedException;
+
+    /**
+     * See {@link LTable#update(Record)}.
+     */
+    ListenableFuture<Record> update(Record record) throws InterruptedException;
+
+    /**
+     * See {@link LTable#update(Record, List)}.
+     */
+    ListenableFuture<Record> update(Record record, List<MutationCondition> conditions) throws InterruptedException;
+
+    /**
+     * See {@link LTable#update(Record, boolean, boolean, List)}.
+     */
+    ListenableFuture<Record> update(Record record, boolean updateVersion, boolean useLatestRecordType,
+            List<MutationCondition> conditions) throws InterruptedException;
+
+    /**
+     * See {@link LTable#read(RecordId, QName...)}.
+     */
+    ListenableFuture<Record> read(RecordId recordId, QName... fieldNames) throws InterruptedException;
+
+    /**
+     * See {@link LTable#read(RecordId, Long, QName...)}.
+     */
+    ListenableFuture<Record> read(RecordId recordId, Long version, QName... fieldNames) throws InterruptedException;
+
+    /**
+     * See {@link LTable#read(List, QName...)}.
+     */
+    ListenableFuture<List<Record>> read(List<RecordId> recordIds, QName... fieldNames) throws InterruptedException;
+
+    /**
+     * See {@link LTable#delete(RecordId)}. The future's value is null.
+     */
+    ListenableFuture<Void> delete(RecordId recordId) throws InterruptedException;
+
+    /**
+     * See {@link LTable#delete(RecordId, List)}.
+     */
+    ListenableFuture<Record> delete(RecordId recordId, List<MutationCondition> conditions)
+            throws InterruptedException;
+
+    /**
+     * Fetches the next record of a scanner obtained from {@link LTable#getScanner(RecordScan)}, see
+     * {@link RecordScanner#next()}. The future's value is null when the scanner is exhausted.
+     *
+     * <p>Scanners are not thread-safe: do not call this again for the same scanner before the previous
+     * future has completed.</p>
+     */
+    ListenableFuture<Record> next(RecordScanner scanner) throws InterruptedException;
+
+    /**
+     * Returns the table on which the operations are performed.
+     */
+    LTable getTable();
+}
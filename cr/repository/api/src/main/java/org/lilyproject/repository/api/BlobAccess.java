@@ -27,4 +27,14 @@ public interface BlobAccess {
      * The InputStream is only opened when this method is called.
      */
     InputStream getInputStream() throws BlobException;
+
+    /**
+     * Opens an InputStream on a range of the blob, the bytes before the range are not read.
+     *
+     * @param offset the position of the first byte to read, should not be larger than the size of the blob
+     * @param length the maximum number of bytes to read
+     *
+     * @see BlobStoreAccess#getInputStream(byte[], long, long)
+     */
+    InputStream getInputStream(long offset, long length) throws BlobException;
 }
@@ -58,6 +58,20 @@ public interface BlobStoreAccess {
      */
     InputStream getInputStream(byte[] key) throws BlobException;
 
+    /**
+     * Get an {@link InputStream} to read a range of the bytes of a blob from the blobstore, without reading
+     * the bytes before the range.
+     *
+     * @param key a unique key identifying the written bytes on the blobstore, see {@link #getOutputStream(Blob)}
+     * @param offset the position of the first byte to read, should not be larger than the size of the blob
+     * @param length the maximum number of bytes to read, the stream ends earlier when the end of the blob
+     *               is reached
+     *
+     * @return an InputStream from which the bytes of the range can be read
+     * @throws BlobException when an unexpected exception occurred (e.g. an IOException of the underlying blobstore)
+     */
+    InputStream getInputStream(byte[] key, long offset, long length) throws BlobException;
+
     /**
      * Delete the bytes identified by the key from the blobstore
      *
@@ -39,6 +39,13 @@ import java.util.Set;
  * scan sequentially over the records using {@link #getScanner(RecordScan)}.
  */
 public interface LTable {
+    /**
+     * Record attribute which, when set to "true", lets {@link #update(Record)} read only the fields that are
+     * being updated, rather than the complete record, to determine the changes. See the section on blind updates
+     * in {@link #update(Record, boolean, boolean, java.util.List)}.
+     */
+    String BLIND_UPDATE_ATTRIBUTE = "lily.blindUpdate";
+
     /**
      * Instantiates a new Record object.
      *
@@ -166,6 +173,17 @@ public interface LTable {
      * <p>The conditions are checked before checking if the record actually needs updating, so you might get
      * a conflict response even if the stored record state corresponds to the supplied record state.</p>
      *
+     * <p><b>Blind updates</b></p>
+     *
+     * <p>To determine what changed, an update reads the complete current state of the record. When only a few
+     * non-versioned fields are updated (counters, status flags, ...), this read can be limited to the updated
+     * fields by setting the {@link #BLIND_UPDATE_ATTRIBUTE} attribute on the record. This is only done when all
+     * updated fields are non-versioned and don't contain links, blobs or nested records, when there are no
+     * conditions, and when the record type of the record stays the same. Installed record update hooks need to
+     * declare the fields they use, which are then read as well (the indexer's record filter hook does so).
+     * Otherwise the update silently falls back to reading the complete record. The only difference for the caller
+     * is that the mandatory fields of the record type are not verified, other than that they are not deleted.</p>
+     *
      * @param updateVersion       if true, the version indicated in the record will be updated (i.e. only the mutable
      *                            fields will be updated)
      *                            otherwise, a new version of the record will be created (if it contains versioned
@@ -204,6 +222,38 @@ public interface LTable {
      */
     Record createOrUpdate(Record record, boolean useLatestRecordType) throws RepositoryException, InterruptedException;
 
+    /**
+     * Creates a batch of records.
+     *
+     * <p>This has the same semantics as calling {@link #create(Record)} for each of the records, but the
+     * implementation can group the interaction with the storage, which is a lot more efficient when
+     * creating many records.
+     *
+     * <p>A failure for one record does not abort the batch: the returned list contains one
+     * {@link RecordMutationResult} for each supplied record, in the same order, holding either the created
+     * record or the exception that occurred for it. An exception is only thrown by this method in case
+     * of a problem affecting the batch as a whole.
+     */
+    List<RecordMutationResult> create(List<Record> records) throws RepositoryException, InterruptedException;
+
+    /**
+     * Shortcut for {@link #update(List, boolean, boolean) update(records, false, true)}.
+     */
+    List<RecordMutationResult> update(List<Record> records) throws RepositoryException, InterruptedException;
+
+    /**
+     * Updates a batch of records.
+     *
+     * <p>This has the same semantics as calling {@link #update(Record, boolean, boolean)} for each of the
+     * records, but the implementation can group the interaction with the storage, which is a lot more efficient
+     * when updating many records.
+     *
+     * <p>As for {@link #create(List)}, a failure for one record does not abort the batch, the outcome for
+     * each record is reported in the returned list, which has the same order as the supplied records.
+     */
+    List<RecordMutationResult> update(List<Record> records, boolean updateVersion, boolean useLatestRecordType)
+            throws RepositoryException, InterruptedException;
+
     /**
      * @param recordId   the id of the record to read, null is not allowed
      * @param fieldNames list of names of the fields to read or null to read all fields
@@ -356,6 +406,18 @@ public interface LTable {
     List<Record> readVersions(RecordId recordId, List<Long> versions, QName... fieldNames)
             throws RepositoryException, InterruptedException;
 
+    /**
+     * Same as {@link #readVersions(RecordId, Long, Long, QName...)}, but returns the versions one by one, in
+     * ascending order, rather than as a list.
+     *
+     * <p>The record is read in one go, but the Record object of each version is only built when it is requested,
+     * so a long version history can be processed without having all its versions in memory at once.</p>
+     *
+     * <p>When done with the scanner, be sure to call {@link RecordScanner#close()} on it.</p>
+     */
+    RecordScanner getVersionScanner(RecordId recordId, Long fromVersion, Long toVersion, QName... fieldNames)
+            throws RepositoryException, InterruptedException;
+
     /**
      * Reads a Record and also returns the mapping from QNames to IDs.
      *
@@ -367,6 +429,18 @@ public interface LTable {
     IdRecord readWithIds(RecordId recordId, Long version, List<SchemaId> fieldIds)
             throws RepositoryException, InterruptedException;
 
+    /**
+     * Reads the latest version of a list of records and also returns their mapping from QNames to IDs.
+     *
+     * <p>As for {@link #read(List, QName...)}, no RecordNotFoundException is thrown when a record does not
+     * exist or has been deleted, the returned list will not contain an entry for it.
+     *
+     * @param recordIds ids of the records to read, null is not allowed
+     * @param fieldIds  load only the fields with these ids. optional, can be null.
+     */
+    List<IdRecord> readWithIds(List<RecordId> recordIds, List<SchemaId> fieldIds)
+            throws RepositoryException, InterruptedException;
+
     /**
      * Delete a {@link Record} from the repository.
      *
@@ -396,6 +470,16 @@ public interface LTable {
      */
     void delete(Record record) throws RepositoryException, InterruptedException;
 
+    /**
+     * Deletes a batch of records.
+     *
+     * <p>This has the same semantics as calling {@link #delete(RecordId)} for each of the records. As for
+     * {@link #create(List)}, a failure for one record does not abort the batch, the outcome for each record is
+     * reported in the returned list, which has the same order as the supplied record ids. The results of
+     * successful deletes hold no record.
+     */
+    List<RecordMutationResult> delete(List<RecordId> recordIds) throws RepositoryException, InterruptedException;
+
     /**
      * Returns an {@link java.io.OutputStream} for a blob. The binary data of a blob
      * must be written to this outputStream and the stream must be closed before
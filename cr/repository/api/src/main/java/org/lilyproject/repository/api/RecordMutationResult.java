@@ -0,0 +1,64 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.api;
+
+/**
+ * The outcome for one record of a batch operation, such as {@link LTable#create(java.util.List)}.
+ *
+ * <p>A batch operation does not stop at the first failing record: each record gets its own result, which
+ * either holds the record as returned by the repository (with its {@link Record#getResponseStatus() response
+ * status} set), or the exception that occurred for that record.</p>
+ */
+public class RecordMutationResult {
+    private final Record record;
+    private final RepositoryException exception;
+
+    private RecordMutationResult(Record record, RepositoryException exception) {
+        this.record = record;
+        this.exception = exception;
+    }
+
+    public static RecordMutationResult success(Record record) {
+        return new RecordMutationResult(record, null);
+    }
+
+    public static RecordMutationResult failure(RepositoryException exception) {
+        return new RecordMutationResult(null, exception);
+    }
+
+    /**
+     * Returns true if the operation went through for this record. Note that this does not mean the record
+     * was modified, check the {@link Record#getResponseStatus() response status} for that (e.g. in case of
+     * a conditional update, it can be {@link ResponseStatus#CONFLICT}).
+     */
+    public boolean isSuccess() {
+        return exception == null;
+    }
+
+    /**
+     * The record as returned by the repository, null in case of failure or for a delete.
+     */
+    public Record getRecord() {
+        return record;
+    }
+
+    /**
+     * The exception that occurred for this record, null in case of success.
+     */
+    public RepositoryException getException() {
+        return exception;
+    }
+}
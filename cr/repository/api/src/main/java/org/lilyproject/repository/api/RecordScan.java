@@ -31,6 +31,9 @@ public class RecordScan {
     private ReturnFields returnFields;
     private int caching = -1;
     private boolean cacheBlocks = true;
+    private int parallelism = 1;
+    private byte[][] splitKeys;
+    private boolean ordered = true;
 
     /**
      * @see #setStartRecordId(RecordId)
@@ -210,4 +213,58 @@ public class RecordScan {
     public void setCacheBlocks(boolean cacheBlocks) {
         this.cacheBlocks = cacheBlocks;
     }
+
+    /**
+     * @see #setParallelism(int)
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the number of threads used to scan the records.
+     *
+     * <p>When larger than 1, the scanned range is split along the region boundaries of the table (or
+     * the keys given via {@link #setSplitKeys(byte[][])}), and the splits are scanned concurrently, the
+     * records being decoded on the scanning threads. A bounded number of records (the {@link #setCaching(int)
+     * caching}, with a minimum of 100) is read ahead per split, or for all splits together when the scan is
+     * not {@link #setOrdered(boolean) ordered}.</p>
+     *
+     * <p>By default this is 1, which means the records are scanned sequentially.</p>
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @see #setSplitKeys(byte[][])
+     */
+    public byte[][] getSplitKeys() {
+        return splitKeys;
+    }
+
+    /**
+     * Sets the keys at which the scanned range is split for a parallel scan, see {@link #setParallelism(int)}.
+     * These are typically the same as the split keys the table was created with. When not set, the current
+     * region boundaries of the table are used.
+     */
+    public void setSplitKeys(byte[][] splitKeys) {
+        this.splitKeys = splitKeys;
+    }
+
+    /**
+     * @see #setOrdered(boolean)
+     */
+    public boolean getOrdered() {
+        return ordered;
+    }
+
+    /**
+     * Sets whether a parallel scan should return the records in the order of their record ID, which
+     * is the default. When false, records are returned as soon as any of the splits produced them, which
+     * is faster. This has no effect on scans which are not parallel.
+     */
+    public void setOrdered(boolean ordered) {
+        this.ordered = ordered;
+    }
 }
@@ -16,13 +16,13 @@
 package org.lilyproject.repository.impl.id;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
 
 import org.apache.commons.lang.StringEscapeUtils;
 import org.lilyproject.bytes.api.DataInput;
-import org.lilyproject.bytes.impl.DataInputImpl;
 import org.lilyproject.repository.api.AbsoluteRecordId;
 import org.lilyproject.repository.api.IdGenerator;
 import org.lilyproject.repository.api.RecordId;
@@ -54,6 +54,10 @@ public class IdGeneratorImpl implements IdGenerator {
 
     private static IdType[] ID_TYPES = IdType.values();
 
+    private static final int MASTER_CACHE_SIZE = 1024;
+
+    private final MasterRecordIdCache masterCache = new MasterRecordIdCache(MASTER_CACHE_SIZE);
+
     @Override
     public RecordId newRecordId() {
         return new UUIDRecordId(this);
@@ -106,7 +110,8 @@ public class IdGeneratorImpl implements IdGenerator {
 
     @Override
     public RecordId fromBytes(byte[] bytes) {
-        return fromBytes(new DataInputImpl(bytes));
+        // The record id keeps a reference to its bytes, so copy them to be insensitive to later changes
+        return fromBytes(bytes.clone(), 0, bytes.length);
     }
 
     @Override
@@ -116,21 +121,59 @@ public class IdGeneratorImpl implements IdGenerator {
 
     @Override
     public RecordId fromBytes(DataInput dataInput) {
-        byte idType = dataInput.readByte();
+        // The record id keeps a reference to its bytes, so copy them rather than keeping the (possibly much
+        // larger) buffer behind the DataInput alive
+        int length = dataInput.getSize() - dataInput.getPosition();
+        return fromBytes(dataInput.readBytes(length), 0, length);
+    }
+
+    /**
+     * Creates the record id encoded in the given range of bytes.
+     *
+     * <p>The bytes are not copied: the record id keeps a reference to them, only decodes them when needed
+     * (e.g. for the string of a USER id or for the variant properties), and compares and hashes them directly.
+     * Therefore, the bytes should not be modified afterwards.</p>
+     */
+    public RecordId fromBytes(byte[] bytes, int offset, int length) {
+        byte idType = bytes[offset];
         // Note: will throw arrayindexoutofbounds if id is not known
         IdType id = ID_TYPES[idType];
 
-        DataInput[] splitted = id.factory.splitInMasterAndVariant(dataInput);
-        DataInput masterIdInput = splitted[0];
-        DataInput variantParamsInput = splitted[1];
+        int masterLength = id.factory.getMasterLength(bytes, offset, length);
+        if (masterLength == length) {
+            return id.factory.fromBytes(bytes, offset, length, this);
+        }
 
-        RecordId masterRecordId = id.factory.fromBytes(masterIdInput, this);
+        RecordId masterRecordId = masterCache.get(bytes, offset, masterLength);
+        if (masterRecordId == null) {
+            // The cached master outlives this record id, so it gets its own copy of the bytes rather than
+            // keeping the (possibly much larger) given array alive
+            masterRecordId = id.factory.fromBytes(Arrays.copyOfRange(bytes, offset, offset + masterLength), 0,
+                    masterLength, this);
+            masterCache.put(masterRecordId);
+        }
+        int variantOffset = offset + masterLength + id.factory.getVariantSeparatorLength();
+        return new VariantRecordId(masterRecordId, bytes, offset, length, variantOffset, this);
+    }
 
-        if (variantParamsInput != null) {
-            return new VariantRecordId(masterRecordId, variantParamsInput, this);
-        } else {
-            return masterRecordId;
+    static int hashBytes(byte[] bytes, int offset, int length) {
+        int hash = 1;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + bytes[i];
+        }
+        return hash;
+    }
+
+    static boolean equalBytes(byte[] bytes1, int offset1, int length1, byte[] bytes2, int offset2, int length2) {
+        if (length1 != length2) {
+            return false;
+        }
+        for (int i = 0; i < length1; i++) {
+            if (bytes1[offset1 + i] != bytes2[offset2 + i]) {
+                return false;
+            }
         }
+        return true;
     }
 
     // Strings
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl.id;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.lilyproject.repository.api.RecordId;
+
+/**
+ * Bounded cache of master record ids by their encoded bytes, so that the variants of the same master record,
+ * which typically are decoded one after the other (they are stored next to each other), share one master
+ * record id instance.
+ *
+ * <p>The cache is direct-mapped: each encoding can only be stored in one slot, a new entry simply replaces
+ * the one in its slot. Lookups do not allocate.</p>
+ *
+ * <p>Concurrent use is safe without locking: the entries are published through an atomic array, so a thread
+ * which gets an entry also sees the state the record id had when it was stored. The record ids only have
+ * lazily computed fields whose computation can safely be repeated.</p>
+ */
+final class MasterRecordIdCache {
+    private final AtomicReferenceArray<RecordId> entries;
+    private final int mask;
+
+    /**
+     * @param size the number of entries, rounded up to a power of two
+     */
+    MasterRecordIdCache(int size) {
+        int capacity = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+        this.entries = new AtomicReferenceArray<RecordId>(capacity);
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Returns the cached master record id encoded by the given bytes, or null if there is none.
+     */
+    RecordId get(byte[] bytes, int offset, int length) {
+        RecordId entry = entries.get(slot(bytes, offset, length));
+        if (entry != null) {
+            byte[] entryBytes = entry.toBytes();
+            if (IdGeneratorImpl.equalBytes(entryBytes, 0, entryBytes.length, bytes, offset, length)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    void put(RecordId masterRecordId) {
+        // Computes (and caches) the bytes of the record id before publishing it
+        byte[] bytes = masterRecordId.toBytes();
+        entries.set(slot(bytes, 0, bytes.length), masterRecordId);
+    }
+
+    private int slot(byte[] bytes, int offset, int length) {
+        int hash = IdGeneratorImpl.hashBytes(bytes, offset, length);
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+}
@@ -15,18 +15,25 @@
  */
 package org.lilyproject.repository.impl.id;
 
-import org.lilyproject.bytes.api.DataInput;
 import org.lilyproject.repository.api.RecordId;
 
 public interface RecordIdFactory {
     /**
-     * Returns the DataInput split into two DataInputs: first one is the master id,
-     * second one are the variant properties. The second one should be null if there
-     * are no variant properties.
+     * Returns the length of the encoded master record id at the start of the given range, which starts with
+     * the id type byte. This is the length of the whole range if there are no variant properties.
      */
-    DataInput[] splitInMasterAndVariant(DataInput dataInput);
+    int getMasterLength(byte[] bytes, int offset, int length);
 
-    RecordId fromBytes(DataInput dataInput, IdGeneratorImpl idGenerator);
+    /**
+     * Returns the number of bytes between the encoded master record id and the variant properties.
+     */
+    int getVariantSeparatorLength();
+
+    /**
+     * Creates the master record id encoded in the given range, which starts with the id type byte. The record
+     * id can keep a reference to the bytes.
+     */
+    RecordId fromBytes(byte[] bytes, int offset, int length, IdGeneratorImpl idGenerator);
 
     RecordId fromString(String string, IdGeneratorImpl idGenerator);
 }
@@ -26,6 +26,8 @@ import org.lilyproject.repository.api.RecordId;
 
 public class UUIDRecordId implements RecordId {
 
+    private final long mostSigBits;
+    private final long leastSigBits;
     private UUID uuid;
     private String basicUUIDString;
     private String uuidString;
@@ -36,22 +38,35 @@ public class UUIDRecordId implements RecordId {
             Collections.unmodifiableSortedMap(new TreeMap<String, String>());
 
     protected UUIDRecordId(IdGeneratorImpl idGenerator) {
-        this.idGenerator = idGenerator;
-        uuid = UUID.randomUUID();
+        this(UUID.randomUUID(), idGenerator);
     }
 
     protected UUIDRecordId(UUID uuid, IdGeneratorImpl idGenerator) {
         this.uuid = uuid;
+        this.mostSigBits = uuid.getMostSignificantBits();
+        this.leastSigBits = uuid.getLeastSignificantBits();
         this.idGenerator = idGenerator;
     }
 
     public UUIDRecordId(String basicUUIDString, IdGeneratorImpl idgenerator) {
-        this.idGenerator = idgenerator;
-        this.uuid = UUID.fromString(basicUUIDString);
+        this(UUID.fromString(basicUUIDString), idgenerator);
         this.basicUUIDString = basicUUIDString;
     }
 
+    /**
+     * @param uuidBytes the encoded record id, if available
+     */
+    protected UUIDRecordId(long mostSigBits, long leastSigBits, byte[] uuidBytes, IdGeneratorImpl idGenerator) {
+        this.mostSigBits = mostSigBits;
+        this.leastSigBits = leastSigBits;
+        this.uuidBytes = uuidBytes;
+        this.idGenerator = idGenerator;
+    }
+
     public UUID getUuid() {
+        if (uuid == null) {
+            uuid = new UUID(mostSigBits, leastSigBits);
+        }
         return uuid;
     }
 
@@ -76,8 +91,8 @@ public class UUIDRecordId implements RecordId {
     public void writeBytes(DataOutput dataOutput) {
         if (uuidBytes == null) {
             dataOutput.writeByte(IdGeneratorImpl.IdType.UUID.getIdentifierByte());
-            dataOutput.writeLong(uuid.getMostSignificantBits());
-            dataOutput.writeLong(uuid.getLeastSignificantBits());
+            dataOutput.writeLong(mostSigBits);
+            dataOutput.writeLong(leastSigBits);
         } else {
             dataOutput.writeBytes(uuidBytes);
         }
@@ -90,16 +105,18 @@ public class UUIDRecordId implements RecordId {
 
     protected String getBasicString() {
         if (basicUUIDString == null) {
-            basicUUIDString = uuid.toString();
+            basicUUIDString = getUuid().toString();
         }
         return basicUUIDString;
     }
 
     @Override
     public int hashCode() {
+        // Same as the hash code of the UUID
+        long hilo = mostSigBits ^ leastSigBits;
         final int prime = 31;
         int result = 1;
-        result = prime * result + ((uuid == null) ? 0 : uuid.hashCode());
+        result = prime * result + (((int) (hilo >> 32)) ^ (int) hilo);
         return result;
     }
 
@@ -115,14 +132,7 @@ public class UUIDRecordId implements RecordId {
             return false;
         }
         UUIDRecordId other = (UUIDRecordId) obj;
-        if (uuid == null) {
-            if (other.uuid != null) {
-                return false;
-            }
-        } else if (!uuid.equals(other.uuid)) {
-            return false;
-        }
-        return true;
+        return mostSigBits == other.mostSigBits && leastSigBits == other.leastSigBits;
     }
 
     @Override
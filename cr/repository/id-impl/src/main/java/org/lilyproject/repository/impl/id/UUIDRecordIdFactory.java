@@ -15,35 +15,40 @@
  */
 package org.lilyproject.repository.impl.id;
 
-import java.util.UUID;
-
-import org.lilyproject.bytes.api.DataInput;
-import org.lilyproject.bytes.impl.DataInputImpl;
 import org.lilyproject.repository.api.RecordId;
 
 public class UUIDRecordIdFactory implements RecordIdFactory {
     private static final int UUID_LENGTH = 16;
 
     @Override
-    public DataInput[] splitInMasterAndVariant(DataInput dataInput) {
-        if (dataInput.getSize() - dataInput.getPosition() > UUID_LENGTH) {
-
-            DataInput keyInput = new DataInputImpl(((DataInputImpl) dataInput), dataInput.getPosition(),
-                    dataInput.getPosition() + 16);
-
-            DataInput variantInput = new DataInputImpl(((DataInputImpl) dataInput), dataInput.getPosition() + 16,
-                    dataInput.getSize() - 17);
-
-            return new DataInput[]{keyInput, variantInput};
-        } else {
-            return new DataInput[]{dataInput, null};
+    public int getMasterLength(byte[] bytes, int offset, int length) {
+        if (length < 1 + UUID_LENGTH) {
+            throw new IllegalArgumentException("UUID record id should be at least " + (1 + UUID_LENGTH)
+                    + " bytes long, got: " + length);
         }
+        return 1 + UUID_LENGTH;
+    }
+
+    @Override
+    public int getVariantSeparatorLength() {
+        return 0;
     }
 
     @Override
-    public RecordId fromBytes(DataInput dataInput, IdGeneratorImpl idGenerator) {
-        UUID uuid = new UUID(dataInput.readLong(), dataInput.readLong());
-        return new UUIDRecordId(uuid, idGenerator);
+    public RecordId fromBytes(byte[] bytes, int offset, int length, IdGeneratorImpl idGenerator) {
+        long mostSigBits = readLong(bytes, offset + 1);
+        long leastSigBits = readLong(bytes, offset + 9);
+        // Reuse the bytes when they are exactly the encoded id
+        byte[] idBytes = offset == 0 && length == bytes.length ? bytes : null;
+        return new UUIDRecordId(mostSigBits, leastSigBits, idBytes, idGenerator);
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            value = (value << 8) | (bytes[i] & 0xFF);
+        }
+        return value;
     }
 
     @Override
@@ -20,17 +20,30 @@ import java.util.SortedMap;
 import java.util.TreeMap;
 
 import org.lilyproject.bytes.api.DataOutput;
+import org.lilyproject.bytes.impl.DataInputImpl;
 import org.lilyproject.bytes.impl.DataOutputImpl;
 import org.lilyproject.repository.api.RecordId;
 
 
+/**
+ * A record id with a user-provided string.
+ *
+ * <p>When created from bytes, the string is only decoded when needed, hashCode and equals work on the encoded
+ * bytes.</p>
+ */
 public class UserRecordId implements RecordId {
 
-    protected final String basicRecordIdString;
+    protected String basicRecordIdString;
     protected byte[] recordIdBytes;
     protected String recordIdString;
     private final IdGeneratorImpl idGenerator;
 
+    /** The range of bytes from which this record id was created, if any. */
+    private final byte[] encoded;
+    private final int encodedOffset;
+    private final int encodedLength;
+    private int hash;
+
     private static final SortedMap<String, String> EMPTY_SORTED_MAP =
             Collections.unmodifiableSortedMap(new TreeMap<String, String>());
 
@@ -38,25 +51,48 @@ public class UserRecordId implements RecordId {
         IdGeneratorImpl.checkIdString(recordId, "record id");
         this.basicRecordIdString = recordId;
         this.idGenerator = idGenerator;
+        this.encoded = null;
+        this.encodedOffset = 0;
+        this.encodedLength = 0;
+    }
+
+    /**
+     * Creates a record id of which the given range of bytes is the encoding, starting with the id type byte.
+     * The bytes are not copied.
+     */
+    protected UserRecordId(byte[] bytes, int offset, int length, IdGeneratorImpl idGenerator) {
+        this.encoded = bytes;
+        this.encodedOffset = offset;
+        this.encodedLength = length;
+        this.idGenerator = idGenerator;
+        if (offset == 0 && length == bytes.length) {
+            this.recordIdBytes = bytes;
+        }
     }
 
     @Override
     public byte[] toBytes() {
         if (recordIdBytes == null) {
-            DataOutput dataOutput = new DataOutputImpl();
-            writeBytes(dataOutput);
-            recordIdBytes = dataOutput.toByteArray();
+            if (encoded != null) {
+                byte[] bytes = new byte[encodedLength];
+                System.arraycopy(encoded, encodedOffset, bytes, 0, encodedLength);
+                recordIdBytes = bytes;
+            } else {
+                DataOutput dataOutput = new DataOutputImpl();
+                writeBytes(dataOutput);
+                recordIdBytes = dataOutput.toByteArray();
+            }
         }
         return recordIdBytes;
     }
 
     @Override
     public void writeBytes(DataOutput dataOutput) {
-        if (recordIdBytes == null) {
+        if (recordIdBytes == null && encoded == null) {
             dataOutput.writeByte(IdGeneratorImpl.IdType.USER.getIdentifierByte());
             dataOutput.writeUTF(basicRecordIdString, false);
         } else {
-            dataOutput.writeBytes(recordIdBytes);
+            dataOutput.writeBytes(toBytes());
         }
     }
 
@@ -68,6 +104,11 @@ public class UserRecordId implements RecordId {
     }
 
     protected String getBasicString() {
+        if (basicRecordIdString == null) {
+            // skip the id type byte
+            basicRecordIdString = new DataInputImpl(encoded, encodedOffset + 1, encodedLength - 1)
+                    .readUTF(encodedLength - 1);
+        }
         return basicRecordIdString;
     }
 
@@ -78,10 +119,15 @@ public class UserRecordId implements RecordId {
 
     @Override
     public int hashCode() {
-        final int prime = 31;
-        int result = 1;
-        result = prime * result + ((basicRecordIdString == null) ? 0 : basicRecordIdString.hashCode());
-        return result;
+        if (hash == 0) {
+            if (encoded != null) {
+                hash = IdGeneratorImpl.hashBytes(encoded, encodedOffset, encodedLength);
+            } else {
+                byte[] bytes = toBytes();
+                hash = IdGeneratorImpl.hashBytes(bytes, 0, bytes.length);
+            }
+        }
+        return hash;
     }
 
     @Override
@@ -96,14 +142,15 @@ public class UserRecordId implements RecordId {
             return false;
         }
         UserRecordId other = (UserRecordId) obj;
-        if (basicRecordIdString == null) {
-            if (other.basicRecordIdString != null) {
-                return false;
-            }
-        } else if (!basicRecordIdString.equals(other.basicRecordIdString)) {
-            return false;
+        if (encoded != null && other.encoded != null) {
+            return IdGeneratorImpl.equalBytes(encoded, encodedOffset, encodedLength,
+                    other.encoded, other.encodedOffset, other.encodedLength);
+        } else if (encoded == null && other.encoded == null) {
+            return basicRecordIdString.equals(other.basicRecordIdString);
         }
-        return true;
+        byte[] bytes = toBytes();
+        byte[] otherBytes = other.toBytes();
+        return IdGeneratorImpl.equalBytes(bytes, 0, bytes.length, otherBytes, 0, otherBytes.length);
     }
 
     @Override
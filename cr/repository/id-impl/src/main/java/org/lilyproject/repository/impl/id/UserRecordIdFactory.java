@@ -15,38 +15,33 @@
  */
 package org.lilyproject.repository.impl.id;
 
-import org.lilyproject.bytes.api.DataInput;
-import org.lilyproject.bytes.impl.DataInputImpl;
 import org.lilyproject.repository.api.RecordId;
 
 public class UserRecordIdFactory implements RecordIdFactory {
     protected static final byte VARIANT_SEPARATOR = (byte) 0;
 
     @Override
-    public DataInput[] splitInMasterAndVariant(DataInput dataInput) {
-        // Search for separator byte
-        int sepPos = dataInput.indexOf(VARIANT_SEPARATOR);
-
-        if (sepPos == -1) {
-            return new DataInput[]{dataInput, null};
-        } else {
-            DataInput keyInput =
-                    new DataInputImpl(((DataInputImpl) dataInput), dataInput.getPosition(), sepPos - dataInput.getPosition());
-            DataInput variantInput =
-                    new DataInputImpl(((DataInputImpl) dataInput), sepPos + 1, dataInput.getSize() - (sepPos + 1));
-
-            return new DataInput[]{keyInput, variantInput};
+    public int getMasterLength(byte[] bytes, int offset, int length) {
+        // Search for separator byte, the NULL character is not allowed in USER record id's
+        for (int i = offset + 1; i < offset + length; i++) {
+            if (bytes[i] == VARIANT_SEPARATOR) {
+                return i - offset;
+            }
         }
+        return length;
     }
 
     @Override
-    public RecordId fromBytes(DataInput dataInput, IdGeneratorImpl idGenerator) {
-        if (dataInput.indexOf((byte) 0) != -1) {
-            throw new IllegalArgumentException("The NULL character is not allowed in USER record id's.");
-        }
+    public int getVariantSeparatorLength() {
+        return 1;
+    }
 
-        String id = dataInput.readUTF(dataInput.getSize() - dataInput.getPosition()); // read the remainder of the data input
-        return new UserRecordId(id, idGenerator);
+    @Override
+    public RecordId fromBytes(byte[] bytes, int offset, int length, IdGeneratorImpl idGenerator) {
+        if (length <= 1) {
+            throw new IllegalArgumentException("Zero-length record id is not allowed.");
+        }
+        return new UserRecordId(bytes, offset, length, idGenerator);
     }
 
     @Override
@@ -24,17 +24,32 @@ import java.util.TreeMap;
 
 import org.lilyproject.bytes.api.DataInput;
 import org.lilyproject.bytes.api.DataOutput;
+import org.lilyproject.bytes.impl.DataInputImpl;
 import org.lilyproject.bytes.impl.DataOutputImpl;
 import org.lilyproject.repository.api.RecordId;
 
+/**
+ * A record id of a variant record.
+ *
+ * <p>When created from bytes, the variant properties are only decoded when needed, hashCode and equals work on
+ * the encoded bytes.</p>
+ */
 public class VariantRecordId implements RecordId {
 
     private final RecordId masterRecordId;
-    private final SortedMap<String, String> variantProperties;
+    private SortedMap<String, String> variantProperties;
     private final IdGeneratorImpl idGenerator;
 
     private byte[] recordIdBytes;
     private String recordIdString;
+    private int hash;
+
+    /** The range of bytes from which this record id was created, if any. */
+    private final byte[] encoded;
+    private final int encodedOffset;
+    private final int encodedLength;
+    /** Position of the variant properties within the encoded bytes. */
+    private final int variantOffset;
 
     protected VariantRecordId(RecordId masterRecordId, Map<String, String> variantProperties,
                               IdGeneratorImpl idGenerator) {
@@ -45,12 +60,31 @@ public class VariantRecordId implements RecordId {
         this.variantProperties = Collections.unmodifiableSortedMap(varProps);
 
         this.idGenerator = idGenerator;
+        this.encoded = null;
+        this.encodedOffset = 0;
+        this.encodedLength = 0;
+        this.variantOffset = 0;
     }
 
-    protected VariantRecordId(RecordId masterRecordId, DataInput dataInput, IdGeneratorImpl idGenerator) {
+    /**
+     * Creates a record id of which the given range of bytes is the encoding. The bytes are not copied.
+     *
+     * @param variantOffset the position in the bytes at which the variant properties start
+     */
+    protected VariantRecordId(RecordId masterRecordId, byte[] bytes, int offset, int length, int variantOffset,
+                              IdGeneratorImpl idGenerator) {
         this.masterRecordId = masterRecordId;
         this.idGenerator = idGenerator;
+        this.encoded = bytes;
+        this.encodedOffset = offset;
+        this.encodedLength = length;
+        this.variantOffset = variantOffset;
+        if (offset == 0 && length == bytes.length) {
+            this.recordIdBytes = bytes;
+        }
+    }
 
+    private static SortedMap<String, String> decodeVariantProperties(DataInput dataInput) {
         SortedMap<String, String> varProps = createVariantPropertiesMap();
         while (dataInput.getPosition() < dataInput.getSize()) {
             String dimension = dataInput.readVUTF();
@@ -60,10 +94,10 @@ public class VariantRecordId implements RecordId {
             IdGeneratorImpl.checkVariantPropertyNameValue(dimensionValue);
             varProps.put(dimension, dimensionValue);
         }
-        this.variantProperties = Collections.unmodifiableSortedMap(varProps);
+        return Collections.unmodifiableSortedMap(varProps);
     }
 
-    private SortedMap<String, String> createVariantPropertiesMap() {
+    private static SortedMap<String, String> createVariantPropertiesMap() {
         // Make sure they are always sorted the same way
         return new TreeMap<String, String>();
     }
@@ -78,16 +112,22 @@ public class VariantRecordId implements RecordId {
     @Override
     public byte[] toBytes() {
         if (recordIdBytes == null) {
-            DataOutput dataOutput = new DataOutputImpl();
-            writeBytes(dataOutput);
-            recordIdBytes = dataOutput.toByteArray();
+            if (encoded != null) {
+                byte[] bytes = new byte[encodedLength];
+                System.arraycopy(encoded, encodedOffset, bytes, 0, encodedLength);
+                recordIdBytes = bytes;
+            } else {
+                DataOutput dataOutput = new DataOutputImpl();
+                writeBytes(dataOutput);
+                recordIdBytes = dataOutput.toByteArray();
+            }
         }
         return recordIdBytes;
     }
 
     @Override
     public final void writeBytes(DataOutput dataOutput) {
-        if (recordIdBytes == null) {
+        if (recordIdBytes == null && encoded == null) {
             masterRecordId.writeBytes(dataOutput);
 
             // TODO this needs to be designed some other way
@@ -103,7 +143,7 @@ public class VariantRecordId implements RecordId {
             }
 
         } else {
-            dataOutput.writeBytes(recordIdBytes);
+            dataOutput.writeBytes(toBytes());
         }
     }
 
@@ -119,16 +159,24 @@ public class VariantRecordId implements RecordId {
 
     @Override
     public SortedMap<String, String> getVariantProperties() {
+        if (variantProperties == null) {
+            variantProperties = decodeVariantProperties(new DataInputImpl(encoded, variantOffset,
+                    encodedOffset + encodedLength - variantOffset));
+        }
         return variantProperties;
     }
 
     @Override
     public int hashCode() {
-        final int prime = 31;
-        int result = 1;
-        result = prime * result + ((masterRecordId == null) ? 0 : masterRecordId.hashCode());
-        result = prime * result + ((variantProperties == null) ? 0 : variantProperties.hashCode());
-        return result;
+        if (hash == 0) {
+            if (encoded != null) {
+                hash = IdGeneratorImpl.hashBytes(encoded, encodedOffset, encodedLength);
+            } else {
+                byte[] bytes = toBytes();
+                hash = IdGeneratorImpl.hashBytes(bytes, 0, bytes.length);
+            }
+        }
+        return hash;
     }
 
     @Override
@@ -143,20 +191,16 @@ public class VariantRecordId implements RecordId {
             return false;
         }
         VariantRecordId other = (VariantRecordId) obj;
-        if (masterRecordId == null) {
-            if (other.masterRecordId != null) {
-                return false;
-            }
-        } else if (!masterRecordId.equals(other.masterRecordId)) {
-            return false;
-        }
-        if (variantProperties == null) {
-            if (other.variantProperties != null) {
-                return false;
-            }
-        } else if (!variantProperties.equals(other.variantProperties)) {
-            return false;
+        if (encoded != null && other.encoded != null) {
+            return IdGeneratorImpl.equalBytes(encoded, encodedOffset, encodedLength,
+                    other.encoded, other.encodedOffset, other.encodedLength);
+        } else if (encoded == null && other.encoded == null) {
+            return masterRecordId.equals(other.masterRecordId)
+                    && variantProperties.equals(other.variantProperties);
         }
-        return true;
+        // The encoding of the variant properties is canonical, since they are written in sorted order
+        byte[] bytes = toBytes();
+        byte[] otherBytes = other.toBytes();
+        return IdGeneratorImpl.equalBytes(bytes, 0, bytes.length, otherBytes, 0, otherBytes.length);
     }
 }
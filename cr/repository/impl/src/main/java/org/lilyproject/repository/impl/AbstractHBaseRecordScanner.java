@@ -25,14 +25,26 @@ import org.lilyproject.repository.api.RepositoryException;
 
 abstract class AbstractHBaseRecordScanner<T extends Record> {
     private final ResultScanner hbaseScanner;
+    private final ParallelHBaseScanner<T> parallelScanner;
 
     AbstractHBaseRecordScanner(ResultScanner hbaseScanner) {
         this.hbaseScanner = hbaseScanner;
+        this.parallelScanner = null;
+    }
+
+    AbstractHBaseRecordScanner(ParallelHBaseScanner<T> parallelScanner) {
+        this.hbaseScanner = null;
+        this.parallelScanner = parallelScanner;
     }
 
     abstract T decode(Result result) throws RepositoryException, InterruptedException;
 
     public T next() throws RepositoryException, InterruptedException {
+        if (parallelScanner != null) {
+            // the parallel scanner decodes the results itself
+            return parallelScanner.next();
+        }
+
         Result result;
         try {
             result = hbaseScanner.next();
@@ -49,7 +61,11 @@ abstract class AbstractHBaseRecordScanner<T extends Record> {
     }
 
     public void close() {
-        hbaseScanner.close();
+        if (parallelScanner != null) {
+            parallelScanner.close();
+        } else {
+            hbaseScanner.close();
+        }
     }
 
     public Iterator<T> iterator() {
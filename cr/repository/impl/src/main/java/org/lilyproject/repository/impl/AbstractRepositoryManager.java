@@ -127,6 +127,15 @@ public abstract class AbstractRepositoryManager implements RepositoryManager {
         return repositoryCache.get(key);
     }
 
+    /**
+     * Returns the repository for the given table if it has been created before, otherwise null.
+     */
+    protected Repository getCreatedRepository(RepoTableKey key) {
+        synchronized (repositoryCache) {
+            return repositoryCache.get(key);
+        }
+    }
+
     @Override
     public synchronized void close() throws IOException {
         if (shouldCloseRepositories()) {
@@ -27,6 +27,7 @@ import java.util.ServiceLoader;
 
 import com.google.common.base.Preconditions;
 import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTable;
 import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.ResultScanner;
@@ -65,6 +66,7 @@ import org.lilyproject.repository.api.TypeManager;
 import org.lilyproject.repository.api.VersionNotFoundException;
 import org.lilyproject.repository.api.filter.RecordFilter;
 import org.lilyproject.repository.impl.RepositoryMetrics.Action;
+import org.lilyproject.repository.spi.AuthorizationContextHolder;
 import org.lilyproject.repository.spi.HBaseRecordFilterFactory;
 import org.lilyproject.util.ArgumentValidator;
 import org.lilyproject.util.Pair;
@@ -72,6 +74,7 @@ import org.lilyproject.util.hbase.LilyHBaseSchema;
 import org.lilyproject.util.hbase.LilyHBaseSchema.RecordCf;
 import org.lilyproject.util.hbase.LilyHBaseSchema.RecordColumn;
 import org.lilyproject.util.hbase.RepoAndTableUtil;
+import org.lilyproject.util.io.Closer;
 
 public abstract class BaseRepository implements Repository {
     protected final AbstractRepositoryManager repositoryManager;
@@ -85,6 +88,10 @@ public abstract class BaseRepository implements Repository {
     protected final RepoTableKey repoTableKey;
     protected final TableManager tableManager;
     protected RepositoryMetrics metrics;
+    /**
+     * Optional cache of the rows read for records, null if there is none.
+     */
+    protected RecordCache recordCache;
 
     /**
      * Not all rows in the HBase record table are real records, this filter excludes non-valid
@@ -223,15 +230,77 @@ public abstract class BaseRepository implements Repository {
 
     @Override
     public RecordScanner getScanner(RecordScan scan) throws RepositoryException, InterruptedException {
+        if (scan.getParallelism() > 1) {
+            return new HBaseRecordScannerImpl(createParallelScanner(scan,
+                    new ParallelHBaseScanner.ResultDecoder<Record>() {
+                        @Override
+                        public Record decode(Result result) throws RepositoryException, InterruptedException {
+                            return recdec.decodeRecord(result);
+                        }
+                    }));
+        }
         return new HBaseRecordScannerImpl(createHBaseResultScanner(scan), recdec);
     }
 
     @Override
     public IdRecordScanner getScannerWithIds(RecordScan scan) throws RepositoryException, InterruptedException {
+        if (scan.getParallelism() > 1) {
+            return new HBaseIdRecordScannerImpl(createParallelScanner(scan,
+                    new ParallelHBaseScanner.ResultDecoder<IdRecord>() {
+                        @Override
+                        public IdRecord decode(Result result) throws RepositoryException, InterruptedException {
+                            return recdec.decodeRecordWithIds(result);
+                        }
+                    }));
+        }
         return new HBaseIdRecordScannerImpl(createHBaseResultScanner(scan), recdec);
     }
 
+    private <T> ParallelHBaseScanner<T> createParallelScanner(RecordScan scan,
+            ParallelHBaseScanner.ResultDecoder<T> decoder) throws RepositoryException, InterruptedException {
+        Scan hbaseScan = createHBaseScan(scan);
+
+        byte[][] splitKeys = scan.getSplitKeys();
+        if (splitKeys == null) {
+            splitKeys = getRegionStartKeys();
+        }
+
+        List<Pair<byte[], byte[]>> splits = ParallelHBaseScanner.getSplits(hbaseScan.getStartRow(),
+                hbaseScan.getStopRow(), splitKeys);
+        int prefetch = Math.max(scan.getCaching(), 100);
+
+        // The record table is thread-safe, so the scanning threads can share it. It is the authorization
+        // enabled table, the scanner applies the authorization context of the current thread to its threads.
+        return new ParallelHBaseScanner<T>(recordTable, hbaseScan, splits, scan.getParallelism(), prefetch,
+                scan.getOrdered(), decoder);
+    }
+
+    private byte[][] getRegionStartKeys() throws RepositoryException {
+        // Only used to look up the region boundaries, no record data is read through this table
+        HTable htable = null;
+        try {
+            htable = new HTable(recordTable.getConfiguration(), recordTable.getTableName());
+            return htable.getStartKeys();
+        } catch (IOException e) {
+            throw new RecordException("Error determining the regions to scan", e);
+        } finally {
+            Closer.close(htable);
+        }
+    }
+
     private ResultScanner createHBaseResultScanner(RecordScan scan) throws RepositoryException, InterruptedException {
+        Scan hbaseScan = createHBaseScan(scan);
+
+        ResultScanner hbaseScanner;
+        try {
+            hbaseScanner = recordTable.getScanner(hbaseScan);
+        } catch (IOException e) {
+            throw new RecordException("Error creating scanner", e);
+        }
+        return hbaseScanner;
+    }
+
+    private Scan createHBaseScan(RecordScan scan) throws RepositoryException, InterruptedException {
         Scan hbaseScan = new Scan();
 
         hbaseScan.setMaxVersions(1);
@@ -286,13 +355,7 @@ public abstract class BaseRepository implements Repository {
             hbaseScan.addFamily(RecordCf.DATA.bytes);
         }
 
-        ResultScanner hbaseScanner;
-        try {
-            hbaseScanner = recordTable.getScanner(hbaseScan);
-        } catch (IOException e) {
-            throw new RecordException("Error creating scanner", e);
-        }
-        return hbaseScanner;
+        return hbaseScan;
     }
 
     private static final List<HBaseRecordFilterFactory> FILTER_FACTORIES;
@@ -359,7 +422,7 @@ public abstract class BaseRepository implements Repository {
         FieldTypes fieldTypes = typeManager.getFieldTypesSnapshot();
         List<FieldType> fields = getFieldTypesFromNames(fieldTypes, fieldNames);
 
-        return read(recordId, version, fields, fieldTypes);
+        return readWithOcc(recordId, version, fields, fieldTypes, false, true).getV1();
     }
 
     @Override
@@ -371,13 +434,44 @@ public abstract class BaseRepository implements Repository {
         return readWithIds(recordId, version, fields, fieldTypes);
     }
 
+    @Override
+    public List<IdRecord> readWithIds(List<RecordId> recordIds, List<SchemaId> fieldIds)
+            throws RepositoryException, InterruptedException {
+        long before = System.currentTimeMillis();
+        try {
+            ArgumentValidator.notNull(recordIds, "recordIds");
+            List<IdRecord> records = new ArrayList<IdRecord>(recordIds.size());
+            if (recordIds.isEmpty()) {
+                return records;
+            }
+
+            FieldTypes fieldTypes = typeManager.getFieldTypesSnapshot();
+            List<FieldType> fields = getFieldTypesFromIds(fieldIds, fieldTypes);
+
+            Map<RecordId, Result> results = getCachedRows(recordIds, fields);
+
+            for (RecordId recordId : recordIds) {
+                Result result = results.get(recordId);
+                if (result != null) {
+                    Long version = recdec.getLatestVersion(result);
+                    records.add(recdec.decodeRecordWithIds(recordId, version, result, fieldTypes));
+                }
+            }
+            return records;
+        } finally {
+            if (metrics != null) {
+                metrics.report(Action.READ, System.currentTimeMillis() - before);
+            }
+        }
+    }
+
     private IdRecord readWithIds(RecordId recordId, Long requestedVersion, List<FieldType> fields,
                                  FieldTypes fieldTypes) throws RepositoryException, InterruptedException {
         long before = System.currentTimeMillis();
         try {
             ArgumentValidator.notNull(recordId, "recordId");
 
-            Result result = getRow(recordId, requestedVersion, 1, fields);
+            Result result = getCachedRow(recordId, requestedVersion, fields);
 
             Long latestVersion = recdec.getLatestVersion(result);
             if (requestedVersion == null) {
@@ -438,11 +532,23 @@ public abstract class BaseRepository implements Repository {
 
     protected Pair<Record, byte[]> readWithOcc(RecordId recordId, Long requestedVersion, List<FieldType> fields,
             FieldTypes fieldTypes, boolean disableAuth) throws RepositoryException, InterruptedException {
+        return readWithOcc(recordId, requestedVersion, fields, fieldTypes, disableAuth, false);
+    }
+
+    /**
+     * @param useCache true if the row can be served from the record cache. This should only be done for plain reads:
+     *                 when the record is read as part of an update, a cached row could lead to needless
+     *                 concurrent update failures.
+     */
+    protected Pair<Record, byte[]> readWithOcc(RecordId recordId, Long requestedVersion, List<FieldType> fields,
+            FieldTypes fieldTypes, boolean disableAuth, boolean useCache)
+            throws RepositoryException, InterruptedException {
         long before = System.currentTimeMillis();
         try {
             ArgumentValidator.notNull(recordId, "recordId");
 
-            Result result = getRow(recordId, requestedVersion, 1, fields, disableAuth);
+            Result result = useCache && !disableAuth ? getCachedRow(recordId, requestedVersion, fields) :
+                    getRow(recordId, requestedVersion, 1, fields, disableAuth);
 
             Long latestVersion = recdec.getLatestVersion(result);
             if (requestedVersion == null) {
@@ -474,7 +580,7 @@ public abstract class BaseRepository implements Repository {
                 return records;
             }
 
-            Map<RecordId, Result> results = getRows(recordIds, fields);
+            Map<RecordId, Result> results = getCachedRows(recordIds, fields);
 
             for (RecordId recordId : recordIds) {
                 Result result = results.get(recordId);
@@ -491,6 +597,68 @@ public abstract class BaseRepository implements Repository {
         }
     }
 
+    /**
+     * Variant of {@link #getRow} which serves the row from the record cache if possible, and otherwise adds the row
+     * read from HBase to it.
+     *
+     * <p>The cache is bypassed when an authorization context is active, since the rows are read with the
+     * permissions of that context.</p>
+     */
+    protected Result getCachedRow(RecordId recordId, Long version, List<FieldType> fields) throws RecordException {
+        if (recordCache == null || AuthorizationContextHolder.getCurrentContext() != null) {
+            return getRow(recordId, version, 1, fields);
+        }
+
+        Result result = recordCache.get(recordId, version, fields);
+        if (result == null) {
+            long generation = recordCache.getGeneration(recordId);
+            result = getRow(recordId, version, 1, fields);
+            recordCache.put(recordId, version, fields, result, generation);
+        }
+        return result;
+    }
+
+    /**
+     * Variant of {@link #getRows} which serves the rows from the record cache as far as possible.
+     */
+    protected Map<RecordId, Result> getCachedRows(List<RecordId> recordIds, List<FieldType> fields)
+            throws RecordException {
+        if (recordCache == null || AuthorizationContextHolder.getCurrentContext() != null) {
+            return getRows(recordIds, fields);
+        }
+
+        Map<RecordId, Result> results = new HashMap<RecordId, Result>();
+        List<RecordId> toRead = new ArrayList<RecordId>();
+        Map<RecordId, Long> generations = new HashMap<RecordId, Long>();
+        for (RecordId recordId : recordIds) {
+            Result result = recordCache.get(recordId, null, fields);
+            if (result != null) {
+                results.put(recordId, result);
+            } else {
+                toRead.add(recordId);
+                generations.put(recordId, recordCache.getGeneration(recordId));
+            }
+        }
+
+        if (!toRead.isEmpty()) {
+            Map<RecordId, Result> readResults = getRows(toRead, fields);
+            for (Map.Entry<RecordId, Result> entry : readResults.entrySet()) {
+                recordCache.put(entry.getKey(), null, fields, entry.getValue(), generations.get(entry.getKey()));
+            }
+            results.putAll(readResults);
+        }
+        return results;
+    }
+
+    /**
+     * Removes the record from the record cache, should be called whenever the record is or might have been updated.
+     */
+    protected void invalidateCachedRecord(RecordId recordId) {
+        if (recordCache != null) {
+            recordCache.invalidate(recordId);
+        }
+    }
+
     // Retrieves the row from the table and check if it exists and has not been flagged as deleted
     protected Result getRow(RecordId recordId, Long version, int numberOfVersions, List<FieldType> fields)
             throws RecordException {
@@ -589,6 +757,18 @@ public abstract class BaseRepository implements Repository {
     @Override
     public List<Record> readVersions(RecordId recordId, Long fromVersion, Long toVersion, QName... fieldNames)
             throws RepositoryException, InterruptedException {
+        RecordScanner scanner = getVersionScanner(recordId, fromVersion, toVersion, fieldNames);
+        List<Record> records = new ArrayList<Record>();
+        Record record;
+        while ((record = scanner.next()) != null) {
+            records.add(record);
+        }
+        return records;
+    }
+
+    @Override
+    public RecordScanner getVersionScanner(RecordId recordId, Long fromVersion, Long toVersion, QName... fieldNames)
+            throws RepositoryException, InterruptedException {
         ArgumentValidator.notNull(recordId, "recordId");
         ArgumentValidator.notNull(fromVersion, "fromVersion");
         ArgumentValidator.notNull(toVersion, "toVersion");
@@ -606,14 +786,12 @@ public abstract class BaseRepository implements Repository {
             fromVersion = 1L; // Put the fromVersion to a sensible value
         }
         Long latestVersion = recdec.getLatestVersion(result);
-        if (latestVersion < toVersion) {
+        if (latestVersion == null) {
+            toVersion = 0L; // The record has no versions, only non-versioned fields
+        } else if (latestVersion < toVersion) {
             toVersion = latestVersion; // Limit the toVersion to the highest possible version
         }
-        List<Long> versionsToRead = new ArrayList<Long>();
-        for (long version = fromVersion; version <= toVersion; version++) {
-            versionsToRead.add(version);
-        }
-        return recdec.decodeRecords(recordId, versionsToRead, result, fieldTypes);
+        return new RecordVersionScanner(recdec.decodeVersions(recordId, result, fieldTypes), fromVersion, toVersion);
     }
 
     @Override
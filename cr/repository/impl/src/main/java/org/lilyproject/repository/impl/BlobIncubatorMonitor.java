@@ -69,6 +69,7 @@ public class BlobIncubatorMonitor {
     private final TypeManager typeManager;
     private MonitorThread monitorThread;
     private HTableInterface blobIncubatorTable;
+    private HBaseBlobStoreAccess hbaseBlobStoreAccess;
     private HBaseTableFactory tableFactory;
     private TableManager tableManager;
     private final long runDelay;
@@ -83,6 +84,8 @@ public class BlobIncubatorMonitor {
         this.runDelay = runDelay;
 
         this.blobIncubatorTable = LilyHBaseSchema.getBlobIncubatorTable(tableFactory, false);
+        // Chunked blobs which were never completed are not in the incubator, they are cleaned up separately
+        this.hbaseBlobStoreAccess = new HBaseBlobStoreAccess(tableFactory);
 
         this.tableFactory = tableFactory;
         this.tableManager = tableManager;
@@ -213,6 +216,10 @@ public class BlobIncubatorMonitor {
                 }
             }
             Closer.close(scanner);
+            if (!stopRequested) {
+                int deleted = hbaseBlobStoreAccess.deleteIncompleteBlobs(maxStamp);
+                metrics.blobDeleteCount.inc(deleted);
+            }
             metrics.runDuration.inc(System.currentTimeMillis() - monitorBegin);
             log.debug("Stop run blob incubator monitor");
         }
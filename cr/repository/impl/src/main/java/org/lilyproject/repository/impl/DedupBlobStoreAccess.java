@@ -0,0 +1,376 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.UUID;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.filter.ColumnPaginationFilter;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.lilyproject.repository.api.Blob;
+import org.lilyproject.repository.api.BlobException;
+import org.lilyproject.repository.api.BlobStoreAccess;
+import org.lilyproject.util.hbase.HBaseTableFactory;
+
+/**
+ * Blob store which stores blobs with identical content only once in an underlying blob store.
+ *
+ * <p>The content of a blob is hashed while it is written. A content table maps each hash to the key of the
+ * blob in the underlying store and holds a column for each upload using it. Blobs which fit in the buffer (see
+ * {@link #setBufferSize(int)}) are only written to the underlying store when their content is not stored yet,
+ * larger blobs are written while they are streamed and deleted again when their content turns out to be stored
+ * already.</p>
+ *
+ * <p>Each upload still gets a key of its own (the content hash followed by a unique suffix), so that the
+ * incubation and reservation of blobs by records works as for the other blob stores. Deleting a blob releases
+ * its upload: the content is only deleted from the underlying store once no uploads use it anymore. As blobs
+ * are deleted through {@link #delete(byte[])}, both the removal of unreferenced blobs after record updates and
+ * the cleanup of unused blobs by the {@link BlobIncubatorMonitor} take this into account. Since releasing an
+ * upload removes its column, deleting the same blob more than once has no further effect.</p>
+ *
+ * <p>The content table is only created when the store is used.</p>
+ *
+ * <p>This store is registered under the id of the underlying store prefixed with {@value #ID_PREFIX}, it is
+ * used by configuring that id in the blob store access config.</p>
+ */
+public class DedupBlobStoreAccess implements BlobStoreAccess {
+    private final Log log = LogFactory.getLog(getClass());
+
+    public static final String ID_PREFIX = "DEDUP_";
+    private static final byte[] CONTENT_TABLE = Bytes.toBytes("blobcontent");
+    private static final String CONTENT_COLUMN_FAMILY = "data";
+    private static final byte[] CONTENT_COLUMN_FAMILY_BYTES = Bytes.toBytes(CONTENT_COLUMN_FAMILY);
+    /** Column holding the key of the content in the underlying blob store. */
+    private static final byte[] KEY_COLUMN = Bytes.toBytes("k");
+    /**
+     * Column holding the id of the last upload which started using the content. It changes with each upload,
+     * which allows to delete the content row only if no upload started using it since it was read.
+     */
+    private static final byte[] GENERATION_COLUMN = Bytes.toBytes("g");
+    /** Prefix of the columns of the uploads using the content, followed by the upload id. */
+    private static final byte[] UPLOAD_COLUMN_PREFIX = Bytes.toBytes("u");
+    /**
+     * Number of columns to read to know if any upload uses the content: the upload columns sort after the key
+     * and generation columns.
+     */
+    private static final int RELEASE_CHECK_COLUMNS = 3;
+
+    private static final String HASH_ALGORITHM = "SHA-256";
+    private static final int HASH_LENGTH = 32;
+    private static final int UPLOAD_ID_LENGTH = 2 * Bytes.SIZEOF_LONG;
+
+    public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+    private final BlobStoreAccess blobStoreAccess;
+    private final String id;
+    private final HBaseTableFactory tableFactory;
+    private final boolean clientMode;
+    private volatile HTableInterface table;
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+    public DedupBlobStoreAccess(BlobStoreAccess blobStoreAccess, HBaseTableFactory tableFactory)
+            throws IOException, InterruptedException {
+        this(blobStoreAccess, tableFactory, false);
+    }
+
+    public DedupBlobStoreAccess(BlobStoreAccess blobStoreAccess, HBaseTableFactory tableFactory, boolean clientMode)
+            throws IOException, InterruptedException {
+        if (!blobStoreAccess.incubate()) {
+            throw new IllegalArgumentException("Blobs of blobstore " + blobStoreAccess.getId()
+                    + " are not stored separately, they cannot be deduplicated.");
+        }
+        this.blobStoreAccess = blobStoreAccess;
+        this.id = ID_PREFIX + blobStoreAccess.getId();
+        this.tableFactory = tableFactory;
+        this.clientMode = clientMode;
+    }
+
+    /**
+     * Returns the content table, creating it (when not in client mode) the first time the store is used, so
+     * that the table only exists when deduplication is actually configured.
+     */
+    private HTableInterface getTable() throws IOException {
+        if (table == null) {
+            synchronized (this) {
+                if (table == null) {
+                    HTableDescriptor tableDescriptor = new HTableDescriptor(CONTENT_TABLE);
+                    tableDescriptor.addFamily(new HColumnDescriptor(CONTENT_COLUMN_FAMILY));
+                    try {
+                        table = tableFactory.getTable(tableDescriptor, !clientMode);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while opening the " + id
+                                + " blobstore content table");
+                    }
+                }
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Sets the size up to which blobs are buffered before they are written to the underlying blob store.
+     */
+    public void setBufferSize(int bufferSize) {
+        if (bufferSize < 0) {
+            throw new IllegalArgumentException("Buffer size should not be negative, got: " + bufferSize);
+        }
+        this.bufferSize = bufferSize;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public OutputStream getOutputStream(Blob blob) throws BlobException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new BlobException("Failed to open an outputstream for blob '" + blob + "' on the "
+                    + id + " blobstore", e);
+        }
+        return new DedupOutputStream(blob, digest);
+    }
+
+    @Override
+    public InputStream getInputStream(byte[] blobKey) throws BlobException {
+        return blobStoreAccess.getInputStream(getContentKey(blobKey));
+    }
+
+    @Override
+    public InputStream getInputStream(byte[] blobKey, long offset, long length) throws BlobException {
+        return blobStoreAccess.getInputStream(getContentKey(blobKey), offset, length);
+    }
+
+    /**
+     * Releases the upload identified by the key, deleting the content when it is not used by other uploads.
+     */
+    @Override
+    public void delete(byte[] blobKey) throws BlobException {
+        byte[] hash = getHash(blobKey);
+        try {
+            release(hash, Bytes.tail(blobKey, UPLOAD_ID_LENGTH));
+        } catch (IOException e) {
+            throw new BlobException("Failed to delete blob with key '" + Hex.encodeHexString(blobKey) + "' from the "
+                    + id + " blobstore", e);
+        }
+    }
+
+    @Override
+    public boolean incubate() {
+        return true;
+    }
+
+    private byte[] getHash(byte[] blobKey) throws BlobException {
+        if (blobKey.length != HASH_LENGTH + UPLOAD_ID_LENGTH) {
+            throw new BlobException("Invalid blobkey '" + Hex.encodeHexString(blobKey) + "' for the " + id
+                    + " blobstore");
+        }
+        return Bytes.head(blobKey, HASH_LENGTH);
+    }
+
+    private byte[] getContentKey(byte[] blobKey) throws BlobException {
+        byte[] contentKey;
+        try {
+            contentKey = getContentKeyForHash(getHash(blobKey));
+        } catch (IOException e) {
+            throw new BlobException("Failed to open an inputstream for blobkey '" + Hex.encodeHexString(blobKey)
+                    + "' on the " + id + " blobstore", e);
+        }
+        if (contentKey == null) {
+            throw new BlobException("Failed to open an inputstream for blobkey '" + Hex.encodeHexString(blobKey)
+                    + "' since no blob was found on the " + id + " blobstore");
+        }
+        return contentKey;
+    }
+
+    private byte[] getContentKeyForHash(byte[] hash) throws IOException {
+        Get get = new Get(hash);
+        get.addColumn(CONTENT_COLUMN_FAMILY_BYTES, KEY_COLUMN);
+        return getTable().get(get).getValue(CONTENT_COLUMN_FAMILY_BYTES, KEY_COLUMN);
+    }
+
+    /**
+     * Registers an upload as using the content.
+     */
+    private void register(byte[] hash, byte[] uploadId) throws IOException {
+        Put put = new Put(hash);
+        put.add(CONTENT_COLUMN_FAMILY_BYTES, Bytes.add(UPLOAD_COLUMN_PREFIX, uploadId), new byte[0]);
+        put.add(CONTENT_COLUMN_FAMILY_BYTES, GENERATION_COLUMN, uploadId);
+        getTable().put(put);
+    }
+
+    /**
+     * Removes the upload from the uploads using the content. When no uploads remain, the content is deleted.
+     *
+     * <p>The content row is only deleted if no upload started using it in the meantime, an upload which starts
+     * using the content after that stores the content again.</p>
+     */
+    private void release(byte[] hash, byte[] uploadId) throws IOException, BlobException {
+        HTableInterface contentTable = getTable();
+        Delete uploadDelete = new Delete(hash);
+        uploadDelete.deleteColumns(CONTENT_COLUMN_FAMILY_BYTES, Bytes.add(UPLOAD_COLUMN_PREFIX, uploadId));
+        contentTable.delete(uploadDelete);
+
+        Get get = new Get(hash);
+        get.addFamily(CONTENT_COLUMN_FAMILY_BYTES);
+        get.setFilter(new ColumnPaginationFilter(RELEASE_CHECK_COLUMNS, 0));
+        Result result = contentTable.get(get);
+        if (result.isEmpty()) {
+            return;
+        }
+        for (KeyValue kv : result.raw()) {
+            byte[] qualifier = kv.getQualifier();
+            if (qualifier.length > UPLOAD_COLUMN_PREFIX.length && Bytes.equals(qualifier, 0,
+                    UPLOAD_COLUMN_PREFIX.length, UPLOAD_COLUMN_PREFIX, 0, UPLOAD_COLUMN_PREFIX.length)) {
+                // still in use
+                return;
+            }
+        }
+
+        byte[] contentKey = result.getValue(CONTENT_COLUMN_FAMILY_BYTES, KEY_COLUMN);
+        byte[] generation = result.getValue(CONTENT_COLUMN_FAMILY_BYTES, GENERATION_COLUMN);
+        if (contentTable.checkAndDelete(hash, CONTENT_COLUMN_FAMILY_BYTES, GENERATION_COLUMN, generation,
+                new Delete(hash))) {
+            if (contentKey != null) {
+                blobStoreAccess.delete(contentKey);
+            }
+        }
+    }
+
+    /**
+     * Hashes the blob while it is written. Up to the buffer size, the blob is only kept in memory.
+     */
+    private class DedupOutputStream extends OutputStream {
+        private final Blob blob;
+        private final MessageDigest digest;
+        private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        /** The blob in the underlying store, only created once something is written to it. */
+        private Blob contentBlob;
+        private OutputStream contentStream;
+        private boolean closed;
+
+        DedupOutputStream(Blob blob, MessageDigest digest) {
+            this.blob = blob;
+            this.digest = digest;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte)b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (off < 0 || len < 0 || off + len > b.length) {
+                throw new IndexOutOfBoundsException();
+            }
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            digest.update(b, off, len);
+            if (contentStream == null && buffer.size() + len <= bufferSize) {
+                buffer.write(b, off, len);
+            } else {
+                if (contentStream == null) {
+                    openContentStream();
+                }
+                contentStream.write(b, off, len);
+            }
+        }
+
+        private void openContentStream() throws IOException {
+            contentBlob = new Blob(blob.getMediaType(), blob.getSize(), blob.getName());
+            contentStream = blobStoreAccess.getOutputStream(contentBlob);
+            buffer.writeTo(contentStream);
+            buffer = null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            byte[] hash = digest.digest();
+            UUID uuid = UUID.randomUUID();
+            byte[] uploadId = Bytes.add(Bytes.toBytes(uuid.getMostSignificantBits()),
+                    Bytes.toBytes(uuid.getLeastSignificantBits()));
+
+            // Register this upload first, so that the content cannot be deleted while it is being looked up
+            register(hash, uploadId);
+            try {
+                if (getContentKeyForHash(hash) != null) {
+                    if (contentStream != null) {
+                        // The content was stored already, drop the copy written while streaming
+                        contentStream.close();
+                        blobStoreAccess.delete(contentBlob.getValue());
+                    }
+                } else {
+                    if (contentStream == null) {
+                        openContentStream();
+                    }
+                    contentStream.close();
+                    Put put = new Put(hash);
+                    put.add(CONTENT_COLUMN_FAMILY_BYTES, KEY_COLUMN, contentBlob.getValue());
+                    if (!getTable().checkAndPut(hash, CONTENT_COLUMN_FAMILY_BYTES, KEY_COLUMN, null, put)) {
+                        // A concurrent upload of the same content stored it first
+                        blobStoreAccess.delete(contentBlob.getValue());
+                    }
+                }
+            } catch (IOException e) {
+                releaseQuietly(hash, uploadId);
+                throw e;
+            } catch (BlobException e) {
+                releaseQuietly(hash, uploadId);
+                throw new IOException("Failed to store the content of blob '" + blob + "' on the " + id
+                        + " blobstore", e);
+            }
+            buffer = null;
+
+            blob.setValue(Bytes.add(hash, uploadId));
+        }
+
+        private void releaseQuietly(byte[] hash, byte[] uploadId) {
+            try {
+                release(hash, uploadId);
+            } catch (Exception e) {
+                log.warn("Failed to release the content " + Hex.encodeHexString(hash) + " on the " + id
+                        + " blobstore, it will not be deleted.", e);
+            }
+        }
+    }
+}
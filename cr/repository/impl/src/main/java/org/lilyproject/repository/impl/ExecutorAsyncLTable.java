@@ -0,0 +1,196 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.lilyproject.repository.api.AsyncLTable;
+import org.lilyproject.repository.api.LTable;
+import org.lilyproject.repository.api.MutationCondition;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.RecordScanner;
+
+/**
+ * {@link AsyncLTable} which runs the blocking {@link LTable} operations on an executor.
+ *
+ * <p>This is the implementation for {@link HBaseRepository}: the HBase client has no non-blocking API, so the
+ * best that can be done is to move the waiting to a pool sized for the expected concurrency, rather than
+ * having it done by the threads of the application.</p>
+ *
+ * <p>The executor is not owned by this object, it is up to the caller to shut it down.</p>
+ */
+public class ExecutorAsyncLTable implements AsyncLTable {
+    private final LTable table;
+    private final ListeningExecutorService executor;
+    private final Semaphore inFlight;
+
+    /**
+     * @param maxInFlight maximum number of operations that can be in progress at the same time
+     */
+    public ExecutorAsyncLTable(LTable table, ExecutorService executor, int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight should be at least 1, got: " + maxInFlight);
+        }
+        this.table = table;
+        this.executor = MoreExecutors.listeningDecorator(executor);
+        this.inFlight = new Semaphore(maxInFlight);
+    }
+
+    @Override
+    public LTable getTable() {
+        return table;
+    }
+
+    protected ListeningExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Reserves a place in the in-flight window, waiting for one to become available if necessary. Each call
+     * should be followed by a call to {@link #releaseOnCompletion}, or when the operation could not be started,
+     * to {@link #release}.
+     */
+    protected void acquire() throws InterruptedException {
+        inFlight.acquire();
+    }
+
+    protected void release() {
+        inFlight.release();
+    }
+
+    protected <T> ListenableFuture<T> releaseOnCompletion(ListenableFuture<T> future) {
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                release();
+            }
+        }, MoreExecutors.sameThreadExecutor());
+        return future;
+    }
+
+    protected <T> ListenableFuture<T> submit(Callable<T> callable) throws InterruptedException {
+        acquire();
+        ListenableFuture<T> future;
+        try {
+            future = executor.submit(callable);
+        } catch (RejectedExecutionException e) {
+            release();
+            throw e;
+        }
+        return releaseOnCompletion(future);
+    }
+
+    @Override
+    public ListenableFuture<Record> create(final Record record) throws InterruptedException {
+        return submit(new Callable<Record>() {
+            @Override
+            public Record call() throws Exception {
+                return table.create(record);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<Record> update(Record record) throws InterruptedException {
+        return update(record, false, true, null);
+    }
+
+    @Override
+    public ListenableFuture<Record> update(Record record, List<MutationCondition> conditions)
+            throws InterruptedException {
+        return update(record, false, true, conditions);
+    }
+
+    @Override
+    public ListenableFuture<Record> update(final Record record, final boolean updateVersion,
+            final boolean useLatestRecordType, final List<MutationCondition> conditions)
+            throws InterruptedException {
+        return submit(new Callable<Record>() {
+            @Override
+            public Record call() throws Exception {
+                return table.update(record, updateVersion, useLatestRecordType, conditions);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<Record> read(RecordId recordId, QName... fieldNames) throws InterruptedException {
+        return read(recordId, (Long) null, fieldNames);
+    }
+
+    @Override
+    public ListenableFuture<Record> read(final RecordId recordId, final Long version, final QName... fieldNames)
+            throws InterruptedException {
+        return submit(new Callable<Record>() {
+            @Override
+            public Record call() throws Exception {
+                return table.read(recordId, version, fieldNames);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<List<Record>> read(final List<RecordId> recordIds, final QName... fieldNames)
+            throws InterruptedException {
+        return submit(new Callable<List<Record>>() {
+            @Override
+            public List<Record> call() throws Exception {
+                return table.read(recordIds, fieldNames);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<Void> delete(final RecordId recordId) throws InterruptedException {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                table.delete(recordId);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<Record> delete(final RecordId recordId, final List<MutationCondition> conditions)
+            throws InterruptedException {
+        return submit(new Callable<Record>() {
+            @Override
+            public Record call() throws Exception {
+                return table.delete(recordId, conditions);
+            }
+        });
+    }
+
+    @Override
+    public ListenableFuture<Record> next(final RecordScanner scanner) throws InterruptedException {
+        return submit(new Callable<Record>() {
+            @Override
+            public Record call() throws Exception {
+                return scanner.next();
+            }
+        });
+    }
+}
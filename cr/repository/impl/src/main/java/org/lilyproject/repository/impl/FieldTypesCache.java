@@ -47,6 +47,10 @@ public class FieldTypesCache extends FieldTypesImpl implements FieldTypes {
     // count is higher than 0, the nameCache can not be updated since this could
     // lead to an inconsistent state (two types could get the same name).
     private volatile int count = 0;
+    // The snapshot handed out by getSnapshot(). It is never modified once published, and is
+    // reset to null when the contents of a bucket change, so that the next getSnapshot() call
+    // builds a new one.
+    private volatile FieldTypes snapshot;
 
     private ConcurrentHashMap<String, Set<SchemaId>> localUpdateBuckets = new ConcurrentHashMap<String, Set<SchemaId>>();
 
@@ -98,17 +102,29 @@ public class FieldTypesCache extends FieldTypesImpl implements FieldTypes {
     }
 
     /**
-     * Decrement the number of buckets being updated and mark the nameCache out
-     * of date.
+     * Decrement the number of buckets being updated and, if the bucket was
+     * changed, mark the nameCache and the snapshot out of date.
      */
-    private void decCount() {
+    private void decCount(boolean changed) {
         synchronized (monitor) {
             count--;
-            nameCacheOutOfDate = true;
+            if (changed) {
+                nameCacheOutOfDate = true;
+                snapshot = null;
+            }
             monitor.notify();
         }
     }
 
+    /**
+     * Puts the field type in the bucket, returns true if this changed the
+     * contents of the bucket.
+     */
+    private boolean put(Map<SchemaId, FieldType> bucket, FieldType fieldType) {
+        FieldType oldFieldType = bucket.put(fieldType.getId(), fieldType);
+        return oldFieldType == null || !oldFieldType.equals(fieldType);
+    }
+
     /**
      * Return the monitor of a bucket and create it if it does not exist yet.
      *
@@ -138,24 +154,36 @@ public class FieldTypesCache extends FieldTypesImpl implements FieldTypes {
      * Take a snapshot of the cache and return it. This snapshot cannot be
      * updated.
      *
+     * <p>The same snapshot is returned until the contents of the cache
+     * change, so in the common case this is only a volatile read.
+     *
      * @return the FieldTypes snapshot
      * @throws InterruptedException
      */
     public FieldTypes getSnapshot() throws InterruptedException {
+        FieldTypes currentSnapshot = snapshot;
+        if (currentSnapshot != null) {
+            return currentSnapshot;
+        }
         synchronized (monitor) {
             while (count > 0) {
                 monitor.wait();
             }
-            FieldTypesImpl newFieldTypes = new FieldTypesImpl();
-            for (Entry<String, Map<SchemaId, FieldType>> bucketEntry : buckets.entrySet()) {
-                Map<SchemaId, FieldType> fieldTypeIdBucket = new HashMap<SchemaId, FieldType>();
-                fieldTypeIdBucket.putAll(bucketEntry.getValue());
-                newFieldTypes.buckets.put(bucketEntry.getKey(), fieldTypeIdBucket);
-                for (FieldType fieldType: bucketEntry.getValue().values()) {
-                    newFieldTypes.nameCache.put(fieldType.getName(), fieldType);
+            if (snapshot == null) {
+                Map<String, Map<SchemaId, FieldType>> snapshotBuckets =
+                        new HashMap<String, Map<SchemaId, FieldType>>(buckets.size() * 2);
+                Map<QName, FieldType> snapshotNameCache = new HashMap<QName, FieldType>();
+                for (Entry<String, Map<SchemaId, FieldType>> bucketEntry : buckets.entrySet()) {
+                    Map<SchemaId, FieldType> fieldTypeIdBucket = new HashMap<SchemaId, FieldType>();
+                    fieldTypeIdBucket.putAll(bucketEntry.getValue());
+                    snapshotBuckets.put(bucketEntry.getKey(), fieldTypeIdBucket);
+                    for (FieldType fieldType: bucketEntry.getValue().values()) {
+                        snapshotNameCache.put(fieldType.getName(), fieldType);
+                    }
                 }
+                snapshot = new FieldTypesImpl(snapshotNameCache, snapshotBuckets);
             }
-            return newFieldTypes;
+            return snapshot;
         }
     }
 
@@ -172,7 +200,7 @@ public class FieldTypesCache extends FieldTypesImpl implements FieldTypes {
             while (count > 0) {
                 monitor.wait();
             }
-            nameCacheOutOfDate = true;
+            boolean changed = false;
             // One would expect that existing buckets need to be cleared first.
             // But since field types cannot be deleted we will just overwrite
             // them.
@@ -188,9 +216,13 @@ public class FieldTypesCache extends FieldTypesImpl implements FieldTypes {
                         bucket = new ConcurrentHashMap<SchemaId, FieldType>(8, .75f, 1);
                         buckets.put(bucketId, bucket);
                     }
-                    bucket.put(fieldType.getId(), fieldType);
+                    changed |= put(bucket, fieldType);
                 }
             }
+            if (changed) {
+                nameCacheOutOfDate = true;
+                snapshot = null;
+            }
         }
     }
 
@@ -202,6 +234,7 @@ public class FieldTypesCache extends FieldTypesImpl implements FieldTypes {
     public void refreshFieldTypeBucket(TypeBucket typeBucket) {
         String bucketId = typeBucket.getBucketId();
 
+        boolean changed = false;
         // First increment the number of buckets that are being updated
         incCount();
         // Get a lock on the bucket to be updated
@@ -219,12 +252,12 @@ public class FieldTypesCache extends FieldTypesImpl implements FieldTypes {
             // Fill the bucket with the new field types
             for (FieldType fieldType : fieldTypes) {
                 if (!removeFromLocalUpdateBucket(fieldType.getId(), bucketId)) {
-                    bucket.put(fieldType.getId(), fieldType);
+                    changed |= put(bucket, fieldType);
                 }
             }
         }
         // Decrement the number of buckets that are being updated again.
-        decCount();
+        decCount(changed);
     }
 
     /**
@@ -237,6 +270,7 @@ public class FieldTypesCache extends FieldTypesImpl implements FieldTypes {
         FieldType ftToCache = fieldType.clone();
         SchemaId id = ftToCache.getId();
         String bucketId = AbstractSchemaCache.encodeHex(id.getBytes());
+        boolean changed;
         // First increment the number of buckets that are being updated
         incCount();
         // Get a lock on the bucket to be updated
@@ -247,14 +281,14 @@ public class FieldTypesCache extends FieldTypesImpl implements FieldTypes {
                 bucket = new ConcurrentHashMap<SchemaId, FieldType>(8, .75f, 1);
                 buckets.put(bucketId, bucket);
             }
-            bucket.put(id, ftToCache);
+            changed = put(bucket, ftToCache);
             // Mark that this fieldType is updated locally
             // and that the next refresh can be ignored
             // since this refresh can contain an old fieldType
             addToLocalUpdateBucket(id, bucketId);
         }
         // Decrement the number of buckets that are being updated again.
-        decCount();
+        decCount(changed);
     }
 
     // Add the id of a field type that has been updated locally
@@ -292,5 +326,7 @@ public class FieldTypesCache extends FieldTypesImpl implements FieldTypes {
         for (Set<SchemaId> bucket : localUpdateBuckets.values()) {
             bucket.clear();
         }
+
+        snapshot = null;
     }
 }
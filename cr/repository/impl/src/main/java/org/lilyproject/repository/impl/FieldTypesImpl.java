@@ -43,6 +43,15 @@ public class FieldTypesImpl implements FieldTypes {
         buckets = new ConcurrentHashMap<String, Map<SchemaId, FieldType>>();
     }
 
+    /**
+     * Creates a FieldTypes on top of the given maps. The maps are used as is, they should not be modified
+     * afterwards.
+     */
+    protected FieldTypesImpl(Map<QName, FieldType> nameCache, Map<String, Map<SchemaId, FieldType>> buckets) {
+        this.nameCache = nameCache;
+        this.buckets = buckets;
+    }
+
     protected Map<QName, FieldType> getNameCache() throws InterruptedException {
         return nameCache;
     }
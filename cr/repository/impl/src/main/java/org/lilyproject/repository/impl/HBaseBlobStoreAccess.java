@@ -16,7 +16,6 @@
 package org.lilyproject.repository.impl;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -26,11 +25,15 @@ import org.apache.commons.codec.binary.Hex;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HColumnDescriptor;
 import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.Delete;
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.KeyOnlyFilter;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.lilyproject.repository.api.Blob;
 import org.lilyproject.repository.api.BlobException;
@@ -38,16 +41,46 @@ import org.lilyproject.repository.api.BlobStoreAccess;
 import org.lilyproject.util.hbase.HBaseTableFactory;
 import org.lilyproject.util.hbase.HBaseTableFactoryImpl;
 
+/**
+ * Blob store storing the blobs in an HBase table, one row per blob.
+ *
+ * <p>Blobs which fit in one chunk are stored in a single cell. Larger blobs are stored in chunks, each in a
+ * column of its own, followed by a metadata cell holding the chunk size and the length of the blob. Blobs are
+ * streamed in both directions: writing only buffers the current chunk, reading only fetches a few chunks at a
+ * time, and skipping over a part of a blob does not fetch the chunks in between.</p>
+ *
+ * <p>The chunks of a blob are written while its output stream is being written to, the blob only becomes
+ * readable once its metadata cell has been written on close. The chunks of blobs which are never closed, e.g.
+ * because the writer died, are removed by {@link #deleteIncompleteBlobs(long)}.</p>
+ *
+ * <p>The chunk size and the number of chunks fetched at once are read from the HBase configuration, using the
+ * properties {@value #CHUNK_SIZE_KEY} and {@value #PREFETCH_CHUNKS_KEY}.</p>
+ */
 public class HBaseBlobStoreAccess implements BlobStoreAccess {
 
     private static final byte[] BLOB_TABLE = Bytes.toBytes("blob");
     private static final String ID = "HBASE";
     private static final String BLOBS_COLUMN_FAMILY = "data";
     private static final byte[] BLOBS_COLUMN_FAMILY_BYTES = Bytes.toBytes(BLOBS_COLUMN_FAMILY);
+    /** Column holding a blob stored in a single cell. */
     private static final byte[] BLOB_COLUMN = Bytes.toBytes("b");
+    /** Column holding the metadata of a chunked blob. */
+    private static final byte[] CHUNKED_BLOB_COLUMN = Bytes.toBytes("m");
+    /** Prefix of the columns holding the chunks, followed by the chunk number as an int. */
+    private static final byte[] CHUNK_COLUMN_PREFIX = Bytes.toBytes("c");
+    private static final byte CHUNKED_ENCODING_VERSION = (byte)1;
+
+    public static final String CHUNK_SIZE_KEY = "lily.blobstore.hbase.chunksize";
+    public static final String PREFETCH_CHUNKS_KEY = "lily.blobstore.hbase.prefetchchunks";
+
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+    /** Number of chunks fetched at once when reading. */
+    public static final int DEFAULT_PREFETCH_CHUNKS = 2;
 
     private boolean clientMode = false;
     private HTableInterface table;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private int prefetchChunks = DEFAULT_PREFETCH_CHUNKS;
 
     public HBaseBlobStoreAccess(Configuration hbaseConf) throws IOException, InterruptedException {
         this(hbaseConf, false);
@@ -66,6 +99,33 @@ public class HBaseBlobStoreAccess implements BlobStoreAccess {
         tableDescriptor.addFamily(new HColumnDescriptor(BLOBS_COLUMN_FAMILY));
 
         table = tableFactory.getTable(tableDescriptor, !clientMode);
+
+        Configuration conf = table.getConfiguration();
+        setChunkSize(conf.getInt(CHUNK_SIZE_KEY, DEFAULT_CHUNK_SIZE));
+        setPrefetchChunks(conf.getInt(PREFETCH_CHUNKS_KEY, DEFAULT_PREFETCH_CHUNKS));
+    }
+
+    /**
+     * Sets the size of the chunks in which new blobs are written, overriding {@value #CHUNK_SIZE_KEY}. This does
+     * not affect existing blobs.
+     */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size should be at least 1, got: " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Sets the number of chunks fetched at once when reading a chunked blob, overriding
+     * {@value #PREFETCH_CHUNKS_KEY}.
+     */
+    public void setPrefetchChunks(int prefetchChunks) {
+        if (prefetchChunks < 1) {
+            throw new IllegalArgumentException("Number of prefetched chunks should be at least 1, got: "
+                    + prefetchChunks);
+        }
+        this.prefetchChunks = prefetchChunks;
     }
 
     @Override
@@ -78,13 +138,26 @@ public class HBaseBlobStoreAccess implements BlobStoreAccess {
         UUID uuid = UUID.randomUUID();
         byte[] blobKey = Bytes.toBytes(uuid.getMostSignificantBits());
         blobKey = Bytes.add(blobKey, Bytes.toBytes(uuid.getLeastSignificantBits()));
-        return new HBaseBlobOutputStream(table, blobKey, blob);
+        return new HBaseBlobOutputStream(table, blobKey, blob, chunkSize);
     }
 
     @Override
     public InputStream getInputStream(byte[] blobKey) throws BlobException {
+        return getInputStream(blobKey, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * For chunked blobs, only the chunks overlapping the range are fetched.
+     */
+    @Override
+    public InputStream getInputStream(byte[] blobKey, long offset, long length) throws BlobException {
+        if (offset < 0 || length < 0) {
+            throw new BlobException("Invalid range for blobkey '" + Hex.encodeHexString(blobKey) + "': offset "
+                    + offset + ", length " + length);
+        }
         Get get = new Get(blobKey);
         get.addColumn(BLOBS_COLUMN_FAMILY_BYTES, BLOB_COLUMN);
+        get.addColumn(BLOBS_COLUMN_FAMILY_BYTES, CHUNKED_BLOB_COLUMN);
         Result result;
         try {
             result = table.get(get);
@@ -92,10 +165,27 @@ public class HBaseBlobStoreAccess implements BlobStoreAccess {
             throw new BlobException("Failed to open an inputstream for blobkey '" + Hex.encodeHexString(blobKey) + "' on the HBASE blobstore", e);
         }
         byte[] value = result.getValue(BLOBS_COLUMN_FAMILY_BYTES, BLOB_COLUMN);
-        if (value == null) {
+        if (value != null) {
+            int start = (int)Math.min(offset, value.length);
+            return new ByteArrayInputStream(value, start, (int)Math.min(length, value.length - start));
+        }
+        byte[] metadata = result.getValue(BLOBS_COLUMN_FAMILY_BYTES, CHUNKED_BLOB_COLUMN);
+        if (metadata == null) {
             throw new BlobException("Failed to open an inputstream for blobkey '" + Hex.encodeHexString(blobKey) + "' since no blob was found on the HBASE blobstore");
         }
-        return new ByteArrayInputStream(value);
+        if (metadata[0] != CHUNKED_ENCODING_VERSION) {
+            throw new BlobException("Failed to open an inputstream for blobkey '" + Hex.encodeHexString(blobKey) + "' since it has an unsupported encoding: " + metadata[0]);
+        }
+        int blobChunkSize = Bytes.toInt(metadata, 1);
+        long blobLength = Bytes.toLong(metadata, 1 + Bytes.SIZEOF_INT);
+        long start = Math.min(offset, blobLength);
+        // The stream ends at the end of the range, so it does not prefetch chunks beyond it
+        long end = start + Math.min(length, blobLength - start);
+        return new HBaseBlobInputStream(table, blobKey, blobChunkSize, start, end, prefetchChunks);
+    }
+
+    private static byte[] getChunkColumn(int chunk) {
+        return Bytes.add(CHUNK_COLUMN_PREFIX, Bytes.toBytes(chunk));
     }
 
     @Override
@@ -113,25 +203,310 @@ public class HBaseBlobStoreAccess implements BlobStoreAccess {
         return true;
     }
 
-    private class HBaseBlobOutputStream extends ByteArrayOutputStream {
+    /**
+     * Deletes the chunks of blobs which were never completed, because their output stream was not closed.
+     *
+     * <p>Such blobs never got a key, so they are not known to the blob incubator. Only blobs of which all chunks
+     * were written before the given time are deleted, a blob which gets completed in the meantime is kept.</p>
+     *
+     * @param maxTimestamp only blobs of which the last chunk was written before this time are deleted
+     * @return the number of deleted blobs
+     */
+    public int deleteIncompleteBlobs(long maxTimestamp) throws IOException {
+        Scan scan = new Scan();
+        scan.addFamily(BLOBS_COLUMN_FAMILY_BYTES);
+        scan.setFilter(new KeyOnlyFilter());
+        scan.setCaching(100);
+        scan.setCacheBlocks(false);
+        int count = 0;
+        ResultScanner scanner = table.getScanner(scan);
+        try {
+            for (Result result : scanner) {
+                if (result.containsColumn(BLOBS_COLUMN_FAMILY_BYTES, BLOB_COLUMN)
+                        || result.containsColumn(BLOBS_COLUMN_FAMILY_BYTES, CHUNKED_BLOB_COLUMN)) {
+                    continue;
+                }
+                long lastWrite = 0;
+                for (KeyValue kv : result.raw()) {
+                    lastWrite = Math.max(lastWrite, kv.getTimestamp());
+                }
+                if (lastWrite >= maxTimestamp) {
+                    continue;
+                }
+                // Only delete the chunks if the blob did not get its metadata since it was scanned
+                byte[] blobKey = result.getRow();
+                if (table.checkAndDelete(blobKey, BLOBS_COLUMN_FAMILY_BYTES, CHUNKED_BLOB_COLUMN, null,
+                        new Delete(blobKey))) {
+                    count++;
+                }
+            }
+        } finally {
+            scanner.close();
+        }
+        return count;
+    }
+
+    /**
+     * Writes the blob in chunks. If the whole blob fits in one chunk, it is written in a single cell on close.
+     */
+    private static class HBaseBlobOutputStream extends OutputStream {
+        private static final int INITIAL_BUFFER_SIZE = 8192;
 
         private final HTableInterface blobTable;
         private final byte[] blobKey;
         private final Blob blob;
-        HBaseBlobOutputStream(HTableInterface table, byte[] blobKey, Blob blob) {
-            super();
-            blobTable = table;
+        private final int chunkSize;
+        private byte[] buffer;
+        private int count;
+        private int chunks;
+        private long length;
+        private boolean closed;
+
+        HBaseBlobOutputStream(HTableInterface table, byte[] blobKey, Blob blob, int chunkSize) {
+            this.blobTable = table;
             this.blobKey = blobKey;
             this.blob = blob;
+            this.chunkSize = chunkSize;
+            this.buffer = new byte[Math.min(INITIAL_BUFFER_SIZE, chunkSize)];
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            ensureOpen();
+            if (count == buffer.length) {
+                makeRoom();
+            }
+            buffer[count++] = (byte)b;
+            length++;
         }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (off < 0 || len < 0 || off + len > b.length) {
+                throw new IndexOutOfBoundsException();
+            }
+            ensureOpen();
+            while (len > 0) {
+                if (count == buffer.length) {
+                    makeRoom();
+                }
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+                length += n;
+            }
+        }
+
+        private void ensureOpen() throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+        }
+
+        /**
+         * Grows the buffer up to the chunk size, writes the chunk when it is full.
+         */
+        private void makeRoom() throws IOException {
+            if (buffer.length < chunkSize) {
+                byte[] newBuffer = new byte[(int)Math.min((long)buffer.length * 2, chunkSize)];
+                System.arraycopy(buffer, 0, newBuffer, 0, count);
+                buffer = newBuffer;
+            } else {
+                writeChunk();
+            }
+        }
+
+        private void writeChunk() throws IOException {
+            byte[] chunk = new byte[count];
+            System.arraycopy(buffer, 0, chunk, 0, count);
+            Put put = new Put(blobKey);
+            put.add(BLOBS_COLUMN_FAMILY_BYTES, getChunkColumn(chunks), chunk);
+            try {
+                blobTable.put(put);
+            } catch (IOException e) {
+                // Don't leave the chunks written so far behind
+                deleteQuietly();
+                throw e;
+            }
+            chunks++;
+            count = 0;
+        }
+
+        private void deleteQuietly() {
+            try {
+                blobTable.delete(new Delete(blobKey));
+            } catch (IOException e) {
+                // ignore, the original exception is more relevant
+            }
+        }
+
         @Override
         public void close() throws IOException {
-            super.close();
-            byte[] bytes = toByteArray();
+            if (closed) {
+                return;
+            }
+            closed = true;
             Put put = new Put(blobKey);
-            put.add(BLOBS_COLUMN_FAMILY_BYTES, BLOB_COLUMN, bytes);
-            blobTable.put(put);
+            if (chunks == 0) {
+                byte[] bytes = new byte[count];
+                System.arraycopy(buffer, 0, bytes, 0, count);
+                put.add(BLOBS_COLUMN_FAMILY_BYTES, BLOB_COLUMN, bytes);
+            } else {
+                if (count > 0) {
+                    byte[] chunk = new byte[count];
+                    System.arraycopy(buffer, 0, chunk, 0, count);
+                    put.add(BLOBS_COLUMN_FAMILY_BYTES, getChunkColumn(chunks), chunk);
+                }
+                byte[] metadata = Bytes.add(new byte[] {CHUNKED_ENCODING_VERSION}, Bytes.toBytes(chunkSize),
+                        Bytes.toBytes(length));
+                put.add(BLOBS_COLUMN_FAMILY_BYTES, CHUNKED_BLOB_COLUMN, metadata);
+            }
+            buffer = null;
+            try {
+                blobTable.put(put);
+            } catch (IOException e) {
+                if (chunks > 0) {
+                    deleteQuietly();
+                }
+                throw e;
+            }
             blob.setValue(blobKey);
         }
     }
+
+    /**
+     * Reads a chunked blob, fetching a few chunks at a time.
+     */
+    private static class HBaseBlobInputStream extends InputStream {
+        private final HTableInterface blobTable;
+        private final byte[] blobKey;
+        private final int chunkSize;
+        /** Position in the blob after the last byte to read. */
+        private final long end;
+        private final int prefetchChunks;
+
+        /** Position in the blob of the next byte to read. */
+        private long position;
+        /** The fetched chunks, starting with chunk number firstChunk. */
+        private byte[][] chunks = new byte[0][];
+        private int firstChunk;
+
+        HBaseBlobInputStream(HTableInterface blobTable, byte[] blobKey, int chunkSize, long position, long end,
+                int prefetchChunks) {
+            this.blobTable = blobTable;
+            this.blobKey = blobKey;
+            this.chunkSize = chunkSize;
+            this.position = position;
+            this.end = end;
+            this.prefetchChunks = prefetchChunks;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            byte[] chunk = getChunk();
+            int chunkOffset = (int)(position % chunkSize);
+            if (chunkOffset >= chunk.length) {
+                throw shortChunk();
+            }
+            int b = chunk[chunkOffset] & 0xFF;
+            position++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (off < 0 || len < 0 || off + len > b.length) {
+                throw new IndexOutOfBoundsException();
+            }
+            if (len == 0) {
+                return 0;
+            }
+            if (position >= end) {
+                return -1;
+            }
+            int read = 0;
+            while (len > 0 && position < end) {
+                byte[] chunk = getChunk();
+                int chunkOffset = (int)(position % chunkSize);
+                int n = (int)Math.min(Math.min(len, chunk.length - chunkOffset), end - position);
+                if (n <= 0) {
+                    throw shortChunk();
+                }
+                System.arraycopy(chunk, chunkOffset, b, off, n);
+                position += n;
+                off += n;
+                len -= n;
+                read += n;
+            }
+            return read;
+        }
+
+        private IOException shortChunk() {
+            return new IOException("Chunk " + (position / chunkSize) + " of blob '"
+                    + Hex.encodeHexString(blobKey) + "' is shorter than expected");
+        }
+
+        /**
+         * Skips without fetching the chunks which are skipped over.
+         */
+        @Override
+        public long skip(long n) {
+            if (n <= 0) {
+                return 0;
+            }
+            long skipped = Math.min(n, end - position);
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            int chunk = (int)(position / chunkSize);
+            if (chunk < firstChunk || chunk >= firstChunk + chunks.length) {
+                return 0;
+            }
+            long fetchedEnd = Math.min((long)(firstChunk + chunks.length) * chunkSize, end);
+            return (int)Math.min(fetchedEnd - position, Integer.MAX_VALUE);
+        }
+
+        @Override
+        public void close() {
+            chunks = new byte[0][];
+        }
+
+        private byte[] getChunk() throws IOException {
+            int chunk = (int)(position / chunkSize);
+            if (chunk < firstChunk || chunk >= firstChunk + chunks.length) {
+                fetchChunks(chunk);
+            }
+            return chunks[chunk - firstChunk];
+        }
+
+        private void fetchChunks(int chunk) throws IOException {
+            int chunkCount = (int)((end + chunkSize - 1) / chunkSize);
+            int count = Math.min(prefetchChunks, chunkCount - chunk);
+            // Release the previous chunks before fetching the next ones
+            chunks = new byte[0][];
+            Get get = new Get(blobKey);
+            for (int i = 0; i < count; i++) {
+                get.addColumn(BLOBS_COLUMN_FAMILY_BYTES, getChunkColumn(chunk + i));
+            }
+            Result result = blobTable.get(get);
+            byte[][] fetched = new byte[count][];
+            for (int i = 0; i < count; i++) {
+                fetched[i] = result.getValue(BLOBS_COLUMN_FAMILY_BYTES, getChunkColumn(chunk + i));
+                if (fetched[i] == null) {
+                    throw new IOException("Chunk " + (chunk + i) + " of blob '" + Hex.encodeHexString(blobKey)
+                            + "' is missing on the HBASE blobstore");
+                }
+            }
+            chunks = fetched;
+            firstChunk = chunk;
+        }
+    }
 }
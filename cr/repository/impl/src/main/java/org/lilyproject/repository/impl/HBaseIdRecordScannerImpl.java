@@ -33,6 +33,11 @@ public class HBaseIdRecordScannerImpl extends AbstractHBaseRecordScanner<IdRecor
         this.recordDecoder = recordDecoder;
     }
 
+    HBaseIdRecordScannerImpl(ParallelHBaseScanner<IdRecord> parallelScanner) {
+        super(parallelScanner);
+        this.recordDecoder = null;
+    }
+
     @Override
     IdRecord decode(Result result) throws RepositoryException, InterruptedException {
         return this.recordDecoder.decodeRecordWithIds(result);
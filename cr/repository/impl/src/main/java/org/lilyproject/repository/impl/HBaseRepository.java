@@ -16,6 +16,7 @@
 package org.lilyproject.repository.impl;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -72,6 +73,7 @@ import org.lilyproject.repository.api.RecordException;
 import org.lilyproject.repository.api.RecordExistsException;
 import org.lilyproject.repository.api.RecordFactory;
 import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.RecordMutationResult;
 import org.lilyproject.repository.api.RecordNotFoundException;
 import org.lilyproject.repository.api.RecordType;
 import org.lilyproject.repository.api.RepositoryException;
@@ -84,9 +86,12 @@ import org.lilyproject.repository.api.ValueType;
 import org.lilyproject.repository.api.VersionNotFoundException;
 import org.lilyproject.repository.impl.RepositoryMetrics.Action;
 import org.lilyproject.repository.impl.hbase.ContainsValueComparator;
+import org.lilyproject.repository.impl.hbase.RecordMutationEndpoint;
+import org.lilyproject.repository.impl.hbase.RecordMutationProtocol;
 import org.lilyproject.repository.impl.id.SchemaIdImpl;
 import org.lilyproject.repository.impl.valuetype.BlobValueType;
 import org.lilyproject.repository.spi.AuthorizationContextHolder;
+import org.lilyproject.repository.spi.PartialRecordUpdateHook;
 import org.lilyproject.repository.spi.RecordUpdateHook;
 import org.lilyproject.util.ArgumentValidator;
 import org.lilyproject.util.Pair;
@@ -110,11 +115,28 @@ public class HBaseRepository extends BaseRepository {
 
     private static final Object METADATA_ONLY_UPDATE = new Object();
 
+    /**
+     * Number of times a conditional update is retried on the current record state returned by the
+     * {@link RecordMutationEndpoint}, before giving up with a ConcurrentRecordUpdateException.
+     */
+    private static final int CONDITIONAL_UPDATE_RETRIES = 10;
+
+    /**
+     * Set to false once it turns out the {@link RecordMutationEndpoint} is not deployed.
+     */
+    private volatile boolean mutationEndpointAvailable = true;
+
+    /**
+     * @param recordCacheConfig optional, if it enables caching for this table, records read from it are cached
+     */
     public HBaseRepository(RepoTableKey ttk, AbstractRepositoryManager repositoryManager, HTableInterface recordTable,
             HTableInterface nonAuthRecordTable, BlobManager blobManager, TableManager tableManager,
-            RecordFactory recordFactory) throws IOException, InterruptedException {
+            RecordFactory recordFactory, RecordCacheConfig recordCacheConfig) throws IOException, InterruptedException {
         super(ttk, repositoryManager, blobManager, recordTable, nonAuthRecordTable,
                 new RepositoryMetrics("hbaserepository"), tableManager, recordFactory);
+        if (recordCacheConfig != null) {
+            recordCache = recordCacheConfig.createCache(ttk, metrics);
+        }
     }
 
     @Override
@@ -199,103 +221,186 @@ public class HBaseRepository extends BaseRepository {
                 recordId = idGenerator.newRecordId();
             }
 
-            byte[] rowId = recordId.toBytes();
-
+            FieldTypes fieldTypes;
+            Result result;
             try {
-                FieldTypes fieldTypes = typeManager.getFieldTypesSnapshot();
-
-                long version = 1L;
-                byte[] oldOccBytes = null;
-                long newOcc = 1L;
-                // If the record existed it would have been deleted.
-                // The version numbering continues from where it has been deleted.
-                Get get = new Get(rowId);
-                get.addColumn(RecordCf.DATA.bytes, RecordColumn.DELETED.bytes);
-                get.addColumn(RecordCf.DATA.bytes, RecordColumn.VERSION.bytes);
-                get.addColumn(RecordCf.DATA.bytes, RecordColumn.OCC.bytes);
-                Result result = recordTable.get(get);
-                if (!result.isEmpty()) {
-                    // If the record existed it should have been deleted
-                    byte[] recordDeleted = result.getValue(RecordCf.DATA.bytes, RecordColumn.DELETED.bytes);
-                    if (recordDeleted != null && !Bytes.toBoolean(recordDeleted)) {
-                        throw new RecordExistsException(recordId);
-                    }
+                fieldTypes = typeManager.getFieldTypesSnapshot();
+                result = recordTable.get(newCreateStateGet(recordId));
+            } catch (IOException e) {
+                throw new RecordException("Exception occurred while creating record '" + recordId + "' in HBase table",
+                        e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RecordException("Exception occurred while creating record '" + recordId + "' in HBase table",
+                        e);
+            }
 
-                    oldOccBytes = result.getValue(RecordCf.DATA.bytes, RecordColumn.OCC.bytes);
-                    newOcc = Bytes.toLong(nextOcc(oldOccBytes));
-
-                    byte[] oldVersion = result.getValue(RecordCf.DATA.bytes, RecordColumn.VERSION.bytes);
-                    if (oldVersion != null) {
-                        version = Bytes.toLong(oldVersion) + 1;
-                        // Make sure any old data gets cleared and old blobs are deleted
-                        // This is to cover the failure scenario where a record was deleted, but a failure
-                        // occurred before executing the clearData
-                        // If this was already done, this is a no-op
-                        // Note: since the removal of the row locking, this part could run concurrent with other
-                        // threads trying to re-create a record or with a delete still being in progress. This
-                        // should be no problem since the clearData will only remove the versions at the old
-                        // timestamps, and leave the non-versioned fields untouched.
-                        clearData(recordId, null, Bytes.toLong(oldVersion));
-                    }
-                }
+            return createRecord(record, recordId, result, fieldTypes);
+        } finally {
+            metrics.report(Action.CREATE, System.currentTimeMillis() - before);
+        }
+    }
+
+    @Override
+    public List<RecordMutationResult> create(List<Record> records) throws RepositoryException, InterruptedException {
+        ArgumentValidator.notNull(records, "records");
 
-                RecordEvent recordEvent = new RecordEvent();
-                recordEvent.setType(Type.CREATE);
-                recordEvent.setTableName(getTableName());
-                if (record.hasAttributes()) {
-                    recordEvent.getAttributes().putAll(record.getAttributes());
+        long before = System.currentTimeMillis();
+        try {
+            FieldTypes fieldTypes = typeManager.getFieldTypesSnapshot();
+            RecordMutationResult[] results = new RecordMutationResult[records.size()];
+
+            List<Integer> positions = new ArrayList<Integer>(records.size());
+            List<RecordId> recordIds = new ArrayList<RecordId>(records.size());
+            List<Get> gets = new ArrayList<Get>(records.size());
+            for (int i = 0; i < records.size(); i++) {
+                Record record = records.get(i);
+                if (record == null) {
+                    results[i] = RecordMutationResult.failure(new InvalidRecordException(
+                            "The record cannot be null.", (RecordId) null));
+                    continue;
                 }
+                try {
+                    checkCreatePreconditions(record);
+                } catch (InvalidRecordException e) {
+                    results[i] = RecordMutationResult.failure(e);
+                    continue;
+                }
+                RecordId recordId = record.getId() != null ? record.getId() : idGenerator.newRecordId();
+                positions.add(i);
+                recordIds.add(recordId);
+                gets.add(newCreateStateGet(recordId));
+            }
 
-                Record newRecord = record.cloneRecord();
-                newRecord.setId(recordId);
+            if (!gets.isEmpty()) {
+                // Read the state of all the rows in one multi-get, the puts themselves are still executed one by
+                // one since each of them needs to be a checkAndPut on the occ column.
+                Result[] states;
+                try {
+                    states = recordTable.get(gets);
+                } catch (IOException e) {
+                    throw new RecordException("Exception occurred while reading the state of " + gets.size()
+                            + " records to create from HBase table", e);
+                }
 
-                for (RecordUpdateHook hook : updateHooks) {
-                    hook.beforeCreate(newRecord, this, fieldTypes, recordEvent);
+                for (int i = 0; i < positions.size(); i++) {
+                    int position = positions.get(i);
+                    try {
+                        Record created = createRecord(records.get(position), recordIds.get(i), states[i], fieldTypes);
+                        results[position] = RecordMutationResult.success(created);
+                    } catch (RepositoryException e) {
+                        results[position] = RecordMutationResult.failure(e);
+                    }
                 }
+            }
 
-                Set<BlobReference> referencedBlobs = new HashSet<BlobReference>();
-                Set<BlobReference> unReferencedBlobs = new HashSet<BlobReference>();
+            return Arrays.asList(results);
+        } finally {
+            metrics.report(Action.BATCH_CREATE, System.currentTimeMillis() - before);
+        }
+    }
 
-                Put put = buildPut(newRecord, version, fieldTypes, recordEvent, referencedBlobs, unReferencedBlobs, newOcc);
+    /**
+     * Builds the Get to read the system columns needed to create a record: if the record existed before,
+     * it should have been deleted, and the version numbering continues from where it was deleted.
+     */
+    private Get newCreateStateGet(RecordId recordId) {
+        Get get = new Get(recordId.toBytes());
+        get.addColumn(RecordCf.DATA.bytes, RecordColumn.DELETED.bytes);
+        get.addColumn(RecordCf.DATA.bytes, RecordColumn.VERSION.bytes);
+        get.addColumn(RecordCf.DATA.bytes, RecordColumn.OCC.bytes);
+        return get;
+    }
 
-                // Make sure the record type changed flag stays false for a newly
-                // created record
-                recordEvent.setRecordTypeChanged(false);
-                Long newVersion = newRecord.getVersion();
-                if (newVersion != null) {
-                    recordEvent.setVersionCreated(newVersion);
+    /**
+     * Creates a record, based on the system columns of its row as read via {@link #newCreateStateGet}.
+     */
+    private Record createRecord(Record record, RecordId recordId, Result result, FieldTypes fieldTypes)
+            throws RepositoryException {
+        try {
+            long version = 1L;
+            byte[] oldOccBytes = null;
+            long newOcc = 1L;
+            if (result != null && !result.isEmpty()) {
+                // If the record existed it should have been deleted
+                byte[] recordDeleted = result.getValue(RecordCf.DATA.bytes, RecordColumn.DELETED.bytes);
+                if (recordDeleted != null && !Bytes.toBoolean(recordDeleted)) {
+                    throw new RecordExistsException(recordId);
                 }
 
-                // Reserve blobs so no other records can use them
-                reserveBlobs(null, referencedBlobs);
-
-                put.add(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes, recordEvent.toJsonBytes());
-                boolean success = recordTable.checkAndPut(put.getRow(), RecordCf.DATA.bytes, RecordColumn.OCC.bytes,
-                        oldOccBytes, put);
-                if (!success) {
-                    throw new RecordExistsException(recordId);
+                oldOccBytes = result.getValue(RecordCf.DATA.bytes, RecordColumn.OCC.bytes);
+                newOcc = Bytes.toLong(nextOcc(oldOccBytes));
+
+                byte[] oldVersion = result.getValue(RecordCf.DATA.bytes, RecordColumn.VERSION.bytes);
+                if (oldVersion != null) {
+                    version = Bytes.toLong(oldVersion) + 1;
+                    // Make sure any old data gets cleared and old blobs are deleted
+                    // This is to cover the failure scenario where a record was deleted, but a failure
+                    // occurred before executing the clearData
+                    // If this was already done, this is a no-op
+                    // Note: since the removal of the row locking, this part could run concurrent with other
+                    // threads trying to re-create a record or with a delete still being in progress. This
+                    // should be no problem since the clearData will only remove the versions at the old
+                    // timestamps, and leave the non-versioned fields untouched.
+                    clearData(recordId, null, Bytes.toLong(oldVersion));
                 }
+            }
 
-                // Remove the used blobs from the blobIncubator
-                blobManager.handleBlobReferences(recordId, referencedBlobs, unReferencedBlobs);
+            RecordEvent recordEvent = new RecordEvent();
+            recordEvent.setType(Type.CREATE);
+            recordEvent.setTableName(getTableName());
+            if (record.hasAttributes()) {
+                recordEvent.getAttributes().putAll(record.getAttributes());
+            }
 
-                newRecord.setResponseStatus(ResponseStatus.CREATED);
-                removeUnidirectionalState(newRecord);
-                return newRecord;
+            Record newRecord = record.cloneRecord();
+            newRecord.setId(recordId);
 
-            } catch (IOException e) {
-                throw new RecordException("Exception occurred while creating record '" + recordId + "' in HBase table",
-                        e);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                throw new RecordException("Exception occurred while creating record '" + recordId + "' in HBase table",
-                        e);
-            } catch (BlobException e) {
-                throw new RecordException("Exception occurred while creating record '" + recordId + "'",
-                        e);
+            for (RecordUpdateHook hook : updateHooks) {
+                hook.beforeCreate(newRecord, this, fieldTypes, recordEvent);
             }
-        } finally {
-            metrics.report(Action.CREATE, System.currentTimeMillis() - before);
+
+            Set<BlobReference> referencedBlobs = new HashSet<BlobReference>();
+            Set<BlobReference> unReferencedBlobs = new HashSet<BlobReference>();
+
+            Put put = buildPut(newRecord, version, fieldTypes, recordEvent, referencedBlobs, unReferencedBlobs, newOcc);
+
+            // Make sure the record type changed flag stays false for a newly
+            // created record
+            recordEvent.setRecordTypeChanged(false);
+            Long newVersion = newRecord.getVersion();
+            if (newVersion != null) {
+                recordEvent.setVersionCreated(newVersion);
+            }
+
+            // Reserve blobs so no other records can use them
+            reserveBlobs(null, referencedBlobs);
+
+            put.add(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes, recordEvent.toBytes());
+            boolean success = recordTable.checkAndPut(put.getRow(), RecordCf.DATA.bytes, RecordColumn.OCC.bytes,
+                    oldOccBytes, put);
+            invalidateCachedRecord(recordId);
+            if (!success) {
+                throw new RecordExistsException(recordId);
+            }
+
+            // Remove the used blobs from the blobIncubator
+            blobManager.handleBlobReferences(recordId, referencedBlobs, unReferencedBlobs);
+
+            newRecord.setResponseStatus(ResponseStatus.CREATED);
+            removeUnidirectionalState(newRecord);
+            return newRecord;
+
+        } catch (IOException e) {
+            throw new RecordException("Exception occurred while creating record '" + recordId + "' in HBase table",
+                    e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RecordException("Exception occurred while creating record '" + recordId + "' in HBase table",
+                    e);
+        } catch (BlobException e) {
+            throw new RecordException("Exception occurred while creating record '" + recordId + "'",
+                    e);
         }
     }
 
@@ -309,7 +414,7 @@ public class HBaseRepository extends BaseRepository {
         Put put = new Put(newRecord.getId().toBytes());
         put.add(RecordCf.DATA.bytes, RecordColumn.DELETED.bytes, 1L, Bytes.toBytes(false));
         calculateRecordChanges(newRecord, dummyOriginalRecord, version, put, recordEvent, referencedBlobs,
-                unReferencedBlobs, false, fieldTypes);
+                unReferencedBlobs, false, true, fieldTypes);
         put.add(RecordCf.DATA.bytes, RecordColumn.OCC.bytes, 1L, Bytes.toBytes(occ));
         return put;
     }
@@ -402,14 +507,175 @@ public class HBaseRepository extends BaseRepository {
 
     private Record updateRecord(Record record, boolean useLatestRecordType, List<MutationCondition> conditions,
                                 FieldTypes fieldTypes) throws RepositoryException {
+        Pair<Record, byte[]> recordAndOcc;
+        try {
+            List<FieldType> blindUpdateFields = getBlindUpdateFields(record, conditions, fieldTypes);
+            if (blindUpdateFields != null) {
+                recordAndOcc = readWithOcc(record.getId(), null, blindUpdateFields, fieldTypes);
+                // Validating the record against another record type needs all its fields
+                if (isRecordTypeUnchanged(record, recordAndOcc.getV1(), useLatestRecordType)) {
+                    return updateRecord(record, recordAndOcc.getV1(), recordAndOcc.getV2(), useLatestRecordType,
+                            conditions, fieldTypes, false, 0);
+                }
+            }
+            recordAndOcc = readWithOcc(record.getId(), null, null, fieldTypes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RecordException("Exception occurred while updating record '" + record.getId()
+                    + "' on HBase table", e);
+        }
+        return updateRecord(record, recordAndOcc.getV1(), recordAndOcc.getV2(), useLatestRecordType, conditions,
+                fieldTypes, true, CONDITIONAL_UPDATE_RETRIES);
+    }
 
-        RecordId recordId = record.getId();
+    /**
+     * Returns the fields to read for a blind update (see {@link #BLIND_UPDATE_ATTRIBUTE}), or null if the update
+     * needs the complete record. Besides the fields being updated, these include the fields the update hooks
+     * depend on.
+     */
+    private List<FieldType> getBlindUpdateFields(Record record, List<MutationCondition> conditions,
+                                                 FieldTypes fieldTypes) throws RepositoryException, InterruptedException {
+        if (!record.hasAttributes() || !"true".equals(record.getAttributes().get(BLIND_UPDATE_ATTRIBUTE))
+                || (conditions != null && !conditions.isEmpty())) {
+            return null;
+        }
+
+        Set<QName> fieldNames = new HashSet<QName>(record.getFields().keySet());
+        fieldNames.addAll(record.getFieldsToDelete());
+        fieldNames.addAll(record.getMetadataMap().keySet());
+
+        Map<QName, FieldType> fields = new HashMap<QName, FieldType>();
+        for (QName fieldName : fieldNames) {
+            FieldType fieldType = fieldTypes.getFieldType(fieldName);
+            String valueTypeName = fieldType.getValueType().getDeepestValueType().getBaseName();
+            if (fieldType.getScope() != Scope.NON_VERSIONED || valueTypeName.equals("LINK")
+                    || valueTypeName.equals("BLOB") || valueTypeName.equals("RECORD")) {
+                return null;
+            }
+            fields.put(fieldName, fieldType);
+        }
+        // An empty list would mean all fields
+        if (fields.isEmpty()) {
+            return null;
+        }
+
+        // The fields the hooks depend on are only read, so they are not subject to the above restrictions
+        for (RecordUpdateHook hook : updateHooks) {
+            if (!(hook instanceof PartialRecordUpdateHook)) {
+                return null;
+            }
+            Set<QName> hookFieldNames = ((PartialRecordUpdateHook)hook).getFieldDependencies();
+            if (hookFieldNames == null) {
+                return null;
+            }
+            for (QName fieldName : hookFieldNames) {
+                if (!fields.containsKey(fieldName)) {
+                    try {
+                        fields.put(fieldName, fieldTypes.getFieldType(fieldName));
+                    } catch (FieldTypeNotFoundException e) {
+                        // a field which does not exist can't have a value in the original record either
+                    }
+                }
+            }
+        }
+
+        return new ArrayList<FieldType>(fields.values());
+    }
 
+    /**
+     * Checks if the update leaves the (non-versioned scope) record type of the stored record unchanged, this is
+     * the same logic as used by {@link #calculateRecordChanges}.
+     */
+    private boolean isRecordTypeUnchanged(Record record, Record storedRecord, boolean useLatestRecordType)
+            throws RepositoryException, InterruptedException {
+        QName recordTypeName;
+        Long recordTypeVersion;
+        if (record.getRecordTypeName() == null) {
+            recordTypeName = storedRecord.getRecordTypeName();
+            recordTypeVersion = null;
+        } else {
+            recordTypeName = record.getRecordTypeName();
+            recordTypeVersion = useLatestRecordType ? null : record.getRecordTypeVersion();
+        }
+        RecordType recordType = typeManager.getRecordTypeByName(recordTypeName, recordTypeVersion);
+        return recordType.getName().equals(storedRecord.getRecordTypeName())
+                && recordType.getVersion().equals(storedRecord.getRecordTypeVersion());
+    }
+
+    /**
+     * Applies the put if the occ value of the record is still the given one.
+     *
+     * @param returnCurrentRow if true and the {@link RecordMutationEndpoint} is deployed, the current row is
+     *                         returned rather than throwing a ConcurrentRecordUpdateException if the occ value
+     *                         changed
+     * @return null if the put was applied, otherwise the current row (empty if the record no longer exists)
+     */
+    private Result checkAndPutRecord(RecordId recordId, Put put, byte[] oldOccBytes, boolean returnCurrentRow)
+            throws IOException, ConcurrentRecordUpdateException {
         try {
-            Pair<Record, byte[]> recordAndOcc = readWithOcc(record.getId(), null, null, fieldTypes);
-            Record originalRecord = new UnmodifiableRecord(recordAndOcc.getV1());
+            // The endpoint does its reads and writes on the region directly, which are therefore not filtered
+            // according to the authorization context.
+            if (returnCurrentRow && mutationEndpointAvailable
+                    && AuthorizationContextHolder.getCurrentContext() == null) {
+                Get currentRowGet = new Get(put.getRow());
+                currentRowGet.setFilter(REAL_RECORDS_FILTER);
+                currentRowGet.addFamily(RecordCf.DATA.bytes);
+                try {
+                    return recordTable.coprocessorProxy(RecordMutationProtocol.class, put.getRow())
+                            .checkAndPut(oldOccBytes, put, currentRowGet);
+                } catch (IOException e) {
+                    if (!isUnknownProtocol(e)) {
+                        throw e;
+                    }
+                    log.info("The " + RecordMutationEndpoint.class.getSimpleName() + " is not deployed for table "
+                            + getTableName() + ", falling back to checkAndPut for conditional updates.");
+                    mutationEndpointAvailable = false;
+                }
+            }
 
-            byte[] oldOccBytes = recordAndOcc.getV2();
+            if (!recordTable.checkAndPut(put.getRow(), RecordCf.DATA.bytes, RecordColumn.OCC.bytes, oldOccBytes,
+                    put)) {
+                throw new ConcurrentRecordUpdateException(recordId);
+            }
+            return null;
+        } finally {
+            invalidateCachedRecord(recordId);
+        }
+    }
+
+    /**
+     * Checks if the exception signals that the called coprocessor protocol is not available on the region
+     * server. The exception class is matched by name, since it is not always reconstructed on the client.
+     */
+    private boolean isUnknownProtocol(Throwable throwable) {
+        while (throwable != null) {
+            if (throwable.getClass().getName().endsWith("UnknownProtocolException")
+                    || (throwable.getMessage() != null
+                        && throwable.getMessage().contains("UnknownProtocolException"))) {
+                return true;
+            }
+            throwable = throwable.getCause();
+        }
+        return false;
+    }
+
+    /**
+     * Updates a record, starting from the given original (= currently stored) state of the record.
+     *
+     * @param oldOccBytes the occ value which was read together with the original record, the update will only
+     *                    be applied if it is still the current occ value
+     * @param storedRecordComplete false if the stored record only contains the fields being updated
+     * @param occRetries number of times a conditional update can be retried on the record state returned by the
+     *                   {@link RecordMutationEndpoint} when the occ value changed
+     */
+    private Record updateRecord(Record record, Record storedRecord, byte[] oldOccBytes, boolean useLatestRecordType,
+                                List<MutationCondition> conditions, FieldTypes fieldTypes,
+                                boolean storedRecordComplete, int occRetries) throws RepositoryException {
+
+        RecordId recordId = record.getId();
+
+        try {
+            Record originalRecord = new UnmodifiableRecord(storedRecord);
 
             RecordEvent recordEvent = new RecordEvent();
             recordEvent.setType(Type.UPDATE);
@@ -440,17 +706,28 @@ public class HBaseRepository extends BaseRepository {
             }
 
             if (calculateRecordChanges(newRecord, originalRecord, newVersion, put, recordEvent, referencedBlobs,
-                    unReferencedBlobs, useLatestRecordType, fieldTypes)) {
+                    unReferencedBlobs, useLatestRecordType, storedRecordComplete, fieldTypes)) {
 
                 // Reserve blobs so no other records can use them
                 reserveBlobs(record.getId(), referencedBlobs);
 
-                put.add(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes, recordEvent.toJsonBytes());
+                put.add(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes, recordEvent.toBytes());
                 put.add(RecordCf.DATA.bytes, RecordColumn.OCC.bytes, 1L, nextOcc(oldOccBytes));
-                boolean occSuccess = recordTable.checkAndPut(put.getRow(), RecordCf.DATA.bytes, RecordColumn.OCC.bytes,
-                        oldOccBytes, put);
-                if (!occSuccess) {
-                    throw new ConcurrentRecordUpdateException(recordId);
+                // A retry would fail to reserve the blobs again, as they are already reserved by this update
+                boolean retry = conditions != null && !conditions.isEmpty() && occRetries > 0
+                        && referencedBlobs.isEmpty();
+                Result currentRow = checkAndPutRecord(recordId, put, oldOccBytes, retry);
+                if (currentRow != null) {
+                    // The record was updated concurrently: check the conditions against its current state and
+                    // recalculate the changes
+                    if (currentRow.isEmpty()) {
+                        throw new RecordNotFoundException(recordId, this, this);
+                    }
+                    Record currentRecord = recdec.decodeRecord(recordId, recdec.getLatestVersion(currentRow), null,
+                            currentRow, fieldTypes);
+                    byte[] currentOccBytes = currentRow.getValue(RecordCf.DATA.bytes, RecordColumn.OCC.bytes);
+                    return updateRecord(record, currentRecord, currentOccBytes, useLatestRecordType, conditions,
+                            fieldTypes, storedRecordComplete, occRetries - 1);
                 }
 
                 // Remove the used blobs from the blobIncubator and delete unreferenced blobs from the blobstore
@@ -476,12 +753,87 @@ public class HBaseRepository extends BaseRepository {
         }
     }
 
+    @Override
+    public List<RecordMutationResult> update(List<Record> records) throws RepositoryException, InterruptedException {
+        return update(records, false, true);
+    }
+
+    @Override
+    public List<RecordMutationResult> update(List<Record> records, boolean updateVersion, boolean useLatestRecordType)
+            throws RepositoryException, InterruptedException {
+        ArgumentValidator.notNull(records, "records");
+
+        long before = System.currentTimeMillis();
+        try {
+            FieldTypes fieldTypes = typeManager.getFieldTypesSnapshot();
+            RecordMutationResult[] results = new RecordMutationResult[records.size()];
+
+            // Records of which the original state can be read in one multi-get. Updates of versioned-mutable
+            // fields read specific versions, and a record that occurs more than once in the batch needs to see
+            // the outcome of its previous update, so these are handled one by one.
+            List<Integer> batched = new ArrayList<Integer>(records.size());
+            List<Integer> individual = new ArrayList<Integer>();
+            List<RecordId> batchedIds = new ArrayList<RecordId>(records.size());
+            Set<RecordId> seenIds = new HashSet<RecordId>();
+            for (int i = 0; i < records.size(); i++) {
+                Record record = records.get(i);
+                RecordId recordId = record != null ? record.getId() : null;
+                if (record == null) {
+                    results[i] = RecordMutationResult.failure(new InvalidRecordException(
+                            "The record cannot be null.", (RecordId) null));
+                } else if (recordId == null) {
+                    results[i] = RecordMutationResult.failure(new InvalidRecordException(
+                            "The recordId cannot be null for a record to be updated.", (RecordId) null));
+                } else if (!updateVersion && seenIds.add(recordId)) {
+                    batched.add(i);
+                    batchedIds.add(recordId);
+                } else {
+                    individual.add(i);
+                }
+            }
+
+            if (!batched.isEmpty()) {
+                Map<RecordId, Result> rows = getRows(batchedIds, null);
+                for (int position : batched) {
+                    Record record = records.get(position);
+                    try {
+                        Result result = rows.get(record.getId());
+                        if (result == null) {
+                            throw new RecordNotFoundException(record.getId(), this, this);
+                        }
+                        Record storedRecord = recdec.decodeRecord(record.getId(), recdec.getLatestVersion(result),
+                                null, result, fieldTypes);
+                        byte[] occBytes = result.getValue(RecordCf.DATA.bytes, RecordColumn.OCC.bytes);
+                        Record updated = updateRecord(record, storedRecord, occBytes, useLatestRecordType, null,
+                                fieldTypes, true, 0);
+                        results[position] = RecordMutationResult.success(updated);
+                    } catch (RepositoryException e) {
+                        results[position] = RecordMutationResult.failure(e);
+                    }
+                }
+            }
+
+            for (int position : individual) {
+                try {
+                    results[position] = RecordMutationResult.success(
+                            update(records.get(position), updateVersion, useLatestRecordType));
+                } catch (RepositoryException e) {
+                    results[position] = RecordMutationResult.failure(e);
+                }
+            }
+
+            return Arrays.asList(results);
+        } finally {
+            metrics.report(Action.BATCH_UPDATE, System.currentTimeMillis() - before);
+        }
+    }
+
     // Calculates the changes that are to be made on the record-row and puts
     // this information on the Put object and the RecordEvent
     private boolean calculateRecordChanges(Record record, Record originalRecord, Long version, Put put,
                                            RecordEvent recordEvent, Set<BlobReference> referencedBlobs,
-                                           Set<BlobReference> unReferencedBlobs,
-                                           boolean useLatestRecordType, FieldTypes fieldTypes)
+                                           Set<BlobReference> unReferencedBlobs, boolean useLatestRecordType,
+                                           boolean originalRecordComplete, FieldTypes fieldTypes)
             throws InterruptedException, RepositoryException {
         final QName newRecordTypeName;
         final Long newRecordTypeVersion;
@@ -535,7 +887,7 @@ public class HBaseRepository extends BaseRepository {
                 byte[] versionBytes = Bytes.toBytes(version);
                 put.add(RecordCf.DATA.bytes, RecordColumn.VERSION.bytes, 1L, versionBytes);
             }
-            validateRecord(record, originalRecord, recordType, fieldTypes);
+            validateRecord(record, originalRecord, originalRecordComplete, recordType, fieldTypes);
         }
         setRecordTypesAfterUpdate(record, originalRecord, changedScopes);
 
@@ -585,7 +937,12 @@ public class HBaseRepository extends BaseRepository {
         }
     }
 
-    private void validateRecord(Record record, Record originalRecord, RecordType recordType, FieldTypes fieldTypes)
+    /**
+     * @param originalRecordComplete false if the original record only contains the fields being updated, in which
+     *                               case only the deletion of mandatory fields can be verified
+     */
+    private void validateRecord(Record record, Record originalRecord, boolean originalRecordComplete,
+                                RecordType recordType, FieldTypes fieldTypes)
             throws TypeException, InvalidRecordException, InterruptedException {
         // Check mandatory fields
         Collection<FieldTypeEntry> fieldTypeEntries = recordType.getFieldTypeEntries();
@@ -597,7 +954,7 @@ public class HBaseRepository extends BaseRepository {
                 if (fieldsToDelete.contains(fieldName)) {
                     throw new InvalidRecordException("Field: '" + fieldName + "' is mandatory.", record.getId());
                 }
-                if (!record.hasField(fieldName) && !originalRecord.hasField(fieldName)) {
+                if (originalRecordComplete && !record.hasField(fieldName) && !originalRecord.hasField(fieldName)) {
                     throw new InvalidRecordException("Field: '" + fieldName + "' is mandatory.", record.getId());
                 }
             }
@@ -854,11 +1211,14 @@ public class HBaseRepository extends BaseRepository {
 
 
     public static void writeMetadataWithLengthSuffix(Metadata metadata, DataOutput output) {
-        DataOutput tmp = new DataOutputImpl();
-        MetadataSerDeser.write(metadata, tmp);
-        byte[] metadataBytes = tmp.toByteArray();
-        output.writeBytes(metadataBytes);
-        output.writeInt(metadataBytes.length);
+        DataOutputImpl tmp = DataOutputImpl.acquire();
+        try {
+            MetadataSerDeser.write(metadata, tmp);
+            output.writeBytes(tmp.toByteBuffer());
+            output.writeInt(tmp.getSize());
+        } finally {
+            tmp.release();
+        }
     }
 
     private boolean isDeleteMarker(Object fieldValue) {
@@ -983,15 +1343,16 @@ public class HBaseRepository extends BaseRepository {
                 }
 
                 // Validate if the new values for the record are valid wrt the recordType (e.g. mandatory fields)
-                validateRecord(newRecord, originalRecord, recordType, fieldTypes);
+                validateRecord(newRecord, originalRecord, true, recordType, fieldTypes);
 
                 // Reserve blobs so no other records can use them
                 reserveBlobs(record.getId(), referencedBlobs);
 
-                put.add(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes, 1L, recordEvent.toJsonBytes());
+                put.add(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes, 1L, recordEvent.toBytes());
                 put.add(RecordCf.DATA.bytes, RecordColumn.OCC.bytes, 1L, nextOcc(oldOccBytes));
                 boolean occSuccess = recordTable.checkAndPut(put.getRow(), RecordCf.DATA.bytes, RecordColumn.OCC.bytes,
                         oldOccBytes, put);
+                invalidateCachedRecord(recordId);
                 if (!occSuccess) {
                     throw new ConcurrentRecordUpdateException(recordId);
                 }
@@ -1065,6 +1426,34 @@ public class HBaseRepository extends BaseRepository {
         delete(record.getId(), null, record.hasAttributes() ? record.getAttributes() : null);
     }
 
+    @Override
+    public List<RecordMutationResult> delete(List<RecordId> recordIds) throws RepositoryException {
+        ArgumentValidator.notNull(recordIds, "recordIds");
+
+        long before = System.currentTimeMillis();
+        try {
+            // Each delete reads the complete record, runs the update hooks and clears the data of the record
+            // afterwards, so the records are deleted one by one.
+            List<RecordMutationResult> results = new ArrayList<RecordMutationResult>(recordIds.size());
+            for (RecordId recordId : recordIds) {
+                if (recordId == null) {
+                    results.add(RecordMutationResult.failure(new InvalidRecordException(
+                            "The recordId cannot be null for a record to be deleted.", (RecordId) null)));
+                    continue;
+                }
+                try {
+                    delete(recordId, null, null);
+                    results.add(RecordMutationResult.success(null));
+                } catch (RepositoryException e) {
+                    results.add(RecordMutationResult.failure(e));
+                }
+            }
+            return results;
+        } finally {
+            metrics.report(Action.BATCH_DELETE, System.currentTimeMillis() - before);
+        }
+    }
+
     private  Record delete(RecordId recordId, List<MutationCondition> conditions, Map<String,String> attributes)
             throws RepositoryException {
         ArgumentValidator.notNull(recordId, "recordId");
@@ -1131,7 +1520,7 @@ public class HBaseRepository extends BaseRepository {
 
             }
 
-            put.add(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes, recordEvent.toJsonBytes());
+            put.add(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes, recordEvent.toBytes());
             put.add(RecordCf.DATA.bytes, RecordColumn.OCC.bytes, 1L, nextOcc(oldOcc));
 
             // Hint towards the NGDATA HBase authorization coprocessor: for deletes, we need write access to all
@@ -1141,6 +1530,7 @@ public class HBaseRepository extends BaseRepository {
 
             boolean occSuccess = recordTable.checkAndPut(put.getRow(), RecordCf.DATA.bytes, RecordColumn.OCC.bytes,
                     oldOcc, put);
+            invalidateCachedRecord(recordId);
             if (!occSuccess) {
                 throw new ConcurrentRecordUpdateException(recordId);
             }
@@ -1438,30 +1828,34 @@ public class HBaseRepository extends BaseRepository {
                         fieldValue.getClass().getName()));
             }
 
-            DataOutput dataOutput = new DataOutputImpl();
-            boolean hasMetadata = metadata != null && !metadata.getMap().isEmpty();
-
-            dataOutput.writeByte(hasMetadata ? FieldFlags.METADATA_V1 : FieldFlags.DEFAULT);
+            DataOutputImpl dataOutput = DataOutputImpl.acquire();
             try {
-                valueType.write(fieldValue, dataOutput, new IdentityRecordStack(parentRecord));
-            } catch (InterruptedException e) {
-                throw e;
-            } catch (Exception e) {
-                // wrap the exception so that it is known what field causes the problem
-                throw new RepositoryException("Error serializing value for field " + fieldType.getName(), e);
-            }
+                boolean hasMetadata = metadata != null && !metadata.getMap().isEmpty();
 
-            if (hasMetadata) {
-                if (fieldType.getScope() == Scope.VERSIONED_MUTABLE) {
-                    throw new RuntimeException("Field metadata is currently not supported for versioned-mutable fields.");
+                dataOutput.writeByte(hasMetadata ? FieldFlags.METADATA_V1 : FieldFlags.DEFAULT);
+                try {
+                    valueType.write(fieldValue, dataOutput, new IdentityRecordStack(parentRecord));
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    // wrap the exception so that it is known what field causes the problem
+                    throw new RepositoryException("Error serializing value for field " + fieldType.getName(), e);
                 }
-                if (fieldType.getValueType().getDeepestValueType().getBaseName().equals("BLOB")) {
-                    throw new RuntimeException("Field metadata is currently not supported for BLOB fields.");
+
+                if (hasMetadata) {
+                    if (fieldType.getScope() == Scope.VERSIONED_MUTABLE) {
+                        throw new RuntimeException("Field metadata is currently not supported for versioned-mutable fields.");
+                    }
+                    if (fieldType.getValueType().getDeepestValueType().getBaseName().equals("BLOB")) {
+                        throw new RuntimeException("Field metadata is currently not supported for BLOB fields.");
+                    }
+                    writeMetadataWithLengthSuffix(metadata, dataOutput);
                 }
-                writeMetadataWithLengthSuffix(metadata, dataOutput);
-            }
 
-            return dataOutput.toByteArray();
+                return dataOutput.toByteArray();
+            } finally {
+                dataOutput.release();
+            }
         }
 
     }
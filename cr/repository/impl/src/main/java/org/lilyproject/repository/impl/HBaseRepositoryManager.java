@@ -22,6 +22,7 @@ import org.apache.hadoop.hbase.client.HTableInterface;
 import org.lilyproject.repository.api.BlobManager;
 import org.lilyproject.repository.api.IdGenerator;
 import org.lilyproject.repository.api.RecordFactory;
+import org.lilyproject.repository.api.RecordId;
 import org.lilyproject.repository.api.Repository;
 import org.lilyproject.repository.api.RepositoryException;
 import org.lilyproject.repository.api.TableManager;
@@ -36,14 +37,26 @@ public class HBaseRepositoryManager extends AbstractRepositoryManager {
     private HBaseTableFactory hbaseTableFactory;
     private BlobManager blobManager;
     private Configuration hbaseConf;
+    private RecordCacheConfig recordCacheConfig;
 
     public HBaseRepositoryManager(TypeManager typeManager, IdGenerator idGenerator, RecordFactory recordFactory,
             HBaseTableFactory hbaseTableFactory, BlobManager blobManager, Configuration hbaseConf,
             RepositoryModel repositoryModel) {
+        this(typeManager, idGenerator, recordFactory, hbaseTableFactory, blobManager, hbaseConf, repositoryModel,
+                null);
+    }
+
+    /**
+     * @param recordCacheConfig optional, configures the caching of the records read from the repository tables
+     */
+    public HBaseRepositoryManager(TypeManager typeManager, IdGenerator idGenerator, RecordFactory recordFactory,
+            HBaseTableFactory hbaseTableFactory, BlobManager blobManager, Configuration hbaseConf,
+            RepositoryModel repositoryModel, RecordCacheConfig recordCacheConfig) {
         super(typeManager, idGenerator, recordFactory, repositoryModel);
         this.hbaseTableFactory = hbaseTableFactory;
         this.blobManager = blobManager;
         this.hbaseConf = hbaseConf;
+        this.recordCacheConfig = recordCacheConfig;
     }
 
     @Override
@@ -52,7 +65,8 @@ public class HBaseRepositoryManager extends AbstractRepositoryManager {
         try {
             HTableInterface nonAuthHTable = LilyHBaseSchema.getRecordTable(hbaseTableFactory, key.getRepositoryName(), key.getTableName(), true);
             HTableInterface htable = wrapWithAuthorization(nonAuthHTable);
-            return new HBaseRepository(key, this, htable, nonAuthHTable, blobManager, tableManager, getRecordFactory());
+            return new HBaseRepository(key, this, htable, nonAuthHTable, blobManager, tableManager, getRecordFactory(),
+                    recordCacheConfig);
         } catch (org.apache.hadoop.hbase.TableNotFoundException e) {
             throw new TableNotFoundException(key.getRepositoryName(), key.getTableName());
         } catch (IOException e) {
@@ -60,4 +74,15 @@ public class HBaseRepositoryManager extends AbstractRepositoryManager {
         }
     }
 
+    /**
+     * Removes a record from the record cache of its table, to be called when the record has been updated
+     * by another process.
+     */
+    public void invalidateCachedRecord(String repositoryName, String tableName, RecordId recordId) {
+        Repository repository = getCreatedRepository(new RepoTableKey(repositoryName, tableName));
+        if (repository instanceof BaseRepository) {
+            ((BaseRepository)repository).invalidateCachedRecord(recordId);
+        }
+    }
+
 }
@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 
+import org.apache.commons.codec.binary.Hex;
 import org.lilyproject.repository.api.Blob;
 import org.lilyproject.repository.api.BlobException;
 import org.lilyproject.repository.api.BlobStoreAccess;
@@ -48,6 +49,16 @@ public class InlineBlobStoreAccess implements BlobStoreAccess {
         return new ByteArrayInputStream(blobKey);
     }
 
+    @Override
+    public InputStream getInputStream(byte[] blobKey, long offset, long length) throws BlobException {
+        if (offset < 0 || length < 0) {
+            throw new BlobException("Invalid range for blobkey '" + Hex.encodeHexString(blobKey) + "': offset "
+                    + offset + ", length " + length);
+        }
+        int start = (int)Math.min(offset, blobKey.length);
+        return new ByteArrayInputStream(blobKey, start, (int)Math.min(length, blobKey.length - start));
+    }
+
     @Override
     public void delete(byte[] blobKey) {
         // no-op
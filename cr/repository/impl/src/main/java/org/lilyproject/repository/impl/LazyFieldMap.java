@@ -0,0 +1,191 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.lilyproject.bytes.impl.DataInputImpl;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.ValueType;
+
+/**
+ * Map of the fields of a record, in which the values read from HBase are only decoded when they are accessed
+ * for the first time.
+ *
+ * <p>The decoded value replaces the encoded one, so that each value is decoded at most once. All the methods
+ * which expose values (get, the entry set, equals, hashCode, ...) decode them, so towards users of the map
+ * this behaves like a normal map.</p>
+ *
+ * <p>Since the value can only be decoded when it is accessed, errors during decoding surface as a
+ * RuntimeException at that time.</p>
+ *
+ * <p>The exception to this are {@link #put} and {@link #remove}: these return null instead of the previous
+ * value if it was not decoded yet, so that a field can always be replaced or removed, also when its stored
+ * value can not be decoded.</p>
+ */
+class LazyFieldMap extends AbstractMap<QName, Object> {
+    private final Map<QName, Object> fields;
+    private EntrySet entrySet;
+
+    /**
+     * @param fields the map in which the values are stored, this map takes ownership of it
+     */
+    LazyFieldMap(Map<QName, Object> fields) {
+        this.fields = fields;
+    }
+
+    /**
+     * A field value in its encoded form. Immutable, so it can be shared between records.
+     */
+    static final class EncodedValue {
+        private final ValueType valueType;
+        private final byte[] data;
+        private final int offset;
+        private final int length;
+
+        EncodedValue(ValueType valueType, byte[] data, int offset, int length) {
+            this.valueType = valueType;
+            this.data = data;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        Object decode(QName name) {
+            try {
+                return valueType.read(new DataInputImpl(data, offset, length));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while decoding value of field " + name, e);
+            } catch (Exception e) {
+                throw new RuntimeException("Error decoding value of field " + name, e);
+            }
+        }
+    }
+
+    void putEncoded(QName name, EncodedValue value) {
+        fields.put(name, value);
+    }
+
+    /**
+     * Returns the value of the field without decoding it, thus either the decoded value or an
+     * {@link EncodedValue}.
+     */
+    Object getRaw(QName name) {
+        return fields.get(name);
+    }
+
+    private Object decode(QName name, Object value) {
+        if (value instanceof EncodedValue) {
+            value = ((EncodedValue)value).decode(name);
+            fields.put(name, value);
+        }
+        return value;
+    }
+
+    @Override
+    public Object get(Object key) {
+        Object value = fields.get(key);
+        return value instanceof EncodedValue ? decode((QName)key, value) : value;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return fields.containsKey(key);
+    }
+
+    @Override
+    public Object put(QName key, Object value) {
+        Object previous = fields.put(key, value);
+        return previous instanceof EncodedValue ? null : previous;
+    }
+
+    @Override
+    public Object remove(Object key) {
+        Object previous = fields.remove(key);
+        return previous instanceof EncodedValue ? null : previous;
+    }
+
+    @Override
+    public int size() {
+        return fields.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return fields.isEmpty();
+    }
+
+    @Override
+    public void clear() {
+        fields.clear();
+    }
+
+    @Override
+    public Set<QName> keySet() {
+        // does not need any decoding
+        return fields.keySet();
+    }
+
+    @Override
+    public Set<Entry<QName, Object>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new EntrySet();
+        }
+        return entrySet;
+    }
+
+    private class EntrySet extends AbstractSet<Entry<QName, Object>> {
+        @Override
+        public Iterator<Entry<QName, Object>> iterator() {
+            final Iterator<Entry<QName, Object>> it = fields.entrySet().iterator();
+            return new Iterator<Entry<QName, Object>>() {
+                @Override
+                public boolean hasNext() {
+                    return it.hasNext();
+                }
+
+                @Override
+                public Entry<QName, Object> next() {
+                    Entry<QName, Object> entry = it.next();
+                    if (entry.getValue() instanceof EncodedValue) {
+                        // updating the value of the current entry is allowed during iteration
+                        entry.setValue(((EncodedValue)entry.getValue()).decode(entry.getKey()));
+                    }
+                    return entry;
+                }
+
+                @Override
+                public void remove() {
+                    it.remove();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return fields.size();
+        }
+
+        @Override
+        public void clear() {
+            fields.clear();
+        }
+    }
+}
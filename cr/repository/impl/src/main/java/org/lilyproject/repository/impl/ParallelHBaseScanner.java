@@ -0,0 +1,332 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.ngdata.lily.security.hbase.client.AuthorizationContext;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.lilyproject.repository.api.RepositoryException;
+import org.lilyproject.repository.spi.AuthorizationContextHolder;
+import org.lilyproject.util.Pair;
+import org.lilyproject.util.concurrent.CustomThreadFactory;
+
+/**
+ * Scans a range of an HBase table by splitting it in a number of sub-ranges which are scanned concurrently,
+ * decoding the results on the scanning threads.
+ *
+ * <p>The decoded results are handed over through bounded queues, so that the scanning threads wait when the
+ * consumer does not keep up. When ordered, each split has its own queue, and the queues are consumed one
+ * after the other. Otherwise, all splits share one queue.</p>
+ *
+ * <p>An HBase scanner is closed on the region server when it does not fetch rows during the scanner lease
+ * period. So when a scanning thread has spent too long handing over the results since its scanner last
+ * fetched rows, it closes its scanner and opens a new one starting after the last row it handed over.</p>
+ *
+ * <p>The table is shared by the scanning threads, so it needs to be thread-safe. It is not closed by this
+ * scanner. The authorization context of the thread creating the scanner is applied to the scanning threads,
+ * so that an authorization enabled table gives them the same view as a serial scan would.</p>
+ */
+class ParallelHBaseScanner<T> {
+    interface ResultDecoder<T> {
+        T decode(Result result) throws RepositoryException, InterruptedException;
+    }
+
+    /**
+     * Marks the end of the results of a split.
+     */
+    private static final Object END = new Object();
+
+    /**
+     * Put on the queues when the scanner is closed, to wake up a consumer waiting for results.
+     */
+    private static final Object CLOSED = new Object();
+
+    private static final long OFFER_TIMEOUT = 100;
+
+    /**
+     * Maximum time to wait on close for the scanning threads to stop.
+     */
+    private static final long CLOSE_TIMEOUT = 10000;
+
+    private final HTableInterface table;
+    private final Scan scan;
+    private final ResultDecoder<T> decoder;
+    private final AuthorizationContext authzContext;
+    private final long reopenAfter;
+
+    /**
+     * Number of rows fetched at once from a scanner, matching the scanner caching so that each fetch
+     * is at most one call to the region server.
+     */
+    private final int batchSize;
+
+    private final ExecutorService executor;
+
+    /**
+     * When ordered, the queue of each split, otherwise a single queue shared by all splits.
+     */
+    private final List<BlockingQueue<Object>> queues = new ArrayList<BlockingQueue<Object>>();
+    private final boolean ordered;
+    private final int splitCount;
+    private int currentQueue;
+    private int finishedSplits;
+
+    private volatile boolean closed;
+
+    /**
+     * @param scan the scan to perform, its start and stop row are replaced by those of the splits
+     * @param splits the start (inclusive) and stop (exclusive) rows of the splits, empty for unbounded
+     * @param prefetch maximum number of results waiting in each queue
+     */
+    ParallelHBaseScanner(HTableInterface table, Scan scan, List<Pair<byte[], byte[]>> splits, int threads,
+            int prefetch, boolean ordered, ResultDecoder<T> decoder) {
+        this.table = table;
+        this.scan = scan;
+        this.decoder = decoder;
+        this.authzContext = AuthorizationContextHolder.getCurrentContext();
+        this.ordered = ordered;
+        this.splitCount = splits.size();
+        // Stay well below the scanner lease period
+        this.reopenAfter = table.getConfiguration().getLong(HConstants.HBASE_REGIONSERVER_LEASE_PERIOD_KEY,
+                HConstants.DEFAULT_HBASE_REGIONSERVER_LEASE_PERIOD) / 2;
+        this.batchSize = scan.getCaching() > 0 ? scan.getCaching() : table.getConfiguration().getInt(
+                HConstants.HBASE_CLIENT_SCANNER_CACHING, HConstants.DEFAULT_HBASE_CLIENT_SCANNER_CACHING);
+
+        if (!ordered) {
+            queues.add(new ArrayBlockingQueue<Object>(prefetch));
+        }
+
+        executor = Executors.newFixedThreadPool(Math.min(threads, splits.size()),
+                new CustomThreadFactory("ParallelHBaseScanner", null, true));
+        for (Pair<byte[], byte[]> split : splits) {
+            BlockingQueue<Object> queue;
+            if (ordered) {
+                queue = new ArrayBlockingQueue<Object>(prefetch);
+                queues.add(queue);
+            } else {
+                queue = queues.get(0);
+            }
+            // The splits are executed in the order they are submitted, so in ordered mode the split that
+            // is being consumed is always running or finished.
+            executor.execute(new SplitScan(split.getV1(), split.getV2(), queue));
+        }
+        // Let the threads end once all splits are done
+        executor.shutdown();
+    }
+
+    /**
+     * Splits the range from startRow to stopRow at those of the given keys which are within the range.
+     *
+     * @param startRow inclusive, empty for the start of the table
+     * @param stopRow exclusive, empty for the end of the table
+     */
+    static List<Pair<byte[], byte[]>> getSplits(byte[] startRow, byte[] stopRow, byte[][] splitKeys) {
+        byte[][] sortedKeys = splitKeys.clone();
+        Arrays.sort(sortedKeys, Bytes.BYTES_COMPARATOR);
+
+        List<Pair<byte[], byte[]>> splits = new ArrayList<Pair<byte[], byte[]>>();
+        byte[] splitStart = startRow;
+        for (byte[] key : sortedKeys) {
+            if (key.length == 0 || Bytes.compareTo(key, splitStart) <= 0) {
+                continue;
+            }
+            if (stopRow.length > 0 && Bytes.compareTo(key, stopRow) >= 0) {
+                break;
+            }
+            splits.add(new Pair<byte[], byte[]>(splitStart, key));
+            splitStart = key;
+        }
+        splits.add(new Pair<byte[], byte[]>(splitStart, stopRow));
+        return splits;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T next() throws RepositoryException, InterruptedException {
+        while (true) {
+            if (closed) {
+                return null;
+            }
+
+            Object item;
+            if (ordered) {
+                if (currentQueue >= queues.size()) {
+                    return null;
+                }
+                item = queues.get(currentQueue).take();
+                if (item == CLOSED) {
+                    return null;
+                } else if (item == END) {
+                    // release the memory of the consumed queue
+                    queues.set(currentQueue, null);
+                    currentQueue++;
+                    continue;
+                }
+            } else {
+                if (finishedSplits >= splitCount) {
+                    return null;
+                }
+                item = queues.get(0).take();
+                if (item == CLOSED) {
+                    return null;
+                } else if (item == END) {
+                    finishedSplits++;
+                    continue;
+                }
+            }
+
+            if (item instanceof ScanFailure) {
+                close();
+                Throwable cause = ((ScanFailure)item).cause;
+                if (cause instanceof RepositoryException) {
+                    throw (RepositoryException)cause;
+                }
+                throw new RepositoryException("Error during parallel scan", cause);
+            }
+
+            return (T)item;
+        }
+    }
+
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        executor.shutdownNow();
+
+        // Wake up a consumer blocked in next(). The queues are cleared first to make room for the marker,
+        // a scanning thread could still fill one up in between, but it stops at its next offer anyway.
+        for (BlockingQueue<Object> queue : queues) {
+            if (queue != null) {
+                queue.clear();
+                queue.offer(CLOSED);
+            }
+        }
+
+        try {
+            executor.awaitTermination(CLOSE_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class ScanFailure {
+        private final Throwable cause;
+
+        ScanFailure(Throwable cause) {
+            this.cause = cause;
+        }
+    }
+
+    private class SplitScan implements Runnable {
+        private final byte[] startRow;
+        private final byte[] stopRow;
+        private final BlockingQueue<Object> queue;
+
+        SplitScan(byte[] startRow, byte[] stopRow, BlockingQueue<Object> queue) {
+            this.startRow = startRow;
+            this.stopRow = stopRow;
+            this.queue = queue;
+        }
+
+        @Override
+        public void run() {
+            if (authzContext != null) {
+                AuthorizationContextHolder.setCurrentContext(authzContext);
+            }
+            try {
+                scanSplit();
+                queue.put(END);
+            } catch (InterruptedException e) {
+                // the scanner was closed
+            } catch (Throwable t) {
+                try {
+                    queue.put(new ScanFailure(t));
+                } catch (InterruptedException e) {
+                    // the scanner was closed
+                }
+            } finally {
+                AuthorizationContextHolder.clearContext();
+            }
+        }
+
+        private void scanSplit() throws IOException, RepositoryException, InterruptedException {
+            ResultScanner scanner = null;
+            // When the scanner was opened or last fetched rows from the region server, which renews its lease
+            long fetchTime = 0;
+            byte[] lastRow = null;
+            try {
+                while (!closed) {
+                    if (scanner != null && System.currentTimeMillis() - fetchTime > reopenAfter) {
+                        scanner.close();
+                        scanner = null;
+                    }
+                    if (scanner == null) {
+                        // continue right after the last row which was handed over
+                        scanner = openScanner(lastRow == null ? startRow : Bytes.add(lastRow, new byte[] {0}));
+                    }
+
+                    fetchTime = System.currentTimeMillis();
+                    Result[] results = scanner.next(batchSize);
+                    if (results.length == 0) {
+                        return;
+                    }
+
+                    for (Result result : results) {
+                        Object item = decoder.decode(result);
+                        while (!queue.offer(item, OFFER_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                            if (closed) {
+                                return;
+                            }
+                            if (scanner != null && System.currentTimeMillis() - fetchTime > reopenAfter) {
+                                // the remaining rows of the batch are already fetched, the scanner is only
+                                // needed again after them
+                                scanner.close();
+                                scanner = null;
+                            }
+                        }
+                        lastRow = result.getRow();
+                    }
+                }
+            } finally {
+                if (scanner != null) {
+                    scanner.close();
+                }
+            }
+        }
+
+        private ResultScanner openScanner(byte[] fromRow) throws IOException {
+            Scan splitScan = new Scan(scan);
+            splitScan.setStartRow(fromRow);
+            splitScan.setStopRow(stopRow);
+            return table.getScanner(splitScan);
+        }
+    }
+}
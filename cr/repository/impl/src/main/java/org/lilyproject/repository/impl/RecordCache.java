@@ -0,0 +1,260 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import org.apache.hadoop.hbase.client.Result;
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.util.ObjectUtils;
+
+/**
+ * Bounded cache of the HBase rows read for the records of one repository table.
+ *
+ * <p>The rows are cached rather than the decoded records, since records are mutable and the decoding is done
+ * lazily anyway (see {@link LazyFieldMap}). A row is cached per combination of requested version and requested
+ * fields. When the maximum number of records is reached, the least recently used records are evicted.</p>
+ *
+ * <p>The cache does not know by itself when records change: the repository invalidates the records it
+ * updates, and changes made by other processes should be signalled through {@link #invalidate}, for example
+ * by listening to the record events. To bound the staleness in case such a signal would get lost, cached rows
+ * expire after a maximum age.</p>
+ *
+ * <p>To avoid that a row read before an update would be cached after the update invalidated the record, a row
+ * is only cached if the record was not invalidated since {@link #getGeneration} was called before reading it.
+ * The generations are kept for a fixed number of stripes of record ids rather than per record, so an
+ * invalidation can occasionally keep an unrelated record from being cached, but the memory use stays bounded.
+ * </p>
+ */
+public class RecordCache {
+    /**
+     * Maximum number of combinations of version and fields cached for one record.
+     */
+    private static final int MAX_ROWS_PER_RECORD = 8;
+
+    /**
+     * Number of stripes over which the record ids are spread to track their invalidations, a power of two.
+     */
+    private static final int GENERATION_STRIPES = 1024;
+
+    private final int maxRecords;
+    private final long maxAge;
+    private final RepositoryMetrics metrics;
+
+    /**
+     * The rows cached for a record, access to each map is synchronized on the map.
+     */
+    private final Cache<RecordId, Map<RowKey, CachedRow>> records;
+
+    /**
+     * Incremented for a stripe whenever one of its records is invalidated.
+     */
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    /**
+     * @param maxRecords maximum number of records to cache
+     * @param maxAge maximum time in millis during which a row is served from the cache
+     * @param metrics optional
+     */
+    public RecordCache(int maxRecords, long maxAge, final RepositoryMetrics metrics) {
+        this.maxRecords = maxRecords;
+        this.maxAge = maxAge;
+        this.metrics = metrics;
+        this.records = CacheBuilder.newBuilder()
+                .maximumSize(maxRecords)
+                .removalListener(new RemovalListener<RecordId, Map<RowKey, CachedRow>>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<RecordId, Map<RowKey, CachedRow>> notification) {
+                        if (metrics != null && notification.getCause() == RemovalCause.SIZE) {
+                            metrics.reportRecordCacheEviction();
+                        }
+                    }
+                })
+                .build();
+    }
+
+    public int getMaxRecords() {
+        return maxRecords;
+    }
+
+    /**
+     * Returns the cached row, or null if there is none.
+     *
+     * @param version null for the latest version
+     * @param fields null for all fields
+     */
+    public Result get(RecordId recordId, Long version, List<FieldType> fields) {
+        Result result = null;
+        Map<RowKey, CachedRow> rows = records.getIfPresent(recordId);
+        if (rows != null) {
+            boolean empty = false;
+            synchronized (rows) {
+                RowKey key = new RowKey(version, fields);
+                CachedRow row = rows.get(key);
+                if (row != null) {
+                    if (System.currentTimeMillis() - row.cachedAt <= maxAge) {
+                        result = row.result;
+                    } else {
+                        rows.remove(key);
+                        empty = rows.isEmpty();
+                    }
+                }
+            }
+            if (empty) {
+                records.asMap().remove(recordId, rows);
+            }
+        }
+
+        if (metrics != null) {
+            metrics.reportRecordCacheAccess(result != null);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the value to pass to {@link #put}, this should be called before reading the row from HBase.
+     */
+    public long getGeneration(RecordId recordId) {
+        return generations.get(stripe(recordId));
+    }
+
+    /**
+     * Caches the row, unless the record has been invalidated since the given generation was obtained.
+     */
+    public void put(RecordId recordId, Long version, List<FieldType> fields, Result result,
+            long generationBeforeRead) {
+        int stripe = stripe(recordId);
+        if (generations.get(stripe) != generationBeforeRead) {
+            return;
+        }
+
+        // Result builds its map lazily without synchronization, so make sure it is complete before the result
+        // is shared between threads.
+        result.getMap();
+
+        Map<RowKey, CachedRow> rows = records.getIfPresent(recordId);
+        if (rows == null) {
+            Map<RowKey, CachedRow> newRows = new HashMap<RowKey, CachedRow>();
+            rows = records.asMap().putIfAbsent(recordId, newRows);
+            if (rows == null) {
+                rows = newRows;
+            }
+        }
+        synchronized (rows) {
+            if (rows.size() >= MAX_ROWS_PER_RECORD) {
+                rows.clear();
+            }
+            rows.put(new RowKey(version, fields), new CachedRow(result, System.currentTimeMillis()));
+        }
+
+        // An invalidation increments the generation before removing the record. If it did not happen before
+        // the check above, but did before this one, the row might have been added after the removal.
+        if (generations.get(stripe) != generationBeforeRead) {
+            records.invalidate(recordId);
+        }
+
+        if (metrics != null) {
+            metrics.setRecordCacheSize((int)records.size());
+        }
+    }
+
+    public void invalidate(RecordId recordId) {
+        generations.incrementAndGet(stripe(recordId));
+        records.invalidate(recordId);
+
+        if (metrics != null) {
+            metrics.setRecordCacheSize((int)records.size());
+        }
+    }
+
+    public void clear() {
+        for (int i = 0; i < GENERATION_STRIPES; i++) {
+            generations.incrementAndGet(i);
+        }
+        records.invalidateAll();
+
+        if (metrics != null) {
+            metrics.setRecordCacheSize(0);
+        }
+    }
+
+    public int size() {
+        return (int)records.size();
+    }
+
+    private static int stripe(RecordId recordId) {
+        return recordId.hashCode() & (GENERATION_STRIPES - 1);
+    }
+
+    private static final class CachedRow {
+        final Result result;
+        final long cachedAt;
+
+        CachedRow(Result result, long cachedAt) {
+            this.result = result;
+            this.cachedAt = cachedAt;
+        }
+    }
+
+    private static final class RowKey {
+        final Long version;
+        final Set<SchemaId> fieldIds;
+
+        RowKey(Long version, List<FieldType> fields) {
+            this.version = version;
+            if (fields == null || fields.isEmpty()) {
+                // same as when reading: no fields means all fields
+                this.fieldIds = null;
+            } else {
+                this.fieldIds = new HashSet<SchemaId>(fields.size());
+                for (FieldType field : fields) {
+                    fieldIds.add(field.getId());
+                }
+            }
+        }
+
+        @Override
+        public int hashCode() {
+            int result = version != null ? version.hashCode() : 0;
+            result = 31 * result + (fieldIds != null ? fieldIds.hashCode() : 0);
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            RowKey other = (RowKey)obj;
+            return ObjectUtils.safeEquals(version, other.version) && ObjectUtils.safeEquals(fieldIds, other.fieldIds);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Configures the {@link RecordCache} of each repository table: a default size which applies to all tables,
+ * which can be overridden for specific tables.
+ */
+public class RecordCacheConfig {
+    private final int defaultMaxRecords;
+    private final long maxAge;
+    private final Map<RepoTableKey, Integer> tableMaxRecords = new HashMap<RepoTableKey, Integer>();
+
+    /**
+     * @param defaultMaxRecords maximum number of records cached per table, 0 to disable caching
+     * @param maxAge maximum time in millis during which a record is served from the cache
+     */
+    public RecordCacheConfig(int defaultMaxRecords, long maxAge) {
+        this.defaultMaxRecords = defaultMaxRecords;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Overrides the number of records cached for one table, 0 to disable caching for it.
+     */
+    public void setMaxRecords(String repositoryName, String tableName, int maxRecords) {
+        tableMaxRecords.put(new RepoTableKey(repositoryName, tableName), maxRecords);
+    }
+
+    public int getMaxRecords(String repositoryName, String tableName) {
+        Integer maxRecords = tableMaxRecords.get(new RepoTableKey(repositoryName, tableName));
+        return maxRecords != null ? maxRecords : defaultMaxRecords;
+    }
+
+    public long getMaxAge() {
+        return maxAge;
+    }
+
+    /**
+     * Returns true if caching is enabled for at least one table.
+     */
+    public boolean isEnabled() {
+        if (defaultMaxRecords > 0) {
+            return true;
+        }
+        for (int maxRecords : tableMaxRecords.values()) {
+            if (maxRecords > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns a new cache for the given table, or null if caching is disabled for it.
+     */
+    public RecordCache createCache(RepoTableKey key, RepositoryMetrics metrics) {
+        int maxRecords = getMaxRecords(key.getRepositoryName(), key.getTableName());
+        return maxRecords > 0 ? new RecordCache(maxRecords, maxAge, metrics) : null;
+    }
+}
@@ -17,12 +17,10 @@ package org.lilyproject.repository.impl;
 
 import java.util.ArrayList;
 import java.util.EnumMap;
-import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
-import java.util.Set;
 
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.Result;
@@ -38,7 +36,6 @@ import org.lilyproject.repository.api.QName;
 import org.lilyproject.repository.api.Record;
 import org.lilyproject.repository.api.RecordFactory;
 import org.lilyproject.repository.api.RecordId;
-import org.lilyproject.repository.api.RecordType;
 import org.lilyproject.repository.api.RepositoryException;
 import org.lilyproject.repository.api.SchemaId;
 import org.lilyproject.repository.api.Scope;
@@ -112,6 +109,8 @@ public class RecordDecoder {
                                Result result, FieldTypes fieldTypes) throws InterruptedException, RepositoryException {
         Record record = recordFactory.newRecord(recordId);
         record.setVersion(requestedVersion);
+        // Postpone the decoding of the field values to when they are accessed, often only a few are
+        boolean lazy = record instanceof RecordImpl;
 
         // If the version is null, this means the record has no version an thus only contains non-versioned fields (if any)
         // All non-versioned fields are stored at version 1, so we extract the fields at version 1
@@ -131,9 +130,14 @@ public class RecordDecoder {
                     if (ceilingEntry != null) {
                         // Extract and decode the value of the field
                         ExtractedField field =
-                                extractField(key, ceilingEntry.getValue(), readContext, fieldTypes);
+                                extractField(key, ceilingEntry.getValue(), readContext, fieldTypes, !lazy);
                         if (field != null) {
-                            record.setField(field.type.getName(), field.value);
+                            if (lazy) {
+                                ((RecordImpl)record).setEncodedField(field.type.getName(),
+                                        (LazyFieldMap.EncodedValue)field.value);
+                            } else {
+                                record.setField(field.type.getName(), field.value);
+                            }
                             if (field.metadata != null) {
                                 record.setMetadata(field.type.getName(), field.metadata);
                             }
@@ -196,87 +200,35 @@ public class RecordDecoder {
     }
 
     /**
-     * Gets the requested version of the record (fields and recordTypes) from the Result object.
-     * This method is optimized for reading multiple versions.
+     * Gets the requested versions of the record (fields and recordTypes) from the Result object.
+     * This method is optimized for reading multiple versions, see {@link RecordVersionsDecoder}.
+     *
+     * @param requestedVersions the versions to decode, in ascending order
+     * @return the records in the order of the requested versions, duplicate versions are only returned once
      */
     public List<Record> decodeRecords(RecordId recordId, List<Long> requestedVersions, Result result,
                                       FieldTypes fieldTypes) throws InterruptedException, RepositoryException {
-        Map<Long, Record> records = new HashMap<Long, Record>(requestedVersions.size());
-        Map<Long, Set<Scope>> scopes = new HashMap<Long, Set<Scope>>(requestedVersions.size());
+        RecordVersionsDecoder versionsDecoder = decodeVersions(recordId, result, fieldTypes);
+        List<Record> records = new ArrayList<Record>(requestedVersions.size());
+        Long previousVersion = null;
         for (Long requestedVersion : requestedVersions) {
-            Record record = recordFactory.newRecord(recordId);
-            record.setVersion(requestedVersion);
-            records.put(requestedVersion, record);
-            scopes.put(requestedVersion, EnumSet.noneOf(Scope.class));
-        }
-
-        // Get a map of all fields with their values for each (cell-)version
-        NavigableMap<byte[], NavigableMap<Long, byte[]>> mapWithVersions = result.getMap().get(RecordCf.DATA.bytes);
-        if (mapWithVersions != null) {
-
-            // Iterate over all columns
-            for (Map.Entry<byte[], NavigableMap<Long, byte[]>> columnWithAllVersions : mapWithVersions.entrySet()) {
-
-                // Check if the retrieved column is from a data field, and not a system field
-                byte[] key = columnWithAllVersions.getKey();
-                if (key[0] == RecordColumn.DATA_PREFIX) {
-                    NavigableMap<Long, byte[]> allValueVersions = columnWithAllVersions.getValue();
-
-                    // Keep the last decoded field value, to avoid decoding the same value again and again if unchanged
-                    // between versions (sparse storage). Note that lastDecodedField can be null, in case of a field
-                    // deletion marker
-                    Long lastDecodedFieldVersion = null;
-                    ExtractedField lastDecodedField = null;
-                    for (Long versionToRead : requestedVersions) {
-                        Record record = records.get(versionToRead);
-                        // Get the entry for the version (can be a cell with a lower version number if the field was
-                        // not changed)
-                        Map.Entry<Long, byte[]> ceilingEntry = allValueVersions.ceilingEntry(versionToRead);
-                        if (ceilingEntry != null) {
-                            if (lastDecodedFieldVersion == null ||
-                                    !lastDecodedFieldVersion.equals(ceilingEntry.getKey())) {
-                                // Not yet decoded, do it now
-                                lastDecodedFieldVersion = ceilingEntry.getKey();
-                                lastDecodedField = extractField(key, ceilingEntry.getValue(), null, fieldTypes);
-                            }
-                            if (lastDecodedField != null) {
-                                record.setField(lastDecodedField.type.getName(), lastDecodedField.value);
-                                scopes.get(versionToRead).add(lastDecodedField.type.getScope());
-                                if (lastDecodedField.metadata != null) {
-                                    record.setMetadata(lastDecodedField.type.getName(), lastDecodedField.metadata);
-                                }
-                            }
-                        }
-                    }
-                }
-            }
-        }
-
-        // Add the record types to the records
-        for (Map.Entry<Long, Record> recordEntry : records.entrySet()) {
-            Set<Scope> scopesForVersion = scopes.get(recordEntry.getKey());
-
-            // We're only adding the record types if any fields were read.
-            if (!scopesForVersion.isEmpty()) {
-                // Get the record type for each scope
-
-                // At least the non-versioned record type should be read since that is also the record type of the whole record
-                scopesForVersion.add(Scope.NON_VERSIONED);
-                for (Scope scope : scopesForVersion) {
-                    Pair<SchemaId, Long> recordTypePair = extractVersionRecordType(scope, result, recordEntry.getKey());
-                    if (recordTypePair != null) {
-                        RecordType recordType =
-                                typeManager.getRecordTypeById(recordTypePair.getV1(), recordTypePair.getV2());
-                        recordEntry.getValue().setRecordType(scope, recordType.getName(), recordType.getVersion());
-                    }
-                }
+            if (!requestedVersion.equals(previousVersion)) {
+                records.add(versionsDecoder.decode(requestedVersion));
+                previousVersion = requestedVersion;
             }
         }
+        return records;
+    }
 
-        return new ArrayList<Record>(records.values());
+    /**
+     * Returns a decoder for the versions of the record contained in the given Result, which decodes the
+     * versions one by one as they are requested.
+     */
+    RecordVersionsDecoder decodeVersions(RecordId recordId, Result result, FieldTypes fieldTypes) {
+        return new RecordVersionsDecoder(recordId, result, fieldTypes, typeManager, recordFactory, this);
     }
 
-    private static class ExtractedField {
+    static class ExtractedField {
         FieldType type;
         Object value;
         Metadata metadata;
@@ -288,10 +240,23 @@ public class RecordDecoder {
         }
     }
 
+    /**
+     * @param decodeValue if false, the value of the returned field is a {@link LazyFieldMap.EncodedValue}
+     */
     private ExtractedField extractField(byte[] key, byte[] prefixedValue, ReadContext context,
-                                                 FieldTypes fieldTypes)
+                                        FieldTypes fieldTypes, boolean decodeValue)
             throws RepositoryException, InterruptedException {
-        byte flags = prefixedValue[0];
+        return extractField(key, prefixedValue, 0, prefixedValue.length, context, fieldTypes, decodeValue);
+    }
+
+    /**
+     * Variant of {@link #extractField(byte[], byte[], ReadContext, FieldTypes, boolean)} for a value stored in
+     * a part of a larger buffer, such as that of a KeyValue.
+     */
+    ExtractedField extractField(byte[] key, byte[] buffer, int offset, int length, ReadContext context,
+                                FieldTypes fieldTypes, boolean decodeValue)
+            throws RepositoryException, InterruptedException {
+        byte flags = buffer[offset];
         if (FieldFlags.isDeletedField(flags)) {
             return null;
         }
@@ -307,16 +272,22 @@ public class RecordDecoder {
         if (metadataEncodingVersion == 0) {
             // there is no metadata
         } else if (metadataEncodingVersion == 1) {
-            int metadataSize = Bytes.toInt(prefixedValue, prefixedValue.length - Bytes.SIZEOF_INT, Bytes.SIZEOF_INT);
+            int metadataSize = Bytes.toInt(buffer, offset + length - Bytes.SIZEOF_INT, Bytes.SIZEOF_INT);
             metadataSpace = metadataSize + Bytes.SIZEOF_INT;
             metadata = MetadataSerDeser.read(
-                    new DataInputImpl(prefixedValue, prefixedValue.length - metadataSpace, metadataSize));
+                    new DataInputImpl(buffer, offset + length - metadataSpace, metadataSize));
         } else {
             throw new RuntimeException("Unsupported field metadata encoding version: " + metadataEncodingVersion);
         }
 
-        Object value = valueType.read(new DataInputImpl(prefixedValue, FieldFlags.SIZE_OF_FIELD_FLAGS,
-                prefixedValue.length - FieldFlags.SIZE_OF_FIELD_FLAGS - metadataSpace));
+        int valueLength = length - FieldFlags.SIZE_OF_FIELD_FLAGS - metadataSpace;
+        Object value;
+        if (decodeValue) {
+            value = valueType.read(new DataInputImpl(buffer, offset + FieldFlags.SIZE_OF_FIELD_FLAGS, valueLength));
+        } else {
+            value = new LazyFieldMap.EncodedValue(valueType, buffer, offset + FieldFlags.SIZE_OF_FIELD_FLAGS,
+                    valueLength);
+        }
 
         return new ExtractedField(fieldType, value, metadata);
     }
@@ -135,6 +135,17 @@ public class RecordImpl implements Record, Cloneable {
         fieldsToDelete.remove(name);
     }
 
+    /**
+     * Sets a field value which is only decoded when it is accessed for the first time, see {@link LazyFieldMap}.
+     */
+    void setEncodedField(QName name, LazyFieldMap.EncodedValue value) {
+        if (!(fields instanceof LazyFieldMap)) {
+            fields = new LazyFieldMap(fields);
+        }
+        ((LazyFieldMap)fields).putEncoded(name, value);
+        fieldsToDelete.remove(name);
+    }
+
     @Override
     public <T> T getField(QName name) throws FieldNotFoundException {
         Object field = fields.get(name);
@@ -215,8 +226,22 @@ public class RecordImpl implements Record, Cloneable {
         record.version = version;
         record.recordTypes.putAll(recordTypes);
         parentRecords.push(this);
-        for (Entry<QName, Object> entry : fields.entrySet()) {
-            record.fields.put(entry.getKey(), tryCloneValue(parentRecords, entry));
+        if (fields instanceof LazyFieldMap) {
+            // Values which have not been decoded yet are shared with the clone as they are, each record
+            // will decode them separately.
+            LazyFieldMap lazyFields = (LazyFieldMap)fields;
+            for (QName name : lazyFields.keySet()) {
+                Object value = lazyFields.getRaw(name);
+                if (value instanceof LazyFieldMap.EncodedValue) {
+                    record.setEncodedField(name, (LazyFieldMap.EncodedValue)value);
+                } else {
+                    record.fields.put(name, tryCloneValue(parentRecords, value));
+                }
+            }
+        } else {
+            for (Entry<QName, Object> entry : fields.entrySet()) {
+                record.fields.put(entry.getKey(), tryCloneValue(parentRecords, entry.getValue()));
+            }
         }
         parentRecords.pop();
         if (fieldsToDelete.size() > 0) { // addAll seems expensive even when list is empty
@@ -233,9 +258,10 @@ public class RecordImpl implements Record, Cloneable {
         return record;
     }
 
-    private Object tryCloneValue(final IdentityRecordStack parentRecords, final Entry<QName, Object> entry) throws RecordException {
+    private Object tryCloneValue(final IdentityRecordStack parentRecords, final Object value)
+            throws RecordException {
         try {
-            return cloneValue(entry.getValue(), parentRecords);
+            return cloneValue(value, parentRecords);
         } catch (CloneNotSupportedException e) {
             throw new RecordException("Failed to clone record", e);
         }
@@ -52,20 +52,23 @@ public class RecordTypesCache {
     // lead to an inconsistent state (two types could get the same name).
     private volatile int count = 0;
 
-    private Map<QName, RecordType> nameCache;
+    // The nameCache and childRecordTypes maps are never modified once published, they are
+    // replaced as a whole when they are out of date.
+    private volatile Map<QName, RecordType> nameCache;
 
     /**
      * Normally a record type points to the record types from which it extends, i.e. to their parent type.
      * This map allows to traverse the reverse relation: from parent to child.
      */
-    private Map<SchemaId, Set<SchemaId>> childRecordTypes;
+    private volatile Map<SchemaId, Set<SchemaId>> childRecordTypes;
 
     private Map<String, Map<SchemaId, RecordType>> buckets;
 
     private ConcurrentHashMap<String, Map<SchemaId, RecordType>> localUpdateBuckets = new ConcurrentHashMap<String, Map<SchemaId, RecordType>>();
 
     public RecordTypesCache() {
-        nameCache = new HashMap<QName, RecordType>();
+        nameCache = Collections.emptyMap();
+        childRecordTypes = Collections.emptyMap();
         buckets = new ConcurrentHashMap<String, Map<SchemaId, RecordType>>();
     }
 
@@ -103,21 +106,16 @@ public class RecordTypesCache {
                 }
                 if (childRecordTypesOutOfDate) {
                     // Re-initialize the childRecordTypes
-                    Map<SchemaId, Set<SchemaId>> newChildRecordTypes = new HashMap<SchemaId, Set<SchemaId>>() {
-                        @Override
-                        public Set<SchemaId> get(Object key) {
-                            Set<SchemaId> set = super.get(key);
-                            if (set == null) {
-                                set = new HashSet<SchemaId>();
-                                super.put((SchemaId)key, set);
-                            }
-                            return set;
-                        }
-                    };
+                    Map<SchemaId, Set<SchemaId>> newChildRecordTypes = new HashMap<SchemaId, Set<SchemaId>>();
                     for (Map<SchemaId, RecordType> bucket : buckets.values()) {
                         for (RecordType recordType : bucket.values()) {
                             for (SchemaId parent : recordType.getSupertypes().keySet()) {
-                                newChildRecordTypes.get(parent).add(recordType.getId());
+                                Set<SchemaId> children = newChildRecordTypes.get(parent);
+                                if (children == null) {
+                                    children = new HashSet<SchemaId>();
+                                    newChildRecordTypes.put(parent, children);
+                                }
+                                children.add(recordType.getId());
                             }
                         }
                     }
@@ -140,18 +138,29 @@ public class RecordTypesCache {
     }
 
     /**
-     * Decrement the number of buckets being updated and mark the nameCache out
-     * of date.
+     * Decrement the number of buckets being updated and, if the bucket was
+     * changed, mark the nameCache and childRecordTypes out of date.
      */
-    private void decCount() {
+    private void decCount(boolean changed) {
         synchronized (monitor) {
             count--;
-            nameCacheOutOfDate = true;
-            childRecordTypesOutOfDate = true;
+            if (changed) {
+                nameCacheOutOfDate = true;
+                childRecordTypesOutOfDate = true;
+            }
             monitor.notify();
         }
     }
 
+    /**
+     * Puts the record type in the bucket, returns true if this changed the
+     * contents of the bucket.
+     */
+    private boolean put(Map<SchemaId, RecordType> bucket, RecordType recordType) {
+        RecordType oldRecordType = bucket.put(recordType.getId(), recordType);
+        return oldRecordType == null || !oldRecordType.equals(recordType);
+    }
+
     /**
      * Return the monitor of a bucket and create it if it does not exist yet.
      *
@@ -236,8 +245,7 @@ public class RecordTypesCache {
             while (count > 0) {
                 monitor.wait();
             }
-            nameCacheOutOfDate = true;
-            childRecordTypesOutOfDate = true;
+            boolean changed = false;
             // One would expect that existing buckets need to be cleared first.
             // But since record types cannot be deleted we will just overwrite
             // them.
@@ -253,9 +261,13 @@ public class RecordTypesCache {
                         bucket = new ConcurrentHashMap<SchemaId, RecordType>();
                         buckets.put(bucketId, bucket);
                     }
-                    bucket.put(recordType.getId(), recordType);
+                    changed |= put(bucket, recordType);
                 }
             }
+            if (changed) {
+                nameCacheOutOfDate = true;
+                childRecordTypesOutOfDate = true;
+            }
         }
     }
 
@@ -266,6 +278,7 @@ public class RecordTypesCache {
      */
     public void refreshRecordTypeBucket(TypeBucket typeBucket) {
         String bucketId = typeBucket.getBucketId();
+        boolean changed = false;
 
         // First increment the number of buckets that are being updated
         incCount();
@@ -284,12 +297,12 @@ public class RecordTypesCache {
             // Fill the bucket with the new record types
             for (RecordType recordType : recordTypes) {
                 if (!removeFromLocalUpdateBucket(recordType, bucketId)) {
-                    bucket.put(recordType.getId(), recordType);
+                    changed |= put(bucket, recordType);
                 }
             }
         }
         // Decrement the number of buckets that are being updated again.
-        decCount();
+        decCount(changed);
     }
 
     /**
@@ -302,6 +315,7 @@ public class RecordTypesCache {
         RecordType rtToCache = recordType.clone();
         SchemaId id = rtToCache.getId();
         String bucketId = AbstractSchemaCache.encodeHex(id.getBytes());
+        boolean changed;
         // First increment the number of buckets that are being updated
         incCount();
         // Get a lock on the bucket to be updated
@@ -312,14 +326,14 @@ public class RecordTypesCache {
                 bucket = new ConcurrentHashMap<SchemaId, RecordType>(8, .75f, 1);
                 buckets.put(bucketId, bucket);
             }
-            bucket.put(id, rtToCache);
+            changed = put(bucket, rtToCache);
             // Mark that this recordType is updated locally
             // and that the next refresh can be ignored
             // since this refresh can contain an old recordType
             addToLocalUpdateBucket(recordType, bucketId);
         }
         // Decrement the number of buckets that are being updated again.
-        decCount();
+        decCount(changed);
     }
 
     // Add the id of a record type that has been updated locally
@@ -352,7 +366,8 @@ public class RecordTypesCache {
     }
 
     public void clear() {
-        nameCache.clear();
+        nameCache = Collections.emptyMap();
+        childRecordTypes = Collections.emptyMap();
 
         for (Map bucket : buckets.values()) {
             bucket.clear();
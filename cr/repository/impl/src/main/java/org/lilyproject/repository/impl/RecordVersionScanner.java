@@ -0,0 +1,94 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+import java.util.Iterator;
+
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordScanner;
+import org.lilyproject.repository.api.RepositoryException;
+
+/**
+ * Returns a range of versions of a record, decoding each version when it is requested.
+ */
+class RecordVersionScanner implements RecordScanner {
+    private final RecordVersionsDecoder decoder;
+    private final long toVersion;
+    private long nextVersion;
+
+    /**
+     * @param fromVersion first version to return
+     * @param toVersion last version to return (inclusive)
+     */
+    RecordVersionScanner(RecordVersionsDecoder decoder, long fromVersion, long toVersion) {
+        this.decoder = decoder;
+        this.nextVersion = fromVersion;
+        this.toVersion = toVersion;
+    }
+
+    @Override
+    public Record next() throws RepositoryException, InterruptedException {
+        if (nextVersion > toVersion) {
+            return null;
+        }
+        return decoder.decode(nextVersion++);
+    }
+
+    @Override
+    public void close() {
+        // The row has been read completely, there are no resources to release
+    }
+
+    @Override
+    public Iterator<Record> iterator() {
+        return new Iterator<Record>() {
+            private Record next;
+
+            @Override
+            public boolean hasNext() {
+                if (next != null) {
+                    return true;
+                } else {
+                    try {
+                        next = RecordVersionScanner.this.next();
+                    } catch (RepositoryException e) {
+                        throw new RuntimeException(e);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RuntimeException(e);
+                    }
+                    return next != null;
+                }
+            }
+
+            @Override
+            public Record next() {
+                if (!hasNext()) {
+                    return null;
+                }
+
+                Record result = next;
+                next = null;
+                return result;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.lilyproject.repository.api.FieldTypes;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordFactory;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.RecordType;
+import org.lilyproject.repository.api.RepositoryException;
+import org.lilyproject.repository.api.Scope;
+import org.lilyproject.repository.api.TypeManager;
+import org.lilyproject.repository.impl.id.SchemaIdImpl;
+import org.lilyproject.util.hbase.LilyHBaseSchema.RecordCf;
+import org.lilyproject.util.hbase.LilyHBaseSchema.RecordColumn;
+
+/**
+ * Decodes versions of a record from a Result holding multiple versions of its cells.
+ *
+ * <p>The cells are grouped per column in a single pass over the KeyValues of the result, without building
+ * {@link Result#getMap()}. Since fields are stored sparsely, a cell holds the value of its field for all
+ * versions up to the next cell of that field. Each cell is decoded at most once, when the first version
+ * which needs it is decoded, and the decoded value is shared by the records of all those versions. Thus
+ * the decoding work depends on the number of changed cells rather than on the number of versions times
+ * the number of fields.</p>
+ *
+ * <p>Versions are best decoded in ascending order: the position in each column is then only moved forward.
+ * Other orders work too, but start searching from the oldest cell again.</p>
+ *
+ * <p>Instances are not thread-safe.</p>
+ */
+class RecordVersionsDecoder {
+    /**
+     * Marks a decoded cell which is a field deletion marker.
+     */
+    private static final Object DELETED = new Object();
+
+    private final RecordId recordId;
+    private final FieldTypes fieldTypes;
+    private final TypeManager typeManager;
+    private final RecordFactory recordFactory;
+    private final RecordDecoder recdec;
+
+    private final List<Column> fieldColumns = new ArrayList<Column>();
+    private final Map<Scope, Column> recordTypeIdColumns = new EnumMap<Scope, Column>(Scope.class);
+    private final Map<Scope, Column> recordTypeVersionColumns = new EnumMap<Scope, Column>(Scope.class);
+
+    RecordVersionsDecoder(RecordId recordId, Result result, FieldTypes fieldTypes, TypeManager typeManager,
+            RecordFactory recordFactory, RecordDecoder recdec) {
+        this.recordId = recordId;
+        this.fieldTypes = fieldTypes;
+        this.typeManager = typeManager;
+        this.recordFactory = recordFactory;
+        this.recdec = recdec;
+
+        KeyValue[] kvs = result.raw();
+        if (kvs == null) {
+            return;
+        }
+        // The KeyValues are sorted on column, and within a column on descending timestamp (= version)
+        int columnStart = -1;
+        for (int i = 0; i < kvs.length; i++) {
+            if (!kvs[i].matchingFamily(RecordCf.DATA.bytes)) {
+                if (columnStart != -1) {
+                    addColumn(kvs, columnStart, i);
+                    columnStart = -1;
+                }
+                continue;
+            }
+            if (columnStart == -1) {
+                columnStart = i;
+            } else if (!sameQualifier(kvs[columnStart], kvs[i])) {
+                addColumn(kvs, columnStart, i);
+                columnStart = i;
+            }
+        }
+        if (columnStart != -1) {
+            addColumn(kvs, columnStart, kvs.length);
+        }
+    }
+
+    private static boolean sameQualifier(KeyValue kv1, KeyValue kv2) {
+        return Bytes.equals(kv1.getBuffer(), kv1.getQualifierOffset(), kv1.getQualifierLength(),
+                kv2.getBuffer(), kv2.getQualifierOffset(), kv2.getQualifierLength());
+    }
+
+    private void addColumn(KeyValue[] kvs, int start, int end) {
+        byte[] qualifier = kvs[start].getQualifier();
+        if (qualifier.length > 0 && qualifier[0] == RecordColumn.DATA_PREFIX) {
+            fieldColumns.add(new Column(qualifier, kvs, start, end));
+            return;
+        }
+        for (Scope scope : Scope.values()) {
+            if (Bytes.equals(qualifier, RecordDecoder.RECORD_TYPE_ID_QUALIFIERS.get(scope))) {
+                recordTypeIdColumns.put(scope, new Column(qualifier, kvs, start, end));
+                return;
+            } else if (Bytes.equals(qualifier, RecordDecoder.RECORD_TYPE_VERSION_QUALIFIERS.get(scope))) {
+                recordTypeVersionColumns.put(scope, new Column(qualifier, kvs, start, end));
+                return;
+            }
+        }
+    }
+
+    /**
+     * Decodes the given version of the record. The record types are only set when the version has fields.
+     */
+    Record decode(long version) throws RepositoryException, InterruptedException {
+        Record record = recordFactory.newRecord(recordId);
+        record.setVersion(version);
+
+        Set<Scope> scopes = EnumSet.noneOf(Scope.class);
+        for (Column column : fieldColumns) {
+            RecordDecoder.ExtractedField field = column.getField(version);
+            if (field != null) {
+                record.setField(field.type.getName(), field.value);
+                scopes.add(field.type.getScope());
+                if (field.metadata != null) {
+                    record.setMetadata(field.type.getName(), field.metadata);
+                }
+            }
+        }
+
+        // We're only adding the record types if any fields were read.
+        if (!scopes.isEmpty()) {
+            // At least the non-versioned record type should be read since that is also the record type of the
+            // whole record
+            scopes.add(Scope.NON_VERSIONED);
+            for (Scope scope : scopes) {
+                RecordType recordType = getRecordType(scope, version);
+                if (recordType != null) {
+                    record.setRecordType(scope, recordType.getName(), recordType.getVersion());
+                }
+            }
+        }
+
+        return record;
+    }
+
+    private RecordType getRecordType(Scope scope, long version) throws RepositoryException, InterruptedException {
+        Column idColumn = recordTypeIdColumns.get(scope);
+        Column versionColumn = recordTypeVersionColumns.get(scope);
+        if (idColumn == null || versionColumn == null) {
+            return null;
+        }
+        KeyValue idCell = idColumn.getCell(version);
+        KeyValue versionCell = versionColumn.getCell(version);
+        if (idCell == null || versionCell == null) {
+            return null;
+        }
+        return typeManager.getRecordTypeById(new SchemaIdImpl(idCell.getValue()),
+                Bytes.toLong(versionCell.getBuffer(), versionCell.getValueOffset(), versionCell.getValueLength()));
+    }
+
+    /**
+     * The cells of one column, in descending version order.
+     */
+    private class Column {
+        private final byte[] qualifier;
+        private final KeyValue[] kvs;
+        private final int start;
+        private final int end;
+        /** Index of the cell which applied to the previously requested version, end if none. */
+        private int position;
+        private long positionVersion = Long.MIN_VALUE;
+        /** Decoded fields by cell index - start, null for cells not yet decoded. */
+        private Object[] fields;
+
+        Column(byte[] qualifier, KeyValue[] kvs, int start, int end) {
+            this.qualifier = qualifier;
+            this.kvs = kvs;
+            this.start = start;
+            this.end = end;
+            this.position = end;
+        }
+
+        /**
+         * Returns the index of the cell holding the value for the given version, which is the cell with the
+         * highest version not above it, or -1 if there is none.
+         */
+        int find(long version) {
+            if (version < positionVersion) {
+                position = end;
+            }
+            positionVersion = version;
+            while (position > start && kvs[position - 1].getTimestamp() <= version) {
+                position--;
+            }
+            return position < end ? position : -1;
+        }
+
+        KeyValue getCell(long version) {
+            int index = find(version);
+            return index == -1 ? null : kvs[index];
+        }
+
+        /**
+         * Returns the field value for the given version, or null if the field has no value in that version.
+         */
+        RecordDecoder.ExtractedField getField(long version) throws RepositoryException, InterruptedException {
+            int index = find(version);
+            if (index == -1) {
+                return null;
+            }
+            if (fields == null) {
+                fields = new Object[end - start];
+            }
+            Object field = fields[index - start];
+            if (field == null) {
+                KeyValue kv = kvs[index];
+                field = recdec.extractField(qualifier, kv.getBuffer(), kv.getValueOffset(), kv.getValueLength(),
+                        null, fieldTypes, true);
+                // remember deletion markers as well
+                fields[index - start] = field == null ? DELETED : field;
+            }
+            return field == DELETED ? null : (RecordDecoder.ExtractedField) field;
+        }
+    }
+}
@@ -23,14 +23,16 @@ import org.apache.hadoop.metrics.MetricsRecord;
 import org.apache.hadoop.metrics.MetricsUtil;
 import org.apache.hadoop.metrics.Updater;
 import org.apache.hadoop.metrics.util.MetricsBase;
+import org.apache.hadoop.metrics.util.MetricsIntValue;
 import org.apache.hadoop.metrics.util.MetricsLongValue;
 import org.apache.hadoop.metrics.util.MetricsRegistry;
+import org.apache.hadoop.metrics.util.MetricsTimeVaryingLong;
 import org.apache.hadoop.metrics.util.MetricsTimeVaryingRate;
 import org.lilyproject.util.hbase.metrics.MBeanUtil;
 import org.lilyproject.util.hbase.metrics.MetricsDynamicMBeanBase;
 
 public class RepositoryMetrics implements Updater {
-    public enum Action{CREATE, READ, UPDATE, DELETE}
+    public enum Action{CREATE, READ, UPDATE, DELETE, BATCH_CREATE, BATCH_UPDATE, BATCH_DELETE}
 
     public enum HBaseAction{PUT, GET, LOCK, UNLOCK}
 
@@ -41,6 +43,14 @@ public class RepositoryMetrics implements Updater {
     private final EnumMap<HBaseAction, MetricsTimeVaryingRate> hbaseRates =
                 new EnumMap<HBaseAction, MetricsTimeVaryingRate>(HBaseAction.class);
     private final MetricsLongValue lastMutationEventTimestamp;
+    private final MetricsTimeVaryingLong recordCacheHits;
+    private final MetricsTimeVaryingLong recordCacheMisses;
+    private final MetricsTimeVaryingLong recordCacheEvictions;
+    private final MetricsIntValue recordCacheSize;
+    /**
+     * Percentage of the record cache accesses which were hits, during the last interval.
+     */
+    private final MetricsIntValue recordCacheHitRatio;
     private final RepositoryMetricsMXBean mbean;
     private final String recordName;
 
@@ -54,6 +64,11 @@ public class RepositoryMetrics implements Updater {
             hbaseRates.put(action, new MetricsTimeVaryingRate(action.name().toLowerCase(), registry));
         }
         lastMutationEventTimestamp = new MetricsLongValue("timestampLastMutation", registry);
+        recordCacheHits = new MetricsTimeVaryingLong("recordCacheHits", registry);
+        recordCacheMisses = new MetricsTimeVaryingLong("recordCacheMisses", registry);
+        recordCacheEvictions = new MetricsTimeVaryingLong("recordCacheEvictions", registry);
+        recordCacheSize = new MetricsIntValue("recordCacheSize", registry);
+        recordCacheHitRatio = new MetricsIntValue("recordCacheHitRatio", registry);
         context = MetricsUtil.getContext("repository");
         metricsRecord = MetricsUtil.createRecord(context, recordName);
         context.registerUpdater(this);
@@ -68,6 +83,9 @@ public class RepositoryMetrics implements Updater {
     @Override
     public void doUpdates(MetricsContext unused) {
         synchronized (this) {
+          long hits = recordCacheHits.getCurrentIntervalValue();
+          long accesses = hits + recordCacheMisses.getCurrentIntervalValue();
+          recordCacheHitRatio.set(accesses > 0 ? (int)(hits * 100 / accesses) : 0);
           for (MetricsBase m : registry.getMetricsList()) {
             m.pushMetric(metricsRecord);
           }
@@ -86,6 +104,22 @@ public class RepositoryMetrics implements Updater {
         hbaseRates.get(action).inc(duration);
     }
 
+    void reportRecordCacheAccess(boolean hit) {
+        if (hit) {
+            recordCacheHits.inc();
+        } else {
+            recordCacheMisses.inc();
+        }
+    }
+
+    void reportRecordCacheEviction() {
+        recordCacheEvictions.inc();
+    }
+
+    void setRecordCacheSize(int size) {
+        recordCacheSize.set(size);
+    }
+
     public class RepositoryMetricsMXBean extends MetricsDynamicMBeanBase {
         private final ObjectName mbeanName;
 
@@ -15,7 +15,10 @@
  */
 package org.lilyproject.repository.impl.filter;
 
+import java.util.Arrays;
+
 import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.FilterList;
 import org.lilyproject.bytes.api.DataOutput;
 import org.lilyproject.bytes.impl.DataOutputImpl;
 import org.lilyproject.repository.api.CompareOp;
@@ -23,10 +26,12 @@ import org.lilyproject.repository.api.FieldType;
 import org.lilyproject.repository.api.IdentityRecordStack;
 import org.lilyproject.repository.api.LRepository;
 import org.lilyproject.repository.api.RepositoryException;
+import org.lilyproject.repository.api.ValueType;
 import org.lilyproject.repository.api.filter.FieldValueFilter;
 import org.lilyproject.repository.api.filter.RecordFilter;
 import org.lilyproject.repository.impl.FieldTypeImpl;
 import org.lilyproject.repository.impl.hbase.LilyFieldSingleColumnValueFilter;
+import org.lilyproject.repository.impl.valuetype.ListValueType;
 import org.lilyproject.repository.spi.HBaseRecordFilterFactory;
 import org.lilyproject.util.hbase.LilyHBaseSchema.RecordCf;
 
@@ -55,14 +60,38 @@ public class HBaseFieldValueFilter implements HBaseRecordFilterFactory {
         }
 
         FieldType fieldType = repository.getTypeManager().getFieldTypeByName(filter.getField());
+        ValueType valueType = fieldType.getValueType();
         DataOutput dataOutput = new DataOutputImpl();
-        fieldType.getValueType().write(filter.getFieldValue(), dataOutput, new IdentityRecordStack());
+        valueType.write(filter.getFieldValue(), dataOutput, new IdentityRecordStack());
         byte[] fieldValue = dataOutput.toByteArray();
 
+        Filter hbaseFilter = createHBaseFilter(fieldType, compareOp, fieldValue, filter.getFilterIfMissing());
+
+        // Lists of primitive values stored before lists were packed are still in the generic encoding, so
+        // the value should be compared with both encodings.
+        if (valueType instanceof ListValueType && ((ListValueType)valueType).hasPackedEncoding()) {
+            DataOutput unpackedOutput = new DataOutputImpl();
+            ((ListValueType)valueType).writeUnpacked(filter.getFieldValue(), unpackedOutput,
+                    new IdentityRecordStack());
+            byte[] unpackedValue = unpackedOutput.toByteArray();
+            if (!Arrays.equals(fieldValue, unpackedValue)) {
+                FilterList filterList = new FilterList(compareOp == CompareOp.EQUAL ?
+                        FilterList.Operator.MUST_PASS_ONE : FilterList.Operator.MUST_PASS_ALL);
+                filterList.addFilter(hbaseFilter);
+                filterList.addFilter(createHBaseFilter(fieldType, compareOp, unpackedValue,
+                        filter.getFilterIfMissing()));
+                hbaseFilter = filterList;
+            }
+        }
+
+        return hbaseFilter;
+    }
+
+    private Filter createHBaseFilter(FieldType fieldType, CompareOp compareOp, byte[] fieldValue,
+            boolean filterIfMissing) {
         LilyFieldSingleColumnValueFilter hbaseFilter = new LilyFieldSingleColumnValueFilter(RecordCf.DATA.bytes,
                 ((FieldTypeImpl)fieldType).getQualifier(), HBaseRecordFilterUtil.translateCompareOp(compareOp), fieldValue);
-        hbaseFilter.setFilterIfMissing(filter.getFilterIfMissing());
-
+        hbaseFilter.setFilterIfMissing(filterIfMissing);
         return hbaseFilter;
     }
 }
@@ -25,7 +25,6 @@ import java.util.SortedMap;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Maps;
 import org.apache.hadoop.hbase.filter.FilterBase;
-import org.lilyproject.bytes.impl.DataInputImpl;
 import org.lilyproject.repository.api.RecordId;
 import org.lilyproject.repository.impl.id.IdGeneratorImpl;
 import org.lilyproject.util.ArgumentValidator;
@@ -64,7 +63,8 @@ public class LilyRecordVariantFilter extends FilterBase {
             return true;
         }
 
-        final RecordId recordId = idGenerator.fromBytes(new DataInputImpl(buffer, offset, length));
+        // The record id is only used during this call, so it can refer to the bytes of the row key
+        final RecordId recordId = idGenerator.fromBytes(buffer, offset, length);
 
         final SortedMap<String, String> recordVariantProperties = recordId.getVariantProperties();
 
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl.hbase;
+
+import java.io.IOException;
+
+import org.apache.hadoop.hbase.DoNotRetryIOException;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.coprocessor.BaseEndpointCoprocessor;
+import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
+import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.lilyproject.util.hbase.LilyHBaseSchema.RecordCf;
+import org.lilyproject.util.hbase.LilyHBaseSchema.RecordColumn;
+
+/**
+ * Region server endpoint which applies record updates under the row lock, see {@link RecordMutationProtocol}.
+ *
+ * <p>The repository uses this endpoint for conditional updates when it is deployed, which is done by adding
+ * this class to the hbase.coprocessor.region.classes property in the hbase-site.xml of the region servers
+ * (lily-repository-impl already needs to be on their classpath). Without it, the repository falls back to
+ * HTable.checkAndPut.</p>
+ */
+public class RecordMutationEndpoint extends BaseEndpointCoprocessor implements RecordMutationProtocol {
+    @Override
+    public Result checkAndPut(byte[] expectedOcc, Put put, Get currentRowGet) throws IOException {
+        byte[] row = put.getRow();
+        if (!Bytes.equals(row, currentRowGet.getRow())) {
+            throw new DoNotRetryIOException("The put and the get should be on the same row.");
+        }
+
+        HRegion region = ((RegionCoprocessorEnvironment)getEnvironment()).getRegion();
+        Integer lockId = region.obtainRowLock(row);
+        try {
+            Get occGet = new Get(row);
+            occGet.addColumn(RecordCf.DATA.bytes, RecordColumn.OCC.bytes);
+            byte[] occ = region.get(occGet, lockId).getValue(RecordCf.DATA.bytes, RecordColumn.OCC.bytes);
+
+            if (Bytes.equals(occ, expectedOcc)) {
+                region.put(put, lockId);
+                return null;
+            } else {
+                return region.get(currentRowGet, lockId);
+            }
+        } finally {
+            region.releaseRowLock(lockId);
+        }
+    }
+}
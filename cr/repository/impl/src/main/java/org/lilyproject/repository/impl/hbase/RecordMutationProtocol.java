@@ -0,0 +1,39 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl.hbase;
+
+import java.io.IOException;
+
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.ipc.CoprocessorProtocol;
+
+/**
+ * Coprocessor protocol for applying updates to record rows, implemented by {@link RecordMutationEndpoint}.
+ */
+public interface RecordMutationProtocol extends CoprocessorProtocol {
+    /**
+     * Applies the put if the occ column of the record row still contains the expected value. In contrast
+     * to HTable.checkAndPut, if the put is not applied, the current state of the row is returned, read under
+     * the same row lock, so that the caller can retry without first reading the row again.
+     *
+     * @param expectedOcc the expected value of the occ column, null if the column should not exist
+     * @param currentRowGet the get to read the row with in case the put is not applied
+     * @return null if the put was applied, otherwise the result of the currentRowGet
+     */
+    Result checkAndPut(byte[] expectedOcc, Put put, Get currentRowGet) throws IOException;
+}
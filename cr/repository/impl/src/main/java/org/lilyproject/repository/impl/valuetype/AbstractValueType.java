@@ -50,9 +50,13 @@ public abstract class AbstractValueType implements ValueType {
     @Override
     public byte[] toBytes(Object value, IdentityRecordStack parentRecords) throws RepositoryException,
             InterruptedException {
-        DataOutput dataOutput = new DataOutputImpl();
-        write(value, dataOutput, parentRecords);
-        return dataOutput.toByteArray();
+        DataOutputImpl dataOutput = DataOutputImpl.acquire();
+        try {
+            write(value, dataOutput, parentRecords);
+            return dataOutput.toByteArray();
+        } finally {
+            dataOutput.release();
+        }
     }
 
     @Override
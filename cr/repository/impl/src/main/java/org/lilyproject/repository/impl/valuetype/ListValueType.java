@@ -21,15 +21,45 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
 import org.lilyproject.bytes.api.DataInput;
 import org.lilyproject.bytes.api.DataOutput;
 import org.lilyproject.repository.api.IdentityRecordStack;
 import org.lilyproject.repository.api.RepositoryException;
 import org.lilyproject.repository.api.TypeManager;
+import org.lilyproject.repository.api.UnknownValueTypeEncodingException;
 import org.lilyproject.repository.api.ValueType;
 import org.lilyproject.repository.api.ValueTypeFactory;
+import org.lilyproject.repository.impl.valuetype.PrimitiveLists.BooleanList;
+import org.lilyproject.repository.impl.valuetype.PrimitiveLists.DateList;
+import org.lilyproject.repository.impl.valuetype.PrimitiveLists.DoubleList;
+import org.lilyproject.repository.impl.valuetype.PrimitiveLists.IntegerList;
+import org.lilyproject.repository.impl.valuetype.PrimitiveLists.LongList;
 import org.lilyproject.util.ArgumentValidator;
 
+/**
+ * A list of values of some other value type.
+ *
+ * <p>The generic encoding is the number of values as an int, followed by the encoding of each value by the
+ * nested value type. Lists of LONG, INTEGER, DOUBLE, BOOLEAN and DATE values are written in a packed encoding
+ * instead, which starts with an encoding byte with the high bit set, and thus can be told apart from the
+ * (non-negative) count of the generic encoding. This is followed by the number of values as a vint and:</p>
+ *
+ * <ul>
+ *     <li>LONG, INTEGER: for each value, the difference with the previous value (the first value with 0)
+ *     as a zigzag-encoded vlong, so that sorted or slowly changing series take one or two bytes per value.</li>
+ *     <li>DATE: the same, applied on the number of days since the epoch.</li>
+ *     <li>DOUBLE: the values as 8-byte doubles.</li>
+ *     <li>BOOLEAN: a bitset, 8 values per byte.</li>
+ * </ul>
+ *
+ * <p>Packed lists are read into lists backed by a primitive array, which only box values when they are
+ * accessed. Lists containing null values are written in the generic encoding.</p>
+ *
+ * <p>Values stored before lists were packed remain in the generic encoding. Code which compares encoded
+ * values, such as the field value filter, should therefore also compare with {@link #writeUnpacked}.</p>
+ */
 public class ListValueType extends AbstractValueType implements ValueType {
 
     public final static String NAME = "LIST";
@@ -38,10 +68,14 @@ public class ListValueType extends AbstractValueType implements ValueType {
 
     private final String fullName;
 
+    /** The packed encoding for the nested value type, null if there is none. */
+    private final Packing packing;
+
     public ListValueType(TypeManager typeManager, String typeParams) throws RepositoryException, InterruptedException {
         ArgumentValidator.notNull(typeParams, "typeParams");
         this.fullName = NAME+"<"+typeParams+">";
         this.valueType = typeManager.getValueType(typeParams);
+        this.packing = Packing.forValueType(valueType);
     }
 
     public ListValueType(TypeManager typeManager, DataInput typeParamsDataInput) throws RepositoryException, InterruptedException {
@@ -76,6 +110,17 @@ public class ListValueType extends AbstractValueType implements ValueType {
     @Override
     @SuppressWarnings("unchecked")
     public List<Object> read(DataInput dataInput) throws RepositoryException, InterruptedException {
+        int position = dataInput.getPosition();
+        byte encoding = dataInput.readByte();
+        if (encoding < 0) {
+            Packing packedEncoding = Packing.forEncoding(encoding);
+            if (packedEncoding == null) {
+                throw new UnknownValueTypeEncodingException(NAME, encoding);
+            }
+            return (List<Object>) packedEncoding.read(dataInput);
+        }
+        // Generic encoding, the byte read is the first byte of the count
+        dataInput.setPosition(position);
         int nrOfValues = dataInput.readInt();
         List<Object> result = new ArrayList<Object>(nrOfValues);
         for (int i = 0 ; i < nrOfValues; i++) {
@@ -88,12 +133,40 @@ public class ListValueType extends AbstractValueType implements ValueType {
     public void write(Object value, DataOutput dataOutput, IdentityRecordStack parentRecords)
             throws RepositoryException, InterruptedException {
         List<Object> values = ((List<Object>) value);
+        if (packing != null && packing.write(values, dataOutput)) {
+            return;
+        }
         dataOutput.writeInt(values.size());
         for (Object element : values) {
             valueType.write(element, dataOutput, parentRecords);
         }
     }
 
+    /**
+     * Writes the value in the generic encoding at every nesting level, which is how lists were written
+     * before they were packed.
+     */
+    public void writeUnpacked(Object value, DataOutput dataOutput, IdentityRecordStack parentRecords)
+            throws RepositoryException, InterruptedException {
+        List<Object> values = ((List<Object>) value);
+        dataOutput.writeInt(values.size());
+        for (Object element : values) {
+            if (valueType instanceof ListValueType) {
+                ((ListValueType)valueType).writeUnpacked(element, dataOutput, parentRecords);
+            } else {
+                valueType.write(element, dataOutput, parentRecords);
+            }
+        }
+    }
+
+    /**
+     * Checks if values of this type, or of the lists nested in it, can be written in a packed encoding.
+     */
+    public boolean hasPackedEncoding() {
+        return packing != null
+                || (valueType instanceof ListValueType && ((ListValueType)valueType).hasPackedEncoding());
+    }
+
     @Override
     public Class getType() {
         return List.class;
@@ -145,6 +218,244 @@ public class ListValueType extends AbstractValueType implements ValueType {
         return fullName.equals(((ListValueType) obj).fullName);
     }
 
+    /**
+     * The packed encodings of lists of primitive values.
+     */
+    private enum Packing {
+        LONG((byte)0x81, LongValueType.NAME) {
+            @Override
+            boolean write(List<?> values, DataOutput dataOutput) {
+                long[] array;
+                int size = values.size();
+                if (values instanceof LongList) {
+                    array = ((LongList)values).values;
+                } else {
+                    array = new long[size];
+                    int i = 0;
+                    for (Object element : values) {
+                        if (!(element instanceof Long)) {
+                            return false;
+                        }
+                        array[i++] = (Long)element;
+                    }
+                }
+                writeHeader(size, dataOutput);
+                writeDeltas(array, size, dataOutput);
+                return true;
+            }
+
+            @Override
+            List<?> read(DataInput dataInput) {
+                return new LongList(readDeltas(dataInput.readVInt(), dataInput));
+            }
+        },
+
+        INTEGER((byte)0x82, IntegerValueType.NAME) {
+            @Override
+            boolean write(List<?> values, DataOutput dataOutput) {
+                int size = values.size();
+                long[] array = new long[size];
+                if (values instanceof IntegerList) {
+                    int[] ints = ((IntegerList)values).values;
+                    for (int i = 0; i < size; i++) {
+                        array[i] = ints[i];
+                    }
+                } else {
+                    int i = 0;
+                    for (Object element : values) {
+                        if (!(element instanceof Integer)) {
+                            return false;
+                        }
+                        array[i++] = (Integer)element;
+                    }
+                }
+                writeHeader(size, dataOutput);
+                writeDeltas(array, size, dataOutput);
+                return true;
+            }
+
+            @Override
+            List<?> read(DataInput dataInput) {
+                int size = dataInput.readVInt();
+                long[] array = readDeltas(size, dataInput);
+                int[] ints = new int[size];
+                for (int i = 0; i < size; i++) {
+                    ints[i] = (int)array[i];
+                }
+                return new IntegerList(ints);
+            }
+        },
+
+        DOUBLE((byte)0x83, DoubleValueType.NAME) {
+            @Override
+            boolean write(List<?> values, DataOutput dataOutput) {
+                double[] array;
+                int size = values.size();
+                if (values instanceof DoubleList) {
+                    array = ((DoubleList)values).values;
+                } else {
+                    array = new double[size];
+                    int i = 0;
+                    for (Object element : values) {
+                        if (!(element instanceof Double)) {
+                            return false;
+                        }
+                        array[i++] = (Double)element;
+                    }
+                }
+                writeHeader(size, dataOutput);
+                for (int i = 0; i < size; i++) {
+                    dataOutput.writeDouble(array[i]);
+                }
+                return true;
+            }
+
+            @Override
+            List<?> read(DataInput dataInput) {
+                double[] array = new double[dataInput.readVInt()];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = dataInput.readDouble();
+                }
+                return new DoubleList(array);
+            }
+        },
+
+        BOOLEAN((byte)0x84, BooleanValueType.NAME) {
+            @Override
+            boolean write(List<?> values, DataOutput dataOutput) {
+                int size = values.size();
+                byte[] bits = new byte[(size + 7) / 8];
+                if (values instanceof BooleanList) {
+                    boolean[] array = ((BooleanList)values).values;
+                    for (int i = 0; i < size; i++) {
+                        if (array[i]) {
+                            bits[i >> 3] |= 1 << (i & 7);
+                        }
+                    }
+                } else {
+                    int i = 0;
+                    for (Object element : values) {
+                        if (!(element instanceof Boolean)) {
+                            return false;
+                        }
+                        if ((Boolean)element) {
+                            bits[i >> 3] |= 1 << (i & 7);
+                        }
+                        i++;
+                    }
+                }
+                writeHeader(size, dataOutput);
+                dataOutput.writeBytes(bits);
+                return true;
+            }
+
+            @Override
+            List<?> read(DataInput dataInput) {
+                boolean[] array = new boolean[dataInput.readVInt()];
+                byte[] bits = dataInput.readBytes((array.length + 7) / 8);
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = (bits[i >> 3] & (1 << (i & 7))) != 0;
+                }
+                return new BooleanList(array);
+            }
+        },
+
+        DATE((byte)0x85, DateValueType.NAME) {
+            @Override
+            boolean write(List<?> values, DataOutput dataOutput) {
+                long[] days;
+                int size = values.size();
+                if (values instanceof DateList) {
+                    days = ((DateList)values).days;
+                } else {
+                    days = new long[size];
+                    int i = 0;
+                    for (Object element : values) {
+                        if (!(element instanceof LocalDate)) {
+                            return false;
+                        }
+                        long millis = ((LocalDate)element).toDateTimeAtStartOfDay(DateTimeZone.UTC).getMillis();
+                        if (millis % DateList.MILLIS_PER_DAY != 0) {
+                            // Can't be represented as a number of days, keep the millis of the generic encoding
+                            return false;
+                        }
+                        days[i++] = millis / DateList.MILLIS_PER_DAY;
+                    }
+                }
+                writeHeader(size, dataOutput);
+                writeDeltas(days, size, dataOutput);
+                return true;
+            }
+
+            @Override
+            List<?> read(DataInput dataInput) {
+                return new DateList(readDeltas(dataInput.readVInt(), dataInput));
+            }
+        };
+
+        private final byte encoding;
+        private final String valueTypeName;
+
+        private Packing(byte encoding, String valueTypeName) {
+            this.encoding = encoding;
+            this.valueTypeName = valueTypeName;
+        }
+
+        /**
+         * Writes the values in this encoding, unless they contain a null or a value of an unexpected type, in
+         * which case nothing is written and false is returned.
+         */
+        abstract boolean write(List<?> values, DataOutput dataOutput);
+
+        /**
+         * Reads the values following the encoding byte.
+         */
+        abstract List<?> read(DataInput dataInput);
+
+        void writeHeader(int size, DataOutput dataOutput) {
+            dataOutput.writeByte(encoding);
+            dataOutput.writeVInt(size);
+        }
+
+        static Packing forValueType(ValueType valueType) {
+            for (Packing packing : values()) {
+                if (packing.valueTypeName.equals(valueType.getName())) {
+                    return packing;
+                }
+            }
+            return null;
+        }
+
+        static Packing forEncoding(byte encoding) {
+            for (Packing packing : values()) {
+                if (packing.encoding == encoding) {
+                    return packing;
+                }
+            }
+            return null;
+        }
+
+        static void writeDeltas(long[] values, int size, DataOutput dataOutput) {
+            long previous = 0;
+            for (int i = 0; i < size; i++) {
+                long delta = values[i] - previous;
+                dataOutput.writeVLong((delta << 1) ^ (delta >> 63));
+                previous = values[i];
+            }
+        }
+
+        static long[] readDeltas(int size, DataInput dataInput) {
+            long[] values = new long[size];
+            long previous = 0;
+            for (int i = 0; i < size; i++) {
+                long zigzag = dataInput.readVLong();
+                previous += (zigzag >>> 1) ^ -(zigzag & 1);
+                values[i] = previous;
+            }
+            return values;
+        }
+    }
+
     //
     // Factory
     //
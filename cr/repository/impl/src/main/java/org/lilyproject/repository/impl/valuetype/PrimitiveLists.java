@@ -0,0 +1,299 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl.valuetype;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+
+/**
+ * {@link java.util.List} implementations backed by an array of primitives, used for the values of
+ * {@link ListValueType lists} of primitive values read in the packed encoding.
+ *
+ * <p>The elements are only boxed when they are accessed. The lists can be modified like an ArrayList,
+ * except that they do not accept null elements.</p>
+ */
+final class PrimitiveLists {
+    private static final int MIN_CAPACITY = 10;
+
+    private PrimitiveLists() {
+    }
+
+    private abstract static class PrimitiveList<E> extends AbstractList<E> implements RandomAccess {
+        protected int size;
+
+        PrimitiveList(int size) {
+            this.size = size;
+        }
+
+        abstract int capacity();
+
+        /** Replaces the backing array with a copy of the given length. */
+        abstract void resize(int capacity);
+
+        /** Moves the elements starting at the given index by the given (positive or negative) distance. */
+        abstract void shift(int index, int distance);
+
+        abstract E getAt(int index);
+
+        abstract void setAt(int index, E element);
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public E get(int index) {
+            checkIndex(index);
+            return getAt(index);
+        }
+
+        @Override
+        public E set(int index, E element) {
+            checkIndex(index);
+            checkNotNull(element);
+            E old = getAt(index);
+            setAt(index, element);
+            return old;
+        }
+
+        @Override
+        public void add(int index, E element) {
+            if (index < 0 || index > size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            checkNotNull(element);
+            if (size == capacity()) {
+                resize(Math.max(MIN_CAPACITY, size + (size >> 1)));
+            }
+            shift(index, 1);
+            size++;
+            setAt(index, element);
+            modCount++;
+        }
+
+        @Override
+        public E remove(int index) {
+            checkIndex(index);
+            E old = getAt(index);
+            shift(index + 1, -1);
+            size--;
+            modCount++;
+            return old;
+        }
+
+        @Override
+        public void clear() {
+            size = 0;
+            modCount++;
+        }
+
+        private void checkIndex(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+        }
+
+        private void checkNotNull(E element) {
+            if (element == null) {
+                throw new NullPointerException("List of primitive values does not accept null elements.");
+            }
+        }
+    }
+
+    static final class LongList extends PrimitiveList<Long> {
+        long[] values;
+
+        LongList(long[] values) {
+            super(values.length);
+            this.values = values;
+        }
+
+        @Override
+        int capacity() {
+            return values.length;
+        }
+
+        @Override
+        void resize(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+
+        @Override
+        void shift(int index, int distance) {
+            System.arraycopy(values, index, values, index + distance, size - index);
+        }
+
+        @Override
+        Long getAt(int index) {
+            return values[index];
+        }
+
+        @Override
+        void setAt(int index, Long element) {
+            values[index] = element;
+        }
+    }
+
+    static final class IntegerList extends PrimitiveList<Integer> {
+        int[] values;
+
+        IntegerList(int[] values) {
+            super(values.length);
+            this.values = values;
+        }
+
+        @Override
+        int capacity() {
+            return values.length;
+        }
+
+        @Override
+        void resize(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+
+        @Override
+        void shift(int index, int distance) {
+            System.arraycopy(values, index, values, index + distance, size - index);
+        }
+
+        @Override
+        Integer getAt(int index) {
+            return values[index];
+        }
+
+        @Override
+        void setAt(int index, Integer element) {
+            values[index] = element;
+        }
+    }
+
+    static final class DoubleList extends PrimitiveList<Double> {
+        double[] values;
+
+        DoubleList(double[] values) {
+            super(values.length);
+            this.values = values;
+        }
+
+        @Override
+        int capacity() {
+            return values.length;
+        }
+
+        @Override
+        void resize(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+
+        @Override
+        void shift(int index, int distance) {
+            System.arraycopy(values, index, values, index + distance, size - index);
+        }
+
+        @Override
+        Double getAt(int index) {
+            return values[index];
+        }
+
+        @Override
+        void setAt(int index, Double element) {
+            values[index] = element;
+        }
+    }
+
+    static final class BooleanList extends PrimitiveList<Boolean> {
+        boolean[] values;
+
+        BooleanList(boolean[] values) {
+            super(values.length);
+            this.values = values;
+        }
+
+        @Override
+        int capacity() {
+            return values.length;
+        }
+
+        @Override
+        void resize(int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+
+        @Override
+        void shift(int index, int distance) {
+            System.arraycopy(values, index, values, index + distance, size - index);
+        }
+
+        @Override
+        Boolean getAt(int index) {
+            return values[index];
+        }
+
+        @Override
+        void setAt(int index, Boolean element) {
+            values[index] = element;
+        }
+    }
+
+    /**
+     * List of dates, stored as the number of days since the epoch (in UTC, as in {@link DateValueType}).
+     */
+    static final class DateList extends PrimitiveList<LocalDate> {
+        static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+        long[] days;
+
+        DateList(long[] days) {
+            super(days.length);
+            this.days = days;
+        }
+
+        @Override
+        int capacity() {
+            return days.length;
+        }
+
+        @Override
+        void resize(int capacity) {
+            days = Arrays.copyOf(days, capacity);
+        }
+
+        @Override
+        void shift(int index, int distance) {
+            System.arraycopy(days, index, days, index + distance, size - index);
+        }
+
+        @Override
+        LocalDate getAt(int index) {
+            return new LocalDate(days[index] * MILLIS_PER_DAY, DateTimeZone.UTC);
+        }
+
+        @Override
+        void setAt(int index, LocalDate element) {
+            long millis = element.toDateTimeAtStartOfDay(DateTimeZone.UTC).getMillis();
+            if (millis % MILLIS_PER_DAY != 0) {
+                throw new IllegalArgumentException("Date not at a day boundary in UTC: " + element);
+            }
+            days[index] = millis / MILLIS_PER_DAY;
+        }
+    }
+}
@@ -31,6 +31,7 @@ public class AvroLilyTransceiver {
 
     private NettyTransceiver transceiver;
     private AvroLily lilyProxy;
+    private AvroLily.Callback lilyCallbackProxy;
 
     public AvroLilyTransceiver(InetSocketAddress address) throws IOException {
         transceiver = NettyTransceiverFactory.create(address);
@@ -45,4 +46,15 @@ public class AvroLilyTransceiver {
         return lilyProxy;
     }
 
+    /**
+     * Returns a proxy which, next to the blocking methods, has variants of the methods that return immediately
+     * and report the result to a callback. Shares the connection of {@link #getLilyProxy()}.
+     */
+    public synchronized AvroLily.Callback getLilyCallbackProxy() throws IOException {
+        if (lilyCallbackProxy == null) {
+            lilyCallbackProxy = SpecificRequestor.getClient(AvroLily.Callback.class, transceiver);
+        }
+        return lilyCallbackProxy;
+    }
+
 }
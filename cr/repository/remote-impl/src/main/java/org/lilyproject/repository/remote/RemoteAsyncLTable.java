@@ -0,0 +1,174 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.remote;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.apache.avro.ipc.Callback;
+import org.lilyproject.avro.AvroConverter;
+import org.lilyproject.repository.api.MutationCondition;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.impl.ExecutorAsyncLTable;
+
+/**
+ * {@link org.lilyproject.repository.api.AsyncLTable AsyncLTable} for a {@link RemoteRepository}.
+ *
+ * <p>The create, update and delete operations are sent using the callback variants of the Avro methods, so no
+ * thread waits for the Lily server to respond. The response is decoded on the executor rather than on the
+ * Netty I/O thread, since decoding a record might need to load types.</p>
+ *
+ * <p>Reads and scans are done by the remote repository directly on HBase, these are run on the executor.</p>
+ */
+public class RemoteAsyncLTable extends ExecutorAsyncLTable {
+    private final RemoteRepository repository;
+    private final AvroConverter converter;
+
+    /**
+     * @param executor used for reads and scans, and for decoding the responses of the Lily server
+     * @param maxInFlight maximum number of operations that can be in progress at the same time
+     */
+    public RemoteAsyncLTable(RemoteRepository repository, ExecutorService executor, int maxInFlight) {
+        super(repository, executor, maxInFlight);
+        this.repository = repository;
+        this.converter = repository.getConverter();
+    }
+
+    @Override
+    public ListenableFuture<Record> create(Record record) throws InterruptedException {
+        SettableFuture<Record> future = start();
+        try {
+            repository.getLilyCallbackProxy().create(repository.getAuthzContext(),
+                    converter.convert(record, repository), repository.getRepositoryName(),
+                    repository.getTableName(), new RecordCallback(future));
+        } catch (InterruptedException e) {
+            future.setException(e);
+            throw e;
+        } catch (Exception e) {
+            future.setException(repository.convertAvroError(e));
+        }
+        return future;
+    }
+
+    @Override
+    public ListenableFuture<Record> update(Record record, boolean updateVersion, boolean useLatestRecordType,
+            List<MutationCondition> conditions) throws InterruptedException {
+        SettableFuture<Record> future = start();
+        try {
+            repository.getLilyCallbackProxy().update(repository.getAuthzContext(),
+                    converter.convert(record, repository), repository.getRepositoryName(),
+                    repository.getTableName(), updateVersion, useLatestRecordType,
+                    converter.convert(record, conditions, repository), new RecordCallback(future));
+        } catch (InterruptedException e) {
+            future.setException(e);
+            throw e;
+        } catch (Exception e) {
+            future.setException(repository.convertAvroError(e));
+        }
+        return future;
+    }
+
+    @Override
+    public ListenableFuture<Void> delete(RecordId recordId) throws InterruptedException {
+        SettableFuture<Void> future = start();
+        try {
+            repository.getLilyCallbackProxy().delete(repository.getAuthzContext(), converter.convert(recordId),
+                    repository.getRepositoryName(), repository.getTableName(), null, null,
+                    new ConvertingCallback<Void>(future) {
+                        @Override
+                        Void convert(ByteBuffer result) {
+                            return null;
+                        }
+                    });
+        } catch (Exception e) {
+            future.setException(repository.convertAvroError(e));
+        }
+        return future;
+    }
+
+    @Override
+    public ListenableFuture<Record> delete(RecordId recordId, List<MutationCondition> conditions)
+            throws InterruptedException {
+        SettableFuture<Record> future = start();
+        try {
+            repository.getLilyCallbackProxy().delete(repository.getAuthzContext(), converter.convert(recordId),
+                    repository.getRepositoryName(), repository.getTableName(),
+                    converter.convert(null, conditions, repository), null, new RecordCallback(future));
+        } catch (Exception e) {
+            future.setException(repository.convertAvroError(e));
+        }
+        return future;
+    }
+
+    private <T> SettableFuture<T> start() throws InterruptedException {
+        acquire();
+        SettableFuture<T> future = SettableFuture.create();
+        releaseOnCompletion(future);
+        return future;
+    }
+
+    /**
+     * Completes a future with the converted result of an Avro call, the conversion is done on the executor.
+     */
+    private abstract class ConvertingCallback<T> implements Callback<ByteBuffer> {
+        private final SettableFuture<T> future;
+
+        ConvertingCallback(SettableFuture<T> future) {
+            this.future = future;
+        }
+
+        abstract T convert(ByteBuffer result) throws Exception;
+
+        @Override
+        public void handleResult(final ByteBuffer result) {
+            try {
+                getExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            future.set(convert(result));
+                        } catch (Throwable t) {
+                            future.setException(t);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                future.setException(e);
+            }
+        }
+
+        @Override
+        public void handleError(Throwable error) {
+            future.setException(repository.convertAvroError(error));
+        }
+    }
+
+    private class RecordCallback extends ConvertingCallback<Record> {
+        RecordCallback(SettableFuture<Record> future) {
+            super(future);
+        }
+
+        @Override
+        Record convert(ByteBuffer result) throws Exception {
+            return result == null ? null : converter.convertRecord(result, repository);
+        }
+    }
+}
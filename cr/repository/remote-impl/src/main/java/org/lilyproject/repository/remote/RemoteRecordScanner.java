@@ -0,0 +1,120 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.remote;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordScanner;
+import org.lilyproject.repository.api.RepositoryException;
+
+/**
+ * A scanner which runs on the Lily server, see {@link RemoteRepository#getServerScanner}. The records are
+ * fetched in chunks, and decoded when they are requested.
+ */
+class RemoteRecordScanner implements RecordScanner {
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final RemoteRepository repository;
+    private final long scannerId;
+    private final int chunkSize;
+    private List<ByteBuffer> chunk = Collections.emptyList();
+    private int position;
+    /** The server closes the scanner itself once it is exhausted. */
+    private boolean exhausted;
+
+    RemoteRecordScanner(RemoteRepository repository, long scannerId, int chunkSize) {
+        this.repository = repository;
+        this.scannerId = scannerId;
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public Record next() throws RepositoryException, InterruptedException {
+        if (position == chunk.size()) {
+            if (exhausted) {
+                return null;
+            }
+            chunk = repository.scannerNext(scannerId, chunkSize);
+            position = 0;
+            exhausted = chunk.size() < chunkSize;
+            if (chunk.isEmpty()) {
+                return null;
+            }
+        }
+        return repository.getConverter().convertRecord(chunk.get(position++), repository);
+    }
+
+    @Override
+    public void close() {
+        if (exhausted) {
+            return;
+        }
+        exhausted = true;
+        try {
+            repository.closeScanner(scannerId);
+        } catch (RepositoryException e) {
+            log.warn("Failed to close scanner " + scannerId + " on the Lily server, it will expire there.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public Iterator<Record> iterator() {
+        return new Iterator<Record>() {
+            private Record next;
+
+            @Override
+            public boolean hasNext() {
+                if (next != null) {
+                    return true;
+                } else {
+                    try {
+                        next = RemoteRecordScanner.this.next();
+                    } catch (RepositoryException e) {
+                        throw new RuntimeException(e);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RuntimeException(e);
+                    }
+                    return next != null;
+                }
+            }
+
+            @Override
+            public Record next() {
+                if (!hasNext()) {
+                    return null;
+                }
+
+                Record result = next;
+                next = null;
+                return result;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
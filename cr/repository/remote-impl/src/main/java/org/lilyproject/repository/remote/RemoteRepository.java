@@ -28,6 +28,7 @@ import org.lilyproject.avro.AvroAuthzContext;
 import org.lilyproject.avro.AvroConverter;
 import org.lilyproject.avro.AvroGenericException;
 import org.lilyproject.avro.AvroLily;
+import org.lilyproject.avro.AvroLilyImpl;
 import org.lilyproject.avro.AvroRepositoryException;
 import org.lilyproject.repository.api.BlobManager;
 import org.lilyproject.repository.api.IORecordException;
@@ -38,6 +39,9 @@ import org.lilyproject.repository.api.RecordBuilder;
 import org.lilyproject.repository.api.RecordException;
 import org.lilyproject.repository.api.RecordFactory;
 import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.RecordMutationResult;
+import org.lilyproject.repository.api.RecordScan;
+import org.lilyproject.repository.api.RecordScanner;
 import org.lilyproject.repository.api.RepositoryException;
 import org.lilyproject.repository.api.TableManager;
 import org.lilyproject.repository.impl.AbstractRepositoryManager;
@@ -52,7 +56,11 @@ import org.lilyproject.util.io.Closer;
 //            interfaces.
 
 public class RemoteRepository extends BaseRepository {
+    /** The number of records fetched at once by server scanners, unless the scan specifies its caching. */
+    public static final int DEFAULT_SCANNER_CHUNK_SIZE = 100;
+
     private AvroLily lilyProxy;
+    private final AvroLilyTransceiver lilyTransceiver;
     private final AvroConverter converter;
     private Transceiver client;
     private String repositoryName;
@@ -65,6 +73,7 @@ public class RemoteRepository extends BaseRepository {
         super(repoTableKey, repositoryManager, blobManager, recordTable, nonAuthRecordTable, null, tableManager,
                 recordFactory);
         this.converter = converter;
+        this.lilyTransceiver = lilyTransceiver;
         client = lilyTransceiver.getTransceiver();
         lilyProxy = lilyTransceiver.getLilyProxy();
         this.repositoryName = repoTableKey.getRepositoryName();
@@ -81,10 +90,38 @@ public class RemoteRepository extends BaseRepository {
         return idGenerator;
     }
 
-    private AvroAuthzContext getAuthzContext() {
+    AvroAuthzContext getAuthzContext() {
         return converter.convert(AuthorizationContextHolder.getCurrentContext());
     }
 
+    AvroConverter getConverter() {
+        return converter;
+    }
+
+    AvroLily.Callback getLilyCallbackProxy() throws IOException {
+        return lilyTransceiver.getLilyCallbackProxy();
+    }
+
+    /**
+     * Converts an error reported to an Avro callback to the exception the corresponding blocking method would
+     * have thrown.
+     */
+    Throwable convertAvroError(Throwable error) {
+        if (error instanceof AvroRepositoryException) {
+            return converter.convert((AvroRepositoryException) error);
+        } else if (error instanceof AvroGenericException) {
+            return converter.convert((AvroGenericException) error);
+        } else if (error instanceof AvroRemoteException) {
+            return error.getCause() instanceof IOException ? new IORecordException(error.getCause())
+                    : converter.convert((AvroRemoteException) error);
+        } else if (error instanceof UndeclaredThrowableException && error.getCause() instanceof IOException) {
+            return new IORecordException(error.getCause());
+        } else if (error instanceof IOException) {
+            return new IORecordException(error);
+        }
+        return error;
+    }
+
     @Override
     public Record create(Record record) throws RepositoryException, InterruptedException {
         try {
@@ -208,6 +245,113 @@ public class RemoteRepository extends BaseRepository {
         }
     }
 
+    @Override
+    public List<RecordMutationResult> create(List<Record> records) throws RepositoryException, InterruptedException {
+        try {
+            return converter.convertAvroMutationResults(lilyProxy.createBatch(getAuthzContext(),
+                    converter.convertRecords(records, this), repositoryName, tableName), this);
+        } catch (AvroRepositoryException e) {
+            throw converter.convert(e);
+        } catch (AvroGenericException e) {
+            throw converter.convert(e);
+        } catch (AvroRemoteException e) {
+            throw handleAvroRemoteException(e);
+        } catch (UndeclaredThrowableException e) {
+            throw handleUndeclaredRecordThrowable(e);
+        }
+    }
+
+    @Override
+    public List<RecordMutationResult> update(List<Record> records) throws RepositoryException, InterruptedException {
+        return update(records, false, true);
+    }
+
+    @Override
+    public List<RecordMutationResult> update(List<Record> records, boolean updateVersion, boolean useLatestRecordType)
+            throws RepositoryException, InterruptedException {
+        try {
+            return converter.convertAvroMutationResults(lilyProxy.updateBatch(getAuthzContext(),
+                    converter.convertRecords(records, this), repositoryName, tableName, updateVersion,
+                    useLatestRecordType), this);
+        } catch (AvroRepositoryException e) {
+            throw converter.convert(e);
+        } catch (AvroGenericException e) {
+            throw converter.convert(e);
+        } catch (AvroRemoteException e) {
+            throw handleAvroRemoteException(e);
+        } catch (UndeclaredThrowableException e) {
+            throw handleUndeclaredRecordThrowable(e);
+        }
+    }
+
+    @Override
+    public List<RecordMutationResult> delete(List<RecordId> recordIds)
+            throws RepositoryException, InterruptedException {
+        try {
+            return converter.convertAvroMutationResults(lilyProxy.deleteBatch(getAuthzContext(),
+                    converter.convertRecordIds(recordIds), repositoryName, tableName), this);
+        } catch (AvroRepositoryException e) {
+            throw converter.convert(e);
+        } catch (AvroGenericException e) {
+            throw converter.convert(e);
+        } catch (AvroRemoteException e) {
+            throw handleAvroRemoteException(e);
+        } catch (UndeclaredThrowableException e) {
+            throw handleUndeclaredRecordThrowable(e);
+        }
+    }
+
+    /**
+     * Returns a scanner which runs on the Lily server, rather than scanning HBase directly as
+     * {@link #getScanner(RecordScan)} does. The records are fetched in chunks of the caching size of the scan.
+     * This is meant for clients which can not access HBase, record filters are not supported.
+     */
+    public RecordScanner getServerScanner(RecordScan scan) throws RepositoryException, InterruptedException {
+        try {
+            long scannerId = lilyProxy.openScanner(getAuthzContext(), converter.convert(scan), repositoryName,
+                    tableName);
+            // the server returns no more than MAX_SCANNER_BATCH records at once
+            return new RemoteRecordScanner(this, scannerId, scan.getCaching() > 0
+                    ? Math.min(scan.getCaching(), AvroLilyImpl.MAX_SCANNER_BATCH) : DEFAULT_SCANNER_CHUNK_SIZE);
+        } catch (AvroRepositoryException e) {
+            throw converter.convert(e);
+        } catch (AvroGenericException e) {
+            throw converter.convert(e);
+        } catch (AvroRemoteException e) {
+            throw handleAvroRemoteException(e);
+        } catch (UndeclaredThrowableException e) {
+            throw handleUndeclaredRecordThrowable(e);
+        }
+    }
+
+    List<ByteBuffer> scannerNext(long scannerId, int count) throws RepositoryException, InterruptedException {
+        try {
+            return lilyProxy.scannerNext(scannerId, count);
+        } catch (AvroRepositoryException e) {
+            throw converter.convert(e);
+        } catch (AvroGenericException e) {
+            throw converter.convert(e);
+        } catch (AvroRemoteException e) {
+            throw handleAvroRemoteException(e);
+        } catch (UndeclaredThrowableException e) {
+            throw handleUndeclaredRecordThrowable(e);
+        }
+    }
+
+    void closeScanner(long scannerId) throws RepositoryException, InterruptedException {
+        try {
+            lilyProxy.closeScanner(scannerId);
+        } catch (AvroRepositoryException e) {
+            throw converter.convert(e);
+        } catch (AvroGenericException e) {
+            throw converter.convert(e);
+        } catch (AvroRemoteException e) {
+            throw handleAvroRemoteException(e);
+        } catch (UndeclaredThrowableException e) {
+            throw handleUndeclaredRecordThrowable(e);
+        }
+    }
+
     @Override
     public Set<RecordId> getVariants(RecordId recordId) throws RepositoryException, InterruptedException {
         try {
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.remote;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import org.apache.avro.ipc.Callback;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lilyproject.avro.AvroAuthzContext;
+import org.lilyproject.avro.AvroConverter;
+import org.lilyproject.avro.AvroLily;
+import org.lilyproject.avro.AvroMutationCondition;
+import org.lilyproject.avro.AvroRepositoryException;
+import org.lilyproject.repository.api.BlobManager;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordFactory;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.RecordNotFoundException;
+import org.lilyproject.repository.impl.RepoTableKey;
+import org.lilyproject.util.hbase.LilyHBaseSchema.Table;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.mockito.stubbing.Stubber;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class RemoteAsyncLTableTest {
+
+    private static final String repositoryName = "default";
+    private AvroLily.Callback avroLilyCallback;
+    private AvroConverter avroConverter;
+    private RemoteRepository remoteRepository;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        avroLilyCallback = mock(AvroLily.Callback.class);
+        AvroLilyTransceiver avroLilyTransceiver = mock(AvroLilyTransceiver.class);
+        when(avroLilyTransceiver.getLilyProxy()).thenReturn(avroLilyCallback);
+        when(avroLilyTransceiver.getLilyCallbackProxy()).thenReturn(avroLilyCallback);
+        avroConverter = mock(AvroConverter.class);
+        HTableInterface recordTable = mock(HTableInterface.class);
+
+        RemoteTableManager tableMgr = new RemoteTableManager(repositoryName, avroLilyTransceiver, avroConverter);
+        remoteRepository = new RemoteRepository(new RepoTableKey(repositoryName, Table.RECORD.name),
+                avroLilyTransceiver, avroConverter, mock(RemoteRepositoryManager.class), mock(BlobManager.class),
+                recordTable, recordTable, tableMgr, mock(RecordFactory.class));
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testCreate() throws Exception {
+        Record record = mock(Record.class);
+        Record createdRecord = mock(Record.class);
+        ByteBuffer encodedRecord = ByteBuffer.wrap(new byte[] {1});
+        final ByteBuffer encodedCreatedRecord = ByteBuffer.wrap(new byte[] {2});
+        when(avroConverter.convert(record, remoteRepository)).thenReturn(encodedRecord);
+        when(avroConverter.convertRecord(encodedCreatedRecord, remoteRepository)).thenReturn(createdRecord);
+
+        // Answer the call only after the future has been returned
+        final Callback<ByteBuffer>[] callback = new Callback[1];
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                callback[0] = (Callback<ByteBuffer>) invocation.getArguments()[4];
+                return null;
+            }
+        }).when(avroLilyCallback).create(any(AvroAuthzContext.class), eq(encodedRecord), eq(repositoryName),
+                eq(Table.RECORD.name), any(Callback.class));
+
+        RemoteAsyncLTable asyncTable = new RemoteAsyncLTable(remoteRepository, executor, 10);
+        ListenableFuture<Record> future = asyncTable.create(record);
+        assertFalse(future.isDone());
+
+        callback[0].handleResult(encodedCreatedRecord);
+        assertSame(createdRecord, future.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testDelete_Error() throws Exception {
+        RecordId recordId = mock(RecordId.class);
+        ByteBuffer encodedRecordId = ByteBuffer.wrap(new byte[] {1});
+        AvroRepositoryException avroException = new AvroRepositoryException();
+        when(avroConverter.convert(recordId)).thenReturn(encodedRecordId);
+        when(avroConverter.convert(avroException)).thenReturn(new RecordNotFoundException("not found", null));
+
+        answerWithError(avroException).when(avroLilyCallback).delete(any(AvroAuthzContext.class),
+                eq(encodedRecordId), eq(repositoryName), eq(Table.RECORD.name), anyListOf(AvroMutationCondition.class),
+                anyMapOf(String.class, String.class), any(Callback.class));
+
+        RemoteAsyncLTable asyncTable = new RemoteAsyncLTable(remoteRepository, executor, 10);
+        try {
+            asyncTable.delete(recordId).get(10, TimeUnit.SECONDS);
+            fail("expected exception");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RecordNotFoundException);
+        }
+    }
+
+    @Test
+    public void testInFlightWindow() throws Exception {
+        RecordId recordId = mock(RecordId.class);
+        when(avroConverter.convert(recordId)).thenReturn(ByteBuffer.wrap(new byte[] {1}));
+
+        // The first delete never gets an answer, so it keeps its place in the window
+        final int[] calls = new int[1];
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                calls[0]++;
+                return null;
+            }
+        }).when(avroLilyCallback).delete(any(AvroAuthzContext.class), any(ByteBuffer.class),
+                eq(repositoryName), eq(Table.RECORD.name), anyListOf(AvroMutationCondition.class),
+                anyMapOf(String.class, String.class), any(Callback.class));
+
+        final RemoteAsyncLTable asyncTable = new RemoteAsyncLTable(remoteRepository, executor, 1);
+        asyncTable.delete(recordId);
+
+        final RecordId secondRecordId = mock(RecordId.class);
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    asyncTable.delete(secondRecordId);
+                } catch (InterruptedException e) {
+                    // expected
+                }
+            }
+        };
+        thread.start();
+        thread.join(500);
+        assertTrue(thread.isAlive());
+        assertEquals(1, calls[0]);
+
+        thread.interrupt();
+        thread.join();
+    }
+
+    private static Stubber answerWithError(final Throwable error) {
+        return doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                Object[] args = invocation.getArguments();
+                ((Callback<?>) args[args.length - 1]).handleError(error);
+                return null;
+            }
+        });
+    }
+}
@@ -34,6 +34,7 @@ import org.lilyproject.repository.api.RecordBuilder;
 import org.lilyproject.repository.api.RecordException;
 import org.lilyproject.repository.api.RecordFactory;
 import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.RecordMutationResult;
 import org.lilyproject.repository.api.RecordScan;
 import org.lilyproject.repository.api.RecordScanner;
 import org.lilyproject.repository.api.Repository;
@@ -120,6 +121,22 @@ public class BaseRepositoryDecorator implements Repository {
         return delegate.createOrUpdate(record, useLatestRecordType);
     }
 
+    @Override
+    public List<RecordMutationResult> create(List<Record> records) throws RepositoryException, InterruptedException {
+        return delegate.create(records);
+    }
+
+    @Override
+    public List<RecordMutationResult> update(List<Record> records) throws RepositoryException, InterruptedException {
+        return delegate.update(records);
+    }
+
+    @Override
+    public List<RecordMutationResult> update(List<Record> records, boolean updateVersion,
+            boolean useLatestRecordType) throws RepositoryException, InterruptedException {
+        return delegate.update(records, updateVersion, useLatestRecordType);
+    }
+
     @Override
     public Record read(RecordId recordId, List<QName> fieldNames) throws RepositoryException, InterruptedException {
         return delegate.read(recordId, fieldNames);
@@ -178,12 +195,24 @@ public class BaseRepositoryDecorator implements Repository {
         return delegate.readVersions(recordId, versions, fieldNames);
     }
 
+    @Override
+    public RecordScanner getVersionScanner(RecordId recordId, Long fromVersion, Long toVersion, QName... fieldNames)
+            throws RepositoryException, InterruptedException {
+        return delegate.getVersionScanner(recordId, fromVersion, toVersion, fieldNames);
+    }
+
     @Override
     public IdRecord readWithIds(RecordId recordId, Long version, List<SchemaId> fieldIds)
             throws RepositoryException, InterruptedException {
         return delegate.readWithIds(recordId, version, fieldIds);
     }
 
+    @Override
+    public List<IdRecord> readWithIds(List<RecordId> recordIds, List<SchemaId> fieldIds)
+            throws RepositoryException, InterruptedException {
+        return delegate.readWithIds(recordIds, fieldIds);
+    }
+
     @Override
     public void delete(RecordId recordId) throws RepositoryException, InterruptedException {
         delegate.delete(recordId);
@@ -200,6 +229,12 @@ public class BaseRepositoryDecorator implements Repository {
         delegate.delete(record);
     }
 
+    @Override
+    public List<RecordMutationResult> delete(List<RecordId> recordIds)
+            throws RepositoryException, InterruptedException {
+        return delegate.delete(recordIds);
+    }
+
     @Override
     public IdGenerator getIdGenerator() {
         return delegate.getIdGenerator();
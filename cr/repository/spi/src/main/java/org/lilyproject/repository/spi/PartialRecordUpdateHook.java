@@ -0,0 +1,38 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.spi;
+
+import java.util.Set;
+
+import org.lilyproject.repository.api.QName;
+
+/**
+ * A {@link RecordUpdateHook} which only needs some of the fields of the original record in
+ * {@link RecordUpdateHook#beforeUpdate}.
+ *
+ * <p>Blind updates (see {@link org.lilyproject.repository.api.LTable#BLIND_UPDATE_ATTRIBUTE}) only read the
+ * fields being updated. When hooks are registered, this is only possible if they all implement this interface,
+ * the fields they depend on are then read as well. For other hooks, the complete record is read.</p>
+ */
+public interface PartialRecordUpdateHook extends RecordUpdateHook {
+    /**
+     * Returns the fields of the original record used by {@link RecordUpdateHook#beforeUpdate}, besides the
+     * fields being updated. Other fields might be missing from the original record passed to the hook.
+     *
+     * @return null if the hook needs the complete original record
+     */
+    Set<QName> getFieldDependencies();
+}
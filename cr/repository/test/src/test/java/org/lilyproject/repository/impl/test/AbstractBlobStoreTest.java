@@ -31,6 +31,7 @@ import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.junit.Test;
 import org.lilyproject.repository.api.Blob;
+import org.lilyproject.repository.api.BlobAccess;
 import org.lilyproject.repository.api.BlobException;
 import org.lilyproject.repository.api.BlobManager;
 import org.lilyproject.repository.api.BlobNotFoundException;
@@ -57,6 +58,7 @@ import org.lilyproject.repository.impl.id.IdGeneratorImpl;
 import org.lilyproject.repotestfw.RepositorySetup;
 import org.lilyproject.util.hbase.LilyHBaseSchema;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -151,6 +153,33 @@ public abstract class AbstractBlobStoreTest {
         assertTrue(Arrays.equals(large, readBytes));
     }
 
+    @Test
+    public void testRangeReads() throws Exception {
+        // One blob in each of the blob stores
+        for (int size : new int[] {10, 100, 2048}) {
+            byte[] bytes = new byte[size];
+            random.nextBytes(bytes);
+            Blob blob = writeBlob(bytes, "mime/range", "range");
+            BlobAccess blobAccess = testBlobStoreAccessRegistry.getBlobAccess(blob);
+
+            assertTrue(Arrays.equals(bytes, readRange(blobAccess, 0, size)));
+            assertTrue(Arrays.equals(Arrays.copyOfRange(bytes, 3, 8), readRange(blobAccess, 3, 5)));
+            assertTrue(Arrays.equals(Arrays.copyOfRange(bytes, size / 2, size),
+                    readRange(blobAccess, size / 2, size)));
+            assertEquals(0, readRange(blobAccess, size, 10).length);
+            assertEquals(0, readRange(blobAccess, 0, 0).length);
+        }
+    }
+
+    private byte[] readRange(BlobAccess blobAccess, long offset, long length) throws Exception {
+        InputStream inputStream = blobAccess.getInputStream(offset, length);
+        try {
+            return IOUtils.toByteArray(inputStream);
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+    }
+
     /**
      * Test case to reproduce the 'Row key is invalid' problem reported here:
      * https://groups.google.com/forum/#!topic/lily-discuss/XiRxOxJTv70/discussion
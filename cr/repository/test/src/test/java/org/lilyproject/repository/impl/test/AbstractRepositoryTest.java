@@ -20,6 +20,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -28,6 +29,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -55,6 +57,7 @@ import org.lilyproject.repository.api.IdRecord;
 import org.lilyproject.repository.api.IdRecordScanner;
 import org.lilyproject.repository.api.InvalidRecordException;
 import org.lilyproject.repository.api.Link;
+import org.lilyproject.repository.api.LTable;
 import org.lilyproject.repository.api.Metadata;
 import org.lilyproject.repository.api.MetadataBuilder;
 import org.lilyproject.repository.api.MutationCondition;
@@ -64,6 +67,7 @@ import org.lilyproject.repository.api.RecordBuilder;
 import org.lilyproject.repository.api.RecordException;
 import org.lilyproject.repository.api.RecordExistsException;
 import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.RecordMutationResult;
 import org.lilyproject.repository.api.RecordNotFoundException;
 import org.lilyproject.repository.api.RecordScan;
 import org.lilyproject.repository.api.RecordScanner;
@@ -587,6 +591,34 @@ public abstract class AbstractRepositoryTest {
         assertTrue(list.contains(repository.read(record.getId(), 3L)));
     }
 
+    @Test
+    public void testVersionScanner() throws Exception {
+        Record record = createDefaultRecord();
+
+        Record updateRecord = record.cloneRecord();
+        updateRecord.setField(fieldType1.getName(), "value2");
+        repository.update(updateRecord);
+
+        updateRecord = record.cloneRecord();
+        updateRecord.setField(fieldType2.getName(), 790);
+        repository.update(updateRecord);
+
+        RecordScanner scanner = repository.getVersionScanner(record.getId(), 0L, 5L);
+        try {
+            assertEquals(repository.read(record.getId(), 1L), scanner.next());
+            Record version2 = scanner.next();
+            assertEquals(repository.read(record.getId(), 2L), version2);
+            Record version3 = scanner.next();
+            assertEquals(repository.read(record.getId(), 3L), version3);
+            assertNull(scanner.next());
+
+            // The unchanged value is decoded only once
+            assertSame(version2.getField(fieldType1.getName()), version3.getField(fieldType1.getName()));
+        } finally {
+            scanner.close();
+        }
+    }
+
     @Test
     public void testReadSpecificVersions() throws Exception {
         Record record = createDefaultRecord();
@@ -1638,6 +1670,106 @@ public abstract class AbstractRepositoryTest {
         assertEquals(ResponseStatus.UP_TO_DATE, resultRecord.getResponseStatus());
     }
 
+    @Test
+    public void testBatchCreate() throws Exception {
+        RecordId existingId = idGenerator.newRecordId();
+        Record existing = repository.newRecord(existingId);
+        existing.setRecordType(recordType1.getName(), recordType1.getVersion());
+        existing.setField(fieldType1.getName(), "value1");
+        repository.create(existing);
+
+        List<Record> records = new ArrayList<Record>();
+        for (int i = 0; i < 3; i++) {
+            Record record = repository.newRecord();
+            record.setRecordType(recordType1.getName(), recordType1.getVersion());
+            record.setField(fieldType1.getName(), "batch" + i);
+            records.add(record);
+        }
+        // A record which already exists and an empty record: these should fail without affecting the others
+        records.add(1, existing);
+        Record empty = repository.newRecord();
+        empty.setRecordType(recordType1.getName());
+        records.add(empty);
+
+        List<RecordMutationResult> results = repository.create(records);
+        assertEquals(5, results.size());
+
+        assertTrue(results.get(1).getException() instanceof RecordExistsException);
+        assertTrue(results.get(4).getException() instanceof InvalidRecordException);
+
+        int[] created = new int[] {0, 2, 3};
+        for (int i = 0; i < created.length; i++) {
+            RecordMutationResult result = results.get(created[i]);
+            assertTrue(result.isSuccess());
+            assertEquals(ResponseStatus.CREATED, result.getRecord().getResponseStatus());
+            Record read = repository.read(result.getRecord().getId());
+            assertEquals("batch" + i, read.getField(fieldType1.getName()));
+        }
+    }
+
+    @Test
+    public void testBatchUpdate() throws Exception {
+        Record record1 = repository.newRecord();
+        record1.setRecordType(recordType1.getName(), recordType1.getVersion());
+        record1.setField(fieldType2.getName(), 1);
+        record1 = repository.create(record1);
+
+        Record record2 = repository.newRecord();
+        record2.setRecordType(recordType1.getName(), recordType1.getVersion());
+        record2.setField(fieldType2.getName(), 1);
+        record2 = repository.create(record2);
+
+        Record update1 = repository.newRecord(record1.getId());
+        update1.setField(fieldType2.getName(), 2);
+        Record update2 = repository.newRecord(record2.getId());
+        update2.setField(fieldType2.getName(), 1);
+        // The same record a second time in the batch: should see the outcome of the first update
+        Record update1Again = repository.newRecord(record1.getId());
+        update1Again.setField(fieldType2.getName(), 3);
+        Record nonExisting = repository.newRecord(idGenerator.newRecordId());
+        nonExisting.setField(fieldType2.getName(), 1);
+
+        List<RecordMutationResult> results = repository.update(Lists.newArrayList(update1, update2, nonExisting,
+                update1Again));
+        assertEquals(4, results.size());
+        assertEquals(ResponseStatus.UPDATED, results.get(0).getRecord().getResponseStatus());
+        assertEquals(Long.valueOf(2), results.get(0).getRecord().getVersion());
+        assertEquals(ResponseStatus.UP_TO_DATE, results.get(1).getRecord().getResponseStatus());
+        assertTrue(results.get(2).getException() instanceof RecordNotFoundException);
+        assertEquals(ResponseStatus.UPDATED, results.get(3).getRecord().getResponseStatus());
+        assertEquals(Long.valueOf(3), results.get(3).getRecord().getVersion());
+
+        assertEquals(3, repository.read(record1.getId()).getField(fieldType2.getName()));
+    }
+
+    @Test
+    public void testBatchDelete() throws Exception {
+        List<RecordId> recordIds = new ArrayList<RecordId>();
+        for (int i = 0; i < 2; i++) {
+            Record record = repository.newRecord();
+            record.setRecordType(recordType1.getName(), recordType1.getVersion());
+            record.setField(fieldType1.getName(), "value" + i);
+            recordIds.add(repository.create(record).getId());
+        }
+        // A record which does not exist: should fail without affecting the others
+        recordIds.add(1, idGenerator.newRecordId());
+
+        List<RecordMutationResult> results = repository.delete(recordIds);
+        assertEquals(3, results.size());
+        assertTrue(results.get(0).isSuccess());
+        assertTrue(results.get(1).getException() instanceof RecordNotFoundException);
+        assertTrue(results.get(2).isSuccess());
+
+        for (int i : new int[] {0, 2}) {
+            try {
+                repository.read(recordIds.get(i));
+                fail("Expected a RecordNotFoundException");
+            } catch (RecordNotFoundException e) {
+                // expected
+            }
+        }
+    }
+
     @Test
     public void testUpdateMutableFieldsRecordType() throws Exception {
         Record record = repository.newRecord();
@@ -2355,6 +2487,124 @@ public abstract class AbstractRepositoryTest {
         assertTrue("Found at least 26 records", i >= 26);
     }
 
+    @Test
+    public void testParallelScanner() throws Exception {
+        List<RecordId> ids = new ArrayList<RecordId>();
+        for (int i = 'A'; i <= 'Z'; i++) {
+            RecordId id = idGenerator.newRecordId("P" + (char) i);
+            Record record = repository.newRecord(id);
+            record.setRecordType(recordType1.getName());
+            record.setField(fieldType1.getName(), "value " + (char) i);
+            repository.create(record);
+            ids.add(id);
+        }
+
+        RecordScan scan = new RecordScan();
+        scan.setStartRecordId(idGenerator.newRecordId("PA"));
+        scan.setStopRecordId(idGenerator.newRecordId("PZ")); // stop row is exclusive
+        scan.setParallelism(3);
+        scan.setSplitKeys(new byte[][] {idGenerator.newRecordId("PF").toBytes(),
+                idGenerator.newRecordId("PK").toBytes(), idGenerator.newRecordId("Q").toBytes()});
+
+        // Ordered: same result as a sequential scan
+        RecordScanner scanner = repository.getScanner(scan);
+        List<RecordId> found = new ArrayList<RecordId>();
+        Record record;
+        while ((record = scanner.next()) != null) {
+            found.add(record.getId());
+        }
+        scanner.close();
+        assertEquals(ids.subList(0, 25), found);
+
+        // Unordered: same records, in any order
+        scan.setOrdered(false);
+        IdRecordScanner idScanner = repository.getScannerWithIds(scan);
+        Set<RecordId> foundSet = new HashSet<RecordId>();
+        for (IdRecord idRecord : idScanner) {
+            foundSet.add(idRecord.getId());
+        }
+        idScanner.close();
+        assertEquals(new HashSet<RecordId>(ids.subList(0, 25)), foundSet);
+
+        // Using the region boundaries, closing before the end
+        scan.setSplitKeys(null);
+        scanner = repository.getScanner(scan);
+        assertNotNull(scanner.next());
+        scanner.close();
+    }
+
+    @Test
+    public void testReadRecordFields() throws Exception {
+        // The field values of a read record are decoded on first access, which should not be noticeable
+        Record record = repository.newRecord();
+        record.setRecordType(recordType1.getName());
+        record.setField(fieldType1.getName(), "value1");
+        record.setField(fieldType2.getName(), 123);
+        record.setField(fieldType3.getName(), true);
+        record = repository.create(record);
+
+        Record readRecord = repository.read(record.getId());
+        assertEquals(record.hashCode(), readRecord.hashCode());
+        assertEquals(record, readRecord);
+        assertEquals(readRecord, record);
+
+        readRecord = repository.read(record.getId());
+        assertTrue(readRecord.hasField(fieldType2.getName()));
+        assertEquals(123, readRecord.getField(fieldType2.getName()));
+
+        // Clone before the other fields are accessed
+        Record clone = readRecord.clone();
+        clone.setField(fieldType1.getName(), "value2");
+        clone.delete(fieldType3.getName(), true);
+        assertEquals("value1", readRecord.getField(fieldType1.getName()));
+        assertEquals(Boolean.TRUE, readRecord.getField(fieldType3.getName()));
+        assertEquals(3, readRecord.getFields().size());
+        assertEquals(record.getFields(), readRecord.getFields());
+        assertEquals("value2", clone.getField(fieldType1.getName()));
+        assertFalse(clone.hasField(fieldType3.getName()));
+
+        readRecord = repository.read(record.getId());
+        assertEquals(readRecord, readRecord.clone());
+    }
+
+    @Test
+    public void testBlindUpdate() throws Exception {
+        Record record = repository.newRecord();
+        record.setRecordType(recordType1.getName());
+        record.setField(fieldType1.getName(), "value1");
+        record.setField(fieldType2.getName(), 123);
+        record = repository.create(record);
+
+        // Update of a non-versioned field: only that field is read
+        Record update = repository.newRecord(record.getId());
+        update.setField(fieldType1.getName(), "value2");
+        update.getAttributes().put(LTable.BLIND_UPDATE_ATTRIBUTE, "true");
+        Record updatedRecord = repository.update(update);
+        assertEquals(ResponseStatus.UPDATED, updatedRecord.getResponseStatus());
+        assertEquals(Long.valueOf(1), updatedRecord.getVersion());
+        assertEquals(recordType1.getName(), updatedRecord.getRecordTypeName());
+
+        Record readRecord = repository.read(record.getId());
+        assertEquals("value2", readRecord.getField(fieldType1.getName()));
+        assertEquals(123, readRecord.getField(fieldType2.getName()));
+        assertEquals(Long.valueOf(1), readRecord.getVersion());
+
+        // Nothing changed
+        updatedRecord = repository.update(update);
+        assertEquals(ResponseStatus.UP_TO_DATE, updatedRecord.getResponseStatus());
+
+        // Update of a versioned field: falls back to the normal update
+        update = repository.newRecord(record.getId());
+        update.setField(fieldType2.getName(), 456);
+        update.getAttributes().put(LTable.BLIND_UPDATE_ATTRIBUTE, "true");
+        updatedRecord = repository.update(update);
+        assertEquals(Long.valueOf(2), updatedRecord.getVersion());
+
+        readRecord = repository.read(record.getId());
+        assertEquals("value2", readRecord.getField(fieldType1.getName()));
+        assertEquals(456, readRecord.getField(fieldType2.getName()));
+    }
+
     @Test
     public void testScannerWithIdRecords() throws Exception {
         RecordId id = idGenerator.newRecordId();
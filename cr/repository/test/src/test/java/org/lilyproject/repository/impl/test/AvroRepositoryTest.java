@@ -15,11 +15,19 @@
  */
 package org.lilyproject.repository.impl.test;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
+import org.junit.Test;
 import org.lilyproject.hadooptestfw.TestHelper;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordScan;
+import org.lilyproject.repository.api.RecordScanner;
 import org.lilyproject.repository.api.Repository;
+import org.lilyproject.repository.api.ReturnFields;
+import org.lilyproject.repository.remote.RemoteRepository;
 
 public class AvroRepositoryTest extends AbstractRepositoryTest {
 
@@ -42,5 +50,36 @@ public class AvroRepositoryTest extends AbstractRepositoryTest {
     public static void tearDownAfterClass() throws Exception {
         repoSetup.stop();
     }
+
+    @Test
+    public void testServerScanner() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            Record record = repository.newRecord(idGenerator.newRecordId("serverscan-" + i));
+            record.setRecordType(recordType1.getName(), recordType1.getVersion());
+            record.setField(fieldType1.getName(), "value" + i);
+            repository.create(record);
+        }
+
+        RecordScan scan = new RecordScan();
+        scan.setStartRecordId(idGenerator.newRecordId("serverscan-"));
+        scan.setStopRecordId(idGenerator.newRecordId("serverscan-9"));
+        scan.setReturnFields(new ReturnFields(fieldType1.getName()));
+        // smaller than the number of records, so that they are fetched in several chunks
+        scan.setCaching(2);
+
+        RecordScanner scanner = ((RemoteRepository)repository).getServerScanner(scan);
+        for (int i = 0; i < 5; i++) {
+            Record record = scanner.next();
+            assertEquals(idGenerator.newRecordId("serverscan-" + i), record.getId());
+            assertEquals("value" + i, record.getField(fieldType1.getName()));
+        }
+        assertNull(scanner.next());
+        scanner.close();
+
+        // closing a scanner before it is exhausted
+        scanner = ((RemoteRepository)repository).getServerScanner(scan);
+        assertEquals(idGenerator.newRecordId("serverscan-0"), scanner.next().getId());
+        scanner.close();
+    }
 }
 
@@ -15,14 +15,29 @@
  */
 package org.lilyproject.repository.impl.test;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
 
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.conf.Configuration;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
+import org.junit.Test;
 import org.lilyproject.hadooptestfw.TestHelper;
+import org.lilyproject.repository.api.Blob;
+import org.lilyproject.repository.api.BlobException;
 import org.lilyproject.repository.api.Repository;
 import org.lilyproject.repository.impl.BlobStoreAccessRegistry;
+import org.lilyproject.repository.impl.DedupBlobStoreAccess;
+import org.lilyproject.repository.impl.HBaseBlobStoreAccess;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class BlobStoreTest extends AbstractBlobStoreTest {
 
@@ -54,5 +69,181 @@ public class BlobStoreTest extends AbstractBlobStoreTest {
     public void tearDown() throws Exception {
     }
 
+    @Test
+    public void testHBaseChunkedBlob() throws Exception {
+        HBaseBlobStoreAccess blobStoreAccess = new HBaseBlobStoreAccess(getChunkedConf());
+
+        // Sizes around the chunk boundaries, the smallest ones are stored in a single cell
+        for (int size : new int[] {0, 1, 100, 101, 200, 1050}) {
+            byte[] bytes = new byte[size];
+            random.nextBytes(bytes);
+            Blob blob = new Blob("application/octet-stream", (long)size, "chunked");
+            OutputStream outputStream = blobStoreAccess.getOutputStream(blob);
+            // Mix single byte and array writes
+            if (size > 0) {
+                outputStream.write(bytes[0]);
+            }
+            if (size > 1) {
+                outputStream.write(bytes, 1, size - 1);
+            }
+            outputStream.close();
+
+            InputStream inputStream = blobStoreAccess.getInputStream(blob.getValue());
+            try {
+                assertTrue(Arrays.equals(bytes, IOUtils.toByteArray(inputStream)));
+            } finally {
+                IOUtils.closeQuietly(inputStream);
+            }
+
+            // Skip to somewhere in the middle, possibly over chunks which are not fetched
+            if (size > 1) {
+                inputStream = blobStoreAccess.getInputStream(blob.getValue());
+                try {
+                    assertEquals(size / 2, inputStream.skip(size / 2));
+                    assertTrue(Arrays.equals(Arrays.copyOfRange(bytes, size / 2, size),
+                            IOUtils.toByteArray(inputStream)));
+                } finally {
+                    IOUtils.closeQuietly(inputStream);
+                }
+            }
+
+            // A range spanning chunk boundaries
+            int offset = size / 3;
+            int length = size / 2;
+            inputStream = blobStoreAccess.getInputStream(blob.getValue(), offset, length);
+            try {
+                assertTrue(Arrays.equals(Arrays.copyOfRange(bytes, offset, offset + length),
+                        IOUtils.toByteArray(inputStream)));
+            } finally {
+                IOUtils.closeQuietly(inputStream);
+            }
+
+            blobStoreAccess.delete(blob.getValue());
+        }
+    }
+
+    @Test
+    public void testHBaseIncompleteBlob() throws Exception {
+        HBaseBlobStoreAccess blobStoreAccess = new HBaseBlobStoreAccess(getChunkedConf());
+
+        long beforeWrite = System.currentTimeMillis();
+        byte[] bytes = new byte[250];
+        random.nextBytes(bytes);
+
+        // The writer of this blob dies after writing a few chunks
+        Blob incompleteBlob = new Blob("application/octet-stream", (long)bytes.length, "incomplete");
+        OutputStream outputStream = blobStoreAccess.getOutputStream(incompleteBlob);
+        outputStream.write(bytes);
+
+        Blob blob = new Blob("application/octet-stream", (long)bytes.length, "complete");
+        outputStream = blobStoreAccess.getOutputStream(blob);
+        outputStream.write(bytes);
+        outputStream.close();
+
+        Thread.sleep(10);
+
+        // Blobs which might still be written to are kept
+        assertEquals(0, blobStoreAccess.deleteIncompleteBlobs(beforeWrite));
+        assertEquals(1, blobStoreAccess.deleteIncompleteBlobs(System.currentTimeMillis()));
+        assertEquals(0, blobStoreAccess.deleteIncompleteBlobs(System.currentTimeMillis()));
+
+        InputStream inputStream = blobStoreAccess.getInputStream(blob.getValue());
+        try {
+            assertTrue(Arrays.equals(bytes, IOUtils.toByteArray(inputStream)));
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+        blobStoreAccess.delete(blob.getValue());
+    }
+
+    private Configuration getChunkedConf() {
+        Configuration conf = new Configuration(repoSetup.getHadoopConf());
+        conf.setInt(HBaseBlobStoreAccess.CHUNK_SIZE_KEY, 100);
+        conf.setInt(HBaseBlobStoreAccess.PREFETCH_CHUNKS_KEY, 2);
+        return conf;
+    }
 
+    @Test
+    public void testDedupBlobStore() throws Exception {
+        HBaseBlobStoreAccess hbaseBlobStoreAccess = new HBaseBlobStoreAccess(repoSetup.getHadoopConf());
+        DedupBlobStoreAccess blobStoreAccess = new DedupBlobStoreAccess(hbaseBlobStoreAccess,
+                repoSetup.getHbaseTableFactory());
+        blobStoreAccess.setBufferSize(100);
+
+        // Blobs which are buffered and blobs which are streamed to the underlying store
+        for (int size : new int[] {0, 10, 100, 1000}) {
+            byte[] bytes = new byte[size];
+            random.nextBytes(bytes);
+
+            Blob blob1 = writeDedupBlob(blobStoreAccess, bytes);
+            Blob blob2 = writeDedupBlob(blobStoreAccess, bytes);
+            // Each upload has a key of its own
+            assertFalse(Arrays.equals(blob1.getValue(), blob2.getValue()));
+            assertTrue(Arrays.equals(bytes, readDedupBlob(blobStoreAccess, blob1)));
+            assertTrue(Arrays.equals(bytes, readDedupBlob(blobStoreAccess, blob2)));
+
+            // The content remains available as long as an upload uses it
+            blobStoreAccess.delete(blob1.getValue());
+            assertTrue(Arrays.equals(bytes, readDedupBlob(blobStoreAccess, blob2)));
+
+            Blob blob3 = writeDedupBlob(blobStoreAccess, bytes);
+            blobStoreAccess.delete(blob2.getValue());
+            assertTrue(Arrays.equals(bytes, readDedupBlob(blobStoreAccess, blob3)));
+
+            blobStoreAccess.delete(blob3.getValue());
+            try {
+                blobStoreAccess.getInputStream(blob3.getValue());
+                fail("The content should have been deleted.");
+            } catch (BlobException expected) {
+            }
+
+            // Storing the content again after it has been deleted
+            Blob blob4 = writeDedupBlob(blobStoreAccess, bytes);
+            assertTrue(Arrays.equals(bytes, readDedupBlob(blobStoreAccess, blob4)));
+            blobStoreAccess.delete(blob4.getValue());
+        }
+    }
+
+    @Test
+    public void testDedupBlobStoreRepeatedDelete() throws Exception {
+        HBaseBlobStoreAccess hbaseBlobStoreAccess = new HBaseBlobStoreAccess(repoSetup.getHadoopConf());
+        DedupBlobStoreAccess blobStoreAccess = new DedupBlobStoreAccess(hbaseBlobStoreAccess,
+                repoSetup.getHbaseTableFactory());
+
+        byte[] bytes = new byte[50];
+        random.nextBytes(bytes);
+        Blob blob1 = writeDedupBlob(blobStoreAccess, bytes);
+        Blob blob2 = writeDedupBlob(blobStoreAccess, bytes);
+
+        // Deleting the same upload again (e.g. by the incubator monitor and the record cleanup) should not
+        // release the content used by the other upload
+        blobStoreAccess.delete(blob1.getValue());
+        blobStoreAccess.delete(blob1.getValue());
+        assertTrue(Arrays.equals(bytes, readDedupBlob(blobStoreAccess, blob2)));
+
+        blobStoreAccess.delete(blob2.getValue());
+        blobStoreAccess.delete(blob2.getValue());
+        try {
+            blobStoreAccess.getInputStream(blob2.getValue());
+            fail("The content should have been deleted.");
+        } catch (BlobException expected) {
+        }
+    }
+
+    private Blob writeDedupBlob(DedupBlobStoreAccess blobStoreAccess, byte[] bytes) throws Exception {
+        Blob blob = new Blob("application/octet-stream", (long)bytes.length, "dedup");
+        OutputStream outputStream = blobStoreAccess.getOutputStream(blob);
+        outputStream.write(bytes);
+        outputStream.close();
+        return blob;
+    }
+
+    private byte[] readDedupBlob(DedupBlobStoreAccess blobStoreAccess, Blob blob) throws Exception {
+        InputStream inputStream = blobStoreAccess.getInputStream(blob.getValue());
+        try {
+            return IOUtils.toByteArray(inputStream);
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+    }
 }
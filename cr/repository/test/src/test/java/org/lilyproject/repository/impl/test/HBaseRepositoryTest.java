@@ -15,23 +15,67 @@
  */
 package org.lilyproject.repository.impl.test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import com.google.common.collect.Sets;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Put;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.lilyproject.hadooptestfw.TestHelper;
+import org.lilyproject.bytes.api.DataOutput;
+import org.lilyproject.bytes.impl.DataOutputImpl;
+import org.lilyproject.repository.api.CompareOp;
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.FieldTypes;
+import org.lilyproject.repository.api.IdentityRecordStack;
+import org.lilyproject.repository.api.InvalidRecordException;
+import org.lilyproject.repository.api.LTable;
+import org.lilyproject.repository.api.MutationCondition;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.RecordMutationResult;
+import org.lilyproject.repository.api.RecordScan;
+import org.lilyproject.repository.api.RecordScanner;
+import org.lilyproject.repository.api.RecordType;
 import org.lilyproject.repository.api.Repository;
+import org.lilyproject.repository.api.RepositoryException;
+import org.lilyproject.repository.api.ResponseStatus;
+import org.lilyproject.repository.api.Scope;
 import org.lilyproject.repository.api.TypeManager;
+import org.lilyproject.repository.api.filter.FieldValueFilter;
+import org.lilyproject.repository.impl.FieldFlags;
+import org.lilyproject.repository.impl.FieldTypeImpl;
+import org.lilyproject.repository.impl.HBaseRepository;
 import org.lilyproject.repository.impl.HBaseTypeManager;
+import org.lilyproject.repository.impl.hbase.RecordMutationEndpoint;
+import org.lilyproject.repository.impl.valuetype.ListValueType;
+import org.lilyproject.repository.spi.PartialRecordUpdateHook;
+import org.lilyproject.repository.spi.RecordUpdateHook;
+import org.lilyproject.util.hbase.LilyHBaseSchema;
+import org.lilyproject.util.hbase.LilyHBaseSchema.RecordCf;
 import org.lilyproject.util.io.Closer;
+import org.lilyproject.util.repo.RecordEvent;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class HBaseRepositoryTest extends AbstractRepositoryTest {
 
     @BeforeClass
     public static void setUpBeforeClass() throws Exception {
         TestHelper.setupLogging();
+        // Deploy the endpoint used for conditional updates (only effective when HBase is embedded in the test)
+        System.setProperty("lily.test.hbase.coprocessor.region.classes", RecordMutationEndpoint.class.getName());
         repoSetup.setupCore();
         repoSetup.setupRepository();
 
@@ -54,4 +98,251 @@ public class HBaseRepositoryTest extends AbstractRepositoryTest {
         assertEquals(fieldType1, newTypeManager.getFieldTypeByName(fieldType1.getName()));
         Closer.close(newTypeManager);
     }
+
+    @Test
+    public void testBatchWithNullElements() throws Exception {
+        Record record = repository.newRecord();
+        record.setRecordType(recordType1.getName(), recordType1.getVersion());
+        record.setField(fieldType1.getName(), "value1");
+
+        List<RecordMutationResult> results = repository.create(Arrays.asList(null, record));
+        assertEquals(2, results.size());
+        assertTrue(results.get(0).getException() instanceof InvalidRecordException);
+        assertTrue(results.get(1).isSuccess());
+        RecordId recordId = results.get(1).getRecord().getId();
+
+        Record update = repository.newRecord(recordId);
+        update.setField(fieldType1.getName(), "value2");
+        results = repository.update(Arrays.asList(null, update));
+        assertEquals(2, results.size());
+        assertTrue(results.get(0).getException() instanceof InvalidRecordException);
+        assertEquals(ResponseStatus.UPDATED, results.get(1).getRecord().getResponseStatus());
+
+        results = repository.delete(Arrays.asList(null, recordId));
+        assertEquals(2, results.size());
+        assertTrue(results.get(0).getException() instanceof InvalidRecordException);
+        assertTrue(results.get(1).isSuccess());
+    }
+
+    @Test
+    public void testConditionalUpdateRetriedAfterConcurrentUpdate() throws Exception {
+        Record record = createDefaultRecord();
+        ConflictingUpdateHook hook = new ConflictingUpdateHook(record.getId().toString(), "concurrent");
+        ((HBaseRepository)repository).setRecordUpdateHooks(Collections.<RecordUpdateHook>singletonList(hook));
+        try {
+            // The hook updates fieldType1 between the read and the write of this update, the condition on
+            // fieldType3 still holds on the record state after that update, so the update is retried.
+            record.setField(fieldType2.getName(), 456);
+            record.delete(fieldType1.getName(), false);
+            record = repository.update(record,
+                    Collections.singletonList(new MutationCondition(fieldType3.getName(), true)));
+        } finally {
+            ((HBaseRepository)repository).setRecordUpdateHooks(Collections.<RecordUpdateHook>emptyList());
+        }
+
+        assertEquals(ResponseStatus.UPDATED, record.getResponseStatus());
+        // The first attempt saw the original state, the retry the state after the concurrent update
+        assertEquals(2, hook.seenValues.size());
+        assertEquals("value1", hook.seenValues.get(0));
+        assertEquals("concurrent", hook.seenValues.get(1));
+
+        record = repository.read(record.getId());
+        assertEquals("concurrent", record.getField(fieldType1.getName()));
+        assertEquals(456, record.getField(fieldType2.getName()));
+        // Only the update of the versioned fieldType2 created a new version
+        assertEquals(Long.valueOf(2), record.getVersion());
+    }
+
+    @Test
+    public void testConditionalUpdateConflictAfterConcurrentUpdate() throws Exception {
+        Record record = createDefaultRecord();
+        ConflictingUpdateHook hook = new ConflictingUpdateHook(record.getId().toString(), "concurrent");
+        ((HBaseRepository)repository).setRecordUpdateHooks(Collections.<RecordUpdateHook>singletonList(hook));
+        try {
+            // The concurrent update makes the condition false: the retry should detect this
+            record.setField(fieldType2.getName(), 456);
+            record.delete(fieldType1.getName(), false);
+            record = repository.update(record,
+                    Collections.singletonList(new MutationCondition(fieldType1.getName(), "value1")));
+        } finally {
+            ((HBaseRepository)repository).setRecordUpdateHooks(Collections.<RecordUpdateHook>emptyList());
+        }
+
+        assertEquals(ResponseStatus.CONFLICT, record.getResponseStatus());
+        assertEquals(2, hook.seenValues.size());
+        assertEquals("concurrent", record.getField(fieldType1.getName()));
+
+        record = repository.read(record.getId());
+        assertEquals("concurrent", record.getField(fieldType1.getName()));
+        assertEquals(123, record.getField(fieldType2.getName()));
+    }
+
+    @Test
+    public void testBlindUpdateReadsFieldsOfUpdateHooks() throws Exception {
+        Record record = createDefaultRecord();
+        FieldRecordingUpdateHook hook = new FieldRecordingUpdateHook(
+                Collections.singleton(fieldType3.getName()));
+        ((HBaseRepository)repository).setRecordUpdateHooks(Collections.<RecordUpdateHook>singletonList(hook));
+        try {
+            // Only the updated field and the field the hook depends on are read
+            Record update = repository.newRecord(record.getId());
+            update.setField(fieldType1.getName(), "value2");
+            update.getAttributes().put(LTable.BLIND_UPDATE_ATTRIBUTE, "true");
+            update = repository.update(update);
+            assertEquals(ResponseStatus.UPDATED, update.getResponseStatus());
+            assertEquals(Sets.newHashSet(fieldType1.getName(), fieldType3.getName()), hook.seenFields);
+
+            // A hook which needs the complete record turns the blind update into a normal one
+            hook = new FieldRecordingUpdateHook(null);
+            ((HBaseRepository)repository).setRecordUpdateHooks(Collections.<RecordUpdateHook>singletonList(hook));
+            update = repository.newRecord(record.getId());
+            update.setField(fieldType1.getName(), "value3");
+            update.getAttributes().put(LTable.BLIND_UPDATE_ATTRIBUTE, "true");
+            repository.update(update);
+            assertEquals(Sets.newHashSet(fieldType1.getName(), fieldType2.getName(), fieldType3.getName()),
+                    hook.seenFields);
+        } finally {
+            ((HBaseRepository)repository).setRecordUpdateHooks(Collections.<RecordUpdateHook>emptyList());
+        }
+
+        record = repository.read(record.getId());
+        assertEquals("value3", record.getField(fieldType1.getName()));
+        assertEquals(123, record.getField(fieldType2.getName()));
+        assertEquals(true, record.getField(fieldType3.getName()));
+    }
+
+    @Test
+    public void testFieldValueFilterOnListsInBothEncodings() throws Exception {
+        FieldType fieldType = typeManager.createFieldType("LIST<LONG>", new QName("MixedListEncoding", "field"),
+                Scope.NON_VERSIONED);
+        RecordType rt = typeManager.recordTypeBuilder()
+                .defaultNamespace("MixedListEncoding")
+                .name("rt1")
+                .fieldEntry()
+                .use(fieldType)
+                .add()
+                .create();
+
+        List<Long> value = Arrays.asList(1L, 2L, 3L);
+        Record packed = repository.recordBuilder().recordType(rt.getName()).field(fieldType.getName(), value)
+                .create();
+        Record unpacked = repository.recordBuilder().recordType(rt.getName()).field(fieldType.getName(), value)
+                .create();
+        repository.recordBuilder().recordType(rt.getName()).field(fieldType.getName(), Arrays.asList(4L, 5L))
+                .create();
+
+        // Rewrite the value of the second record in the generic encoding, as it was stored before lists of
+        // primitive values were packed
+        ListValueType valueType = (ListValueType)fieldType.getValueType();
+        DataOutput dataOutput = new DataOutputImpl();
+        dataOutput.writeByte(FieldFlags.DEFAULT);
+        valueType.writeUnpacked(value, dataOutput, new IdentityRecordStack());
+        HTableInterface recordTable = LilyHBaseSchema.getRecordTable(repoSetup.getHbaseTableFactory(),
+                repository.getRepositoryName(), repository.getTableName());
+        Put put = new Put(unpacked.getId().toBytes());
+        put.add(RecordCf.DATA.bytes, ((FieldTypeImpl)fieldType).getQualifier(), 1L, dataOutput.toByteArray());
+        recordTable.put(put);
+
+        DataOutput packedOutput = new DataOutputImpl();
+        valueType.write(value, packedOutput, new IdentityRecordStack());
+        assertFalse(Arrays.equals(packedOutput.toByteArray(), Arrays.copyOfRange(dataOutput.toByteArray(), 1,
+                dataOutput.toByteArray().length)));
+
+        RecordScan scan = new RecordScan();
+        scan.setRecordFilter(new FieldValueFilter(fieldType.getName(), value));
+        Set<RecordId> ids = new HashSet<RecordId>();
+        RecordScanner scanner = repository.getScanner(scan);
+        for (Record record : scanner) {
+            ids.add(record.getId());
+            assertEquals(value, record.getField(fieldType.getName()));
+        }
+        scanner.close();
+        assertEquals(Sets.newHashSet(packed.getId(), unpacked.getId()), ids);
+
+        scan = new RecordScan();
+        scan.setRecordFilter(new FieldValueFilter(fieldType.getName(), CompareOp.NOT_EQUAL, value));
+        scanner = repository.getScanner(scan);
+        int count = 0;
+        for (Record record : scanner) {
+            assertEquals(Arrays.asList(4L, 5L), record.getField(fieldType.getName()));
+            count++;
+        }
+        scanner.close();
+        assertEquals(1, count);
+    }
+
+    /**
+     * Update hook which depends on the given fields, and records the fields it finds in the original record.
+     */
+    private static class FieldRecordingUpdateHook implements PartialRecordUpdateHook {
+        private final Set<QName> fieldDependencies;
+        private Set<QName> seenFields;
+
+        FieldRecordingUpdateHook(Set<QName> fieldDependencies) {
+            this.fieldDependencies = fieldDependencies;
+        }
+
+        @Override
+        public Set<QName> getFieldDependencies() {
+            return fieldDependencies;
+        }
+
+        @Override
+        public void beforeUpdate(Record record, Record originalRecord, Repository repository,
+                FieldTypes fieldTypes, RecordEvent recordEvent) {
+            seenFields = new HashSet<QName>(originalRecord.getFields().keySet());
+        }
+
+        @Override
+        public void beforeCreate(Record newRecord, Repository repository, FieldTypes fieldTypes,
+                RecordEvent recordEvent) {
+        }
+
+        @Override
+        public void beforeDelete(Record originalRecord, Repository repository, FieldTypes fieldTypes,
+                RecordEvent recordEvent) {
+        }
+    }
+
+    /**
+     * Update hook which, the first time it is called, updates fieldType1 of the record being updated, thus
+     * simulating a concurrent update. It records the value of fieldType1 it finds in the original record
+     * of each update of fieldType2.
+     */
+    private static class ConflictingUpdateHook implements RecordUpdateHook {
+        private final String recordId;
+        private final String conflictingValue;
+        private final AtomicBoolean armed = new AtomicBoolean(true);
+        private final List<Object> seenValues = Collections.synchronizedList(new ArrayList<Object>());
+
+        ConflictingUpdateHook(String recordId, String conflictingValue) {
+            this.recordId = recordId;
+            this.conflictingValue = conflictingValue;
+        }
+
+        @Override
+        public void beforeUpdate(Record record, Record originalRecord, Repository repository,
+                FieldTypes fieldTypes, RecordEvent recordEvent) throws RepositoryException, InterruptedException {
+            if (!record.getId().toString().equals(recordId) || !record.hasField(fieldType2.getName())) {
+                return;
+            }
+            seenValues.add(originalRecord.getField(fieldType1.getName()));
+
+            if (armed.compareAndSet(true, false)) {
+                Record conflicting = repository.newRecord(record.getId());
+                conflicting.setField(fieldType1.getName(), conflictingValue);
+                repository.update(conflicting);
+            }
+        }
+
+        @Override
+        public void beforeCreate(Record newRecord, Repository repository, FieldTypes fieldTypes,
+                RecordEvent recordEvent) {
+        }
+
+        @Override
+        public void beforeDelete(Record originalRecord, Repository repository, FieldTypes fieldTypes,
+                RecordEvent recordEvent) {
+        }
+    }
 }
@@ -15,6 +15,7 @@
  */
 package org.lilyproject.repository.impl.test;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -28,6 +29,7 @@ import org.lilyproject.repository.impl.id.IdGeneratorImpl;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -197,6 +199,87 @@ public class IdGeneratorImplTest {
         assertArrayEquals(variantIdBytes, variantId.toBytes());
     }
 
+    @Test
+    public void testFromBytesRange() {
+        IdGeneratorImpl idGenerator = new IdGeneratorImpl();
+        Map<String, String> variantProperties = new HashMap<String, String>();
+        variantProperties.put("a", "x");
+        RecordId[] ids = new RecordId[] {
+                idGenerator.newRecordId(),
+                idGenerator.newRecordId("marvellous"),
+                idGenerator.newRecordId(idGenerator.newRecordId(), variantProperties),
+                idGenerator.newRecordId(idGenerator.newRecordId("marvellous"), variantProperties)
+        };
+
+        for (RecordId id : ids) {
+            byte[] idBytes = id.toBytes();
+            byte[] buffer = new byte[idBytes.length + 10];
+            System.arraycopy(idBytes, 0, buffer, 5, idBytes.length);
+
+            // Ids created from bytes and from their string form are equal, and have the same hash code
+            RecordId fromRange = idGenerator.fromBytes(buffer, 5, idBytes.length);
+            RecordId fromString = idGenerator.fromString(id.toString());
+            assertEquals(id, fromRange);
+            assertEquals(fromRange, fromString);
+            assertEquals(fromString, fromRange);
+            assertEquals(id.hashCode(), fromRange.hashCode());
+            assertEquals(fromString.hashCode(), fromRange.hashCode());
+            assertEquals(id.toString(), fromRange.toString());
+            assertEquals(id.getVariantProperties(), fromRange.getVariantProperties());
+            assertArrayEquals(idBytes, fromRange.toBytes());
+        }
+    }
+
+    @Test
+    public void testFromBytesCopiesInput() {
+        IdGenerator idGenerator = new IdGeneratorImpl();
+        RecordId id = idGenerator.newRecordId(idGenerator.newRecordId("marvellous"),
+                Collections.singletonMap("a", "x"));
+        byte[] idBytes = id.toBytes().clone();
+
+        RecordId decoded = idGenerator.fromBytes(idBytes);
+        // Changing the buffer afterwards should not affect the record id
+        Arrays.fill(idBytes, (byte)'z');
+        assertEquals(id, decoded);
+        assertEquals(id.toString(), decoded.toString());
+        assertArrayEquals(id.toBytes(), decoded.toBytes());
+    }
+
+    @Test
+    public void testCachedMasterDoesNotShareInput() {
+        IdGeneratorImpl idGenerator = new IdGeneratorImpl();
+        RecordId masterId = idGenerator.newRecordId("marvellous");
+        RecordId variantId1 = idGenerator.newRecordId(masterId, Collections.singletonMap("a", "x"));
+        RecordId variantId2 = idGenerator.newRecordId(masterId, Collections.singletonMap("a", "y"));
+
+        byte[] idBytes = variantId1.toBytes();
+        byte[] buffer = new byte[idBytes.length + 10];
+        System.arraycopy(idBytes, 0, buffer, 5, idBytes.length);
+        RecordId decoded1 = idGenerator.fromBytes(buffer, 5, idBytes.length);
+
+        // The variant itself keeps using the buffer, but the master is cached beyond its lifetime
+        Arrays.fill(buffer, (byte)'z');
+        assertEquals(masterId, decoded1.getMaster());
+        assertArrayEquals(masterId.toBytes(), decoded1.getMaster().toBytes());
+
+        RecordId decoded2 = idGenerator.fromBytes(variantId2.toBytes());
+        assertSame(decoded1.getMaster(), decoded2.getMaster());
+    }
+
+    @Test
+    public void testVariantsShareMaster() {
+        IdGenerator idGenerator = new IdGeneratorImpl();
+        RecordId masterId = idGenerator.newRecordId("marvellous");
+        RecordId variantId1 = idGenerator.newRecordId(masterId, Collections.singletonMap("a", "x"));
+        RecordId variantId2 = idGenerator.newRecordId(masterId, Collections.singletonMap("a", "y"));
+
+        RecordId decoded1 = idGenerator.fromBytes(variantId1.toBytes());
+        RecordId decoded2 = idGenerator.fromBytes(variantId2.toBytes());
+        assertSame(decoded1.getMaster(), decoded2.getMaster());
+        assertEquals(masterId, decoded1.getMaster());
+        assertFalse(decoded1.equals(decoded2));
+    }
+
     @Test
     public void testNullCharacterNotAllowedInUserId() {
         IdGenerator idGenerator = new IdGeneratorImpl();
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl.test;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.lilyproject.repository.api.IdGenerator;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.impl.RecordCache;
+import org.lilyproject.repository.impl.id.IdGeneratorImpl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class RecordCacheTest {
+    private IdGenerator idGenerator = new IdGeneratorImpl();
+
+    private Result newResult(RecordId recordId) {
+        return new Result(new KeyValue[] {new KeyValue(recordId.toBytes(), Bytes.toBytes("data"),
+                Bytes.toBytes("field"), Bytes.toBytes("value"))});
+    }
+
+    @Test
+    public void testGetPut() {
+        RecordCache cache = new RecordCache(10, 60000L, null);
+        RecordId id = idGenerator.newRecordId();
+        Result result = newResult(id);
+
+        assertNull(cache.get(id, null, null));
+        cache.put(id, null, null, result, cache.getGeneration(id));
+        assertSame(result, cache.get(id, null, null));
+
+        // Other versions are cached separately
+        assertNull(cache.get(id, 1L, null));
+
+        cache.invalidate(id);
+        assertNull(cache.get(id, null, null));
+    }
+
+    @Test
+    public void testNoPutAfterInvalidation() {
+        RecordCache cache = new RecordCache(10, 60000L, null);
+        RecordId id = idGenerator.newRecordId();
+
+        long generation = cache.getGeneration(id);
+        // the record is updated while it is being read
+        cache.invalidate(id);
+        cache.put(id, null, null, newResult(id), generation);
+        assertNull(cache.get(id, null, null));
+    }
+
+    @Test
+    public void testPutAfterInvalidationOfOtherRecord() {
+        RecordCache cache = new RecordCache(10, 60000L, null);
+        RecordId id = idGenerator.newRecordId();
+        Result result = newResult(id);
+
+        // another record is updated while this one is being read. Invalidations are tracked per stripe of
+        // record ids, so retry with another record if it happened to share the stripe of this one.
+        long generation;
+        do {
+            generation = cache.getGeneration(id);
+            cache.invalidate(idGenerator.newRecordId());
+        } while (cache.getGeneration(id) != generation);
+        cache.put(id, null, null, result, generation);
+        assertSame(result, cache.get(id, null, null));
+    }
+
+    @Test
+    public void testEviction() {
+        RecordCache cache = new RecordCache(2, 60000L, null);
+        RecordId id1 = idGenerator.newRecordId();
+        RecordId id2 = idGenerator.newRecordId();
+        RecordId id3 = idGenerator.newRecordId();
+
+        cache.put(id1, null, null, newResult(id1), cache.getGeneration(id1));
+        cache.put(id2, null, null, newResult(id2), cache.getGeneration(id2));
+        // id1 becomes the most recently used
+        cache.get(id1, null, null);
+        cache.put(id3, null, null, newResult(id3), cache.getGeneration(id3));
+
+        assertEquals(2, cache.size());
+        assertNull(cache.get(id2, null, null));
+    }
+
+    @Test
+    public void testMaxAge() throws Exception {
+        RecordCache cache = new RecordCache(10, 50L, null);
+        RecordId id = idGenerator.newRecordId();
+
+        cache.put(id, null, null, newResult(id), cache.getGeneration(id));
+        Thread.sleep(100L);
+        assertNull(cache.get(id, null, null));
+        assertEquals(0, cache.size());
+    }
+}
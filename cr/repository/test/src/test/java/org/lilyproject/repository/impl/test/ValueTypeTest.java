@@ -19,8 +19,10 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.math.BigDecimal;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Random;
 
 import org.apache.hadoop.hbase.util.Bytes;
@@ -718,6 +720,74 @@ public class ValueTypeTest {
         assertEquals(createdRecord.getFields(), readRecord.getFields());
     }
 
+    @Test
+    public void testPackedLists() throws Exception {
+        List<Long> longs = new ArrayList<Long>();
+        for (long i = 0; i < 1000; i++) {
+            longs.add(1360000000000L + i * 60000L);
+        }
+        longs.add(Long.MIN_VALUE);
+        longs.add(Long.MAX_VALUE);
+        testPackedList("LIST<LONG>", longs);
+        testPackedList("LIST<INTEGER>", Arrays.asList(Integer.MAX_VALUE, Integer.MIN_VALUE, 0, -5, 5));
+        testPackedList("LIST<DOUBLE>", Arrays.asList(Double.MIN_VALUE, 0d, Double.NaN, -1.5d));
+        testPackedList("LIST<BOOLEAN>", Arrays.asList(true, false, false, true, true, true, false, true, true));
+        testPackedList("LIST<DATE>", Arrays.asList(new LocalDate(2013, 3, 1), new LocalDate(2013, 3, 2),
+                new LocalDate(1300, 5, 4)));
+        testPackedList("LIST<LONG>", new ArrayList<Long>());
+
+        // The sorted series only takes one vint for the count, one byte for the encoding, and a few bytes per value
+        DataOutput dataOutput = new DataOutputImpl();
+        typeManager.getValueType("LIST<LONG>").write(longs.subList(0, 1000), dataOutput, new IdentityRecordStack());
+        assertTrue(dataOutput.getSize() < 1000 * 4);
+
+        // The values read can be modified like any list
+        DataInput dataInput = new DataInputImpl(dataOutput.toByteArray());
+        List<Long> readLongs = typeManager.getValueType("LIST<LONG>").read(dataInput);
+        readLongs.add(0, 5L);
+        readLongs.remove(1);
+        readLongs.set(2, 7L);
+        List<Long> expected = new ArrayList<Long>(longs.subList(0, 1000));
+        expected.add(0, 5L);
+        expected.remove(1);
+        expected.set(2, 7L);
+        assertEquals(expected, readLongs);
+    }
+
+    @Test
+    public void testListGenericEncoding() throws Exception {
+        // Lists written before the packed encodings existed should still be readable
+        DataOutput dataOutput = new DataOutputImpl();
+        dataOutput.writeInt(2);
+        dataOutput.writeLong(3L);
+        dataOutput.writeLong(-4L);
+        ValueType listVT = typeManager.getValueType("LIST<LONG>");
+        assertEquals(Arrays.asList(3L, -4L), listVT.read(new DataInputImpl(dataOutput.toByteArray())));
+
+        // Unknown encoding
+        try {
+            listVT.read(new DataInputImpl(new byte[] {(byte)0xFF, 0}));
+            fail("expected exception");
+        } catch (UnknownValueTypeEncodingException e) {
+            // expected
+        }
+    }
+
+    private void testPackedList(String valueType, List<?> values) throws Exception {
+        ValueType listVT = typeManager.getValueType(valueType);
+        DataOutput dataOutput = new DataOutputImpl();
+        listVT.write(values, dataOutput, new IdentityRecordStack());
+        byte[] bytes = dataOutput.toByteArray();
+        assertTrue("Packed encoding expected for " + valueType, bytes[0] < 0);
+        List<?> readValues = listVT.read(new DataInputImpl(bytes));
+        assertEquals(values, readValues);
+
+        // Writing the list read gives the same bytes
+        dataOutput = new DataOutputImpl();
+        listVT.write(readValues, dataOutput, new IdentityRecordStack());
+        assertTrue(Arrays.equals(bytes, dataOutput.toByteArray()));
+    }
+
     @Test
     public void testInvalidValueTypeSyntax() throws Exception {
         try {
@@ -31,6 +31,15 @@ abstract class BaseQueryResult implements QueryResult {
         this.definition = definition;
     }
 
+    @Override
+    public byte[] skipTo(byte[] key) throws IOException {
+        byte[] identifier = next();
+        while (identifier != null && Bytes.compareTo(identifier, key) < 0) {
+            identifier = next();
+        }
+        return identifier;
+    }
+
     @Override
     public byte[] getData(byte[] qualifier) {
         if (currentResult != null) {
@@ -32,14 +32,9 @@ import org.apache.hadoop.hbase.util.Bytes;
  * <p>A Conjunction itself also returns its results in increasing identifier
  * order, and can hence serve as input to other Conjunctions.
  *
- * <p>TODO the implementation is currently not optimal if lots of rows need
- * to be skipped to move to the next common result, since this is done by
- * iterating one result at a time using next() calls. It would be better to
- * directly skip to the next appropriate result. HBase scanners don't support
- * this natively, so to skip we would rather need to open a new scanner. But
- * we can't exactly know on beforehand if this will be beneficial or not. Maybe
- * we could have some heuristic for this, e.g. after 10 next() calls open a new
- * scanner to jump directly to the next relevant result.
+ * <p>To move to the next common result, the QueryResult which is behind skips to the
+ * identifier of the other one (see {@link QueryResult#skipTo(byte[])}), so that QueryResults
+ * on top of HBase scanners can jump over the rows in between rather than reading them all.
  */
 public class Conjunction extends BaseQueryResult {
     private QueryResult result1;
@@ -53,9 +48,15 @@ public class Conjunction extends BaseQueryResult {
 
     @Override
     public byte[] next() throws IOException {
-        byte[] key1 = result1.next();
-        byte[] key2 = result2.next();
+        return join(result1.next(), result2.next());
+    }
+
+    @Override
+    public byte[] skipTo(byte[] key) throws IOException {
+        return join(result1.skipTo(key), result2.skipTo(key));
+    }
 
+    private byte[] join(byte[] key1, byte[] key2) throws IOException {
         if (key1 == null || key2 == null) {
             return null;
         }
@@ -64,22 +65,17 @@ public class Conjunction extends BaseQueryResult {
 
         while (cmp != 0) {
             if (cmp < 0) {
-                while (cmp < 0) {
-                    key1 = result1.next();
-                    if (key1 == null) {
-                        return null;
-                    }
-                    cmp = Bytes.compareTo(key1, key2);
+                key1 = result1.skipTo(key2);
+                if (key1 == null) {
+                    return null;
                 }
-            } else if (cmp > 0) {
-                while (cmp > 0) {
-                    key2 = result2.next();
-                    if (key2 == null) {
-                        return null;
-                    }
-                    cmp = Bytes.compareTo(key1, key2);
+            } else {
+                key2 = result2.skipTo(key1);
+                if (key2 == null) {
+                    return null;
                 }
             }
+            cmp = Bytes.compareTo(key1, key2);
         }
 
         currentQResult = result1;
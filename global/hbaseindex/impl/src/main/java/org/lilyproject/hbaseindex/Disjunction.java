@@ -81,6 +81,25 @@ public class Disjunction extends BaseQueryResult {
         }
     }
 
+    @Override
+    public byte[] skipTo(byte[] key) throws IOException {
+        if (!init) {
+            key1 = result1.skipTo(key);
+            key2 = result2.skipTo(key);
+            init = true;
+        } else {
+            // the keys which have been read already but not returned yet might be beyond the given key
+            if (key1 != null && Bytes.compareTo(key1, key) < 0) {
+                key1 = result1.skipTo(key);
+            }
+            if (key2 != null && Bytes.compareTo(key2, key) < 0) {
+                key2 = result2.skipTo(key);
+            }
+        }
+
+        return next();
+    }
+
     @Override
     public void close() {
         result1.close();
@@ -32,6 +32,7 @@ import org.apache.hadoop.hbase.filter.BinaryPrefixComparator;
 import org.apache.hadoop.hbase.filter.CompareFilter.CompareOp;
 import org.apache.hadoop.hbase.filter.Filter;
 import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.PageFilter;
 import org.apache.hadoop.hbase.filter.RowFilter;
 import org.apache.hadoop.hbase.filter.WhileMatchFilter;
 import org.lilyproject.hbaseindex.filter.IndexFilterHbaseImpl;
@@ -256,7 +257,16 @@ public class Index {
             toKey = fromKey;
         }
 
-        Scan scan = new Scan(fromKey);
+        // For an exclusive lower bound, start right after the rows starting with the fromKey (rather than
+        // checking each row with a filter)
+        byte[] startKey = fromKey;
+        boolean excludeFromKey =
+                rangeCondSet && !rangeCond.isLowerBoundInclusive() && rangeCond.getFromValue() != Query.MIN_VALUE;
+        if (excludeFromKey) {
+            startKey = nextKeyAfterPrefix(fromKey);
+        }
+
+        Scan scan = new Scan(startKey != null ? startKey : fromKey);
 
         // Query.MAX_VALUE is a value which should be larger than anything, so cannot be an inclusive upper bound
         // The importance of this is because for Query.MAX_VALUE, we do a prefix scan so the operator should be
@@ -270,23 +280,38 @@ public class Index {
         if (query.getIndexFilter() != null) {
             filters.addFilter(new IndexFilterHbaseImpl(query.getIndexFilter(), definition));
         }
-
-        if (rangeCondSet && !rangeCond.isLowerBoundInclusive()) {
-            // TODO: optimize the performance hit caused by the extra filter
-            //  Once the greater filter on the fromKey returns true, it will remain true because
-            //  row keys are sorted. The RowFilter will however keep doing the check again and again
-            //  on each new row key. We need a new filter in HBase, something like the opposite of the
-            //  WhileMatchFilter.
+        if (excludeFromKey && startKey == null) {
+            // there is no key after the fromKey, only possible if it consists of 0xFF bytes
             filters.addFilter(new RowFilter(CompareOp.GREATER, new BinaryPrefixComparator(fromKey)));
-            filters.addFilter(new WhileMatchFilter(toFilter));
-        } else {
-            filters.addFilter(new WhileMatchFilter(toFilter));
+        }
+        filters.addFilter(new WhileMatchFilter(toFilter));
+        if (query.getLimit() != -1) {
+            // Last, so that it only counts the rows which pass the other filters. The limit applies per region,
+            // ScannerQueryResult applies it to the whole result.
+            filters.addFilter(new PageFilter(query.getLimit()));
         }
 
         scan.setFilter(filters);
-        scan.setCaching(30);
+        scan.setCaching(query.getLimit() != -1 ? Math.min(query.getCaching(), query.getLimit()) : query.getCaching());
+        scan.setCacheBlocks(query.getCacheBlocks());
 
-        return new ScannerQueryResult(htable.getScanner(scan), definition);
+        return new ScannerQueryResult(htable, scan, definition, query.getLimit());
+    }
+
+    /**
+     * Returns the smallest key which is larger than all keys starting with the given prefix, or null if there is
+     * no such key.
+     */
+    static byte[] nextKeyAfterPrefix(byte[] prefix) {
+        for (int i = prefix.length - 1; i >= 0; i--) {
+            if (prefix[i] != (byte)0xFF) {
+                byte[] key = new byte[i + 1];
+                System.arraycopy(prefix, 0, key, 0, i + 1);
+                key[i]++;
+                return key;
+            }
+        }
+        return null;
     }
 
     /**
@@ -35,6 +35,9 @@ import org.lilyproject.hbaseindex.filter.IndexFilter;
  * to do some additional filtering on the results, based on the fields and data
  * stored in the index.
  *
+ * <p>How the query is executed on HBase can be tuned with {@link #setCaching},
+ * {@link #setCacheBlocks} and {@link #setLimit}.
+ *
  * <p>The structural validity of the query will be checked once the
  * query is supplied to {@link Index#performQuery}, not while adding
  * the individual conditions.
@@ -43,6 +46,14 @@ public class Query {
     private List<EqualsCondition> eqConditions = new ArrayList<EqualsCondition>();
     private RangeCondition rangeCondition;
     private IndexFilter indexFilter;
+    private int caching = DEFAULT_CACHING;
+    private boolean cacheBlocks = true;
+    private int limit = -1;
+
+    /**
+     * The default number of index rows fetched per round trip to HBase.
+     */
+    public static final int DEFAULT_CACHING = 30;
 
     public static final Object MIN_VALUE = new Object() {
         @Override
@@ -103,6 +114,48 @@ public class Query {
         rangeCondition = new RangeCondition(fieldName, fromValue, toValue, lowerBoundInclusive, upperBoundInclusive);
     }
 
+    /**
+     * Sets the number of index rows fetched per round trip to HBase, {@link #DEFAULT_CACHING} by default. Queries
+     * of which all results are read are best given a caching about as large as the expected number of results.
+     */
+    public void setCaching(int caching) {
+        if (caching < 1) {
+            throw new IllegalArgumentException("Caching should be at least 1, got: " + caching);
+        }
+        this.caching = caching;
+    }
+
+    public int getCaching() {
+        return caching;
+    }
+
+    /**
+     * Sets whether the blocks read by the query are kept in the HBase block cache, true by default. Large
+     * queries which are not repeated can disable this, so that they don't push out the blocks of other reads.
+     */
+    public void setCacheBlocks(boolean cacheBlocks) {
+        this.cacheBlocks = cacheBlocks;
+    }
+
+    public boolean getCacheBlocks() {
+        return cacheBlocks;
+    }
+
+    /**
+     * Sets the maximum number of results of the query, -1 (the default) means no limit. The region servers stop
+     * scanning once they have found this number of results.
+     */
+    public void setLimit(int limit) {
+        if (limit < -1 || limit == 0) {
+            throw new IllegalArgumentException("Limit should be -1 or at least 1, got: " + limit);
+        }
+        this.limit = limit;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
     public List<EqualsCondition> getEqConditions() {
         return eqConditions;
     }
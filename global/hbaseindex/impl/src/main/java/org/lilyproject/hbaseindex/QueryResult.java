@@ -30,6 +30,16 @@ public interface QueryResult extends Closeable {
      */
     byte[] next() throws IOException;
 
+    /**
+     * Move to and return the next result of which the identifier is equal to or larger than the given key.
+     *
+     * <p>This only makes sense if the results are sorted in increasing identifier order, see {@link Conjunction}.
+     * Implementations can then avoid to read all the results in between.
+     *
+     * @return the identifier of the next matching query result, or null if the end is reached.
+     */
+    byte[] skipTo(byte[] key) throws IOException;
+
     /**
      * Retrieves data that was stored as part of the {@link IndexEntry} from the current index
      * entry (corresponding to the last {@link #next} call).
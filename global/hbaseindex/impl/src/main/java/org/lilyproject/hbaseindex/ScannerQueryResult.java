@@ -19,31 +19,88 @@ import java.io.IOException;
 
 import com.gotometrics.orderly.StructIterator;
 import com.gotometrics.orderly.StructRowKey;
+import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
 
 /**
  * A QueryResult on top of a HBase scanner.
+ *
+ * <p>HBase scanners can not skip rows, so {@link #skipTo(byte[])} first tries to reach the key by reading on (the
+ * next rows are often fetched already, see {@link Scan#setCaching(int)}). When this takes more than
+ * {@value #SKIP_THRESHOLD_BATCHES} scanner batches, the scanner is reopened at the row of the key.</p>
  */
 class ScannerQueryResult extends BaseQueryResult {
+    /** Number of scanner batches to read before reopening the scanner to skip to a key. */
+    static final int SKIP_THRESHOLD_BATCHES = 2;
+
+    private final HTableInterface htable;
+    private final Scan scan;
+    private final int skipThreshold;
+    private final int limit;
+    private int count;
     private ResultScanner scanner;
 
-    ScannerQueryResult(ResultScanner scanner, IndexDefinition definition) {
+    /**
+     * @param limit the maximum number of results to return, -1 for no limit
+     */
+    ScannerQueryResult(HTableInterface htable, Scan scan, IndexDefinition definition, int limit) throws IOException {
         super(definition);
-        this.scanner = scanner;
+        this.htable = htable;
+        this.scan = scan;
+        this.limit = limit;
+        this.skipThreshold = SKIP_THRESHOLD_BATCHES * Math.max(1, scan.getCaching());
+        this.scanner = htable.getScanner(scan);
     }
 
     @Override
     public byte[] next() throws IOException {
+        if (limit != -1 && count >= limit) {
+            currentResult = null;
+            return null;
+        }
+
         currentResult = scanner.next();
         if (currentResult == null) {
             return null;
         }
+        count++;
 
         byte[] rowKey = currentResult.getRow();
 
         return decodeIdentifierFrom(rowKey);
     }
 
+    @Override
+    public byte[] skipTo(byte[] key) throws IOException {
+        byte[] identifier = next();
+        int skipped = 0;
+        while (identifier != null && Bytes.compareTo(identifier, key) < 0) {
+            if (++skipped == skipThreshold) {
+                reopenScanner(currentResult.getRow(), key);
+            }
+            identifier = next();
+        }
+        return identifier;
+    }
+
+    /**
+     * Reopens the scanner at the row with the same fields as the given row and the given identifier. If the rows
+     * don't all have the same fields, the reopened scanner can still return rows with smaller identifiers.
+     */
+    private void reopenScanner(byte[] rowKey, byte[] identifier) throws IOException {
+        final StructRowKey structRowKey = definition.asStructRowKey();
+        final Object[] fieldValues = (Object[]) structRowKey.deserialize(rowKey);
+        fieldValues[fieldValues.length - 1] = identifier;
+
+        final Scan skipScan = new Scan(scan);
+        skipScan.setStartRow(structRowKey.serialize(fieldValues));
+
+        scanner.close();
+        scanner = htable.getScanner(skipScan);
+    }
+
     private byte[] decodeIdentifierFrom(byte[] rowKey) throws IOException {
         final StructRowKey structRowKey = definition.asStructRowKey();
         structRowKey.iterateOver(rowKey);
@@ -677,6 +677,159 @@ public class IndexTest {
         }
     }
 
+    @Test
+    public void testExclusiveRangeAfterEqualsCondition() throws Exception {
+        final String INDEX_NAME = "exclusiveRangeAfterEquals";
+        IndexManager indexManager = new IndexManager(HBASE_PROXY.getConf());
+
+        IndexDefinition indexDef = new IndexDefinition(INDEX_NAME);
+        indexDef.addStringField("field1");
+        indexDef.addIntegerField("field2");
+        Index index = indexManager.getIndex(indexDef);
+
+        String[] values1 = {"a", "b"};
+        int[] values2 = {1, 2, 3};
+        for (String value1 : values1) {
+            for (int value2 : values2) {
+                IndexEntry entry = new IndexEntry(indexDef);
+                entry.addField("field1", value1);
+                entry.addField("field2", value2);
+                entry.setIdentifier(Bytes.toBytes("key" + value1 + value2));
+                index.addEntry(entry);
+            }
+        }
+
+        {
+            Query query = new Query();
+            query.addEqualsCondition("field1", "a");
+            query.setRangeCondition("field2", 1, Query.MAX_VALUE, false, true);
+            QueryResult result = index.performQuery(query);
+            assertResultIds(result, "keya2", "keya3");
+        }
+
+        {
+            Query query = new Query();
+            query.addEqualsCondition("field1", "a");
+            query.setRangeCondition("field2", 3, Query.MAX_VALUE, false, true);
+            QueryResult result = index.performQuery(query);
+            assertResultIds(result);
+        }
+
+        {
+            Query query = new Query();
+            query.addEqualsCondition("field1", "b");
+            query.setRangeCondition("field2", Query.MIN_VALUE, 3, false, false);
+            QueryResult result = index.performQuery(query);
+            assertResultIds(result, "keyb1", "keyb2");
+        }
+    }
+
+    @Test
+    public void testLimit() throws Exception {
+        final String INDEX_NAME = "limit";
+        IndexManager indexManager = new IndexManager(HBASE_PROXY.getConf());
+
+        IndexDefinition indexDef = new IndexDefinition(INDEX_NAME);
+        indexDef.addIntegerField("field1");
+        Index index = indexManager.getIndex(indexDef);
+
+        for (int i = 0; i < 10; i++) {
+            IndexEntry entry = new IndexEntry(indexDef);
+            entry.addField("field1", i);
+            entry.setIdentifier(Bytes.toBytes("key" + i));
+            index.addEntry(entry);
+        }
+
+        {
+            Query query = new Query();
+            query.setRangeCondition("field1", 2, 8);
+            query.setLimit(3);
+            query.setCaching(2);
+            query.setCacheBlocks(false);
+            QueryResult result = index.performQuery(query);
+            assertResultIds(result, "key2", "key3", "key4");
+        }
+
+        {
+            Query query = new Query();
+            query.setRangeCondition("field1", 7, Query.MAX_VALUE);
+            query.setLimit(5);
+            QueryResult result = index.performQuery(query);
+            assertResultIds(result, "key7", "key8", "key9");
+        }
+    }
+
+    @Test
+    public void testSkipTo() throws Exception {
+        final String INDEX_NAME = "skipTo";
+        IndexManager indexManager = new IndexManager(HBASE_PROXY.getConf());
+
+        IndexDefinition indexDef = new IndexDefinition(INDEX_NAME);
+        indexDef.addStringField("field1");
+        Index index = indexManager.getIndex(indexDef);
+
+        // enough entries to skip more than SKIP_THRESHOLD_BATCHES scanner batches, so that the scanner is reopened
+        final int caching = 2;
+        final int count = 5 * ScannerQueryResult.SKIP_THRESHOLD_BATCHES * caching;
+        for (int i = 0; i < count; i++) {
+            IndexEntry entry = new IndexEntry(indexDef);
+            entry.addField("field1", "a");
+            entry.setIdentifier(Bytes.toBytes(String.format("key%02d", i)));
+            index.addEntry(entry);
+        }
+        // the "b" entries are far enough apart that a merge join with the "a" entries has to reopen the scanner
+        final int step = 2 * ScannerQueryResult.SKIP_THRESHOLD_BATCHES * caching;
+        for (int i = 0; i < count; i += step) {
+            IndexEntry entry = new IndexEntry(indexDef);
+            entry.addField("field1", "b");
+            entry.setIdentifier(Bytes.toBytes(String.format("key%02d", i)));
+            index.addEntry(entry);
+        }
+
+        {
+            Query query = new Query();
+            query.addEqualsCondition("field1", "a");
+            query.setCaching(caching);
+            QueryResult result = index.performQuery(query);
+
+            assertEquals("key05", Bytes.toString(result.skipTo(Bytes.toBytes("key05"))));
+            assertEquals("key06", Bytes.toString(result.next()));
+            // a key which is not in the index
+            assertEquals(String.format("key%02d", count - 4),
+                    Bytes.toString(result.skipTo(Bytes.toBytes(String.format("key%02d5", count - 5)))));
+            // the reopened scanner still stops at the end of the queried field value
+            assertResultIds(result, String.format("key%02d", count - 3), String.format("key%02d", count - 2),
+                    String.format("key%02d", count - 1));
+        }
+
+        {
+            Query query = new Query();
+            query.addEqualsCondition("field1", "a");
+            query.setCaching(caching);
+            QueryResult result = index.performQuery(query);
+
+            assertNull(result.skipTo(Bytes.toBytes("key99")));
+        }
+
+        {
+            // merge join of two scanner results, the "a" result skips to each "b" entry
+            Query query1 = new Query();
+            query1.addEqualsCondition("field1", "a");
+            query1.setCaching(caching);
+            Query query2 = new Query();
+            query2.addEqualsCondition("field1", "b");
+            query2.setCaching(caching);
+
+            String[] expected = new String[(count + step - 1) / step];
+            for (int i = 0; i < expected.length; i++) {
+                expected[i] = String.format("key%02d", i * step);
+            }
+
+            QueryResult result = new Conjunction(index.performQuery(query1), index.performQuery(query2));
+            assertResultIds(result, expected);
+        }
+    }
+
     @Test
     public void testMinMaxRanges() throws Exception {
         final String INDEX_NAME = "minmaxranges";
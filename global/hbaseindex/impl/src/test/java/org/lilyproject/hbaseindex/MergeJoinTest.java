@@ -55,6 +55,41 @@ public class MergeJoinTest {
         assertNull(result.next());
     }
 
+    @Test
+    public void testSkipTo() throws Exception {
+        String[] values1 = {"a", "b", "c", "f", "g", "h"};
+        String[] values2 = {"b", "c", "d", "e", "f", "h"};
+
+        QueryResult result = new Conjunction(buildQueryResult(values1), buildQueryResult(values2));
+        assertEquals("c", Bytes.toString(result.skipTo(Bytes.toBytes("bb"))));
+        assertEquals("f", Bytes.toString(result.skipTo(Bytes.toBytes("c"))));
+        assertEquals("h", Bytes.toString(result.next()));
+        assertNull(result.skipTo(Bytes.toBytes("i")));
+
+        result = new Disjunction(buildQueryResult(values1), buildQueryResult(values2));
+        assertEquals("a", Bytes.toString(result.next()));
+        assertEquals("b", Bytes.toString(result.next()));
+        assertEquals("d", Bytes.toString(result.skipTo(Bytes.toBytes("d"))));
+        assertEquals("f", Bytes.toString(result.skipTo(Bytes.toBytes("ee"))));
+        assertEquals("g", Bytes.toString(result.next()));
+        assertNull(result.skipTo(Bytes.toBytes("i")));
+    }
+
+    @Test
+    public void testConjunctionOfDisjunction() throws Exception {
+        String[] values1 = {"a", "c", "e", "g"};
+        String[] values2 = {"b", "d", "f"};
+        String[] values3 = {"a", "d", "e", "z"};
+
+        QueryResult result = new Conjunction(buildQueryResult(values3),
+                new Disjunction(buildQueryResult(values1), buildQueryResult(values2)));
+
+        assertEquals("a", Bytes.toString(result.next()));
+        assertEquals("d", Bytes.toString(result.next()));
+        assertEquals("e", Bytes.toString(result.next()));
+        assertNull(result.next());
+    }
+
     private QueryResult buildQueryResult(String[] values) {
         List<byte[]> byteValues = new ArrayList<byte[]>(values.length);
 
@@ -23,6 +23,7 @@ import org.apache.commons.cli.Option;
 import org.apache.commons.cli.OptionBuilder;
 import org.apache.hadoop.conf.Configuration;
 import org.lilyproject.cli.OptionUtil;
+import org.lilyproject.hbaseindex.Conjunction;
 import org.lilyproject.hbaseindex.Index;
 import org.lilyproject.hbaseindex.IndexDefinition;
 import org.lilyproject.hbaseindex.IndexEntry;
@@ -39,6 +40,14 @@ import org.lilyproject.util.Version;
 public class HbaseIndexPerfTest extends BaseTestTool {
     private Index index;
 
+    /**
+     * Index on which each entry has a tag with its word and the tag shared by all entries, for skewed
+     * intersections.
+     */
+    private Index tagIndex;
+
+    private static final String ALL_TAG = "all";
+
     private IdGenerator idGenerator = new IdGeneratorImpl();
 
     private Option initialInsertOption;
@@ -116,6 +125,11 @@ public class HbaseIndexPerfTest extends BaseTestTool {
 
         index = indexMgr.getIndex(indexDef);
 
+        IndexDefinition tagIndexDef = new IndexDefinition(indexName + "-tags");
+        tagIndexDef.addStringField("tag");
+
+        tagIndex = indexMgr.getIndex(tagIndexDef);
+
         initialInserts = OptionUtil.getIntOption(cmd, initialInsertOption, 5000000);
         initialInsertsBatchSize = OptionUtil.getIntOption(cmd, initialInsertBatchOption, 300);
         loops = OptionUtil.getIntOption(cmd, loopsOption, 100000);
@@ -158,6 +172,7 @@ public class HbaseIndexPerfTest extends BaseTestTool {
             executor.submit(new BulkInserter(1));
             executor.submit(new StringRangeQuery());
             executor.submit(new BulkInserter(5));
+            executor.submit(new SkewedConjunctionQuery());
         }
 
         stopExecutor();
@@ -174,19 +189,66 @@ public class HbaseIndexPerfTest extends BaseTestTool {
         public void run() {
             try {
                 List<IndexEntry> entries = new ArrayList<IndexEntry>(amount);
+                List<IndexEntry> tagEntries = new ArrayList<IndexEntry>(2 * amount);
 
                 for (int i = 0; i < amount; i++) {
+                    String word = Words.get();
+                    byte[] identifier = idGenerator.newRecordId().toBytes();
+
                     IndexEntry entry = new IndexEntry(index.getDefinition());
-                    entry.addField("word", Words.get());
+                    entry.addField("word", word);
                     entry.addField("number", (long) Math.floor(Math.random() * Long.MAX_VALUE));
-                    entry.setIdentifier(idGenerator.newRecordId().toBytes());
+                    entry.setIdentifier(identifier);
                     entries.add(entry);
+
+                    tagEntries.add(createTagEntry(word, identifier));
+                    tagEntries.add(createTagEntry(ALL_TAG, identifier));
                 }
 
                 long before = System.nanoTime();
                 index.addEntries(entries);
                 double duration = System.nanoTime() - before;
                 metrics.increment("Index insert in batch of " + amount, "I", amount, duration / 1e6d);
+
+                tagIndex.addEntries(tagEntries);
+            } catch (Throwable t) {
+                t.printStackTrace();
+            }
+        }
+    }
+
+    private IndexEntry createTagEntry(String tag, byte[] identifier) {
+        IndexEntry entry = new IndexEntry(tagIndex.getDefinition());
+        entry.addField("tag", tag);
+        entry.setIdentifier(identifier);
+        return entry;
+    }
+
+    /**
+     * Intersects the few entries tagged with a word with all entries, which shows how well the intersection skips
+     * over the rows of the unselective query.
+     */
+    private class SkewedConjunctionQuery implements Runnable {
+        @Override
+        public void run() {
+            try {
+                Query wordQuery = new Query();
+                wordQuery.addEqualsCondition("tag", Words.get());
+
+                Query allQuery = new Query();
+                allQuery.addEqualsCondition("tag", ALL_TAG);
+
+                int resultCount = 0;
+
+                long before = System.nanoTime();
+                QueryResult result = new Conjunction(tagIndex.performQuery(wordQuery), tagIndex.performQuery(allQuery));
+                while (result.next() != null && resultCount < maxResults) {
+                    resultCount++;
+                }
+                double duration = System.nanoTime() - before;
+                metrics.increment("Skewed conjunction query duration", "Q", duration / 1e6d);
+                metrics.increment("Skewed conjunction query # of results", resultCount);
+                result.close();
             } catch (Throwable t) {
                 t.printStackTrace();
             }
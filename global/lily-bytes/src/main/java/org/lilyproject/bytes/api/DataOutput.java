@@ -15,6 +15,8 @@
  */
 package org.lilyproject.bytes.api;
 
+import java.nio.ByteBuffer;
+
 /**
  * The <code>DataOutput</code> converts primitive types to bytes
  * and writes them to an underlying byte array.
@@ -47,6 +49,12 @@ public interface DataOutput {
      */
     void writeBytes(byte[] value);
 
+    /**
+     * Writes the remaining bytes of a ByteBuffer, which can also be a direct buffer, to the
+     * <code>DataOutput</code>. The position of the ByteBuffer is not changed.
+     */
+    void writeBytes(ByteBuffer value);
+
     /**
      * Writes a string to the <code>DataOutput</code>.
      *
@@ -15,6 +15,8 @@
  */
 package org.lilyproject.bytes.impl;
 
+import java.nio.ByteBuffer;
+
 import org.lilyproject.bytes.api.DataInput;
 
 /**
@@ -91,6 +93,25 @@ public class DataInputImpl implements DataInput {
         this.pos = 0;
     }
 
+    /**
+     * Constructor for the {@link DataInput} based on the remaining bytes of a ByteBuffer. The position of the
+     * ByteBuffer is not changed.
+     *
+     * <p>The bytes of a buffer backed by an accessible byte[] are read in place. Other buffers, such as direct
+     * buffers, are copied once, since the data is addressed by its position in a byte[] (see
+     * {@link #getStartPosition()}).</p>
+     */
+    public DataInputImpl(ByteBuffer source) {
+        this(source.hasArray() ? source.array() : copyRemaining(source),
+                source.hasArray() ? source.arrayOffset() + source.position() : 0, source.remaining());
+    }
+
+    private static byte[] copyRemaining(ByteBuffer source) {
+        byte[] bytes = new byte[source.remaining()];
+        source.duplicate().get(bytes);
+        return bytes;
+    }
+
     /**
      * Constructor for the {@link DataInput} based on an existing DataInputImpl.
      * Its source (the underlying byte[]) is the same as for the given dataInput.
@@ -15,6 +15,7 @@
  */
 package org.lilyproject.bytes.impl;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import org.lilyproject.bytes.api.DataOutput;
@@ -28,6 +29,10 @@ import org.lilyproject.bytes.api.DataOutput;
  *
  * <p>The underlying byte[] is resized when it is not large enough to contain the next value to be written.
  *
+ * <p>To avoid allocating a new byte[] for each value that is encoded, a thread can reuse its own instance
+ * through {@link #acquire(int)} and {@link #release()}. An instance can also be reused explicitly by
+ * calling {@link #reset(int)}.
+ *
  * <p>This implementation (especially #writeUTF()) is based on (and some pieces are copied from) the work
  *    done by Lucene in the methods <code>UTF16toUTF8</code> and <code>UTF8toUTF16</code>
  *    in <code>org.apache.lucene.util.UnicodeUtil.java</code> (revision 1030754),
@@ -48,17 +53,37 @@ public class DataOutputImpl implements DataOutput {
     private static final int SURROGATE_OFFSET =
         Character.MIN_SUPPLEMENTARY_CODE_POINT - (UNI_SUR_HIGH_START << HALF_SHIFT) - UNI_SUR_LOW_START;
 
+    private static final int DEFAULT_SIZE = 256;
+
+    /**
+     * The buffers of the thread-local instances are not kept when they have grown beyond this size, to avoid that
+     * every thread holds on to the memory of the largest value it has ever written.
+     */
+    private static final int MAX_RETAINED_SIZE = 64 * 1024;
+
+    private static final ThreadLocal<DataOutputImpl> THREAD_LOCAL_OUTPUT = new ThreadLocal<DataOutputImpl>() {
+        @Override
+        protected DataOutputImpl initialValue() {
+            DataOutputImpl output = new DataOutputImpl();
+            output.threadLocal = true;
+            return output;
+        }
+    };
+
     private byte[] buffer;
     /** The position at which the next item will be added. */
     private int pos = 0;
 
+    private boolean threadLocal;
+    private boolean inUse;
+
     /**
      * Default constructor.
      * When it is possible to give a good estimate of the number of bytes
      * that will be written, it is better to use {@link DataOutputImpl(int)}.
      */
     public DataOutputImpl() {
-        this(256);
+        this(DEFAULT_SIZE);
     }
 
     /**
@@ -70,11 +95,77 @@ public class DataOutputImpl implements DataOutput {
         buffer = new byte[sizeEstimate];
     }
 
+    /**
+     * Same as {@link #acquire(int)}, for when the number of bytes that will be written is not known.
+     */
+    public static DataOutputImpl acquire() {
+        return acquire(DEFAULT_SIZE);
+    }
+
+    /**
+     * Returns an empty <code>DataOutputImpl</code> for use by the current thread, reusing the instance of the thread
+     * when it is not in use. Should be followed by a call to {@link #release()} once the written bytes have been
+     * copied, for example with {@link #toByteArray()}. The instance should not be passed to other threads.
+     *
+     * <p>When the thread's instance is in use, as happens for nested values, a new instance is returned.</p>
+     *
+     * @param sizeHint expected number of bytes that will be written
+     */
+    public static DataOutputImpl acquire(int sizeHint) {
+        DataOutputImpl output = THREAD_LOCAL_OUTPUT.get();
+        if (output.inUse) {
+            return new DataOutputImpl(Math.max(sizeHint, 16));
+        }
+        output.inUse = true;
+        output.reset(sizeHint);
+        return output;
+    }
+
+    /**
+     * Gives an instance obtained from {@link #acquire(int)} back to its thread. Any buffers obtained from
+     * {@link #toByteBuffer()} are no longer valid afterwards.
+     */
+    public void release() {
+        if (threadLocal) {
+            inUse = false;
+            if (buffer.length > MAX_RETAINED_SIZE) {
+                buffer = new byte[DEFAULT_SIZE];
+            }
+            pos = 0;
+        }
+    }
+
+    /**
+     * Empties this <code>DataOutputImpl</code> so that it can be reused, keeping the underlying byte[] if it is
+     * large enough for the given number of bytes.
+     */
+    public void reset(int sizeHint) {
+        pos = 0;
+        if (buffer.length < sizeHint) {
+            buffer = new byte[sizeHint];
+        }
+    }
+
     @Override
     public byte[] toByteArray() {
         return Arrays.copyOfRange(buffer, 0, pos);
     }
 
+    /**
+     * Returns the written bytes without copying them. The returned buffer shares the underlying byte[], so it
+     * is only valid until the next write or reset.
+     */
+    public ByteBuffer toByteBuffer() {
+        return ByteBuffer.wrap(buffer, 0, pos);
+    }
+
+    /**
+     * Copies the written bytes to the given buffer, which can be a direct buffer, advancing its position.
+     */
+    public void writeTo(ByteBuffer target) {
+        target.put(buffer, 0, pos);
+    }
+
     /**
      * Checks if the buffer has enough space to put <code>len</code> bytes.
      * If not the buffer is resized to at least twice its current size.
@@ -108,6 +199,18 @@ public class DataOutputImpl implements DataOutput {
         pos += length;
     }
 
+    @Override
+    public void writeBytes(ByteBuffer bytes) {
+        int length = bytes.remaining();
+        assureSize(length);
+        if (bytes.hasArray()) {
+            System.arraycopy(bytes.array(), bytes.arrayOffset() + bytes.position(), buffer, pos, length);
+        } else {
+            bytes.duplicate().get(buffer, pos, length);
+        }
+        pos += length;
+    }
+
     /**
      * Encodes a string to (unmodified) UTF-8 bytes and puts it in the buffer.
      */
@@ -297,13 +400,13 @@ public class DataOutputImpl implements DataOutput {
     }
 
     /**
-    * Writes a long in a variable-length format. Writes between one and five
-    * bytes. Smaller values take fewer bytes. Negative numbers are not
-    * supported.
+    * Writes a long in a variable-length format. Writes between one and ten
+    * bytes. Smaller values take fewer bytes. Negative numbers are supported
+    * but always take ten bytes.
     */
     @Override
     public void writeVLong(long i) {
-        assureSize(5);
+        assureSize(10);
         writeVLongUnsafe(i);
     }
 
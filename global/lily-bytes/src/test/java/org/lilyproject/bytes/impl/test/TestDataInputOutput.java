@@ -15,6 +15,7 @@
  */
 package org.lilyproject.bytes.impl.test;
 
+import java.nio.ByteBuffer;
 import java.util.Random;
 
 import junit.framework.TestCase;
@@ -203,4 +204,54 @@ public class TestDataInputOutput extends TestCase {
         Assert.assertEquals(-1, new DataInputImpl(source, 7, 3).indexOf((byte) 0x00));
     }
 
+    public void testThreadLocalOutput() {
+        DataOutputImpl output = DataOutputImpl.acquire(16);
+        output.writeUTF("outer");
+
+        // A nested acquire gets its own instance
+        DataOutputImpl nested = DataOutputImpl.acquire(16);
+        Assert.assertNotSame(output, nested);
+        nested.writeInt(5);
+        output.writeBytes(nested.toByteBuffer());
+        nested.release();
+
+        DataInput input = new DataInputImpl(output.toByteArray());
+        Assert.assertEquals("outer", input.readUTF());
+        Assert.assertEquals(5, input.readInt());
+        output.release();
+
+        // The released instance is reused, empty
+        DataOutputImpl reused = DataOutputImpl.acquire(16);
+        Assert.assertSame(output, reused);
+        Assert.assertEquals(0, reused.getSize());
+        reused.release();
+    }
+
+    public void testByteBuffers() {
+        DataOutputImpl output = new DataOutputImpl(4);
+        output.writeLong(123L);
+        output.writeVUTF("abc");
+
+        ByteBuffer slice = output.toByteBuffer();
+        Assert.assertEquals(output.getSize(), slice.remaining());
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(output.getSize() + 3);
+        direct.put(new byte[] {1, 2, 3});
+        output.writeTo(direct);
+        direct.flip();
+        direct.position(3);
+
+        for (ByteBuffer buffer : new ByteBuffer[] {slice, direct}) {
+            int position = buffer.position();
+            DataInput input = new DataInputImpl(buffer);
+            Assert.assertEquals(123L, input.readLong());
+            Assert.assertEquals("abc", input.readVUTF());
+            Assert.assertEquals(position, buffer.position());
+        }
+
+        DataOutputImpl copy = new DataOutputImpl();
+        copy.writeBytes(direct);
+        Assert.assertArrayEquals(output.toByteArray(), copy.toByteArray());
+    }
+
 }